@@ -1,6 +1,7 @@
 plugins {
     id("smithy-sparrowhawk-java.module-conventions")
     id("smithy-sparrowhawk-java.integ-test-conventions")
+    alias(libs.plugins.jmh)
 }
 
 description = "This module provides the codegen functionality for Smithy Sparrowhawk"
@@ -14,3 +15,26 @@ dependencies {
     implementation(project(":sparrowhawk-traits"))
     implementation(project(":sparrowhawk-types"))
 }
+
+jmh {
+    warmupIterations = 2
+    iterations = 5
+    fork = 1
+}
+
+// Generates the 300-member structure of WideStructureTest for the benchmarks to measure
+val generateWideStructure by tasks.registering(JavaExec::class) {
+    val output = layout.buildDirectory.dir("generated-src/jmh")
+    classpath = sourceSets["it"].runtimeClasspath
+    mainClass = "software.amazon.smithy.sparrowhawk.codegen.WideStructureSources"
+    argumentProviders.add(CommandLineArgumentProvider { listOf(output.get().asFile.path) })
+    outputs.dir(output)
+}
+
+sourceSets {
+    named("jmh") {
+        java {
+            srcDir(generateWideStructure)
+        }
+    }
+}
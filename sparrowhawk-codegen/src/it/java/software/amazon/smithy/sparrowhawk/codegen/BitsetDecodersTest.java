@@ -0,0 +1,158 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package software.amazon.smithy.sparrowhawk.codegen;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+import java.lang.reflect.Method;
+import java.nio.file.Path;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import software.amazon.smithy.java.sparrowhawk.SparrowhawkDeserializer;
+import software.amazon.smithy.java.sparrowhawk.SparrowhawkObject;
+import software.amazon.smithy.java.sparrowhawk.SparrowhawkSerializer;
+import software.amazon.smithy.model.node.Node;
+
+/**
+ * Generates a structure with the {@code bitsetDecoders} setting, which decodes every field set by walking its set
+ * bits, and round-trips it through both its own encoding and the encoding of the same structure generated without
+ * the setting.
+ */
+public class BitsetDecodersTest {
+    private static final int MEMBERS = 200;
+    private static final String[] TARGETS = {"Integer", "String", "Double", "Long", "Point", "Points"};
+
+    @TempDir
+    Path out;
+
+    @Test
+    public void bitsetDecodersRoundtrip() throws Exception {
+        GeneratedCode bitset = GeneratedCode.generate(
+            out.resolve("bitset"),
+            "Bits",
+            model(),
+            Node.objectNodeBuilder().withMember("bitsetDecoders", true).build()
+        );
+        GeneratedCode plain = GeneratedCode.generate(out.resolve("plain"), "Bits", model(), Node.objectNode());
+        Class<?> type = bitset.load("SparrowhawkBitsStructure");
+
+        SparrowhawkObject expected = populate(type);
+        assertNotEquals(type.getConstructor().newInstance(), expected);
+        assertEquals(expected, decode(type, encode(expected)));
+        assertEquals(expected, decode(type, encode(populate(plain.load("SparrowhawkBitsStructure")))));
+        SparrowhawkObject empty = (SparrowhawkObject) type.getConstructor().newInstance();
+        assertEquals(empty, decode(type, encode(empty)));
+    }
+
+    /**
+     * Returns a structure with two of every three members set, so each field set has gaps for the walk to skip.
+     */
+    private static SparrowhawkObject populate(Class<?> type) throws ReflectiveOperationException {
+        SparrowhawkObject s = (SparrowhawkObject) type.getConstructor().newInstance();
+        for (int i = 0; i < MEMBERS; i++) {
+            if (i % 3 == 1) {
+                continue;
+            }
+            Method setter = setter(type, "setM" + i);
+            Class<?> param = setter.getParameterTypes()[0];
+            Object value;
+            if (param == int.class || param == Integer.class) {
+                value = -i;
+            } else if (param == long.class || param == Long.class) {
+                value = (long) i << 40;
+            } else if (param == double.class || param == Double.class) {
+                value = i + 0.5d;
+            } else if (param == String.class) {
+                value = "m" + i;
+            } else if (param == List.class) {
+                value = List.of(point(type, i), point(type, i + 1));
+            } else {
+                value = point(type, i);
+            }
+            setter.invoke(s, value);
+        }
+        return s;
+    }
+
+    private static Object point(Class<?> structure, int x) throws ReflectiveOperationException {
+        Class<?> type = Class.forName("smithy.example.sparrowhawk.SparrowhawkPoint", true, structure.getClassLoader());
+        Object point = type.getConstructor().newInstance();
+        setter(type, "setX").invoke(point, x);
+        return point;
+    }
+
+    private static Method setter(Class<?> type, String name) {
+        for (Method m : type.getMethods()) {
+            if (m.getName().equals(name) && m.getParameterCount() == 1) {
+                return m;
+            }
+        }
+        throw new AssertionError(type + " has no " + name);
+    }
+
+    private static byte[] encode(SparrowhawkObject o) {
+        SparrowhawkSerializer s = new SparrowhawkSerializer(o.size());
+        o.encodeTo(s);
+        return s.payload();
+    }
+
+    private static SparrowhawkObject decode(Class<?> type, byte[] payload) throws ReflectiveOperationException {
+        SparrowhawkObject o = (SparrowhawkObject) type.getConstructor().newInstance();
+        SparrowhawkDeserializer d = new SparrowhawkDeserializer(payload);
+        o.decodeFrom(d);
+        d.done();
+        return o;
+    }
+
+    /**
+     * Returns a model of one structure of 200 optional members, cycling through varint, string, eight-byte,
+     * structure and structure list members, whose 67 varints take two field sets.
+     */
+    private static String model() {
+        StringBuilder model = new StringBuilder("""
+            $version: "2.0"
+
+            namespace smithy.example
+
+            use smithy.protocols#idx
+            use smithy.protocols#indexed
+
+            @indexed
+            service Bits {
+                version: "1"
+                operations: [Encode]
+            }
+
+            operation Encode {
+                input := {
+                    @idx(1)
+                    bits: BitsStructure
+                }
+            }
+
+            list Points {
+                member: Point
+            }
+
+            structure Point {
+                @idx(1)
+                x: Integer
+
+                @idx(2)
+                label: String
+            }
+
+            structure BitsStructure {
+            """);
+        for (int i = 0; i < MEMBERS; i++) {
+            model.append("    @idx(").append(i + 1).append(")\n");
+            model.append("    m").append(i).append(": ").append(TARGETS[i % TARGETS.length]).append("\n\n");
+        }
+        return model.append("}\n").toString();
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package software.amazon.smithy.sparrowhawk.codegen;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+import javax.tools.ToolProvider;
+import software.amazon.smithy.build.FileManifest;
+import software.amazon.smithy.build.PluginContext;
+import software.amazon.smithy.model.Model;
+import software.amazon.smithy.model.node.Node;
+import software.amazon.smithy.model.node.ObjectNode;
+
+/**
+ * Runs the plugin over a model written in the IDL and compiles what it generates, for tests that check the
+ * generated code itself rather than hand-written copies of it.
+ */
+final class GeneratedCode {
+    private final Path classes;
+
+    private GeneratedCode(Path classes) {
+        this.classes = classes;
+    }
+
+    /**
+     * Generates code for the service {@code smithy.example#<service>} of {@code model} into {@code out}, with the
+     * given plugin settings besides the service, and compiles it.
+     */
+    static GeneratedCode generate(Path out, String service, String model, ObjectNode settings) {
+        Path sources = out.resolve("src");
+        writeSources(sources, service, model, settings);
+        try {
+            Path classes = Files.createDirectories(out.resolve("classes"));
+            List<String> args = new ArrayList<>(
+                List.of("-nowarn", "-classpath", System.getProperty("java.class.path"), "-d", classes.toString())
+            );
+            try (Stream<Path> files = Files.walk(sources)) {
+                files.filter(f -> f.toString().endsWith(".java")).forEach(f -> args.add(f.toString()));
+            }
+            int status = ToolProvider.getSystemJavaCompiler().run(null, null, null, args.toArray(new String[0]));
+            assertEquals(0, status, "generated sources do not compile");
+            return new GeneratedCode(classes);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Generates code for the service {@code smithy.example#<service>} of {@code model} into {@code sources} without
+     * compiling it.
+     */
+    static void writeSources(Path sources, String service, String model, ObjectNode settings) {
+        Model assembled = Model.assembler()
+            .discoverModels(GeneratedCode.class.getClassLoader())
+            .addUnparsedModel(service + ".smithy", model)
+            .assemble()
+            .unwrap();
+        new SparrowhawkCodegenPlugin().execute(
+            PluginContext.builder()
+                .model(assembled)
+                .fileManifest(FileManifest.create(sources))
+                .settings(
+                    settings.toBuilder()
+                        .withMember("service", "smithy.example#" + service)
+                        .withMember("useInstantForTimestamp", Node.from(false))
+                        .build()
+                )
+                .build()
+        );
+    }
+
+    /**
+     * Returns the class file of a generated type in {@code smithy.example.sparrowhawk}.
+     */
+    Path classFile(String simpleName) {
+        return classes.resolve("smithy/example/sparrowhawk/" + simpleName + ".class");
+    }
+
+    /**
+     * Loads a generated type in {@code smithy.example.sparrowhawk}.
+     */
+    Class<?> load(String simpleName) throws ClassNotFoundException {
+        try {
+            ClassLoader loader = new URLClassLoader(
+                new URL[] {classes.toUri().toURL()},
+                GeneratedCode.class.getClassLoader()
+            );
+            return Class.forName("smithy.example.sparrowhawk." + simpleName, true, loader);
+        } catch (MalformedURLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
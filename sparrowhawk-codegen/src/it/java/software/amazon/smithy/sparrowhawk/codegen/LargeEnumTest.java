@@ -0,0 +1,77 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package software.amazon.smithy.sparrowhawk.codegen;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import software.amazon.smithy.model.node.Node;
+
+/**
+ * Generates a string enum of thousands of values, which a single-seed perfect hash would need a table too large
+ * for a class file to hold, and looks every value up through the generated table.
+ */
+public class LargeEnumTest {
+    private static final int VALUES = 3000;
+
+    @TempDir
+    Path out;
+
+    @Test
+    public void largeEnumsCompileAndLookUpEveryValue() throws Exception {
+        GeneratedCode code = GeneratedCode.generate(out, "Kinds", model(), Node.objectNode());
+        Class<?> kind = code.load("SparrowhawkKind");
+        Method fromBytes = kind.getMethod("fromBytes", byte[].class, int.class, int.class);
+        Method fromValue = kind.getMethod("fromValue", String.class);
+        Method value = kind.getMethod("value");
+
+        Object[] constants = kind.getEnumConstants();
+        assertEquals(VALUES, constants.length);
+        for (Object constant : constants) {
+            String v = (String) value.invoke(constant);
+            byte[] b = ("x" + v).getBytes(StandardCharsets.UTF_8);
+            assertEquals(constant, fromBytes.invoke(null, b, 1, b.length - 1));
+            assertEquals(constant, fromValue.invoke(null, v));
+        }
+        byte[] unknown = "kind-unknown".getBytes(StandardCharsets.UTF_8);
+        assertNull(fromBytes.invoke(null, unknown, 0, unknown.length));
+    }
+
+    private static String model() {
+        StringBuilder model = new StringBuilder("""
+            $version: "2.0"
+
+            namespace smithy.example
+
+            use smithy.protocols#idx
+            use smithy.protocols#indexed
+
+            @indexed
+            service Kinds {
+                version: "1"
+                operations: [Classify]
+            }
+
+            operation Classify {
+                input := {
+                    @idx(1)
+                    kind: Kind
+                }
+            }
+
+            enum Kind {
+            """);
+        for (int i = 0; i < VALUES; i++) {
+            model.append("    K").append(i).append(" = \"kind-").append(i).append("\"\n");
+        }
+        return model.append("}\n").toString();
+    }
+}
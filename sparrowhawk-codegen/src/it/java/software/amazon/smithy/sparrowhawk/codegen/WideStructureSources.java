@@ -0,0 +1,21 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package software.amazon.smithy.sparrowhawk.codegen;
+
+import java.nio.file.Path;
+import software.amazon.smithy.model.node.Node;
+
+/**
+ * Writes the code generated for the structure of {@link WideStructureTest} into the directory given as the only
+ * argument. The build runs it to generate the sources the benchmarks in {@code src/jmh} measure.
+ */
+public final class WideStructureSources {
+    private WideStructureSources() {}
+
+    public static void main(String[] args) {
+        GeneratedCode.writeSources(Path.of(args[0]), "Wide", WideStructureTest.wideModel(), Node.objectNode());
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package software.amazon.smithy.sparrowhawk.codegen;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import software.amazon.smithy.model.node.Node;
+
+/**
+ * Generates a structure of 300 optional members, compiles it and checks with javap that none of its methods is
+ * past HotSpot's HugeMethodLimit, which is what the cost estimates in {@link StructureGenerator} are for.
+ */
+public class WideStructureTest {
+    private static final int HUGE_METHOD_LIMIT = 8000;
+    private static final int MEMBERS = 300;
+    private static final String[] TARGETS = {"Integer", "Long", "String", "Double", "Points"};
+    // a field, method or static initializer, of which only methods and initializers are followed by instructions
+    private static final Pattern MEMBER = Pattern.compile("^  \\S.*;$");
+    private static final Pattern INSTRUCTION = Pattern.compile("^\\s+(\\d+): ");
+
+    @TempDir
+    Path out;
+
+    @Test
+    public void wideStructureMethodsStayUnderHugeMethodLimit() {
+        GeneratedCode code = GeneratedCode.generate(out, "Wide", wideModel(), Node.objectNode());
+        Map<String, Integer> lengths = codeLengths(code.classFile("SparrowhawkWideStructure"));
+        assertTrue(lengths.size() > MEMBERS, "expected accessors for every member, found " + lengths.keySet());
+        for (var e : lengths.entrySet()) {
+            assertTrue(
+                e.getValue() < HUGE_METHOD_LIMIT,
+                e.getKey() + " has " + e.getValue() + " bytes of bytecode, past HugeMethodLimit"
+            );
+        }
+    }
+
+    /**
+     * Returns a model of one structure with 300 optional members, cycling through varint, string, eight-byte and
+     * structure list members so that every field set type has several field sets. {@link WideStructureSources}
+     * generates the same structure for the benchmarks.
+     */
+    static String wideModel() {
+        StringBuilder model = new StringBuilder("""
+            $version: "2.0"
+
+            namespace smithy.example
+
+            use smithy.protocols#idx
+            use smithy.protocols#indexed
+
+            @indexed
+            service Wide {
+                version: "1"
+                operations: [Encode]
+            }
+
+            operation Encode {
+                input := {
+                    @idx(1)
+                    wide: WideStructure
+                }
+            }
+
+            list Points {
+                member: Point
+            }
+
+            structure Point {
+                @idx(1)
+                x: Integer
+
+                @idx(2)
+                label: String
+            }
+
+            structure WideStructure {
+            """);
+        for (int i = 0; i < MEMBERS; i++) {
+            model.append("    @idx(").append(i + 1).append(")\n");
+            model.append("    m").append(i).append(": ").append(TARGETS[i % TARGETS.length]).append("\n\n");
+        }
+        return model.append("}\n").toString();
+    }
+
+    /**
+     * Returns the length of each method's bytecode, taken from the offset of its last instruction as javap prints
+     * it, which falls short by at most the length of that instruction.
+     */
+    private static Map<String, Integer> codeLengths(Path classFile) {
+        StringWriter listing = new StringWriter();
+        StringWriter errors = new StringWriter();
+        int status = java.util.spi.ToolProvider.findFirst("javap")
+            .orElseThrow()
+            .run(new PrintWriter(listing), new PrintWriter(errors), "-c", "-p", classFile.toString());
+        assertEquals(0, status, errors.toString());
+
+        Map<String, Integer> lengths = new LinkedHashMap<>();
+        String method = null;
+        for (String line : listing.toString().split("\n")) {
+            Matcher instruction = INSTRUCTION.matcher(line);
+            if (MEMBER.matcher(line).matches()) {
+                method = line.strip();
+            } else if (method != null && instruction.find()) {
+                lengths.put(method, Integer.parseInt(instruction.group(1)));
+            }
+        }
+        return lengths;
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package software.amazon.smithy.sparrowhawk.codegen;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import smithy.example.sparrowhawk.SparrowhawkPoint;
+import smithy.example.sparrowhawk.SparrowhawkWideStructure;
+import software.amazon.smithy.java.sparrowhawk.SparrowhawkDeserializer;
+import software.amazon.smithy.java.sparrowhawk.SparrowhawkSerializer;
+
+/**
+ * Measures the structure of 300 optional members that {@code WideStructureTest} checks the bytecode of, which the
+ * build generates with the current codegen before compiling the benchmarks, with every member set. Run with
+ * {@code ./gradlew :sparrowhawk-codegen:jmh}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class WideStructureBenchmark {
+    private SparrowhawkWideStructure full;
+    private byte[] payload;
+
+    @Setup
+    public void setup() throws ReflectiveOperationException {
+        SparrowhawkPoint point = new SparrowhawkPoint();
+        point.setX(3);
+        point.setLabel("point");
+        full = new SparrowhawkWideStructure();
+        // the setters cycle through the member types of the model, so set each by its parameter type
+        for (Method m : SparrowhawkWideStructure.class.getMethods()) {
+            if (!m.getName().startsWith("setM") || m.getParameterCount() != 1) {
+                continue;
+            }
+            Class<?> type = m.getParameterTypes()[0];
+            Object value;
+            if (type == int.class || type == Integer.class) {
+                value = 7;
+            } else if (type == long.class || type == Long.class) {
+                value = 1L << 40;
+            } else if (type == double.class || type == Double.class) {
+                value = 1.5d;
+            } else if (type == String.class) {
+                value = "value of " + m.getName();
+            } else {
+                value = List.of(point, point);
+            }
+            m.invoke(full, value);
+        }
+        payload = encode(full);
+    }
+
+    private static byte[] encode(SparrowhawkWideStructure s) {
+        SparrowhawkSerializer serializer = new SparrowhawkSerializer(s.size());
+        s.encodeTo(serializer);
+        return serializer.payload();
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return encode(full);
+    }
+
+    @Benchmark
+    public SparrowhawkWideStructure decode() {
+        SparrowhawkWideStructure s = new SparrowhawkWideStructure();
+        s.decodeFrom(new SparrowhawkDeserializer(payload));
+        return s;
+    }
+
+    @Benchmark
+    public String decodeAndGetOne() {
+        return decode().getM152();
+    }
+
+    @Benchmark
+    public byte[] decodeChangeOneAndEncode() {
+        SparrowhawkWideStructure s = decode();
+        s.setM152("changed");
+        return encode(s);
+    }
+}
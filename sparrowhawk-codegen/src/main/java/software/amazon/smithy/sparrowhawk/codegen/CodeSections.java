@@ -12,5 +12,9 @@ public final class CodeSections {
 
     public record EndClassSection(StructureGenerator generator) implements CodeSection {}
 
+    public record StartUnionSection(UnionGenerator generator) implements CodeSection {}
+
+    public record EndUnionSection(UnionGenerator generator) implements CodeSection {}
+
     private CodeSections() {}
 }
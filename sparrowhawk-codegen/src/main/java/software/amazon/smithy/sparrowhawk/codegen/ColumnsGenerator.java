@@ -0,0 +1,177 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package software.amazon.smithy.sparrowhawk.codegen;
+
+import java.util.ArrayList;
+import java.util.List;
+import software.amazon.smithy.codegen.core.Symbol;
+import software.amazon.smithy.codegen.core.SymbolProvider;
+import software.amazon.smithy.codegen.core.SymbolReference;
+import software.amazon.smithy.java.sparrowhawk.StructureColumns;
+import software.amazon.smithy.model.Model;
+import software.amazon.smithy.model.shapes.MemberShape;
+import software.amazon.smithy.model.shapes.Shape;
+
+/**
+ * Generates, next to a structure, a columnar decoder for lists of it, which reads each selected numeric or timestamp
+ * member into a primitive array and skips everything else.
+ *
+ * <p>The scan itself is {@link StructureColumns}; the generated class names its columns after the members and
+ * supplies their field set, bit and array type.
+ */
+public final class ColumnsGenerator {
+    private static final SymbolReference COLUMNS = CommonSymbols.imp(StructureColumns.class);
+
+    private final Shape shape;
+    private final Model model;
+    private final SymbolProvider symbolProvider;
+    private final List<MemberShape> members;
+
+    ColumnsGenerator(Shape shape, Model model, SymbolProvider symbolProvider) {
+        this.shape = shape;
+        this.model = model;
+        this.symbolProvider = symbolProvider;
+        this.members = columnMembers(shape, model);
+    }
+
+    static boolean supports(Shape shape, Model model) {
+        return shape.isStructureShape() && !columnMembers(shape, model).isEmpty();
+    }
+
+    static Symbol columnsSymbol(Symbol structure) {
+        return StructureWriterGenerator.companion(structure, "Columns");
+    }
+
+    private static List<MemberShape> columnMembers(Shape shape, Model model) {
+        List<MemberShape> members = new ArrayList<>();
+        for (MemberShape member : shape.members()) {
+            if (member.hasTrait(SparrowhawkFieldTrait.class) && kind(model.expectShape(member.getTarget())) != null) {
+                members.add(member);
+            }
+        }
+        return members;
+    }
+
+    private record Kind(String constant, String arrayType, String accessor) {}
+
+    private static Kind kind(Shape target) {
+        return switch (target.getType()) {
+            case BYTE, SHORT, INTEGER, INT_ENUM -> new Kind("INT", "int", "ints");
+            case LONG -> new Kind("LONG", "long", "longs");
+            case BOOLEAN -> new Kind("BOOLEAN", "boolean", "booleans");
+            case FLOAT -> new Kind("FLOAT", "float", "floats");
+            case DOUBLE, TIMESTAMP -> new Kind("DOUBLE", "double", "doubles");
+            default -> null;
+        };
+    }
+
+    void generate(JavaWriter writer) {
+        var symbol = symbolProvider.toSymbol(shape);
+        var name = columnsSymbol(symbol).getName();
+        writer.write("""
+            /**
+             * Decodes a list of {@link $1T} into one array per selected member, skipping the others. Members are
+             * selected before decoding; only their arrays are allocated, and they are reused by later decodes.
+             */""", symbol);
+        writer.openBlock("public final class $L {", "}", name, () -> {
+            writer.write("private final $1T $$columns = new $1T();", COLUMNS);
+            for (var member : members) {
+                writer.write("private int $L = -1;", fieldName(member));
+            }
+            writer.write("");
+
+            for (var member : members) {
+                var trait = member.expectTrait(SparrowhawkFieldTrait.class);
+                var kind = kind(model.expectShape(member.getTarget()));
+                writer.openBlock("public $L select$L() {", "}\n", name, methodName(member), () -> {
+                    writer.openBlock("if ($L < 0) {", "}", fieldName(member), () -> {
+                        writer.write(
+                            "$L = $$columns.select($T, $L, $L, $T.$L, $L);",
+                            fieldName(member),
+                            wireType(trait.getType()),
+                            trait.getFieldSetIdx(),
+                            trait.getTypeIdx() - 1,
+                            COLUMNS,
+                            kind.constant(),
+                            !trait.isRequired()
+                        );
+                    });
+                    writer.write("return this;");
+                });
+            }
+
+            writer.write("""
+                public void decodeFrom($T d) {
+                    $$columns.decodeFrom(d);
+                }
+
+                /**
+                 * Returns the number of structures in the last list decoded.
+                 */
+                public int rows() {
+                    return $$columns.rows();
+                }
+                """, CommonSymbols.SparrowhawkDeserializer);
+
+            for (var member : members) {
+                var target = model.expectShape(member.getTarget());
+                var kind = kind(target);
+                var trait = member.expectTrait(SparrowhawkFieldTrait.class);
+                writer.write("""
+                    /**
+                     * Returns $L by row$L.
+                     */""",
+                    target.isTimestampShape()
+                        ? writer.format("{@code $L} in epoch seconds", member.getMemberName())
+                        : writer.format("{@code $L}", member.getMemberName()),
+                    trait.isRequired() ? "" : ", with unspecified values in rows it is absent from"
+                );
+                writer.openBlock("public $L[] get$L() {", "}\n", kind.arrayType(), methodName(member), () -> {
+                    writer.write(
+                        "return $$columns.$L($$column($L, $S));",
+                        kind.accessor(),
+                        fieldName(member),
+                        member.getMemberName()
+                    );
+                });
+                if (!trait.isRequired()) {
+                    writer.openBlock("public boolean has$L(int row) {", "}\n", methodName(member), () -> {
+                        writer.write(
+                            "return $$columns.isPresent($$column($L, $S), row);",
+                            fieldName(member),
+                            member.getMemberName()
+                        );
+                    });
+                }
+            }
+
+            writer.write("""
+                private static int $$column(int column, String member) {
+                    if (column < 0) {
+                        throw new IllegalStateException("'" + member + "' is not selected");
+                    }
+                    return column;
+                }""");
+        });
+    }
+
+    private static SymbolReference wireType(FieldType type) {
+        return switch (type) {
+            case VARINT -> CommonSymbols.T_VARINT;
+            case FOUR_BYTE -> CommonSymbols.T_FOUR;
+            case EIGHT_BYTE -> CommonSymbols.T_EIGHT;
+            case LIST -> CommonSymbols.T_LIST;
+        };
+    }
+
+    private String fieldName(MemberShape member) {
+        return symbolProvider.toMemberName(member);
+    }
+
+    private String methodName(MemberShape member) {
+        return symbolProvider.toSymbol(member).expectProperty("methodName", String.class);
+    }
+}
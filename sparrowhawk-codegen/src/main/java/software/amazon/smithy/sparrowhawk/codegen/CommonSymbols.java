@@ -49,6 +49,12 @@ public final class CommonSymbols {
     public static final SymbolReference SimpleEntry = imp("java.util.AbstractMap", "SimpleEntry");
     public static final SymbolReference Object = imp("java.lang", "Object");
     public static final SymbolReference Objects = imp("java.util", "Objects");
+    public static final SymbolReference Arrays = imp("java.util", "Arrays");
+    public static final SymbolReference VarHandle = imp("java.lang.invoke", "VarHandle");
+    public static final SymbolReference Collections = imp("java.util", "Collections");
+    public static final SymbolReference ArrayList = imp("java.util", "ArrayList");
+    public static final SymbolReference LinkedHashMap = imp("java.util", "LinkedHashMap");
+    public static final SymbolReference LinkedHashSet = imp("java.util", "LinkedHashSet");
     public static final SymbolReference missingField = staticImp(
         "software.amazon.smithy.java.sparrowhawk.SparrowhawkSerializer",
         "missingField"
@@ -73,6 +79,10 @@ public final class CommonSymbols {
         "software.amazon.smithy.java.sparrowhawk.SparrowhawkSerializer",
         "byteListLengthEncodedSize"
     );
+    public static final SymbolReference stringEncodedSize = staticImp(
+        "software.amazon.smithy.java.sparrowhawk.SparrowhawkSerializer",
+        "stringEncodedSize"
+    );
     public static final SymbolReference lenPrefixedListLengthEncodedSize = staticImp(
         "software.amazon.smithy.java.sparrowhawk.SparrowhawkSerializer",
         "lenPrefixedListLengthEncodedSize"
@@ -89,6 +99,10 @@ public final class CommonSymbols {
         "software.amazon.smithy.java.sparrowhawk.KConstants",
         "encodeVarintListLength"
     );
+    public static final SymbolReference varintLength = staticImp(
+        "software.amazon.smithy.java.sparrowhawk.SparrowhawkDeserializer",
+        "varintLength"
+    );
     public static final SymbolReference encodeByteListLength = staticImp(
         "software.amazon.smithy.java.sparrowhawk.KConstants",
         "encodeByteListLength"
@@ -138,6 +152,14 @@ public final class CommonSymbols {
         "software.amazon.smithy.java.sparrowhawk",
         "SparrowhawkObject"
     );
+    public static final SymbolReference SparrowhawkStructure = imp(
+        "software.amazon.smithy.java.sparrowhawk",
+        "SparrowhawkStructure"
+    );
+    public static final SymbolReference SparrowhawkException = imp(
+        "software.amazon.smithy.java.sparrowhawk",
+        "SparrowhawkException"
+    );
     public static final SymbolReference SparrowhawkSerializer = imp(
         "software.amazon.smithy.java.sparrowhawk",
         "SparrowhawkSerializer"
@@ -161,6 +183,13 @@ public final class CommonSymbols {
     );
     public static final SymbolReference StringMap = imp("software.amazon.smithy.java.sparrowhawk", "StringMap");
     public static final SymbolReference StructureMap = imp("software.amazon.smithy.java.sparrowhawk", "StructureMap");
+    public static final SymbolReference StructureList = imp("software.amazon.smithy.java.sparrowhawk", "StructureList");
+    public static final SymbolReference NestedSizes = imp("software.amazon.smithy.java.sparrowhawk", "NestedSizes");
+    public static final SymbolReference UnknownFields = imp("software.amazon.smithy.java.sparrowhawk", "UnknownFields");
+    public static final SymbolReference StructureMerge = imp(
+        "software.amazon.smithy.java.sparrowhawk",
+        "StructureMerge"
+    );
 
     public static final SymbolReference FLOW_PUBLISHER = Symbol.builder()
         .namespace("java.util.concurrent.Flow", ".")
@@ -9,6 +9,7 @@ import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
+import software.amazon.smithy.codegen.core.Symbol;
 import software.amazon.smithy.codegen.core.SymbolProvider;
 import software.amazon.smithy.codegen.core.directed.*;
 import software.amazon.smithy.model.Model;
@@ -68,26 +69,117 @@ public final class DirectedSparrowhawkCodegen implements
                 directive.settings()
             ).run();
         });
+
+        if (directive.settings().streamingWriters()
+            && StructureWriterGenerator.supports(directive.shape(), directive.model())) {
+            var generator = new StructureWriterGenerator(
+                directive.shape(),
+                directive.model(),
+                directive.context().symbolProvider(),
+                directive.settings()
+            );
+            var symbol = directive.context().symbolProvider().toSymbol(directive.shape());
+            var source = StructureWriterGenerator.sourceSymbol(symbol);
+            var writer = StructureWriterGenerator.writerSymbol(symbol);
+            directive.context()
+                .writerDelegator()
+                .useFileWriter(source.getDefinitionFile(), source.getNamespace(), generator::generateSource);
+            directive.context()
+                .writerDelegator()
+                .useFileWriter(writer.getDefinitionFile(), writer.getNamespace(), generator::generateWriter);
+        }
+
+        if (directive.settings().convertedRecords() && RecordGenerator.supports(directive.shape(), directive.model())) {
+            var generator = new RecordGenerator(
+                directive.shape(),
+                directive.model(),
+                directive.context().symbolProvider(),
+                directive.settings()
+            );
+            var record = RecordGenerator.recordSymbol(directive.context().symbolProvider().toSymbol(directive.shape()));
+            directive.context()
+                .writerDelegator()
+                .useFileWriter(record.getDefinitionFile(), record.getNamespace(), generator::generate);
+        }
+
+        if (directive.settings().columnarDecoders()
+            && ColumnsGenerator.supports(directive.shape(), directive.model())) {
+            var generator = new ColumnsGenerator(
+                directive.shape(),
+                directive.model(),
+                directive.context().symbolProvider()
+            );
+            var columns = ColumnsGenerator.columnsSymbol(
+                directive.context().symbolProvider().toSymbol(directive.shape())
+            );
+            directive.context()
+                .writerDelegator()
+                .useFileWriter(columns.getDefinitionFile(), columns.getNamespace(), generator::generate);
+        }
     }
 
     @Override
     public void generateError(GenerateErrorDirective<GenerationContext, SparrowhawkSettings> directive) {
         generate(directive);
+
+        if (directive.settings().stacklessErrors()) {
+            var generator = new ExceptionGenerator(
+                directive.shape(),
+                directive.model(),
+                directive.context().symbolProvider()
+            );
+            var exception = ExceptionGenerator.exceptionSymbol(
+                directive.context().symbolProvider().toSymbol(directive.shape())
+            );
+            directive.context()
+                .writerDelegator()
+                .useFileWriter(exception.getDefinitionFile(), exception.getNamespace(), generator::generate);
+        }
     }
 
     @Override
     public void generateUnion(GenerateUnionDirective<GenerationContext, SparrowhawkSettings> directive) {
-        generate(directive);
+        if (!UnionGenerator.supports(directive.shape(), directive.model())) {
+            generate(directive);
+            return;
+        }
+
+        directive.context().writerDelegator().useShapeWriter(directive.shape(), writer -> {
+            new UnionGenerator(
+                directive.shape(),
+                directive.model(),
+                directive.context().symbolProvider(),
+                writer,
+                directive.settings()
+            ).run();
+        });
     }
 
     @Override
     public void generateEnumShape(GenerateEnumDirective<GenerationContext, SparrowhawkSettings> directive) {
-
+        // string shapes with the legacy enum trait stay plain strings
+        if (directive.shape().isEnumShape()) {
+            generateEnum(directive);
+        }
     }
 
     @Override
     public void generateIntEnumShape(GenerateIntEnumDirective<GenerationContext, SparrowhawkSettings> directive) {
+        generateEnum(directive);
+    }
 
+    private static void generateEnum(
+        ShapeDirective<? extends Shape, GenerationContext, SparrowhawkSettings> directive
+    ) {
+        var enumSymbol = directive.context()
+            .symbolProvider()
+            .toSymbol(directive.shape())
+            .expectProperty("enumSymbol", Symbol.class);
+        directive.context()
+            .writerDelegator()
+            .useFileWriter(enumSymbol.getDefinitionFile(), enumSymbol.getNamespace(), writer -> {
+                new EnumGenerator(directive.shape(), enumSymbol, writer).run();
+            });
     }
 
     private static Model preprocess(Model model) {
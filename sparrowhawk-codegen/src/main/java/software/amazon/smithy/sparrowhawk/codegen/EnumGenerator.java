@@ -0,0 +1,200 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package software.amazon.smithy.sparrowhawk.codegen;
+
+import static software.amazon.smithy.sparrowhawk.codegen.CommonSymbols.byteListLengthEncodedSize;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import javax.lang.model.SourceVersion;
+import software.amazon.smithy.codegen.core.CodegenException;
+import software.amazon.smithy.codegen.core.Symbol;
+import software.amazon.smithy.codegen.core.SymbolReference;
+import software.amazon.smithy.java.sparrowhawk.EnumValueTable;
+import software.amazon.smithy.model.shapes.EnumShape;
+import software.amazon.smithy.model.shapes.IntEnumShape;
+import software.amazon.smithy.model.shapes.Shape;
+
+/**
+ * Generates a Java enum for an enum or intEnum shape.
+ *
+ * <p>String enums get a perfect hash over their encoded values, whose displacements are found here at generation
+ * time, so a decoded field is matched to its constant without allocating a String. Only the displacements, about
+ * one for every four values, are emitted, and lookups by String go through the table too rather than a switch, so
+ * the lookups add little to the class however many values there are. Int enums are looked up by value through an
+ * array when the values are dense, and a switch otherwise. Values that match no constant are reported as null by
+ * the lookups; the structures keep the raw value, so unknown values still round-trip unchanged.
+ */
+public final class EnumGenerator implements Runnable {
+    // int enums whose values span more than this many slots per constant use a switch instead of an array
+    private static final int MAX_SPREAD = 4;
+    private static final SymbolReference TABLE_SYMBOL = CommonSymbols.imp(EnumValueTable.class);
+
+    private final Shape shape;
+    private final Symbol symbol;
+    private final JavaWriter writer;
+
+    EnumGenerator(Shape shape, Symbol symbol, JavaWriter writer) {
+        this.shape = shape;
+        this.symbol = symbol;
+        this.writer = writer;
+    }
+
+    @Override
+    public void run() {
+        writer.openBlock("public enum $L {", "}", symbol.getName(), () -> {
+            if (shape instanceof IntEnumShape intEnum) {
+                generateIntEnum(intEnum.getEnumValues());
+            } else {
+                generateStringEnum(((EnumShape) shape).getEnumValues());
+            }
+        });
+    }
+
+    private void generateStringEnum(Map<String, String> values) {
+        List<String> names = new ArrayList<>(values.keySet());
+        for (int i = 0; i < names.size(); i++) {
+            String name = names.get(i);
+            writer.write("$L($S)$L", constantName(name), values.get(name), terminator(i, names.size()));
+        }
+
+        writer.write("private static final $1T<$2L> $$TABLE = new $1T<>(", TABLE_SYMBOL, symbol.getName());
+        writer.indent().write("values(),");
+        writer.write("new int[] {$L},", displacements(names, values));
+        writer.write("$L::value", symbol.getName());
+        writer.dedent().write(");\n");
+
+        writer.write("""
+            private final String value;
+            private final byte[] bytes;
+
+            $L(String value) {
+                this.value = value;
+                this.bytes = value.getBytes($T);
+            }
+
+            public String value() {
+                return value;
+            }
+            """, symbol.getName(), CommonSymbols.UTF_8);
+
+        writer.write("""
+            /**
+             * Looks up a constant by its value, returning null if the value is unknown.
+             */
+            public static $1L fromValue(String value) {
+                return $$TABLE.lookup(value);
+            }
+
+            /**
+             * Looks up a constant by its UTF-8 encoded value, returning null if the value is unknown.
+             */
+            public static $1L fromBytes(byte[] b, int off, int len) {
+                return $$TABLE.lookup(b, off, len);
+            }
+
+            /**
+             * Reads a string field, returning its constant, or the decoded string if the value is unknown.
+             */
+            public static Object decode($2T d) {
+                return $$TABLE.decode(d);
+            }
+
+            public int encodedSize() {
+                return $3T(bytes.length);
+            }
+
+            public void encodeTo($4T s) {
+                s.writeBytes(bytes);
+            }""",
+            symbol.getName(),
+            CommonSymbols.SparrowhawkDeserializer,
+            byteListLengthEncodedSize,
+            CommonSymbols.SparrowhawkSerializer
+        );
+    }
+
+    /**
+     * Returns the displacements of the perfect hash over the encoded values, as the elements of an int array.
+     */
+    private String displacements(List<String> names, Map<String, String> values) {
+        byte[][] keys = new byte[names.size()][];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = values.get(names.get(i)).getBytes(StandardCharsets.UTF_8);
+        }
+        int[] displacements;
+        try {
+            displacements = EnumValueTable.displacements(keys);
+        } catch (IllegalArgumentException e) {
+            throw new CodegenException("no perfect hash found for " + shape.getId(), e);
+        }
+        StringBuilder elements = new StringBuilder();
+        for (int i = 0; i < displacements.length; i++) {
+            elements.append(i == 0 ? "" : ", ").append(displacements[i]);
+        }
+        return elements.toString();
+    }
+
+    private void generateIntEnum(Map<String, Integer> values) {
+        List<String> names = new ArrayList<>(values.keySet());
+        for (int i = 0; i < names.size(); i++) {
+            String name = names.get(i);
+            writer.write("$L($L)$L", constantName(name), values.get(name), terminator(i, names.size()));
+        }
+
+        int min = values.values().stream().mapToInt(Integer::intValue).min().orElse(0);
+        int max = values.values().stream().mapToInt(Integer::intValue).max().orElse(-1);
+        long spread = (long) max - min + 1;
+        boolean dense = spread <= (long) Math.max(1, names.size()) * MAX_SPREAD;
+        if (dense) {
+            String[] slots = new String[(int) Math.max(0, spread)];
+            Arrays.fill(slots, "null");
+            for (String name : names) {
+                slots[values.get(name) - min] = constantName(name);
+            }
+            writer.write("private static final int $$MIN = $L;", min);
+            writer.write("private static final $L[] $$BY_VALUE = {$L};\n", symbol.getName(), String.join(", ", slots));
+        }
+
+        writer.write("""
+            private final int value;
+
+            $L(int value) {
+                this.value = value;
+            }
+
+            public int value() {
+                return value;
+            }
+            """, symbol.getName());
+
+        writer.openBlock("public static $L fromValue(int value) {", "}", symbol.getName(), () -> {
+            if (dense) {
+                writer.write("""
+                    int i = value - $$MIN;
+                    return i >= 0 && i < $$BY_VALUE.length ? $$BY_VALUE[i] : null;""");
+            } else {
+                writer.openBlock("return switch (value) {", "};", () -> {
+                    for (String name : names) {
+                        writer.write("case $L -> $L;", values.get(name), constantName(name));
+                    }
+                    writer.write("default -> null;");
+                });
+            }
+        });
+    }
+
+    private static String terminator(int i, int count) {
+        return i == count - 1 ? ";\n" : ",";
+    }
+
+    private static String constantName(String memberName) {
+        return SourceVersion.isKeyword(memberName) ? "_" + memberName : memberName;
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package software.amazon.smithy.sparrowhawk.codegen;
+
+import software.amazon.smithy.codegen.core.Symbol;
+import software.amazon.smithy.codegen.core.SymbolProvider;
+import software.amazon.smithy.model.Model;
+import software.amazon.smithy.model.shapes.MemberShape;
+import software.amazon.smithy.model.shapes.Shape;
+
+/**
+ * Generates, next to an error structure, an exception carrying it. The exception skips capturing a stack trace, and
+ * one decoded off the wire keeps the structure encoded until it is asked for.
+ *
+ * <p>Both are done by {@link software.amazon.smithy.java.sparrowhawk.SparrowhawkException}; the generated class
+ * supplies the structure's constructor through {@code newError()}, so decoding needs no reflection, narrows
+ * {@code error()} to the structure, and takes its message from the structure's {@code message} member if it has one.
+ */
+public final class ExceptionGenerator {
+    private final Shape shape;
+    private final Model model;
+    private final SymbolProvider symbolProvider;
+
+    ExceptionGenerator(Shape shape, Model model, SymbolProvider symbolProvider) {
+        this.shape = shape;
+        this.model = model;
+        this.symbolProvider = symbolProvider;
+    }
+
+    static Symbol exceptionSymbol(Symbol structure) {
+        return StructureWriterGenerator.companion(structure, "Exception");
+    }
+
+    private MemberShape messageMember() {
+        for (MemberShape member : shape.members()) {
+            if (member.getMemberName().equals("message") && member.hasTrait(SparrowhawkFieldTrait.class)) {
+                var target = model.expectShape(member.getTarget());
+                if (target.isStringShape() || target.isEnumShape()) {
+                    return member;
+                }
+            }
+        }
+        return null;
+    }
+
+    void generate(JavaWriter writer) {
+        var symbol = symbolProvider.toSymbol(shape);
+        var name = exceptionSymbol(symbol).getName();
+        writer.write("""
+            /**
+             * Thrown for a {@link $1T}, without a stack trace. One decoded with {@link #decodeFrom} keeps the error
+             * encoded until {@link #error()} is first called.
+             */""", symbol);
+        writer.openBlock(
+            "public final class $L extends $T {",
+            "}",
+            name,
+            CommonSymbols.SparrowhawkException,
+            () -> {
+                writer.write("""
+                    private static final long serialVersionUID = 1L;
+
+                    public $1L($2T error) {
+                        super($3S, error);
+                    }
+
+                    private $1L($4T d) {
+                        super($3S, d);
+                    }
+
+                    /**
+                     * Reads the error structure at the deserializer's position, which is decoded on first access and
+                     * until then kept in the bytes the deserializer retains.
+                     */
+                    public static $1L decodeFrom($4T d) {
+                        return new $1L(d);
+                    }
+
+                    @Override
+                    protected $2T newError() {
+                        return new $2T();
+                    }
+
+                    @Override
+                    public $2T error() {
+                        return ($2T) super.error();
+                    }""", name, symbol, shape.getId().getName(), CommonSymbols.SparrowhawkDeserializer);
+
+                var message = messageMember();
+                if (message != null) {
+                    var methodName = symbolProvider.toSymbol(message).expectProperty("methodName", String.class);
+                    writer.write("""
+
+                        @Override
+                        public String getMessage() {
+                            String message = error().get$L();
+                            return message != null ? message : super.getMessage();
+                        }""", methodName);
+                }
+            }
+        );
+    }
+}
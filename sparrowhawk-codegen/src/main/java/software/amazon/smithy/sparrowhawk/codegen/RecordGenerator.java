@@ -0,0 +1,89 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package software.amazon.smithy.sparrowhawk.codegen;
+
+import java.util.ArrayList;
+import java.util.List;
+import software.amazon.smithy.codegen.core.Symbol;
+import software.amazon.smithy.codegen.core.SymbolProvider;
+import software.amazon.smithy.model.Model;
+import software.amazon.smithy.model.shapes.MemberShape;
+import software.amazon.smithy.model.shapes.Shape;
+
+/**
+ * Generates a record with one component per member of a structure, which the generated structure converts to with
+ * {@code convertTo()} and from with {@code convertFrom}.
+ *
+ * <p>Components hold what the structure's getters return, so strings and collections of scalars are handed over
+ * rather than copied; nested structures are records as well. Absent optional members are null. With streaming
+ * writers enabled the record also implements the structure's accessor interface, so it can be encoded directly.
+ */
+public final class RecordGenerator {
+    private final Shape shape;
+    private final SymbolProvider symbolProvider;
+    private final SparrowhawkSettings settings;
+    private final StructureWriterGenerator types;
+
+    RecordGenerator(Shape shape, Model model, SymbolProvider symbolProvider, SparrowhawkSettings settings) {
+        this.shape = shape;
+        this.symbolProvider = symbolProvider;
+        this.settings = settings;
+        this.types = new StructureWriterGenerator(shape, model, symbolProvider, settings);
+    }
+
+    /**
+     * Whether a structure gets a record, which takes every member being representable the way its streaming writer
+     * reads it.
+     */
+    static boolean supports(Shape shape, Model model) {
+        return StructureWriterGenerator.supports(shape, model);
+    }
+
+    static Symbol recordSymbol(Symbol structure) {
+        return StructureWriterGenerator.companion(structure, "Record");
+    }
+
+    static List<MemberShape> components(Shape shape) {
+        List<MemberShape> components = new ArrayList<>();
+        for (MemberShape member : shape.members()) {
+            if (member.hasTrait(SparrowhawkFieldTrait.class)) {
+                components.add(member);
+            }
+        }
+        return components;
+    }
+
+    void generate(JavaWriter writer) {
+        var symbol = symbolProvider.toSymbol(shape);
+        writer.write("""
+            /**
+             * The members of {@link $1T} as plain values, converted to and from it by {@code convertTo()} and
+             * {@code convertFrom}. Absent optional members are null.
+             */""", symbol);
+        var components = components(shape);
+        var name = recordSymbol(symbol).getName();
+        var implemented = settings.streamingWriters()
+            ? writer.format(" implements $T", StructureWriterGenerator.sourceSymbol(symbol))
+            : "";
+        if (components.isEmpty()) {
+            writer.write("public record $L()$L {}", name, implemented);
+            return;
+        }
+        writer.write("public record $L(", name);
+        writer.indent();
+        for (int i = 0; i < components.size(); i++) {
+            var component = components.get(i);
+            writer.write(
+                "$L $L$L",
+                types.memberType(writer, component, "Record", ""),
+                symbolProvider.toMemberName(component),
+                i == components.size() - 1 ? "" : ","
+            );
+        }
+        writer.dedent();
+        writer.write(")$L {}", implemented);
+    }
+}
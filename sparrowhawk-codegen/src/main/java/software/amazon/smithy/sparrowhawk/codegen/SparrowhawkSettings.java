@@ -5,7 +5,10 @@
 
 package software.amazon.smithy.sparrowhawk.codegen;
 
+import java.util.HashSet;
 import java.util.Objects;
+import java.util.Set;
+import software.amazon.smithy.model.node.Node;
 import software.amazon.smithy.model.node.ObjectNode;
 import software.amazon.smithy.model.shapes.ShapeId;
 
@@ -13,15 +16,47 @@ public final class SparrowhawkSettings {
     private static final String SERVICE = "service";
     private static final String USE_INSTANT_FOR_TIMESTAMP = "useInstantForTimestamp";
     private static final String HEADER_STRING = "headerString";
+    private static final String BITSET_DECODERS = "bitsetDecoders";
+    private static final String MERGEABLE_MEMBERS = "mergeableMembers";
+    private static final String IMMUTABLE_STRUCTURES = "immutableStructures";
+    private static final String STREAMING_WRITERS = "streamingWriters";
+    private static final String CONVERTED_RECORDS = "convertedRecords";
+    private static final String COLUMNAR_DECODERS = "columnarDecoders";
+    private static final String STACKLESS_ERRORS = "stacklessErrors";
 
     private final ShapeId service;
     private final boolean useInstant;
     private final String header;
+    private final boolean bitsetDecoders;
+    private final Set<ShapeId> mergeableMembers;
+    private final boolean immutableStructures;
+    private final boolean streamingWriters;
+    private final boolean convertedRecords;
+    private final boolean columnarDecoders;
+    private final boolean stacklessErrors;
 
-    private SparrowhawkSettings(ShapeId service, boolean useInstant, String header) {
+    private SparrowhawkSettings(
+        ShapeId service,
+        boolean useInstant,
+        String header,
+        boolean bitsetDecoders,
+        Set<ShapeId> mergeableMembers,
+        boolean immutableStructures,
+        boolean streamingWriters,
+        boolean convertedRecords,
+        boolean columnarDecoders,
+        boolean stacklessErrors
+    ) {
         this.service = service;
         this.useInstant = useInstant;
         this.header = header;
+        this.bitsetDecoders = bitsetDecoders;
+        this.mergeableMembers = mergeableMembers;
+        this.immutableStructures = immutableStructures;
+        this.streamingWriters = streamingWriters;
+        this.convertedRecords = convertedRecords;
+        this.columnarDecoders = columnarDecoders;
+        this.stacklessErrors = stacklessErrors;
     }
 
     public static SparrowhawkSettings from(ObjectNode config) {
@@ -29,10 +64,25 @@ public final class SparrowhawkSettings {
         return new SparrowhawkSettings(
             config.expectStringMember(SERVICE).expectShapeId(),
             config.expectBooleanMember(USE_INSTANT_FOR_TIMESTAMP).getValue(),
-            config.getStringMemberOrDefault(HEADER_STRING, null)
+            config.getStringMemberOrDefault(HEADER_STRING, null),
+            config.getBooleanMemberOrDefault(BITSET_DECODERS, false),
+            shapeIds(config, MERGEABLE_MEMBERS),
+            config.getBooleanMemberOrDefault(IMMUTABLE_STRUCTURES, false),
+            config.getBooleanMemberOrDefault(STREAMING_WRITERS, false),
+            config.getBooleanMemberOrDefault(CONVERTED_RECORDS, false),
+            config.getBooleanMemberOrDefault(COLUMNAR_DECODERS, false),
+            config.getBooleanMemberOrDefault(STACKLESS_ERRORS, false)
         );
     }
 
+    private static Set<ShapeId> shapeIds(ObjectNode config, String member) {
+        Set<ShapeId> ids = new HashSet<>();
+        for (Node node : config.getArrayMemberOrEmpty(member)) {
+            ids.add(node.expectStringNode().expectShapeId());
+        }
+        return ids;
+    }
+
     public ShapeId getService() {
         return Objects.requireNonNull(service, SERVICE + " not set");
     }
@@ -44,4 +94,56 @@ public final class SparrowhawkSettings {
     public String getHeader() {
         return header;
     }
+
+    /**
+     * Whether generated field set decoders walk the present bits of a field set instead of testing every member.
+     */
+    public boolean bitsetDecoders() {
+        return bitsetDecoders;
+    }
+
+    /**
+     * Whether the byte-level merge of a structure merges the nested structure in this member, instead of taking it
+     * whole from the patch.
+     */
+    public boolean isMergeable(ShapeId member) {
+        return mergeableMembers.contains(member);
+    }
+
+    /**
+     * Whether structures are generated immutable, with private setters and a builder.
+     */
+    public boolean immutableStructures() {
+        return immutableStructures;
+    }
+
+    /**
+     * Whether each structure also gets an accessor interface and a writer that encodes implementations of it
+     * directly.
+     */
+    public boolean streamingWriters() {
+        return streamingWriters;
+    }
+
+    /**
+     * Whether each structure also gets a record of its members, and implements SparrowhawkStructure by converting
+     * to it.
+     */
+    public boolean convertedRecords() {
+        return convertedRecords;
+    }
+
+    /**
+     * Whether each structure with numeric members also gets a decoder for lists of it into one array per member.
+     */
+    public boolean columnarDecoders() {
+        return columnarDecoders;
+    }
+
+    /**
+     * Whether each error shape also gets an exception carrying it, which skips capturing a stack trace.
+     */
+    public boolean stacklessErrors() {
+        return stacklessErrors;
+    }
 }
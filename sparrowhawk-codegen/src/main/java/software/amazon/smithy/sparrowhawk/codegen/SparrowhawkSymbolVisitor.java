@@ -17,10 +17,13 @@ import software.amazon.smithy.java.sparrowhawk.ByteMap;
 import software.amazon.smithy.java.sparrowhawk.DoubleMap;
 import software.amazon.smithy.java.sparrowhawk.FloatMap;
 import software.amazon.smithy.java.sparrowhawk.IntegerMap;
+import software.amazon.smithy.java.sparrowhawk.IntegerSet;
 import software.amazon.smithy.java.sparrowhawk.LongMap;
+import software.amazon.smithy.java.sparrowhawk.LongSet;
 import software.amazon.smithy.java.sparrowhawk.ShortMap;
 import software.amazon.smithy.java.sparrowhawk.SparseStructureMap;
 import software.amazon.smithy.java.sparrowhawk.StringMap;
+import software.amazon.smithy.java.sparrowhawk.StringSet;
 import software.amazon.smithy.java.sparrowhawk.StructureMap;
 import software.amazon.smithy.model.Model;
 import software.amazon.smithy.model.shapes.BigDecimalShape;
@@ -30,6 +33,7 @@ import software.amazon.smithy.model.shapes.BooleanShape;
 import software.amazon.smithy.model.shapes.ByteShape;
 import software.amazon.smithy.model.shapes.DocumentShape;
 import software.amazon.smithy.model.shapes.DoubleShape;
+import software.amazon.smithy.model.shapes.EnumShape;
 import software.amazon.smithy.model.shapes.FloatShape;
 import software.amazon.smithy.model.shapes.IntEnumShape;
 import software.amazon.smithy.model.shapes.IntegerShape;
@@ -122,20 +126,45 @@ public class SparrowhawkSymbolVisitor implements SymbolProvider, ShapeVisitor<Sy
         var valueSymbol = toSymbol(memberShape);
         Symbol.Builder b = listSymbolBuilder(shape);
         b.putProperty("value", valueSymbol).addReference(valueSymbol);
-        if (memberShape.isStringShape()) {
+        Class<?> setImpl = setCollection(shape);
+        if (setImpl != null) {
+            SymbolReference sparrowhawkCollectionSymbol = Symbol.builder()
+                .namespace(setImpl.getPackageName(), ".")
+                .name(setImpl.getSimpleName())
+                .build()
+                .toReference(null);
+            b.putProperty("sparrowhawkField", Symbol.builder().name("Object").build())
+                .putProperty("sparrowhawkCollection", sparrowhawkCollectionSymbol)
+                .addReference(sparrowhawkCollectionSymbol);
+        } else if (memberShape.isStringShape() || Util.isStructure(memberShape)) {
             b.putProperty("sparrowhawkField", Symbol.builder().name("Object").build());
         }
         return b.build();
     }
 
     protected Symbol.Builder listSymbolBuilder(ListShape shape) {
-        if (shape.hasTrait(UniqueItemsTrait.class)) {
+        if (setCollection(shape) != null) {
             return createSymbolBuilder(shape, "Set", "java.util");
         } else {
             return createSymbolBuilder(shape, "List", "java.util");
         }
     }
 
+    /**
+     * Returns the hash-indexed set type for a uniqueItems list, or null if its members are kept in a plain list.
+     */
+    private Class<?> setCollection(ListShape shape) {
+        if (!shape.hasTrait(UniqueItemsTrait.class)) {
+            return null;
+        }
+        return switch (model.expectShape(shape.getMember().getTarget()).getType()) {
+            case STRING -> StringSet.class;
+            case INTEGER -> IntegerSet.class;
+            case LONG -> LongSet.class;
+            default -> null;
+        };
+    }
+
     @Override
     public Symbol mapShape(MapShape shape) {
         var keySymbol = toSymbol(model.expectShape(shape.getKey().getTarget()));
@@ -246,6 +275,38 @@ public class SparrowhawkSymbolVisitor implements SymbolProvider, ShapeVisitor<Sy
             .build();
     }
 
+    @Override
+    public Symbol enumShape(EnumShape shape) {
+        return stringShape(shape).toBuilder()
+            .putProperty("enumSymbol", enumSymbol(shape))
+            .build();
+    }
+
+    @Override
+    public Symbol intEnumShape(IntEnumShape shape) {
+        return integerShape(shape).toBuilder()
+            .putProperty("enumSymbol", enumSymbol(shape))
+            .build();
+    }
+
+    /**
+     * Members keep their string or int type so that unknown values round-trip; the generated Java enum is
+     * carried alongside as the "enumSymbol" property.
+     */
+    private Symbol enumSymbol(Shape shape) {
+        Symbol base = createSymbolBuilder(
+            shape,
+            getDefaultShapeName(shape),
+            shape.getId().getNamespace() + ".sparrowhawk"
+        ).build();
+        return base.toBuilder()
+            .definitionFile(
+                base.getNamespace().replaceAll("\\.", File.separator)
+                    + File.separator + base.getName() + ".java"
+            )
+            .build();
+    }
+
     private String getDefaultShapeName(Shape shape) {
         // Use the service-aliased name
         return "Sparrowhawk" + StringUtils.capitalize(shape.getId().getName(service));
@@ -323,8 +384,10 @@ public class SparrowhawkSymbolVisitor implements SymbolProvider, ShapeVisitor<Sy
                     .build();
             }
             case INT_ENUM -> {
+                Symbol boxed = intEnumShape((IntEnumShape) targetShape);
                 return createSymbolBuilder(targetShape, "int")
-                    .putProperty("boxed", intEnumShape((IntEnumShape) targetShape))
+                    .putProperty("boxed", boxed)
+                    .putProperty("enumSymbol", boxed.expectProperty("enumSymbol", Symbol.class))
                     .build();
             }
             case LONG -> {
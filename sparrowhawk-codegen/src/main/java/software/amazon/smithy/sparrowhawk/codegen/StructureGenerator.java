@@ -9,18 +9,16 @@ import static software.amazon.smithy.model.shapes.ShapeType.LONG;
 import static software.amazon.smithy.sparrowhawk.codegen.CommonSymbols.Objects;
 import static software.amazon.smithy.sparrowhawk.codegen.CommonSymbols.SparseStringList;
 import static software.amazon.smithy.sparrowhawk.codegen.CommonSymbols.StringList;
+import static software.amazon.smithy.sparrowhawk.codegen.CommonSymbols.StructureList;
 import static software.amazon.smithy.sparrowhawk.codegen.CommonSymbols.T_EIGHT;
 import static software.amazon.smithy.sparrowhawk.codegen.CommonSymbols.T_FOUR;
 import static software.amazon.smithy.sparrowhawk.codegen.CommonSymbols.T_LIST;
 import static software.amazon.smithy.sparrowhawk.codegen.CommonSymbols.T_VARINT;
-import static software.amazon.smithy.sparrowhawk.codegen.CommonSymbols.asList;
 import static software.amazon.smithy.sparrowhawk.codegen.CommonSymbols.byteListLengthEncodedSize;
 import static software.amazon.smithy.sparrowhawk.codegen.CommonSymbols.decodeElementCount;
-import static software.amazon.smithy.sparrowhawk.codegen.CommonSymbols.decodeLenPrefixedListLengthChecked;
 import static software.amazon.smithy.sparrowhawk.codegen.CommonSymbols.encodeByteListLength;
 import static software.amazon.smithy.sparrowhawk.codegen.CommonSymbols.encodeEightBListLength;
 import static software.amazon.smithy.sparrowhawk.codegen.CommonSymbols.encodeFourBListLength;
-import static software.amazon.smithy.sparrowhawk.codegen.CommonSymbols.encodeLenPrefixedListLength;
 import static software.amazon.smithy.sparrowhawk.codegen.CommonSymbols.encodeVarintListLength;
 import static software.amazon.smithy.sparrowhawk.codegen.CommonSymbols.intSize;
 import static software.amazon.smithy.sparrowhawk.codegen.CommonSymbols.lenPrefixedListLengthEncodedSize;
@@ -28,16 +26,17 @@ import static software.amazon.smithy.sparrowhawk.codegen.CommonSymbols.longSize;
 import static software.amazon.smithy.sparrowhawk.codegen.CommonSymbols.missingField;
 import static software.amazon.smithy.sparrowhawk.codegen.CommonSymbols.uintSize;
 import static software.amazon.smithy.sparrowhawk.codegen.CommonSymbols.ulongSize;
+import static software.amazon.smithy.sparrowhawk.codegen.CommonSymbols.varintLength;
 import static software.amazon.smithy.sparrowhawk.codegen.Util.isStructure;
 import static software.amazon.smithy.utils.StringUtils.capitalize;
 import static software.amazon.smithy.utils.StringUtils.upperCase;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.function.BiFunction;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.stream.Stream;
+import software.amazon.smithy.codegen.core.CodegenException;
 import software.amazon.smithy.codegen.core.Symbol;
 import software.amazon.smithy.codegen.core.SymbolProvider;
 import software.amazon.smithy.codegen.core.SymbolReference;
@@ -50,6 +49,21 @@ import software.amazon.smithy.sparrowhawk.codegen.CodeSections.EndClassSection;
 import software.amazon.smithy.sparrowhawk.codegen.CodeSections.StartClassSection;
 
 public final class StructureGenerator implements Runnable {
+    /**
+     * HotSpot leaves a method of more than 8000 bytes of bytecode (HugeMethodLimit) to the interpreter, and only
+     * inlines small ones. The methods whose length grows with the number of members are split once their estimated
+     * bytecode passes METHOD_BUDGET, which leaves a quarter of the limit for what the estimates miss: codegen emits
+     * source, so the real sizes are only known after javac. The costs are per member, in bytes, for testing a
+     * presence bit and for one read, write or comparison of a scalar or a list-encoded member, as javac compiles
+     * them: 13 bytes to test a bit of a field set, 8 to 10 to size or write a varint, and from about 15 for a string
+     * up to 40 for a list of structures, which is the cost assumed for every list-encoded member. WideStructureTest
+     * checks the methods of a generated 300-member structure against the limit.
+     */
+    private static final int METHOD_BUDGET = 6000;
+    private static final int PRESENCE_COST = 13;
+    private static final int SCALAR_COST = 10;
+    private static final int LIST_COST = 40;
+
     private final Shape shape;
     private final SymbolProvider symbolProvider;
     private final SparrowhawkSettings settings;
@@ -101,7 +115,19 @@ public final class StructureGenerator implements Runnable {
 
     public void run() {
         writer.pushState(new StartClassSection(this));
-        writer.write("public final class $L implements $T {", symbol.getName(), CommonSymbols.SparrowhawkObject);
+        Symbol record = settings.convertedRecords() && RecordGenerator.supports(shape, model)
+            ? RecordGenerator.recordSymbol(symbol)
+            : null;
+        if (record != null) {
+            writer.write(
+                "public final class $L implements $T<$T> {",
+                symbol.getName(),
+                CommonSymbols.SparrowhawkStructure,
+                record
+            );
+        } else {
+            writer.write("public final class $L implements $T {", symbol.getName(), CommonSymbols.SparrowhawkObject);
+        }
         writer.popState();
         writer.indent();
         for (int i = 0; i < index.getVarintFieldSetCount(shape); i++) {
@@ -116,10 +142,18 @@ public final class StructureGenerator implements Runnable {
         for (int i = 0; i < index.getEightByteFieldSetCount(shape); i++) {
             generateFields(index.getEightByteMembers(shape, i), i);
         }
+        generateClear();
         generateSizingMethods();
         generateEncoder();
         generateDecoder();
+        generateMerge();
         generateEquals();
+        if (record != null) {
+            generateConversions(record);
+        }
+        if (settings.immutableStructures()) {
+            generateBuilder();
+        }
         writer.injectSection(new EndClassSection(this));
         writer.dedent().write("}");
     }
@@ -150,7 +184,15 @@ public final class StructureGenerator implements Runnable {
             bitsToString(required)
         );
         var fieldsetName = "$" + fieldType.lowercaseId + "_" + secIdx;
-        fieldSets.add(new FieldSet(fieldsetName, fieldType, secIdx));
+        var fieldSet = new FieldSet(fieldsetName, fieldType, secIdx, required, fields);
+        fieldSets.add(fieldSet);
+        if (hasConstantHeader(fieldSet)) {
+            writer.write(
+                "private static final byte[] $L = {$L};",
+                headerName(fieldSet),
+                byteLiterals(header(fieldSet))
+            );
+        }
         writer.write("private long $L = REQUIRED_$L_$L;", fieldsetName, fieldType.uppercaseId, secIdx);
 
         for (MemberShape field : fields) {
@@ -188,59 +230,133 @@ public final class StructureGenerator implements Runnable {
                 .orElse(fieldSymbol),
             fieldName
         );
+        if (model.expectShape(field.getTarget()).isMapShape() && encodesMapDirectly(field)) {
+            // the size of a plain java.util.Map as its sizer measured it, for its encoder
+            writer.write("private int $$$LSize;", fieldName);
+        }
 
-        writer.openBlock("\npublic $T get$L() {", "}\n", fieldSymbol, methodName, () -> {
-            var target = model.expectShape(field.getTarget());
-            if (isString(target)) {
-                writer.openBlock("if ($L == null) {", "}", fieldName, () -> {
-                    writer.write("return null;");
-                });
-                writer.openBlock("if ($L instanceof String) {", "}", fieldName, () -> {
-                    writer.write("return (String) $L;", fieldName);
-                });
-                writer.write("""
-                    String s = new String((byte[]) $1L, $2T);
-                    this.$1L = s;
-                    return s;""", fieldName, CommonSymbols.UTF_8);
-            } else if (target.isMapShape()) {
-                var sparrowhawkCollectionSymbol = fieldSymbol.expectProperty(
-                    "sparrowhawkCollection",
-                    SymbolReference.class
-                );
-                writer.write("""
-                    Object field = $L;
-                    if (field == null) return null;""", fieldName);
-                writer.openBlock("if (field.getClass() == $T.class) {", "}", sparrowhawkCollectionSymbol, () -> {
+        var enumSymbol = enumSymbol(field);
+        if (readsWithoutModifying(field)) {
+            writer.openBlock("\npublic $T get$L() {", "}", fieldSymbol, methodName, () -> {
+                emitModified();
+                writer.write("return $$get$L();", methodName);
+            });
+        }
+        writer.openBlock(
+            readsWithoutModifying(field) ? "\nprivate $T $$get$L() {" : "\npublic $T get$L() {",
+            "}\n",
+            fieldSymbol,
+            methodName,
+            () -> {
+                var target = model.expectShape(field.getTarget());
+                if (isString(target) && enumSymbol != null) {
                     writer.write("""
-                        $T m = (($T) field).toMap();
-                        this.$L = m;
-                        return m;""", fieldSymbol, sparrowhawkCollectionSymbol, fieldName);
-                });
-                writer.write("return ($T) $L;", fieldSymbol, fieldName);
-            } else if (target.isListShape()) {
-                var valueSymbol = listTarget(model.expectShape(field.getTarget()));
-                var valueType = valueSymbol.expectProperty("shape", Shape.class);
-                if (isString(valueType)) {
-                    var implType = isSparse(field) ? SparseStringList : StringList;
+                        Object field = $L;
+                        if (field == null) return null;""", fieldName);
+                    writer.openBlock("if (field.getClass() == $T.class) {", "}", enumSymbol, () -> {
+                        writer.write("return (($T) field).value();", enumSymbol);
+                    });
+                    writer.openBlock("if (field instanceof String) {", "}", () -> {
+                        writer.write("return (String) field;");
+                    });
+                    emitCachedValue(
+                        "String s",
+                        fieldName,
+                        writer.format("new String((byte[]) field, $T)", CommonSymbols.UTF_8)
+                    );
+                } else if (isString(target)) {
+                    writer.openBlock("if ($L == null) {", "}", fieldName, () -> {
+                        writer.write("return null;");
+                    });
+                    writer.openBlock("if ($L instanceof String) {", "}", fieldName, () -> {
+                        writer.write("return (String) $L;", fieldName);
+                    });
+                    emitCachedValue(
+                        "String s",
+                        fieldName,
+                        writer.format("new String((byte[]) $L, $T)", fieldName, CommonSymbols.UTF_8)
+                    );
+                } else if (target.isMapShape()) {
+                    var sparrowhawkCollectionSymbol = fieldSymbol.expectProperty(
+                        "sparrowhawkCollection",
+                        SymbolReference.class
+                    );
                     writer.write("""
                         Object field = $L;
                         if (field == null) return null;""", fieldName);
-                    writer.openBlock("if (field.getClass() == $T.class) {", "}", implType, () -> {
-                        writer.write("""
-                            List<String> m = (($T) field).toList();
-                            this.$L = m;
-                            return m;""", implType, fieldName);
+                    writer.openBlock("if (field.getClass() == $T.class) {", "}", sparrowhawkCollectionSymbol, () -> {
+                        emitCachedValue(
+                            writer.format("$T m", fieldSymbol),
+                            fieldName,
+                            writer.format("(($T) field).toMap()", sparrowhawkCollectionSymbol)
+                        );
+                    });
+                    writer.write("return ($T) $L;", fieldSymbol, fieldName);
+                } else if (setCollection(field) != null) {
+                    var setType = setCollection(field);
+                    writer.write("""
+                        Object field = $L;
+                        if (field == null) return null;""", fieldName);
+                    writer.openBlock("if (field.getClass() == $T.class) {", "}", setType, () -> {
+                        writer.write("return (($T) field).asSet();", setType);
                     });
-                    writer.write("return (List<String>) $L;", fieldName);
+                    writer.write("return ($T) $L;", fieldSymbol, fieldName);
+                } else if (target.isListShape()) {
+                    var valueSymbol = listTarget(model.expectShape(field.getTarget()));
+                    var valueType = valueSymbol.expectProperty("shape", Shape.class);
+                    if (isString(valueType)) {
+                        var implType = isSparse(field) ? SparseStringList : StringList;
+                        writer.write("""
+                            Object field = $L;
+                            if (field == null) return null;""", fieldName);
+                        writer.openBlock("if (field.getClass() == $T.class) {", "}", implType, () -> {
+                            emitCachedValue(
+                                "List<String> m",
+                                fieldName,
+                                writer.format("(($T) field).toList()", implType)
+                            );
+                        });
+                        writer.write("return (List<String>) $L;", fieldName);
+                    } else if (isStructure(valueType)) {
+                        writer.write("""
+                            Object field = $L;
+                            if (field == null) return null;""", fieldName);
+                        writer.openBlock("if (field.getClass() == $T.class) {", "}", StructureList, () -> {
+                            if (settings.immutableStructures()) {
+                                // a copy, since the view writes through to the list
+                                writer.write(
+                                    "return $T.unmodifiableList((($T<$T>) field).toList());",
+                                    CommonSymbols.Collections,
+                                    StructureList,
+                                    valueSymbol
+                                );
+                            } else {
+                                writer.write("return (($T<$T>) field).asList();", StructureList, valueSymbol);
+                            }
+                        });
+                        writer.write("return ($T) $L;", fieldSymbol, fieldName);
+                    } else if (settings.immutableStructures()) {
+                        writer.write(
+                            "return $1L == null ? null : $2T.unmodifiableList($1L);",
+                            fieldName,
+                            CommonSymbols.Collections
+                        );
+                    } else {
+                        writer.write("return $L;", fieldName);
+                    }
+                } else if (target.isBlobShape() && settings.immutableStructures()) {
+                    // a view of its own, so reading it does not move the position the encoder copies from
+                    writer.write("return $1L == null ? null : $1L.asReadOnlyBuffer();", fieldName);
+                } else if (isStructure(target) && isOptional(field)) {
+                    // a cleared nested structure is kept for reuse but reads as absent
+                    writer.write("return has$L() ? $L : null;", methodName, fieldName);
                 } else {
                     writer.write("return $L;", fieldName);
                 }
-            } else {
-                writer.write("return $L;", fieldName);
             }
-        });
+        );
 
-        writer.openBlock("public void set$L($T $L) {", "}\n", methodName, fieldSymbol, fieldName, () -> {
+        Runnable setter = () -> {
             if (trait.getType() == FieldType.LIST) {
                 if (isRequired(field)) {
                     writer.openBlock("if ($L == null) {", "}", fieldName, () -> {
@@ -262,42 +378,304 @@ public final class StructureGenerator implements Runnable {
                 writer.write("$L |= $L;", fieldsetName, toggleFieldName);
             }
             writer.write("this.$L = $L;", fieldName, fieldName);
-            writer.write("this.$$size = -1;");
-        });
+            emitModified();
+        };
+        writer.openBlock(
+            "$L void set$L($T $L) {",
+            "}\n",
+            mutatorVisibility(),
+            methodName,
+            fieldSymbol,
+            fieldName,
+            setter
+        );
+
+        if (enumSymbol != null) {
+            generateEnumAccessors(field, enumSymbol, setter);
+        }
 
         writer.openBlock("public boolean has$L() {", "}\n", methodName, () -> {
             writer.write("return ($L & $L) != 0;", fieldsetName, toggleFieldName);
         });
     }
 
+    /**
+     * Adds typed accessors for a member that targets an enum. The field keeps the raw value, so values
+     * that match no constant read back as null here and are still encoded unchanged.
+     */
+    private void generateEnumAccessors(MemberShape field, Symbol enumSymbol, Runnable setter) {
+        var fieldName = fieldName(field);
+        var methodName = methodNameForField(field);
+        if (model.expectShape(field.getTarget()).isIntEnumShape()) {
+            writer.openBlock("public $T get$LEnum() {", "}\n", enumSymbol, methodName, () -> {
+                writer.write("return has$L() ? $T.fromValue($L) : null;", methodName, enumSymbol, fieldName);
+            });
+            writer.openBlock(
+                "$L void set$LEnum($T value) {",
+                "}\n",
+                mutatorVisibility(),
+                methodName,
+                enumSymbol,
+                () -> writer.write("set$L(value.value());", methodName)
+            );
+            return;
+        }
+
+        writer.openBlock("public $T get$LEnum() {", "}\n", enumSymbol, methodName, () -> {
+            writer.write("""
+                Object field = $L;
+                if (field == null) return null;""", fieldName);
+            writer.openBlock("if (field.getClass() == $T.class) {", "}", enumSymbol, () -> {
+                writer.write("return ($T) field;", enumSymbol);
+            });
+            writer.openBlock("if (field instanceof String) {", "}", () -> {
+                writer.write("return $T.fromValue((String) field);", enumSymbol);
+            });
+            writer.write("""
+                byte[] b = (byte[]) field;
+                return $T.fromBytes(b, 0, b.length);""", enumSymbol);
+        });
+        // the constant itself is stored, and encodes from its precomputed bytes
+        writer.openBlock(
+            "$L void set$LEnum($T $L) {",
+            "}\n",
+            mutatorVisibility(),
+            methodName,
+            enumSymbol,
+            fieldName,
+            setter
+        );
+    }
+
+    /**
+     * Returns the visibility of setters and clear(), which immutable structures only expose through their builder.
+     */
+    private String mutatorVisibility() {
+        return settings.immutableStructures() ? "private" : "public";
+    }
+
+    /**
+     * Returns a value converted from the form a field was decoded in, and keeps it in the field for the next call.
+     * Immutable structures convert on every call instead, so their fields are never written once they are built
+     * and instances can be shared between threads.
+     */
+    private void emitCachedValue(String local, String fieldName, String value) {
+        if (settings.immutableStructures()) {
+            writer.write("return $L;", value);
+            return;
+        }
+        String name = local.substring(local.lastIndexOf(' ') + 1);
+        writer.write("""
+            $1L = $3L;
+            this.$2L = $4L;
+            return $4L;""", local, fieldName, value, name);
+    }
+
+    private Symbol enumSymbol(MemberShape field) {
+        return symbolProvider.toSymbol(field).getProperty("enumSymbol", Symbol.class).orElse(null);
+    }
+
+    private void generateClear() {
+        writer.write("""
+            /**
+             * Resets this object to its newly constructed state. Nested structures are cleared rather than dropped,
+             * and the next decode reads into them instead of allocating new ones.
+             */""");
+        writer.openBlock("$L void clear() {", "}\n", mutatorVisibility(), () -> {
+            for (var fieldSet : fieldSets) {
+                writer.write(
+                    "this.$L = REQUIRED_$L_$L;",
+                    fieldSet.name(),
+                    fieldSet.type().uppercaseId,
+                    fieldSet.fieldSetIdx()
+                );
+            }
+            Stream.of(getAllVarintMembers(), getAllFourByteMembers(), getAllEightByteMembers(), getAllListMembers())
+                .flatMap(Function.identity())
+                .forEach(field -> {
+                    var fieldName = fieldName(field);
+                    var target = model.expectShape(field.getTarget());
+                    if (isStructure(target)) {
+                        writer.openBlock("if ($L != null) {", "}", fieldName, () -> {
+                            writer.write("$L.clear();", fieldName);
+                        });
+                    } else if (symbolProvider.toSymbol(field).getProperty("boxed").isPresent()) {
+                        writer.write("this.$L = $L;", fieldName, target.isBooleanShape() ? "false" : "0");
+                    } else {
+                        writer.write("this.$L = null;", fieldName);
+                    }
+                });
+            writer.write("this.$$unknown = null;");
+            emitModified();
+        });
+    }
+
+    /**
+     * Drops the cached size, hash and the encoding this object was decoded from, so they are rebuilt from its
+     * fields.
+     */
+    private void emitModified() {
+        writer.write("""
+            this.$$size = -1;
+            this.$$canonicalSize = -1;
+            this.$$source = null;
+            this.$$hash = 0;""");
+    }
+
+    /**
+     * Returns true if the getter of a member drops the encoding this object was decoded from, in which case equals
+     * and hashCode read the member through a private accessor that keeps it.
+     */
+    private boolean readsWithoutModifying(MemberShape field) {
+        return exposesMutableValue(field) && !settings.immutableStructures();
+    }
+
+    /**
+     * Returns the accessor equals and hashCode read a member through.
+     */
+    private String valueAccessor(MemberShape field) {
+        return (readsWithoutModifying(field) ? "$get" : "get") + methodNameForField(field) + "()";
+    }
+
+    /**
+     * Returns true if the getter of a member returns an object that can be changed in place, so calling it means
+     * the encoding this object was decoded from may no longer match it.
+     */
+    private boolean exposesMutableValue(MemberShape field) {
+        var target = model.expectShape(field.getTarget());
+        return target.isMapShape() || target.isListShape() || isStructure(target);
+    }
+
     private void generateSizingMethods() {
         writer.write("private int $$size = -1;");
+        writer.write("private int $$canonicalSize = -1;");
+        if (settings.immutableStructures()) {
+            // set once this has been built or decoded, after which it is never written to again
+            writer.write("private boolean $$built;");
+        }
+        writer.write("private $T $$unknown;", CommonSymbols.UnknownFields);
+        writer.write("""
+            // the encoding this object was decoded from, kept until it is modified and copied when it is re-encoded
+            private byte[] $$source;
+            private int $$sourceStart;
+            private int $$sourceEnd;
+            private boolean $$sourceCanonical;
+            private int $$hash;
+            """);
         generateMethod("public int size()", this::generateSizeMethod);
+        if (!fieldSets.isEmpty()) {
+            writer.write("""
+                /**
+                 * Returns the size of the canonical encoding, measured from the fields unless this was decoded from
+                 * canonical bytes, since the size it was decoded with may count longer varints than re-encoding writes.
+                 */""");
+            generateMethod("public int canonicalSize()", () -> writer.write("""
+                if ($$source != null && $$sourceCanonical) {
+                    return size();
+                }
+                if ($$canonicalSize < 0) {
+                    this.$$canonicalSize = sizeFields(true);
+                }
+                return $$canonicalSize;"""));
+            generateMethod("private int sizeFields(boolean canonical)", this::generateSizeFieldsMethod);
+        }
         if (index.hasVarintMembers(shape)) {
-            generateMethod("private int sizeVarints()", this::generateVarintSizeMethods);
+            generateSizeMethods("sizeVarints", FieldType.VARINT, false, this::generateVarintSizeMethods);
         }
         if (index.hasFourByteMembers(shape)) {
-            generateMethod("private int sizeFourByteFields()", this::generateFourByteSizeMethods);
+            generateSizeMethods("sizeFourByteFields", FieldType.FOUR_BYTE, false, this::generateFourByteSizeMethods);
         }
         if (index.hasEightByteMembers(shape)) {
-            generateMethod("private int sizeEightByteFields()", this::generateEightByteSizeMethods);
+            generateSizeMethods(
+                "sizeEightByteFields",
+                FieldType.EIGHT_BYTE,
+                false,
+                this::generateEightByteSizeMethods
+            );
         }
         if (index.hasListMembers(shape)) {
             generateListSizeMethods();
         }
     }
 
+    /**
+     * Generates the method sizing the members of every field set of a type. Past the method budget it only sums
+     * the sizes of the field sets that have members set, each computed by a method of its own. If
+     * {@code canonical} is set, the methods take whether the canonical size is wanted.
+     */
+    private void generateSizeMethods(
+        String method,
+        FieldType type,
+        boolean canonical,
+        Consumer<List<MemberShape>> sizer
+    ) {
+        String params = canonical ? "(boolean canonical)" : "()";
+        if (!splitsFieldSets(type)) {
+            generateMethod("private int " + method + params, () -> sizer.accept(members(type)));
+            return;
+        }
+        generateMethod("private int " + method + params, () -> {
+            writer.write("int size = 0;");
+            for (var fieldSet : fieldSetsOf(type)) {
+                emitFieldSetCall(fieldSet, canonical ? "size += size$L(canonical);" : "size += size$L();", false);
+            }
+            writer.write("return size;");
+        });
+        for (var fieldSet : fieldSetsOf(type)) {
+            generateMethod(
+                "private int size" + fieldSetMethod(fieldSet) + params,
+                () -> sizer.accept(fieldSet.members())
+            );
+        }
+    }
+
     private void generateSizeMethod() {
         if (fieldSets.isEmpty()) {
-            writer.write("return 0;");
+            writer.write("return $$unknown == null ? 0 : $$unknown.size();");
             return;
         }
 
-        writer.openBlock("if ($$size >= 0) {", "}\n", () -> writer.write("return $$size;"));
-        // TODO: use a constant when a fieldset has a guaranteed serialized size
+        int constantSize = constantStructureSize();
+        if (constantSize >= 0) {
+            // a decoded structure is copied, so it has the size it was decoded with
+            writer.openBlock(
+                "if ($$unknown == null && $$source == null) {",
+                "}\n",
+                () -> writer.write("return $L;", constantSize)
+            );
+        }
+
+        writer.write("""
+            if ($$size >= 0) {
+                return $$size;
+            }
+
+            int size = sizeFields(false);
+            this.$$size = size;
+            return size;""");
+    }
+
+    /**
+     * Generates the sizing of the fields, which {@code size()} caches. The canonical size is measured the same way,
+     * except that nested objects report their canonical size.
+     */
+    private void generateSizeFieldsMethod() {
+        int headerSize = 0;
+        for (var fieldSet : fieldSets) {
+            if (hasConstantHeader(fieldSet)) {
+                headerSize += header(fieldSet).length;
+            }
+        }
         writer.writeInline("int size = ");
         boolean add = false;
+        if (headerSize > 0) {
+            writer.writeInline("$L", headerSize);
+            add = true;
+        }
         for (var fieldSet : fieldSets) {
+            if (hasConstantHeader(fieldSet)) {
+                continue;
+            }
             if (add) {
                 writer.writeInline(" + ");
             } else {
@@ -319,7 +697,7 @@ public final class StructureGenerator implements Runnable {
             writer.write("size += sizeVarints();");
         }
         if (index.hasListMembers(shape)) {
-            writer.write("size += sizeListFields();");
+            writer.write("size += sizeListFields(canonical);");
         }
         if (index.hasFourByteMembers(shape)) {
             writer.write("size += sizeFourByteFields();");
@@ -327,9 +705,13 @@ public final class StructureGenerator implements Runnable {
         if (index.hasEightByteMembers(shape)) {
             writer.write("size += sizeEightByteFields();");
         }
-        writer.write("""
-            this.$$size = size;
-            return size;""");
+        writer.openBlock("if ($$unknown != null) {", "}", () -> {
+            writer.write("size += $$unknown.size();");
+            for (var fieldSet : fieldSets) {
+                writer.write("size += $$unknown.headerGrowth($L, $L);", unknownKey(fieldSet), fieldSet.name());
+            }
+        });
+        writer.write("return size;");
     }
 
     public String methodNameForField(MemberShape field) {
@@ -340,7 +722,7 @@ public final class StructureGenerator implements Runnable {
         return symbolProvider.toMemberName(field);
     }
 
-    private void variableSizeSizer(Stream<MemberShape> fields, Consumer<MemberShape> sizer) {
+    private void variableSizeSizer(List<MemberShape> fields, Consumer<MemberShape> sizer) {
         writer.write("int size = 0;");
         fields.forEach(field -> {
             if (isOptional(field)) {
@@ -354,8 +736,8 @@ public final class StructureGenerator implements Runnable {
         writer.write("return size;");
     }
 
-    private void generateVarintSizeMethods() {
-        variableSizeSizer(getAllVarintMembers(), (field) -> {
+    private void generateVarintSizeMethods(List<MemberShape> fields) {
+        variableSizeSizer(fields, (field) -> {
             var method = model.expectShape(field.getTarget()).isLongShape() ? longSize : intSize;
             writer.write("size += $T($L);", method, fieldName(field));
         });
@@ -363,65 +745,69 @@ public final class StructureGenerator implements Runnable {
 
     private void generateListSizeMethods() {
         List<Sizer> extraSizers = new ArrayList<>();
-        writer.openBlock("private int sizeListFields() {", "}\n", () -> {
+        generateSizeMethods("sizeListFields", FieldType.LIST, true, fields -> {
             writer.write("int size = 0;");
-            for (int i = 0; i < index.getListFieldSetCount(shape); i++) {
-                for (var field : index.getListMembers(shape, i)) {
-                    if (isOptional(field)) {
-                        writer.openBlock("if (has$L()) {", methodNameForField(field));
-                    }
+            for (var field : fields) {
+                if (isOptional(field)) {
+                    writer.openBlock("if (has$L()) {", methodNameForField(field));
+                }
 
-                    var shape = model.expectShape(field.getTarget());
-                    var fieldName = fieldName(field);
-                    if (shape.isBlobShape()) {
-                        writer.write("size += $T($L.remaining());", byteListLengthEncodedSize, fieldName);
-                    } else if (isStructure(shape)) {
-                        writer.write("size += $T($L.size());", byteListLengthEncodedSize, fieldName);
-                    } else {
-                        Sizer sizer = null;
-                        if (shape.isListShape()) {
-                            var listType = model.expectShape(
-                                ((ListShape) model.expectShape(field.getTarget())).getMember().getTarget()
+                var shape = model.expectShape(field.getTarget());
+                var fieldName = fieldName(field);
+                if (shape.isBlobShape()) {
+                    writer.write("size += $T($L.remaining());", byteListLengthEncodedSize, fieldName);
+                } else if (isStructure(shape)) {
+                    writer.write(
+                        "size += $T(canonical ? $2L.canonicalSize() : $2L.size());",
+                        byteListLengthEncodedSize,
+                        fieldName
+                    );
+                } else {
+                    Sizer sizer = null;
+                    if (setCollection(field) != null) {
+                        sizer = new SetSizer(field);
+                    } else if (shape.isListShape()) {
+                        var listType = model.expectShape(
+                            ((ListShape) model.expectShape(field.getTarget())).getMember().getTarget()
+                        );
+                        switch (listType.getType()) {
+                            case STRING, ENUM -> sizer = new StringListSizer(field);
+                            case BYTE, SHORT, INTEGER, LONG, BOOLEAN, INT_ENUM -> sizer = new VarIntListSizer(
+                                field,
+                                listType.getType()
                             );
-                            switch (listType.getType()) {
-                                case STRING, ENUM -> sizer = new StringListSizer(field);
-                                case BYTE, SHORT, INTEGER, LONG, BOOLEAN, INT_ENUM -> sizer = new VarIntListSizer(
-                                    field,
-                                    listType.getType()
-                                );
-                                case FLOAT -> writer.write(
-                                    "size += ($1L.size() * 4) + $2T($3T($1L.size()));",
-                                    fieldName,
-                                    ulongSize,
-                                    encodeFourBListLength
-                                );
-                                case DOUBLE -> writer.write(
-                                    "size += ($1L.size() * 8) + $2T($3T($1L.size()));",
-                                    fieldName,
-                                    ulongSize,
-                                    encodeEightBListLength
-                                );
-                                case STRUCTURE -> sizer = new StructureListSizer(field);
-                                default -> throw new IllegalStateException("Unexpected value: " + listType.getType());
-                            }
-                        } else if (isString(shape)) {
-                            sizer = new StringSizer(field);
-                        } else if (shape.isMapShape()) {
-                            sizer = new MapSizer(field);
-                        } else {
-                            throw new RuntimeException("Bad list type: " + shape.getType());
-                        }
-
-                        if (sizer != null) {
-                            extraSizers.add(sizer);
-                            writer.write("size += $L();", sizer.methodName());
+                            case FLOAT -> writer.write(
+                                "size += ($1L.size() * 4) + $2T($3T($1L.size()));",
+                                fieldName,
+                                ulongSize,
+                                encodeFourBListLength
+                            );
+                            case DOUBLE -> writer.write(
+                                "size += ($1L.size() * 8) + $2T($3T($1L.size()));",
+                                fieldName,
+                                ulongSize,
+                                encodeEightBListLength
+                            );
+                            case STRUCTURE -> sizer = new StructureListSizer(field);
+                            default -> throw new IllegalStateException("Unexpected value: " + listType.getType());
                         }
+                    } else if (isString(shape)) {
+                        sizer = new StringSizer(field);
+                    } else if (shape.isMapShape()) {
+                        sizer = new MapSizer(field);
+                    } else {
+                        throw new RuntimeException("Bad list type: " + shape.getType());
                     }
 
-                    if (isOptional(field)) {
-                        writer.closeBlock("}");
+                    if (sizer != null) {
+                        extraSizers.add(sizer);
+                        writer.write("size += $L;", sizer.call());
                     }
                 }
+
+                if (isOptional(field)) {
+                    writer.closeBlock("}");
+                }
             }
 
             writer.write("return size;");
@@ -443,6 +829,28 @@ public final class StructureGenerator implements Runnable {
             return "$" + field.getMemberName() + "Len";
         }
 
+        /**
+         * Returns true if the canonical size of the member can differ from its size, which holds for collections
+         * that may have been decoded from bytes with longer varints than needed or whose values do.
+         */
+        boolean sizesCanonically() {
+            return true;
+        }
+
+        String call() {
+            return methodName() + (sizesCanonically() ? "(canonical)" : "()");
+        }
+
+        void openMethod(Runnable body) {
+            writer.openBlock(
+                "private int $L($L) {",
+                "}\n",
+                methodName(),
+                sizesCanonically() ? "boolean canonical" : "",
+                body
+            );
+        }
+
         abstract void generate();
     }
 
@@ -453,7 +861,7 @@ public final class StructureGenerator implements Runnable {
 
         @Override
         void generate() {
-            writer.openBlock("private int $L() {", "}\n", methodName(), () -> {
+            openMethod(() -> {
                 var fieldName = fieldName(field);
                 writer.write("Object field = $L;", fieldName);
                 if (isRequired(field)) {
@@ -474,30 +882,60 @@ public final class StructureGenerator implements Runnable {
                 var valueSymbol = mapValueTarget(model.expectShape(field.getTarget()));
                 writer.write("int size;");
                 writer.write("if (field.getClass() == $T.class) {", sparrowhawkCollectionSymbol);
-                writer.indent().write("size = (($T) field).size();", sparrowhawkCollectionSymbol);
+                writer.indent().write("""
+                    $1T m = ($1T) field;
+                    size = canonical ? m.canonicalSize() : m.size();""", sparrowhawkCollectionSymbol);
+                if (encodesMapDirectly(field) && isStructure(valueSymbol.expectProperty("shape", Shape.class))) {
+                    // values decoded with longer varints than needed are smaller once re-encoded
+                    writer.dedent().write("} else if (canonical) {");
+                    writer.indent()
+                        .write("size = $T.canonicalSizeOf(($T) field);", sparrowhawkCollectionSymbol, mapSymbol);
+                }
                 writer.dedent().write("} else {");
-                writer.indent()
-                    .write(
-                        """
-                            $1T m = new $1T($2C);
-                            m.fromMap(($3T) field);
-                            this.$4L = m;
-                            size = m.size();""",
-                        sparrowhawkCollectionSymbol,
-                        writer.consumer(w -> {
-                            if (isStructure(valueSymbol.expectProperty("shape", Shape.class))) {
-                                w.writeInline("$T::new", valueSymbol);
-                            }
-                        }),
-                        mapSymbol,
-                        fieldName
-                    );
+                if (encodesMapDirectly(field)) {
+                    // sized straight from the java.util.Map, which the encoder then writes without conversion
+                    writer.indent()
+                        .write(
+                            """
+                                size = $T.sizeOf(($T) field);
+                                this.$$$LSize = size;""",
+                            sparrowhawkCollectionSymbol,
+                            mapSymbol,
+                            fieldName
+                        );
+                } else {
+                    writer.indent()
+                        .write(
+                            """
+                                $1T m = new $1T($2C);
+                                m.fromMap(($3T) field);
+                                this.$4L = m;
+                                size = canonical ? m.canonicalSize() : m.size();""",
+                            sparrowhawkCollectionSymbol,
+                            writer.consumer(w -> {
+                                if (isStructure(valueSymbol.expectProperty("shape", Shape.class))) {
+                                    w.writeInline("$T::new", valueSymbol);
+                                }
+                            }),
+                            mapSymbol,
+                            fieldName
+                        );
+                }
                 writer.dedent().write("}");
                 writer.write("return $T(size);", byteListLengthEncodedSize);
             });
         }
     }
 
+    /**
+     * Returns true if a map field that holds a plain java.util.Map is sized and encoded without first
+     * building its sparrowhawk collection. Maps of lists and maps still go through fromMap.
+     */
+    private boolean encodesMapDirectly(MemberShape field) {
+        var valueShape = mapValueTarget(model.expectShape(field.getTarget())).expectProperty("shape", Shape.class);
+        return !valueShape.isListShape() && !valueShape.isMapShape();
+    }
+
     private static boolean isString(Shape shape) {
         return shape.isStringShape() || shape.isEnumShape();
     }
@@ -509,7 +947,7 @@ public final class StructureGenerator implements Runnable {
 
         @Override
         void generate() {
-            writer.openBlock("private int $L() {", "}\n", methodName(), () -> {
+            openMethod(() -> {
                 var listType = isSparse(field) ? SparseStringList : StringList;
                 var fieldName = fieldName(field);
                 writer.write("Object field = $L;", fieldName);
@@ -522,17 +960,16 @@ public final class StructureGenerator implements Runnable {
                         );
                     });
                 }
+                writer.openBlock("if (field.getClass() == $T.class) {", "}", listType, () -> {
+                    writer.write("""
+                        $1T _list = ($1T) field;
+                        int size = canonical ? _list.canonicalSize() : _list.size();
+                        return $2T(size, _list.elementCount());""", listType, lenPrefixedListLengthEncodedSize);
+                });
+                // a plain list is sized here and encoded straight from its strings
                 writer.write("""
-                    $1T _list;
-                    if (field.getClass() == $1T.class) {""", listType);
-                writer.indent()
-                    .write("_list = ($T) field;", listType);
-                writer.dedent().write("} else {");
-                writer.indent().write("""
-                    _list = $1T.fromList((List<String>) field);
-                    this.$2L = _list;""", listType, fieldName);
-                writer.dedent().write("}");
-                writer.write("return $T(_list.size(), _list.elementCount());", lenPrefixedListLengthEncodedSize);
+                    List<String> _strings = (List<String>) field;
+                    return $T($T.sizeOf(_strings), _strings.size());""", lenPrefixedListLengthEncodedSize, listType);
             });
         }
     }
@@ -542,9 +979,14 @@ public final class StructureGenerator implements Runnable {
             super(field);
         }
 
+        @Override
+        boolean sizesCanonically() {
+            return false;
+        }
+
         @Override
         void generate() {
-            writer.openBlock("private int $L() {", "}\n", methodName(), () -> {
+            openMethod(() -> {
                 var fieldName = fieldName(field);
                 writer.write("Object field = $L;", fieldName);
                 if (isRequired(field)) {
@@ -557,6 +999,13 @@ public final class StructureGenerator implements Runnable {
                     });
                 }
 
+                var enumSymbol = enumSymbol(field);
+                if (enumSymbol != null) {
+                    writer.openBlock("if (field.getClass() == $T.class) {", "}", enumSymbol, () -> {
+                        writer.write("return (($T) field).encodedSize();", enumSymbol);
+                    });
+                }
+
                 writer.write("int size;");
                 // TODO: is this faster than instanceof?
                 writer.write("if (field.getClass() == byte[].class) {");
@@ -581,9 +1030,14 @@ public final class StructureGenerator implements Runnable {
             this.innerType = innerType;
         }
 
+        @Override
+        boolean sizesCanonically() {
+            return false;
+        }
+
         @Override
         void generate() {
-            writer.openBlock("private int $L() {", "}\n", methodName(), () -> {
+            openMethod(() -> {
                 var fieldName = fieldName(field);
                 if (isRequired(field)) {
                     writer.openBlock("if ($L == null) {", "}\n", fieldName, () -> {
@@ -607,6 +1061,52 @@ public final class StructureGenerator implements Runnable {
         }
     }
 
+    private final class SetSizer extends Sizer {
+        SetSizer(MemberShape field) {
+            super(field);
+        }
+
+        @Override
+        void generate() {
+            openMethod(() -> {
+                var setType = setCollection(field);
+                var fieldName = fieldName(field);
+                writer.write("Object field = $L;", fieldName);
+                if (isRequired(field)) {
+                    writer.openBlock("if (field == null) {", "}\n", () -> {
+                        writer.write(
+                            "$2T(\"Required field '$1L' is missing\");",
+                            field.getMemberName(),
+                            missingField
+                        );
+                    });
+                }
+                writer.write("""
+                    $1T _set;
+                    if (field.getClass() == $1T.class) {""", setType);
+                writer.indent()
+                    .write("_set = ($T) field;", setType);
+                writer.dedent().write("} else {");
+                writer.indent().write("""
+                    _set = $1T.fromSet(($2T) field);
+                    this.$3L = _set;""", setType, symbolProvider.toSymbol(field), fieldName);
+                writer.dedent().write("}");
+                // every set's size includes its element count
+                writer.write("return canonical ? _set.canonicalSize() : _set.size();");
+            });
+        }
+    }
+
+    /**
+     * Returns the hash-indexed set type of a uniqueItems list member, or null if the member is not one.
+     */
+    private SymbolReference setCollection(MemberShape field) {
+        if (!model.expectShape(field.getTarget()).isListShape()) {
+            return null;
+        }
+        return symbolProvider.toSymbol(field).getProperty("sparrowhawkCollection", SymbolReference.class).orElse(null);
+    }
+
     private final class StructureListSizer extends Sizer {
         StructureListSizer(MemberShape field) {
             super(field);
@@ -614,7 +1114,7 @@ public final class StructureGenerator implements Runnable {
 
         @Override
         void generate() {
-            writer.openBlock("private int $L() {", "}\n", methodName(), () -> {
+            openMethod(() -> {
                 var fieldName = fieldName(field);
                 if (isRequired(field)) {
                     writer.openBlock("if ($L == null) {", "}\n", fieldName, () -> {
@@ -626,13 +1126,21 @@ public final class StructureGenerator implements Runnable {
                     });
                 }
 
-                writer.write("int size = 0;");
-                writer.write("int len = $L.size();", fieldName);
-                writer.write("for (int i = 0; i < len; i++) {");
-                writer.indent().write("size += $T($L.get(i).size());", byteListLengthEncodedSize, fieldName);
+                var valueSymbol = listTarget(model.expectShape(field.getTarget()));
+                writer.write("""
+                    Object field = $L;
+                    $T<$T> _list;
+                    if (field.getClass() == $T.class) {""", fieldName, StructureList, valueSymbol, StructureList);
+                writer.indent()
+                    .write("_list = ($T<$T>) field;", StructureList, valueSymbol);
+                writer.dedent().write("} else {");
+                writer.indent().write("""
+                    _list = $1T.fromList(($2T) field, $3T::new);
+                    this.$4L = _list;""", StructureList, symbolProvider.toSymbol(field), valueSymbol, fieldName);
                 writer.dedent().write("}");
-                writer.write("size += $T($T(len));", uintSize, encodeLenPrefixedListLength);
-                writer.write("return size;");
+                writer.write("""
+                    int size = canonical ? _list.canonicalSize() : _list.size();
+                    return $T(size, _list.elementCount());""", lenPrefixedListLengthEncodedSize);
             });
         }
     }
@@ -645,7 +1153,7 @@ public final class StructureGenerator implements Runnable {
         return symbolProvider.toSymbol(shape).expectProperty("value", Symbol.class);
     }
 
-    private void fixedSizeSizer(Stream<MemberShape> fields, int scale) {
+    private void fixedSizeSizer(List<MemberShape> fields, int scale) {
         var optionalFields = new ArrayList<MemberShape>();
         var requiredFields = new ArrayList<MemberShape>();
         fields.forEach(f -> {
@@ -665,38 +1173,39 @@ public final class StructureGenerator implements Runnable {
         writer.write("return size;");
     }
 
-    private void generateFourByteSizeMethods() {
-        fixedSizeSizer(getAllFourByteMembers(), 4);
+    private void generateFourByteSizeMethods(List<MemberShape> fields) {
+        fixedSizeSizer(fields, 4);
     }
 
-    private void generateEightByteSizeMethods() {
-        fixedSizeSizer(getAllEightByteMembers(), 8);
+    private void generateEightByteSizeMethods(List<MemberShape> fields) {
+        fixedSizeSizer(fields, 8);
     }
 
     private void generateEncoder() {
-        generateMethod("public void encodeTo($T s)", CommonSymbols.SparrowhawkSerializer, this::generateEncodeTo);
-        if (index.hasVarintMembers(shape)) {
-            emitWriteVarints();
+        if (encodesStraightLine()) {
+            generateStraightLineEncoder();
+            // structures that kept unknown fields are encoded field set by field set
+            generateMethod(
+                "private void encodeWithUnknownFields($T s)",
+                CommonSymbols.SparrowhawkSerializer,
+                this::generateEncodeTo
+            );
+        } else {
+            generateMethod("public void encodeTo($T s)", CommonSymbols.SparrowhawkSerializer, () -> {
+                emitSourceCopy();
+                generateEncodeTo();
+            });
+        }
+        if (index.hasVarintMembers(shape)) {
+            emitWriteVarints();
         }
 
         if (index.hasFourByteMembers(shape)) {
-            emitFixedWidthEncoder(
-                KConstants.T_FOUR,
-                "fourByte",
-                "Float",
-                index::getFourByteFieldSetCount,
-                index::getFourByteMembers
-            );
+            emitFixedWidthEncoder(FieldType.FOUR_BYTE, "Float");
         }
 
         if (index.hasEightByteMembers(shape)) {
-            emitFixedWidthEncoder(
-                KConstants.T_EIGHT,
-                "eightByte",
-                "Double",
-                index::getEightByteFieldSetCount,
-                index::getEightByteMembers
-            );
+            emitFixedWidthEncoder(FieldType.EIGHT_BYTE, "Double");
         }
 
         if (index.hasListMembers(shape)) {
@@ -705,155 +1214,278 @@ public final class StructureGenerator implements Runnable {
     }
 
     private void emitListEncoder() {
-        writer.openBlock("private void writeListFields($T s) {", "}\n", CommonSymbols.SparrowhawkSerializer, () -> {
-            for (int j = 0; j < index.getListFieldSetCount(shape); j++) {
-                int fieldSetIdx = j;
-                writer.openBlock(
-                    "if ($$list_$L != $L) {",
-                    "}",
-                    fieldSetIdx,
-                    bitsToString(getEmpty(KConstants.T_LIST, fieldSetIdx)),
-                    () -> {
-                        writer.write("s.writeVarUL($$list_$L);", fieldSetIdx);
-                        if (fieldSetIdx > 0) {
-                            writer.write("s.writeVarUI($L);", fieldSetIdx - 1);
-                        }
-                        var listFields = index.getListMembers(shape, fieldSetIdx);
-                        for (int i = 0; i < listFields.size(); i++) {
-                            var field = listFields.get(i);
-                            var fieldName = fieldName(field);
-                            if (isOptional(field)) {
-                                writer.openBlock("if (has$L()) {", methodNameForField(field));
-                            }
+        List<MemberShape> outOfLine = new ArrayList<>();
+        emitFieldSetWriters("writeListFields", FieldType.LIST, field -> {
+            if (isOptional(field)) {
+                writer.openBlock("if (has$L()) {", methodNameForField(field));
+            }
+            if (splitsMembers(fieldSetOf(field))) {
+                outOfLine.add(field);
+                writer.write("$L(s);", memberMethod(field, "Write"));
+            } else {
+                emitListWrite(field);
+            }
+            if (isOptional(field)) {
+                writer.closeBlock("}");
+            }
+        });
+        for (var field : outOfLine) {
+            writer.openBlock(
+                "private void $L($T s) {",
+                "}\n",
+                memberMethod(field, "Write"),
+                CommonSymbols.SparrowhawkSerializer,
+                () -> emitListWrite(field)
+            );
+        }
+    }
 
-                            var fieldSymbol = symbolProvider.toSymbol(field);
-                            var target = model.expectShape(field.getTarget());
-                            if (isString(target)) {
-                                writer.write("s.writeBytes($L);", fieldName);
-                            } else if (target.isBlobShape()) {
-                                writer.write("s.writeBytes($L);", fieldName);
-                            } else if (target.isMapShape()) {
-                                writer.write(
-                                    "(($T) $L).encodeTo(s);",
-                                    fieldSymbol.expectProperty("sparrowhawkCollection", SymbolReference.class),
-                                    fieldName
-                                );
-                            } else if (target.isListShape()) {
-                                var valueType = listTarget(target);
-                                var valueShape = valueType.expectProperty("shape", Shape.class);
-                                if (isString(valueShape)) {
-                                    var listType = isSparse(field) ? SparseStringList : StringList;
-                                    writer.write("(($T) $L).encodeTo(s);", listType, fieldName);
-                                } else if (isVarintShape(valueShape) || valueShape.isDoubleShape() || valueShape
-                                    .isFloatShape()) {
-                                        writer.write("s.write$TList($L);", valueType, fieldName);
-                                    } else if (isStructure(valueShape)) {
-                                        writer.write(
-                                            "s.writeVarUL(encodeLenPrefixedListLength($L.size()));",
-                                            fieldName
-                                        );
-                                        writer.write("for(int i = 0; i < $L.size(); i++) {", fieldName);
-                                        writer.indent().write("$L.get(i).encodeTo(s);", fieldName);
-                                        writer.dedent().write("}");
-                                    } else {
-                                        throw new RuntimeException("no list encoder for: " + field);
-                                    }
-                            } else if (isStructure(target)) {
-                                writer.write("$L.encodeTo(s);", fieldName);
-                            } else {
-                                throw new RuntimeException("unsupported list encoder: " + field);
-                            }
+    private void emitListWrite(MemberShape field) {
+        var fieldName = fieldName(field);
+        var fieldSymbol = symbolProvider.toSymbol(field);
+        var target = model.expectShape(field.getTarget());
+        if (isString(target) && enumSymbol(field) != null) {
+            writer.write("""
+                if ($1L.getClass() == $2T.class) {
+                    (($2T) $1L).encodeTo(s);
+                } else {
+                    s.writeBytes($1L);
+                }""", fieldName, enumSymbol(field));
+        } else if (isString(target)) {
+            writer.write("s.writeBytes($L);", fieldName);
+        } else if (target.isBlobShape()) {
+            writer.write("s.writeBytes($L);", fieldName);
+        } else if (target.isMapShape()) {
+            var collection = fieldSymbol.expectProperty("sparrowhawkCollection", SymbolReference.class);
+            if (encodesMapDirectly(field) && isStructure(mapValueTarget(target).expectProperty("shape", Shape.class))) {
+                // the size kept by the sizer is not the canonical one
+                writer.write("""
+                    if ($1L.getClass() == $2T.class) {
+                        (($2T) $1L).encodeTo(s);
+                    } else {
+                        $3T m = ($3T) $1L;
+                        $2T.encode(m, s.isCanonical() ? $2T.canonicalSizeOf(m) : $$$1LSize, s);
+                    }""", fieldName, collection, fieldSymbol);
+            } else if (encodesMapDirectly(field)) {
+                writer.write("""
+                    if ($1L.getClass() == $2T.class) {
+                        (($2T) $1L).encodeTo(s);
+                    } else {
+                        $2T.encode(($3T) $1L, $$$1LSize, s);
+                    }""", fieldName, collection, fieldSymbol);
+            } else {
+                writer.write("(($T) $L).encodeTo(s);", collection, fieldName);
+            }
+        } else if (setCollection(field) != null) {
+            writer.write("(($T) $L).encodeTo(s);", setCollection(field), fieldName);
+        } else if (target.isListShape()) {
+            var valueType = listTarget(target);
+            var valueShape = valueType.expectProperty("shape", Shape.class);
+            if (isString(valueShape)) {
+                var listType = isSparse(field) ? SparseStringList : StringList;
+                writer.write("""
+                    if ($1L.getClass() == $2T.class) {
+                        (($2T) $1L).encodeTo(s);
+                    } else {
+                        $2T.encode((List<String>) $1L, s);
+                    }""", fieldName, listType);
+            } else if (isVarintShape(valueShape) || valueShape.isDoubleShape() || valueShape.isFloatShape()) {
+                writer.write("s.write$TList($L);", valueType, fieldName);
+            } else if (isStructure(valueShape)) {
+                writer.write("(($T<?>) $L).encodeTo(s);", StructureList, fieldName);
+            } else {
+                throw new RuntimeException("no list encoder for: " + field);
+            }
+        } else if (isStructure(target)) {
+            writer.write("$L.encodeTo(s);", fieldName);
+        } else {
+            throw new RuntimeException("unsupported list encoder: " + field);
+        }
+    }
 
-                            if (isOptional(field)) {
-                                writer.closeBlock("}");
-                                if (i < listFields.size() - 1) {
-                                    writer.write("");
-                                }
-                            }
-                        }
-                    }
-                );
+    private void emitWriteVarints() {
+        emitFieldSetWriters("writeVarints", FieldType.VARINT, field -> {
+            if (isOptional(field)) {
+                writer.openBlock("if (has$L()) {", methodNameForField(field));
+            }
+            writer.write("s.write$L($L);", capitalize(varintSerializeMethod(field)), fieldName(field));
+            if (isOptional(field)) {
+                writer.closeBlock("}");
             }
         });
     }
 
-    private void emitWriteVarints() {
-        writer.openBlock("private void writeVarints($T s) {", "}\n", CommonSymbols.SparrowhawkSerializer, () -> {
-            for (int j = 0; j < index.getVarintFieldSetCount(shape); j++) {
-                int fieldSetIdx = j;
-                writer.openBlock(
-                    "if ($$varint_$L != $L) {",
-                    "}",
-                    fieldSetIdx,
-                    bitsToString(getEmpty(KConstants.T_VARINT, fieldSetIdx)),
-                    () -> {
-                        writer.write("s.writeVarUL($$varint_$L);", fieldSetIdx);
-                        if (fieldSetIdx > 0) {
-                            writer.write("s.writeVarUI($L);", fieldSetIdx - 1);
-                        }
-                        for (var field : index.getVarintMembers(shape, fieldSetIdx)) {
-                            if (isOptional(field)) {
-                                writer.openBlock("if (has$L()) {", methodNameForField(field));
-                            }
-                            writer.write("s.write$L($L);", capitalize(varintSerializeMethod(field)), fieldName(field));
-                            if (isOptional(field)) {
-                                writer.closeBlock("}");
-                            }
-                        }
-                    }
-                );
+    private void emitFixedWidthEncoder(FieldType type, String method) {
+        emitFieldSetWriters("write" + capitalize(type.lowercaseId) + "Fields", type, field -> {
+            if (isOptional(field)) {
+                writer.openBlock("if (has$L()) {", methodNameForField(field));
+            }
+            String m = method;
+            if (model.expectShape(field.getTarget()).isTimestampShape()) {
+                m = settings.useInstant() ? "Instant" : "Date";
+            }
+            writer.write("s.write$L($L);", m, fieldName(field));
+            if (isOptional(field)) {
+                writer.closeBlock("}");
             }
         });
     }
 
-    private void emitFixedWidthEncoder(
-        int width,
-        String fieldsetPrefix,
-        String method,
-        Function<ToShapeId, Integer> fieldSetCount,
-        BiFunction<ToShapeId, Integer, List<MemberShape>> fieldFn
-    ) {
+    /**
+     * Generates the method writing every field set of a type. Past the method budget each field set is written by
+     * a method of its own, which is not called for a field set with no members set and no unknown members to keep.
+     */
+    private void emitFieldSetWriters(String method, FieldType type, Consumer<MemberShape> member) {
+        boolean split = splitsFieldSets(type);
+        writer.openBlock("private void $L($T s) {", "}\n", method, CommonSymbols.SparrowhawkSerializer, () -> {
+            writer.write("$T u = $$unknown;", CommonSymbols.UnknownFields);
+            for (var fieldSet : fieldSetsOf(type)) {
+                if (split) {
+                    emitFieldSetCall(fieldSet, "write$L(s, u);", true);
+                } else {
+                    emitFieldSetWrite(fieldSet, member);
+                }
+            }
+        });
+        if (!split) {
+            return;
+        }
+        for (var fieldSet : fieldSetsOf(type)) {
+            writer.openBlock(
+                "private void write$L($T s, $T u) {",
+                "}\n",
+                fieldSetMethod(fieldSet),
+                CommonSymbols.SparrowhawkSerializer,
+                CommonSymbols.UnknownFields,
+                () -> emitFieldSetWrite(fieldSet, member)
+            );
+        }
+    }
+
+    private FieldSet fieldSet(FieldType type, int fieldSetIdx) {
+        for (var fieldSet : fieldSets) {
+            if (fieldSet.type() == type && fieldSet.fieldSetIdx() == fieldSetIdx) {
+                return fieldSet;
+            }
+        }
+        throw new IllegalStateException("no " + type + " field set " + fieldSetIdx);
+    }
+
+    /**
+     * Writes a field set's header and then its members. A field set with optional members is skipped when none of
+     * them are set; one whose members are all required is always written, from its precomputed header. Unknown
+     * members kept from decoding, held in the local {@code u}, are written back between the known ones in bit
+     * order.
+     */
+    private void emitFieldSetWrite(FieldSet fieldSet, Consumer<MemberShape> member) {
+        int fieldSetIdx = fieldSet.fieldSetIdx();
+        int key = unknownKey(fieldSet);
+        Runnable members = () -> {
+            int from = 0;
+            for (var field : fieldSet.members()) {
+                int bit = field.expectTrait(SparrowhawkFieldTrait.class).getTypeIdx() - 1;
+                if (bit > from) {
+                    writer.write("if (u != null) u.writeMembers(s, $L, $L, $L);", key, from, bit);
+                }
+                member.accept(field);
+                from = bit + 1;
+            }
+            if (from < 61) {
+                writer.write("if (u != null) u.writeMembers(s, $L, $L, 61);", key, from);
+            }
+        };
+
+        if (hasConstantHeader(fieldSet)) {
+            writer.openBlock("if (u == null) {");
+            writer.write("s.writeRawBytes($L);", headerName(fieldSet));
+            writer.dedent().write("} else {").indent();
+            writer.write("s.writeVarUL(REQUIRED_$L_$L | u.bits($L));", fieldSet.type().uppercaseId, fieldSetIdx, key);
+            if (fieldSetIdx > 0) {
+                writer.write("s.writeVarUI($L);", fieldSetIdx - 1);
+            }
+            writer.closeBlock("}");
+            members.run();
+            return;
+        }
+        String local = "fieldSet" + fieldSetIdx;
+        writer.write("long $1L = u == null ? $2L : $2L | u.bits($3L);", local, fieldSet.name(), key);
         writer.openBlock(
-            "private void write$LByteFields($T s) {",
-            "}\n",
-            width == KConstants.T_FOUR ? "Four" : "Eight",
-            CommonSymbols.SparrowhawkSerializer,
+            "if ($L != $L) {",
+            "}",
+            local,
+            bitsToString(getEmpty(fieldSet.type().wireType, fieldSetIdx)),
             () -> {
-                for (int j = 0; j < fieldSetCount.apply(shape); j++) {
-                    int fieldSetIdx = j;
-                    writer.openBlock(
-                        "if ($$$L_$L != $L) {",
-                        "}",
-                        fieldsetPrefix,
-                        fieldSetIdx,
-                        bitsToString(getEmpty(width, fieldSetIdx)),
-                        () -> {
-                            writer.write("s.writeVarUL($$$L_$L);", fieldsetPrefix, fieldSetIdx);
-                            if (fieldSetIdx > 0) {
-                                writer.write("s.writeVarUI($L);", fieldSetIdx - 1);
-                            }
-                            for (var field : fieldFn.apply(shape, fieldSetIdx)) {
-                                if (isOptional(field)) {
-                                    writer.openBlock("if (has$L()) {", methodNameForField(field));
-                                }
-                                String m = method;
-                                if (model.expectShape(field.getTarget()).isTimestampShape()) {
-                                    m = settings.useInstant() ? "Instant" : "Date";
-                                }
-                                writer.write("s.write$L($L);", m, fieldName(field));
-                                if (isOptional(field)) {
-                                    writer.closeBlock("}");
-                                }
-                            }
-                        }
-                    );
+                writer.write("s.writeVarUL($L);", local);
+                if (fieldSetIdx > 0) {
+                    writer.write("s.writeVarUI($L);", fieldSetIdx - 1);
                 }
+                members.run();
             }
         );
     }
 
+    /**
+     * Encodes a structure of constant size at offsets fixed here, after a single bounds check. Its length prefix
+     * and field set headers are precomputed.
+     */
+    private void generateStraightLineEncoder() {
+        int size = constantStructureSize();
+        var prefix = new SparrowhawkSerializer(new byte[SparrowhawkSerializer.byteListLengthEncodedSize(size) - size]);
+        prefix.writeVarUL(KConstants.encodeByteListLength(size));
+        writer.write("private static final byte[] LENGTH_PREFIX = {$L};\n", byteLiterals(prefix.payload()));
+        generateMethod("public void encodeTo($T s)", CommonSymbols.SparrowhawkSerializer, () -> {
+            emitSourceCopy();
+            writer.write("""
+                if ($$unknown != null) {
+                    encodeWithUnknownFields(s);
+                    return;
+                }
+                int p = s.reserve($L);
+                s.putBytes(p, LENGTH_PREFIX);""", prefix.position() + size);
+            int offset = prefix.position();
+            for (var type : List.of(FieldType.VARINT, FieldType.FOUR_BYTE, FieldType.EIGHT_BYTE)) {
+                for (var fieldSet : fieldSets) {
+                    if (fieldSet.type() != type) {
+                        continue;
+                    }
+                    writer.write("s.putBytes(p + $L, $L);", offset, headerName(fieldSet));
+                    offset += header(fieldSet).length;
+                    for (var field : fieldSet.members()) {
+                        String method = switch (type) {
+                            case VARINT -> "putBool";
+                            case FOUR_BYTE -> "putFloat";
+                            default -> "putDouble";
+                        };
+                        writer.write("s.$L(p + $L, $L);", method, offset, fieldName(field));
+                        offset += constantSize(field);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Copies the encoding this object was decoded from if it has not been modified since. Canonical encoding
+     * re-encodes instead, unless the source bytes were declared canonical when they were decoded. Only the body is
+     * copied, under a length prefix of its own, since the one it was read with may be longer than {@code size()}
+     * allows for.
+     */
+    private void emitSourceCopy() {
+        writer.write("""
+            if ($$source != null && (!s.isCanonical() || $$sourceCanonical)) {
+                int start = $$sourceStart + $1T($$source[$$sourceStart]);
+                s.writeVarUL($2T($$sourceEnd - start));
+                s.writeEncodedObject($$source, start, $$sourceEnd - start);
+                return;
+            }""", varintLength, encodeByteListLength);
+    }
+
     private void generateEncodeTo() {
-        writer.write("s.writeVarUL($T(size()));", encodeByteListLength);
+        if (fieldSets.isEmpty()) {
+            writer.write("s.writeVarUL($T(size()));", encodeByteListLength);
+        } else {
+            writer.write("s.writeVarUL($T(s.isCanonical() ? canonicalSize() : size()));", encodeByteListLength);
+        }
         if (index.hasVarintMembers(shape)) {
             writer.write("writeVarints(s);");
         }
@@ -869,6 +1501,8 @@ public final class StructureGenerator implements Runnable {
         if (index.hasListMembers(shape)) {
             writer.write("writeListFields(s);");
         }
+
+        writer.write("if ($$unknown != null) $$unknown.writeFieldSets(s);");
     }
 
     private void generateDecoder() {
@@ -927,28 +1561,37 @@ public final class StructureGenerator implements Runnable {
         }
     }
 
-    private void emitDecoderPrelude(String fieldSetName, String requiredFields, String type) {
-        writer.write("""
-            SparrowhawkDeserializer.checkFields(fieldSet, $L, "$L");
-            this.$L = fieldSet;""", requiredFields, type, fieldSetName);
+    private void emitDecoderPrelude(String requiredFields, String type) {
+        writer.write("SparrowhawkDeserializer.checkFields(fieldSet, $L, \"$L\");", requiredFields, type);
     }
 
-    private void emitVarintDecodeMethod() {
-        writer.openBlock("switch (fieldSetIdx) {", """
-                default: throw new IllegalArgumentException("Unknown fieldSet index " + fieldSetIdx);
-            }""", () -> {
-            for (int i = 0; i < index.getVarintFieldSetCount(shape); i++) {
+    /**
+     * Dispatches a field set to its decoder by index. Field sets with an index this class does not know are kept
+     * as raw bytes.
+     */
+    private void emitFieldSetDispatch(int fieldSetCount, String decoderPrefix) {
+        writer.openBlock("switch (fieldSetIdx) {", "}", () -> {
+            for (int i = 0; i < fieldSetCount; i++) {
                 int fieldSetIdx = i;
                 writer.openBlock(
                     "case $L:",
                     "    break;",
                     fieldSetIdx,
-                    () -> writer.write("decodeVarintFieldSet$L(d, fieldSet);", fieldSetIdx)
+                    () -> writer.write("$L$L(d, fieldSet);", decoderPrefix, fieldSetIdx)
                 );
             }
+            writer.write("default:");
+            writer.indent().write(
+                "this.$$unknown = $T.addFieldSet(this.$$unknown, d, fieldSetIdx, fieldSet);",
+                CommonSymbols.UnknownFields
+            ).dedent();
         });
     }
 
+    private void emitVarintDecodeMethod() {
+        emitFieldSetDispatch(index.getVarintFieldSetCount(shape), "decodeVarintFieldSet");
+    }
+
     private void writeVarintFieldsetDecode(int fieldSetIdx, List<MemberShape> varintMembers) {
         writer.openBlock(
             "private void decodeVarintFieldSet$L($T d, long fieldSet) {",
@@ -956,16 +1599,10 @@ public final class StructureGenerator implements Runnable {
             fieldSetIdx,
             CommonSymbols.SparrowhawkDeserializer,
             () -> {
-                emitDecoderPrelude("$varint_" + fieldSetIdx, "REQUIRED_VARINT_" + fieldSetIdx, "varint");
-                for (var field : varintMembers) {
-                    if (isOptional(field)) {
-                        writer.openBlock("if (has$L()) {", methodNameForField(field));
-                    }
+                emitDecoderPrelude("REQUIRED_VARINT_" + fieldSetIdx, "varint");
+                emitFieldReads(varintMembers, false, field -> {
                     writer.write("this.$L = d.$L();", fieldName(field), varintSerializeMethod(field));
-                    if (isOptional(field)) {
-                        writer.closeBlock("}");
-                    }
-                }
+                });
             }
         );
     }
@@ -983,19 +1620,7 @@ public final class StructureGenerator implements Runnable {
         String width,
         int fieldSetCount
     ) {
-        writer.openBlock("switch (fieldSetIdx) {", """
-                default: throw new IllegalArgumentException("Unknown fieldSet index " + fieldSetIdx);
-            }""", () -> {
-            for (int i = 0; i < fieldSetCount; i++) {
-                int fieldSetIdx = i;
-                writer.openBlock(
-                    "case $L:",
-                    "    break;",
-                    fieldSetIdx,
-                    () -> writer.write("decode$LByteFieldSet$L(d, fieldSet);", capitalize(width), fieldSetIdx)
-                );
-            }
-        });
+        emitFieldSetDispatch(fieldSetCount, "decode" + capitalize(width) + "ByteFieldSet");
     }
 
     private void emitFixedWidthFieldSetDecoder(
@@ -1012,23 +1637,16 @@ public final class StructureGenerator implements Runnable {
             CommonSymbols.SparrowhawkDeserializer,
             () -> {
                 emitDecoderPrelude(
-                    "$" + width + "Byte_" + fieldSetIdx,
                     "REQUIRED_" + upperCase(width) + "_BYTE_" + fieldSetIdx,
                     width + "-byte"
                 );
-                for (MemberShape field : fields) {
-                    if (isOptional(field)) {
-                        writer.openBlock("if (has$L()) {", methodNameForField(field));
-                    }
+                emitFieldReads(fields, false, field -> {
                     String m = method;
                     if (model.expectShape(field.getTarget()).isTimestampShape()) {
                         m = settings.useInstant() ? "instant" : "date";
                     }
                     writer.write("this.$L = d.$L();", fieldName(field), m);
-                    if (isOptional(field)) {
-                        writer.closeBlock("}");
-                    }
-                }
+                });
             }
         );
     }
@@ -1050,23 +1668,12 @@ public final class StructureGenerator implements Runnable {
     }
 
     private void emitListDecodeMethod() {
-        writer.openBlock("switch (fieldSetIdx) {", """
-                default: throw new IllegalArgumentException("Unknown fieldSet index " + fieldSetIdx);
-            }""", () -> {
-            for (int i = 0; i < index.getListFieldSetCount(shape); i++) {
-                int fieldSetIdx = i;
-                writer.openBlock(
-                    "case $L:",
-                    "    break;",
-                    fieldSetIdx,
-                    () -> writer.write("decodeListFieldSet$L(d, fieldSet);", fieldSetIdx)
-                );
-            }
-        });
-
+        emitFieldSetDispatch(index.getListFieldSetCount(shape), "decodeListFieldSet");
     }
 
     private void emitListFieldSetDecoderMethod(int fieldSetIdx) {
+        boolean split = splitsMembers(fieldSet(FieldType.LIST, fieldSetIdx));
+        var members = index.getListMembers(shape, fieldSetIdx);
         writer.openBlock(
             "private void decodeListFieldSet$L($T d, long fieldSet) {",
             "}\n",
@@ -1080,74 +1687,151 @@ public final class StructureGenerator implements Runnable {
                         fieldSetIdx
                     );
                 }
-                writer.write("this.$$list_$L = fieldSet;", fieldSetIdx);
-                for (var field : index.getListMembers(shape, fieldSetIdx)) {
-                    if (isOptional(field)) {
-                        writer.openBlock("if (has$L()) {", methodNameForField(field));
+                emitFieldReads(members, !split, field -> {
+                    if (split) {
+                        writer.write("$L(d);", memberMethod(field, "Read"));
                     } else {
-                        writer.openBlock("{");
+                        emitListRead(field);
                     }
+                });
+            }
+        );
+        if (split) {
+            // both the bit-testing and the bit-walking path of the decoder read every member, so past the method
+            // budget they share these
+            for (var field : members) {
+                writer.openBlock(
+                    "private void $L($T d) {",
+                    "}\n",
+                    memberMethod(field, "Read"),
+                    CommonSymbols.SparrowhawkDeserializer,
+                    () -> emitListRead(field)
+                );
+            }
+        }
+    }
 
-                    var fieldSymbol = symbolProvider.toSymbol(field);
-                    var shape = model.expectShape(field.getTarget());
-                    var fieldName = fieldName(field);
-                    if (shape.isBlobShape()) {
-                        writer.write("this.$L = d.bytes();", fieldName);
-                    } else if (isString(shape)) {
-                        writer.write("this.$L = d.string();", fieldName);
-                    } else if (shape.isMapShape()) {
-                        var valueSymbol = mapValueTarget(model.expectShape(field.getTarget()));
-                        writer.write(
-                            """
-                                $1T m = new $1T($2C);
-                                m.decodeFrom(d);
-                                this.$3L = m;""",
-                            fieldSymbol.expectProperty("sparrowhawkCollection", SymbolReference.class),
-                            writer.consumer(w -> {
-                                if (isStructure(valueSymbol.expectProperty("shape", Shape.class))) {
-                                    w.writeInline("$T::new", valueSymbol);
-                                }
-                            }),
-                            fieldName
-                        );
-                    } else if (shape.isListShape()) {
-                        var valueSymbol = listTarget(model.expectShape(field.getTarget()));
-                        var valueType = valueSymbol.expectProperty("shape", Shape.class);
-                        if (isString(valueType)) {
-                            var listType = isSparse(field) ? SparseStringList : StringList;
-                            writer.write("""
-                                $1T l = new $1T();
-                                l.decodeFrom(d);
-                                this.$2L = l;""", listType, fieldName);
-                        } else if (isVarintShape(valueType) || valueType.isFloatShape() || valueType.isDoubleShape()) {
-                            writer.write("this.$L = d.decode$TList();", fieldName, valueSymbol);
-                        } else if (isStructure(valueType)) {
-                            var temporaryArrayName = String.format("%sArr", fieldName);
-                            writer.write("int $LLen = $T(d.varUL());", fieldName, decodeLenPrefixedListLengthChecked);
-                            writer.write("$1T[] $2L = new $1T[$3LLen];", valueSymbol, temporaryArrayName, fieldName);
-                            writer.write("for (int i = 0; i < $LLen; i++) {", fieldName);
-                            writer.indent().write("$1T x = new $1T();", valueSymbol);
-                            writer.write("x.decodeFrom(d);");
-                            writer.write("$L[i] = x;", temporaryArrayName);
-                            writer.dedent().write("}");
-                            writer.write("this.$L = $T($L);", fieldName, asList, temporaryArrayName);
-                        } else {
-                            throw new RuntimeException("can't handle: " + field);
-                        }
-                    } else if (isStructure(shape)) {
-                        writer.write("""
-                            $1T obj = new $1T();
-                            obj.decodeFrom(d);
-                            this.$2L = obj;""", fieldSymbol, fieldName);
-                    } else {
-                        throw new RuntimeException("no decoder for: " + field);
+    private void emitListRead(MemberShape field) {
+        var fieldSymbol = symbolProvider.toSymbol(field);
+        var shape = model.expectShape(field.getTarget());
+        var fieldName = fieldName(field);
+        if (shape.isBlobShape()) {
+            writer.write("this.$L = d.bytes();", fieldName);
+        } else if (isString(shape) && enumSymbol(field) != null) {
+            writer.write("this.$L = $T.decode(d);", fieldName, enumSymbol(field));
+        } else if (isString(shape)) {
+            writer.write("this.$L = d.string();", fieldName);
+        } else if (shape.isMapShape()) {
+            var valueSymbol = mapValueTarget(model.expectShape(field.getTarget()));
+            writer.write(
+                """
+                    $1T m = new $1T($2C);
+                    m.decodeFrom(d);
+                    this.$3L = m;""",
+                fieldSymbol.expectProperty("sparrowhawkCollection", SymbolReference.class),
+                writer.consumer(w -> {
+                    if (isStructure(valueSymbol.expectProperty("shape", Shape.class))) {
+                        w.writeInline("$T::new", valueSymbol);
                     }
-
-                    writer.closeBlock("}");
+                }),
+                fieldName
+            );
+        } else if (setCollection(field) != null) {
+            writer.write("""
+                $1T set = new $1T();
+                set.decodeFrom(d);
+                this.$2L = set;""", setCollection(field), fieldName);
+        } else if (shape.isListShape()) {
+            var valueSymbol = listTarget(model.expectShape(field.getTarget()));
+            var valueType = valueSymbol.expectProperty("shape", Shape.class);
+            if (isString(valueType)) {
+                var listType = isSparse(field) ? SparseStringList : StringList;
+                writer.write("""
+                    $1T l = new $1T();
+                    l.decodeFrom(d);
+                    this.$2L = l;""", listType, fieldName);
+            } else if (isVarintShape(valueType) || valueType.isFloatShape() || valueType.isDoubleShape()) {
+                writer.write("this.$L = d.decode$TList();", fieldName, valueSymbol);
+            } else if (isStructure(valueType)) {
+                writer.write("""
+                    $1T<$2T> l = new $1T<>($2T::new);
+                    l.decodeFrom(d);
+                    this.$3L = l;""", StructureList, valueSymbol, fieldName);
+            } else {
+                throw new RuntimeException("can't handle: " + field);
+            }
+        } else if (isStructure(shape)) {
+            // decode into the nested structure left by a previous decode or clear()
+            writer.write("""
+                $1T obj = this.$2L;
+                if (obj == null) {
+                    obj = new $1T();
+                    this.$2L = obj;
                 }
+                obj.decodeFrom(d);""", fieldSymbol, fieldName);
+        } else {
+            throw new RuntimeException("no decoder for: " + field);
+        }
+    }
+
+    /**
+     * Emits the reads of the members present in a field set, after storing its known bits. By default every
+     * member's bit is tested in order. With the bitsetDecoders setting, or when the field set has members this
+     * class does not know, only the set bits are visited, lowest first, which is the order the members are
+     * encoded in; each is dispatched through a switch on its index, and unknown members are kept as raw bytes.
+     */
+    private void emitFieldReads(List<MemberShape> fields, boolean scoped, Consumer<MemberShape> read) {
+        var trait = fields.get(0).expectTrait(SparrowhawkFieldTrait.class);
+        var fieldSet = fieldSet(trait.getType(), trait.getFieldSetIdx());
+        long known = 0b111;
+        for (var field : fields) {
+            known |= 1L << (field.expectTrait(SparrowhawkFieldTrait.class).getTypeIdx() - 1 + 3);
+        }
+        writer.write("this.$L = fieldSet & $L;", fieldSet.name(), bitsToString(known));
+        if (settings.bitsetDecoders()) {
+            emitBitWalk(fieldSet, fields, read);
+            return;
+        }
 
+        writer.openBlock("if ((fieldSet & ~$L) == 0) {", bitsToString(known));
+        for (var field : fields) {
+            if (isOptional(field)) {
+                writer.openBlock("if (has$L()) {", methodNameForField(field));
+            } else if (scoped) {
+                writer.openBlock("{");
             }
-        );
+            read.accept(field);
+            if (isOptional(field) || scoped) {
+                writer.closeBlock("}");
+            }
+        }
+        writer.dedent().write("} else {").indent();
+        emitBitWalk(fieldSet, fields, read);
+        writer.closeBlock("}");
+    }
+
+    private void emitBitWalk(FieldSet fieldSet, List<MemberShape> fields, Consumer<MemberShape> read) {
+        writer.write("long bits = fieldSet >>> 3;");
+        writer.openBlock("while (bits != 0) {", "}", () -> {
+            writer.write("""
+                int i = Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;""");
+            writer.openBlock("switch (i) {", "}", () -> {
+                for (var field : fields) {
+                    int bit = field.expectTrait(SparrowhawkFieldTrait.class).getTypeIdx() - 1;
+                    writer.openBlock("case $L -> {", "}", bit, () -> read.accept(field));
+                }
+                writer.write(
+                    "default -> this.$$unknown = $T.addMember(this.$$unknown, d, $L, i);",
+                    CommonSymbols.UnknownFields,
+                    unknownKey(fieldSet)
+                );
+            });
+        });
+    }
+
+    private static int unknownKey(FieldSet fieldSet) {
+        return (fieldSet.fieldSetIdx() << 2) | fieldSet.type().wireType;
     }
 
     private static boolean isVarintShape(Shape type) {
@@ -1172,8 +1856,34 @@ public final class StructureGenerator implements Runnable {
         };
     }
 
+    private void emitSingleFieldSetDecode(String decoder) {
+        writer.write("""
+            if (fieldSetIdx == 0) {
+                $L(d, fieldSet);
+            } else {
+                this.$$unknown = $T.addFieldSet(this.$$unknown, d, fieldSetIdx, fieldSet);
+            }""", decoder, CommonSymbols.UnknownFields);
+    }
+
     private void generateDecodeFrom() {
+        if (settings.immutableStructures()) {
+            writer.write("""
+                if ($$built) {
+                    throw new IllegalStateException("$L is immutable, so it can only be decoded into once");
+                }""", symbol.getName());
+        }
+        writer.write("this.$$unknown = null;");
+        // field sets missing from the payload must not keep bits from an earlier decode into this instance
+        for (var fieldSet : fieldSets) {
+            writer.write(
+                "this.$L = REQUIRED_$L_$L;",
+                fieldSet.name(),
+                fieldSet.type().uppercaseId,
+                fieldSet.fieldSetIdx()
+            );
+        }
         writer.openBlock("""
+            int sourceStart = d.pos();
             int size = (int) $T(d.varUI());
             this.$$size = size;
             int start = d.pos();
@@ -1190,11 +1900,7 @@ public final class StructureGenerator implements Runnable {
                 if (index.getListFieldSetCount(shape) > 1) {
                     writer.write("decodeListFieldSet(d, fieldSetIdx, fieldSet);");
                 } else {
-                    // TODO: skip unknown fieldsets!
-                    writer.write(
-                        "if (fieldSetIdx != 0) { throw new IllegalArgumentException(\"unknown fieldSetIdx \" + fieldSetIdx); }"
-                    );
-                    writer.write("decodeListFieldSet0(d, fieldSet);");
+                    emitSingleFieldSetDecode("decodeListFieldSet0");
                 }
             }
             if (index.hasVarintMembers(shape)) {
@@ -1205,11 +1911,7 @@ public final class StructureGenerator implements Runnable {
                 if (index.getVarintFieldSetCount(shape) > 1) {
                     writer.write("decodeVarintFieldSet(d, fieldSetIdx, fieldSet);");
                 } else {
-                    // TODO: skip unknown fieldsets!
-                    writer.write(
-                        "if (fieldSetIdx != 0) { throw new IllegalArgumentException(\"unknown fieldSetIdx \" + fieldSetIdx); }"
-                    );
-                    writer.write("decodeVarintFieldSet0(d, fieldSet);");
+                    emitSingleFieldSetDecode("decodeVarintFieldSet0");
                 }
             }
             if (index.hasFourByteMembers(shape)) {
@@ -1220,11 +1922,7 @@ public final class StructureGenerator implements Runnable {
                 if (index.getFourByteFieldSetCount(shape) > 1) {
                     writer.write("decodeFourByteFieldSet(d, fieldSetIdx, fieldSet);");
                 } else {
-                    // TODO: skip unknown fieldsets!
-                    writer.write(
-                        "if (fieldSetIdx != 0) { throw new IllegalArgumentException(\"unknown fieldSetIdx \" + fieldSetIdx); }"
-                    );
-                    writer.write("decodeFourByteFieldSet0(d, fieldSet);");
+                    emitSingleFieldSetDecode("decodeFourByteFieldSet0");
                 }
             }
             if (index.hasEightByteMembers(shape)) {
@@ -1239,11 +1937,7 @@ public final class StructureGenerator implements Runnable {
                 if (index.getEightByteFieldSetCount(shape) > 1) {
                     writer.write("decodeEightByteFieldSet(d, fieldSetIdx, fieldSet);");
                 } else {
-                    // TODO: skip unknown fieldsets!
-                    writer.write(
-                        "if (fieldSetIdx != 0) { throw new IllegalArgumentException(\"unknown fieldSetIdx \" + fieldSetIdx); }"
-                    );
-                    writer.write("decodeEightByteFieldSet0(d, fieldSet);");
+                    emitSingleFieldSetDecode("decodeEightByteFieldSet0");
                 }
             }
             if (emitted > 0) {
@@ -1256,36 +1950,455 @@ public final class StructureGenerator implements Runnable {
                     writer.writeInline("}");
                     writer.openBlock(" else {");
                 }
-                writer.write("""
-                    throw new RuntimeException("Unexpected field set type: " + type);""");
+                // a wire type this class has no members of
+                writer.write(
+                    "this.$$unknown = $T.addFieldSet(this.$$unknown, d, fieldSetIdx, fieldSet);",
+                    CommonSymbols.UnknownFields
+                );
                 if (emitted > 0) {
                     writer.closeBlock("}");
                 }
             }
         });
+        writer.write("""
+            this.$$source = d.retained();
+            this.$$sourceStart = d.retainedPos(sourceStart);
+            this.$$sourceEnd = d.retainedPos(d.pos());
+            this.$$sourceCanonical = d.isCanonical();
+            this.$$canonicalSize = -1;
+            this.$$hash = 0;""");
+        if (settings.immutableStructures()) {
+            // nested collections decode lazily, which would write to them once this is shared
+            getAllListMembers().filter(this::holdsObjects).forEach(field -> {
+                writer.write(
+                    "if ($L instanceof $T _o) _o.decodeAll();",
+                    fieldName(field),
+                    CommonSymbols.SparrowhawkObject
+                );
+            });
+            writer.write("""
+                this.$$built = true;
+                $T.releaseFence();""", CommonSymbols.VarHandle);
+        }
+    }
+
+    /**
+     * Returns true if a list or map member may hold a collection that decodes its values lazily.
+     */
+    private boolean holdsObjects(MemberShape field) {
+        var target = model.expectShape(field.getTarget());
+        Symbol value;
+        if (target.isListShape()) {
+            value = listTarget(target);
+        } else if (target.isMapShape()) {
+            value = mapValueTarget(target);
+        } else {
+            return false;
+        }
+        var valueShape = value.expectProperty("shape", Shape.class);
+        return isStructure(valueShape) || valueShape.isListShape() || valueShape.isMapShape();
+    }
+
+    /**
+     * Generates a byte-level merge of two encodings of this structure. Nested structures in members configured as
+     * mergeable are merged recursively; every other member is copied whole from the side that has it, the patch
+     * winning.
+     */
+    private void generateMerge() {
+        writer.writeInline("public static final $1T MERGE = new $1T()", CommonSymbols.StructureMerge);
+        writer.indent();
+        for (var fieldSet : fieldSets) {
+            List<MemberShape> members = fieldSet.members();
+            for (int bit = 0; bit < members.size(); bit++) {
+                var member = members.get(bit);
+                if (!settings.isMergeable(member.getId())) {
+                    continue;
+                }
+                var target = model.expectShape(member.getTarget());
+                if (!target.isStructureShape()) {
+                    throw new CodegenException(member.getId() + " is mergeable but does not target a structure");
+                }
+                writer.writeInline(
+                    "\n.recurse($L, $L, () -> $T.MERGE)",
+                    fieldSet.fieldSetIdx(),
+                    bit,
+                    symbolProvider.toSymbol(target)
+                );
+            }
+        }
+        writer.dedent().write(";\n");
+        writer.write("""
+            /**
+             * Returns the size of the merge of two encodings of this structure, to allocate its serializer with.
+             */
+            public static int mergedSize($1T base, $1T patch) {
+                return MERGE.size(base, patch);
+            }
+
+            /**
+             * Writes {@code base} with every member that {@code patch} has taken from {@code patch}, without decoding
+             * either.
+             */
+            public static void merge($1T base, $1T patch, $2T out) {
+                MERGE.merge(base, patch, out);
+            }
+            """, CommonSymbols.BYTE_BUFFER, CommonSymbols.SparrowhawkSerializer);
     }
 
+    /**
+     * Generates equals and hashCode. Objects still holding the encoding they were decoded from compare it first;
+     * equal bytes mean equal objects, and when both encodings are known to be canonical, unequal bytes mean unequal
+     * objects. Otherwise the fields are compared. The hash is always that of the canonical encoding, so it agrees
+     * with both, and is taken straight from the decoded bytes when they are canonical.
+     */
     private void generateEquals() {
-        writer.openBlock("@Override\npublic boolean equals(Object other) {", "}", () -> {
+        writer.openBlock("@Override\npublic boolean equals(Object other) {", "}\n", () -> {
             writer.write("if (this == other) return true;");
             writer.write("if (!(other instanceof $L)) return false;", symbol.getName());
             writer.write("$1L o = ($1L) other;", symbol.getName());
-            generateEqualsForFields(getAllVarintMembers());
-            generateEqualsForFields(getAllFourByteMembers());
-            generateEqualsForFields(getAllEightByteMembers());
-            getAllListMembers().forEach(field -> {
-                // null implies hasField() is false, so we don't need to explicitly call it on both objects
+            // a cached hash can be stale once a nested value is changed in place, so it only rejects encodings
+            // that are canonical and unmodified, which are equal exactly when their bytes are
+            writer.write("""
+                if ($$source != null && o.$$source != null) {
+                    boolean canonical = $$sourceCanonical && o.$$sourceCanonical;
+                    if (canonical && $$hash != 0 && o.$$hash != 0 && $$hash != o.$$hash) {
+                        return false;
+                    }
+                    if ($1T.equals($$source, $$sourceStart, $$sourceEnd, o.$$source, o.$$sourceStart, o.$$sourceEnd)) {
+                        return true;
+                    }
+                    if (canonical) {
+                        return false;
+                    }
+                }""", CommonSymbols.Arrays);
+            if (splitsEquals()) {
+                for (var type : List.of(FieldType.VARINT, FieldType.FOUR_BYTE, FieldType.EIGHT_BYTE, FieldType.LIST)) {
+                    for (var fieldSet : fieldSetsOf(type)) {
+                        writer.write("if (!equal$L(o)) return false;", fieldSetMethod(fieldSet));
+                    }
+                }
+            } else {
+                generateEqualsForFields(getAllVarintMembers());
+                generateEqualsForFields(getAllFourByteMembers());
+                generateEqualsForFields(getAllEightByteMembers());
+                generateEqualsForListFields(getAllListMembers());
+            }
+            writer.write("""
+                if (!$T.equals($$unknown, o.$$unknown)) {
+                    return false;
+                }
+                return true;""", Objects);
+        });
+
+        if (splitsEquals()) {
+            for (var fieldSet : fieldSets) {
                 writer.openBlock(
-                    "if (!$2T.equals(get$1L(), o.get$1L())) {",
-                    "}",
-                    methodNameForField(field),
-                    Objects,
+                    "private boolean equal$L($L o) {",
+                    "}\n",
+                    fieldSetMethod(fieldSet),
+                    symbol.getName(),
                     () -> {
-                        writer.write("return false;");
+                        if (fieldSet.type() == FieldType.LIST) {
+                            generateEqualsForListFields(fieldSet.members().stream());
+                        } else {
+                            generateEqualsForFields(fieldSet.members().stream());
+                        }
+                        writer.write("return true;");
                     }
                 );
-            });
-            writer.write("return true;");
+            }
+        }
+
+        generateHashCode();
+    }
+
+    /**
+     * Generates hashCode from the members equals compares, so it holds for any structure equals accepts, including
+     * ones that cannot be encoded. It is cached until the structure is modified.
+     */
+    private void generateHashCode() {
+        writer.openBlock("@Override\npublic int hashCode() {", "}\n", () -> {
+            writer.write("""
+                int h = $$hash;
+                if (h != 0) {
+                    return h;
+                }""");
+            if (splitsEquals()) {
+                for (var type : List.of(FieldType.VARINT, FieldType.FOUR_BYTE, FieldType.EIGHT_BYTE, FieldType.LIST)) {
+                    for (var fieldSet : fieldSetsOf(type)) {
+                        writer.write("h = 31 * h + hash$L();", fieldSetMethod(fieldSet));
+                    }
+                }
+            } else {
+                generateHashForFields(getAllVarintMembers());
+                generateHashForFields(getAllFourByteMembers());
+                generateHashForFields(getAllEightByteMembers());
+                generateHashForFields(getAllListMembers());
+            }
+            writer.write("""
+                h = 31 * h + $T.hashCode($$unknown);
+                this.$$hash = h;
+                return h;""", Objects);
+        });
+
+        if (splitsEquals()) {
+            for (var fieldSet : fieldSets) {
+                writer.openBlock("private int hash$L() {", "}\n", fieldSetMethod(fieldSet), () -> {
+                    writer.write("int h = 0;");
+                    generateHashForFields(fieldSet.members().stream());
+                    writer.write("return h;");
+                });
+            }
+        }
+    }
+
+    private void generateHashForFields(Stream<MemberShape> fields) {
+        fields.forEach(field -> {
+            var target = model.expectShape(field.getTarget());
+            if (fieldType(field) == FieldType.LIST || target.isTimestampShape()) {
+                writer.write("h = 31 * h + $T.hashCode($L);", Objects, valueAccessor(field));
+                return;
+            }
+            // the boxed hashes agree with the comparisons in equals, including Float.compare and Double.compare
+            String boxed = switch (target.getType()) {
+                case BOOLEAN -> "Boolean";
+                case BYTE -> "Byte";
+                case SHORT -> "Short";
+                case LONG -> "Long";
+                case FLOAT -> "Float";
+                case DOUBLE -> "Double";
+                default -> "Integer";
+            };
+            if (isOptional(field)) {
+                writer.write(
+                    "h = 31 * h + (has$L() ? $L.hashCode($L) : 0);",
+                    methodNameForField(field),
+                    boxed,
+                    fieldName(field)
+                );
+            } else {
+                writer.write("h = 31 * h + $L.hashCode($L);", boxed, fieldName(field));
+            }
+        });
+    }
+
+    /**
+     * Returns the value a builder stores for a member. Collections are copied into unmodifiable ones, so the
+     * caller can neither change the structure through the collection it passed in nor through its getter.
+     */
+    private String builtValue(MemberShape field) {
+        var name = fieldName(field);
+        var target = model.expectShape(field.getTarget());
+        String wrapper;
+        SymbolReference copy;
+        if (target.isMapShape()) {
+            wrapper = "unmodifiableMap";
+            copy = CommonSymbols.LinkedHashMap;
+        } else if (target.isListShape() && setCollection(field) != null) {
+            wrapper = "unmodifiableSet";
+            copy = CommonSymbols.LinkedHashSet;
+        } else if (target.isListShape()) {
+            wrapper = "unmodifiableList";
+            copy = CommonSymbols.ArrayList;
+        } else {
+            return name;
+        }
+        return writer.format(
+            "$1L == null ? null : $2T.$3L(new $4T<>($1L))",
+            name,
+            CommonSymbols.Collections,
+            wrapper,
+            copy
+        );
+    }
+
+    /**
+     * Generates the builder of an immutable structure. It fills in an instance through its private setters, and
+     * build() computes the instance's size, which also encodes its strings to UTF-8, before handing it out.
+     */
+    private void generateBuilder() {
+        writer.write("""
+
+            public static Builder builder() {
+                return new Builder();
+            }
+
+            /**
+             * Collects the members of a {@code $1L}. The instance built is not written to again, and is published
+             * with the same guarantees as final fields.
+             */
+            public static final class Builder {
+                private $1L built = new $1L();
+
+                private Builder() {}
+            """, symbol.getName());
+        writer.indent();
+        for (var fieldSet : fieldSets) {
+            for (var field : fieldSet.members()) {
+                var name = fieldName(field);
+                var methodName = methodNameForField(field);
+                writer.openBlock(
+                    "public Builder $L($T $L) {",
+                    "}\n",
+                    name,
+                    symbolProvider.toSymbol(field),
+                    name,
+                    () -> writer.write("built.set$L($L);\nreturn this;", methodName, builtValue(field))
+                );
+                var enumSymbol = enumSymbol(field);
+                if (enumSymbol != null) {
+                    writer.openBlock("public Builder $L($T $L) {", "}\n", name, enumSymbol, name, () -> {
+                        writer.write("built.set$LEnum($L);\nreturn this;", methodName, name);
+                    });
+                }
+            }
+        }
+        writer.write("""
+            public $1L build() {
+                $1L x = built;
+                if (x == null) {
+                    throw new IllegalStateException("already built");
+                }
+                this.built = null;
+                x.size();
+                x.$$built = true;
+                $2T.releaseFence();
+                return x;
+            }""", symbol.getName(), CommonSymbols.VarHandle);
+        writer.dedent().write("}");
+    }
+
+    /**
+     * Converts to and from the record of this structure's members one member at a time. Nested structures in lists
+     * and maps are converted as they are decoded, without building a collection of structures first.
+     */
+    private void generateConversions(Symbol record) {
+        writer.write("""
+
+            @Override
+            public Class<$1T> getConvertedType() {
+                return $1T.class;
+            }
+
+            @Override
+            public $1T convertTo() {""", record);
+        writer.indent();
+        var components = RecordGenerator.components(shape);
+        writer.write("return new $T($L", record, components.isEmpty() ? ");" : "");
+        writer.indent();
+        for (int i = 0; i < components.size(); i++) {
+            var field = components.get(i);
+            writer.write("$L$L", convertedValue(field), i == components.size() - 1 ? "" : ",");
+        }
+        writer.dedent();
+        if (!components.isEmpty()) {
+            writer.write(");");
+        }
+        writer.dedent().write("}");
+
+        writer.write("""
+
+            /**
+             * Builds a {@code $1L} with the members of {@code value}.
+             */
+            public static $1L convertFrom($2T value) {
+                $1L x = new $1L();""", symbol.getName(), record);
+        writer.indent();
+        for (var field : components) {
+            var target = model.expectShape(field.getTarget());
+            var name = fieldName(field);
+            var methodName = methodNameForField(field);
+            if (target.isStructureShape()) {
+                writer.write(
+                    "x.set$1L(value.$2L() == null ? null : $3T.convertFrom(value.$2L()));",
+                    methodName,
+                    name,
+                    symbolProvider.toSymbol(target)
+                );
+            } else if (nestedStructure(field) != null) {
+                writer.write(
+                    "x.set$L($T.convert$L(value.$L(), $T::convertFrom));",
+                    methodName,
+                    CommonSymbols.SparrowhawkStructure,
+                    target.isListShape() ? "List" : "Map",
+                    name,
+                    symbolProvider.toSymbol(nestedStructure(field))
+                );
+            } else if (isOptional(field) && fieldType(field) != FieldType.LIST) {
+                // outside list field sets a setter marks the member present, so absent members aren't set at all
+                writer.write("if (value.$2L() != null) x.set$1L(value.$2L());", methodName, name);
+            } else {
+                writer.write("x.set$L(value.$L());", methodName, name);
+            }
+        }
+        if (settings.immutableStructures()) {
+            writer.write("x.size();");
+            writer.write("$T.releaseFence();", CommonSymbols.VarHandle);
+        }
+        writer.write("return x;");
+        writer.dedent().write("}");
+    }
+
+    private String convertedValue(MemberShape field) {
+        var target = model.expectShape(field.getTarget());
+        var name = fieldName(field);
+        var methodName = methodNameForField(field);
+        if (target.isStructureShape()) {
+            // read from the field rather than the getter, which would drop the encoding this was decoded from
+            return isOptional(field)
+                ? writer.format("has$L() ? $L.convertTo() : null", methodName, name)
+                : writer.format("$1L == null ? null : $1L.convertTo()", name);
+        }
+        var nested = nestedStructure(field);
+        if (nested != null) {
+            var nestedSymbol = symbolProvider.toSymbol(nested);
+            return writer.format(
+                "$1T.<$2T, $3T>convert($4L, $2T::convertTo)",
+                target.isListShape() ? StructureList : CommonSymbols.StructureMap,
+                nestedSymbol,
+                RecordGenerator.recordSymbol(nestedSymbol),
+                name
+            );
+        }
+        if (isOptional(field) && symbolProvider.toSymbol(field).getProperty("boxed").isPresent()) {
+            return writer.format("has$1L() ? get$1L() : null", methodName);
+        }
+        return writer.format("get$L()", methodName);
+    }
+
+    private static FieldType fieldType(MemberShape field) {
+        return field.expectTrait(SparrowhawkFieldTrait.class).getType();
+    }
+
+    /**
+     * Returns the structure held by a list or map member, or null if it holds something else.
+     */
+    private Shape nestedStructure(MemberShape field) {
+        var target = model.expectShape(field.getTarget());
+        Symbol value;
+        if (target.isListShape()) {
+            value = listTarget(target);
+        } else if (target.isMapShape()) {
+            value = mapValueTarget(target);
+        } else {
+            return null;
+        }
+        var valueShape = value.expectProperty("shape", Shape.class);
+        return valueShape.isStructureShape() ? valueShape : null;
+    }
+
+    private void generateEqualsForListFields(Stream<MemberShape> fields) {
+        fields.forEach(field -> {
+            // null implies hasField() is false, so we don't need to explicitly call it on both objects
+            writer.openBlock(
+                "if (!$2T.equals($1L, o.$1L)) {",
+                "}",
+                valueAccessor(field),
+                Objects,
+                () -> {
+                    writer.write("return false;");
+                }
+            );
         });
     }
 
@@ -1304,17 +2417,24 @@ public final class StructureGenerator implements Runnable {
                 return;
             }
 
-            if (isOptional(field)) {
-                writer.openBlock("if (has$1L() == o.has$1L()) {", methodNameForField(field));
+            var target = model.expectShape(field.getTarget());
+            var name = fieldName(field);
+            // compared as their bits are encoded, so -0.0 and 0.0 differ and NaN equals itself
+            String differs;
+            if (target.isFloatShape()) {
+                differs = "Float.compare(" + name + ", o." + name + ") != 0";
+            } else if (target.isDoubleShape()) {
+                differs = "Double.compare(" + name + ", o." + name + ") != 0";
             } else {
-                writer.openBlock("if ($1L != o.$1L) {", "}", fieldName(field), () -> {
-                    writer.write("return false;");
-                });
+                differs = name + " != o." + name;
             }
             if (isOptional(field)) {
-                writer.closeBlock("} else {");
-                writer.indent().write("return false;").dedent().write("}");
+                var has = "has" + methodNameForField(field) + "()";
+                differs = has + " != o." + has + " || (" + has + " && " + differs + ")";
             }
+            writer.openBlock("if ($L) {", "}", differs, () -> {
+                writer.write("return false;");
+            });
         });
     }
 
@@ -1333,7 +2453,172 @@ public final class StructureGenerator implements Runnable {
         return model.expectShape(memberShape.getTarget()).hasTrait(SparseTrait.class);
     }
 
-    private record FieldSet(String name, FieldType type, int fieldSetIdx) {}
+    private record FieldSet(String name, FieldType type, int fieldSetIdx, long required, List<MemberShape> members) {}
+
+    private List<FieldSet> fieldSetsOf(FieldType type) {
+        return fieldSets.stream().filter(fieldSet -> fieldSet.type() == type).toList();
+    }
+
+    private List<MemberShape> members(FieldType type) {
+        return fieldSetsOf(type).stream().flatMap(fieldSet -> fieldSet.members().stream()).toList();
+    }
+
+    private FieldSet fieldSetOf(MemberShape field) {
+        var trait = field.expectTrait(SparrowhawkFieldTrait.class);
+        return fieldSet(trait.getType(), trait.getFieldSetIdx());
+    }
+
+    /**
+     * Returns the name a field set's own methods share after their verb, as in {@code decodeListFieldSet1}.
+     */
+    private static String fieldSetMethod(FieldSet fieldSet) {
+        return capitalize(fieldSet.type().lowercaseId) + "FieldSet" + fieldSet.fieldSetIdx();
+    }
+
+    private static String memberMethod(MemberShape field, String verb) {
+        return "$" + field.getMemberName() + verb;
+    }
+
+    /**
+     * Emits a call to one of a field set's own methods. Unless the field set has required members, the call is
+     * skipped while none of its members are set, and, if {@code unknown} is true, no unknown members were kept
+     * either, so the continuation field sets of a wide structure cost a comparison when unused.
+     */
+    private void emitFieldSetCall(FieldSet fieldSet, String call, boolean unknown) {
+        var statement = writer.format(call, fieldSetMethod(fieldSet));
+        long empty = getEmpty(fieldSet.type().wireType, fieldSet.fieldSetIdx());
+        if (fieldSet.required() != empty) {
+            writer.write("$L", statement);
+        } else if (unknown) {
+            writer.write("if (u != null || $L != $L) $L", fieldSet.name(), bitsToString(empty), statement);
+        } else {
+            writer.write("if ($L != $L) $L", fieldSet.name(), bitsToString(empty), statement);
+        }
+    }
+
+    private int memberCost(MemberShape field) {
+        int cost = fieldType(field) == FieldType.LIST ? LIST_COST : SCALAR_COST;
+        return isOptional(field) ? cost + PRESENCE_COST : cost;
+    }
+
+    /**
+     * Returns true if the methods sizing and writing the field sets of a type are split into one per field set.
+     */
+    private boolean splitsFieldSets(FieldType type) {
+        int cost = 0;
+        for (var field : members(type)) {
+            cost += memberCost(field);
+        }
+        return cost > METHOD_BUDGET;
+    }
+
+    /**
+     * Returns true if the members of a field set are read and written by methods of their own, which only list
+     * members, with reads and writes much longer than a call, are ever costly enough for.
+     */
+    private boolean splitsMembers(FieldSet fieldSet) {
+        int cost = 0;
+        for (var field : fieldSet.members()) {
+            // its decoder tests each bit and then reads the member in both of its paths
+            cost += PRESENCE_COST + 2 * memberCost(field);
+        }
+        return cost > METHOD_BUDGET;
+    }
+
+    /**
+     * Returns true if equals compares the members of each field set in a method of its own.
+     */
+    private boolean splitsEquals() {
+        int cost = 0;
+        for (var fieldSet : fieldSets) {
+            for (var field : fieldSet.members()) {
+                // optional members compare their presence on both sides as well
+                cost += memberCost(field) + (isOptional(field) ? PRESENCE_COST : 0);
+            }
+        }
+        return cost > METHOD_BUDGET;
+    }
+
+    /**
+     * Returns true if every member of the field set is required. Its header is then always the same, and is
+     * written from precomputed bytes.
+     */
+    private boolean hasConstantHeader(FieldSet fieldSet) {
+        return fieldSet.members().stream().allMatch(this::isRequired);
+    }
+
+    private static String headerName(FieldSet fieldSet) {
+        return "HEADER_" + fieldSet.type().uppercaseId + "_" + fieldSet.fieldSetIdx();
+    }
+
+    private static byte[] header(FieldSet fieldSet) {
+        int idx = fieldSet.fieldSetIdx();
+        int size = SparrowhawkSerializer.ulongSize(fieldSet.required());
+        if (idx > 0) {
+            size += SparrowhawkSerializer.uintSize(idx - 1);
+        }
+        var s = new SparrowhawkSerializer(new byte[size]);
+        s.writeVarUL(fieldSet.required());
+        if (idx > 0) {
+            s.writeVarUI(idx - 1);
+        }
+        return s.payload();
+    }
+
+    private static String byteLiterals(byte[] bytes) {
+        var literals = new ArrayList<String>();
+        for (byte b : bytes) {
+            literals.add("(byte) 0x" + Integer.toHexString(b & 0xFF));
+        }
+        return String.join(", ", literals);
+    }
+
+    /**
+     * Returns the encoded size of a member if it is the same for every value, or -1 if it depends on the value.
+     */
+    private int constantSize(MemberShape field) {
+        return switch (field.expectTrait(SparrowhawkFieldTrait.class).getType()) {
+            case FOUR_BYTE -> 4;
+            case EIGHT_BYTE -> 8;
+            case VARINT -> model.expectShape(field.getTarget()).isBooleanShape() ? 1 : -1;
+            case LIST -> -1;
+        };
+    }
+
+    /**
+     * Returns the encoded size of this structure, excluding its length prefix, if it is the same for every value
+     * of it, or -1 if it is not. That is the case when every member is required and has a constant size.
+     */
+    private int constantStructureSize() {
+        if (fieldSets.isEmpty()) {
+            return -1;
+        }
+        int size = 0;
+        for (var fieldSet : fieldSets) {
+            if (!hasConstantHeader(fieldSet)) {
+                return -1;
+            }
+            size += header(fieldSet).length;
+            for (var field : fieldSet.members()) {
+                int fieldSize = constantSize(field);
+                if (fieldSize < 0) {
+                    return -1;
+                }
+                size += fieldSize;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Returns true if a structure of constant size is encoded straight-line into a single reservation. Timestamps
+     * are left to the serializer's own conversions.
+     */
+    private boolean encodesStraightLine() {
+        return constantStructureSize() >= 0 && fieldSets.stream()
+            .flatMap(fieldSet -> fieldSet.members().stream())
+            .noneMatch(field -> model.expectShape(field.getTarget()).isTimestampShape());
+    }
 
     public Stream<MemberShape> getAllFourByteMembers() {
         Stream<MemberShape> allFourByteMembers = Stream.empty();
@@ -0,0 +1,598 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package software.amazon.smithy.sparrowhawk.codegen;
+
+import static software.amazon.smithy.sparrowhawk.codegen.CommonSymbols.StringList;
+import static software.amazon.smithy.sparrowhawk.codegen.CommonSymbols.StructureList;
+import static software.amazon.smithy.sparrowhawk.codegen.CommonSymbols.StructureMap;
+import static software.amazon.smithy.sparrowhawk.codegen.CommonSymbols.byteListLengthEncodedSize;
+import static software.amazon.smithy.sparrowhawk.codegen.CommonSymbols.encodeByteListLength;
+import static software.amazon.smithy.sparrowhawk.codegen.CommonSymbols.encodeEightBListLength;
+import static software.amazon.smithy.sparrowhawk.codegen.CommonSymbols.encodeFourBListLength;
+import static software.amazon.smithy.sparrowhawk.codegen.CommonSymbols.encodeVarintListLength;
+import static software.amazon.smithy.sparrowhawk.codegen.CommonSymbols.intSize;
+import static software.amazon.smithy.sparrowhawk.codegen.CommonSymbols.lenPrefixedListLengthEncodedSize;
+import static software.amazon.smithy.sparrowhawk.codegen.CommonSymbols.longSize;
+import static software.amazon.smithy.sparrowhawk.codegen.CommonSymbols.missingField;
+import static software.amazon.smithy.sparrowhawk.codegen.CommonSymbols.stringEncodedSize;
+import static software.amazon.smithy.sparrowhawk.codegen.CommonSymbols.uintSize;
+import static software.amazon.smithy.sparrowhawk.codegen.CommonSymbols.ulongSize;
+import static software.amazon.smithy.utils.StringUtils.capitalize;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import software.amazon.smithy.codegen.core.Symbol;
+import software.amazon.smithy.codegen.core.SymbolProvider;
+import software.amazon.smithy.codegen.core.SymbolReference;
+import software.amazon.smithy.java.sparrowhawk.SparrowhawkSerializer;
+import software.amazon.smithy.model.Model;
+import software.amazon.smithy.model.shapes.ListShape;
+import software.amazon.smithy.model.shapes.MapShape;
+import software.amazon.smithy.model.shapes.MemberShape;
+import software.amazon.smithy.model.shapes.Shape;
+import software.amazon.smithy.model.shapes.ShapeId;
+import software.amazon.smithy.model.shapes.ShapeType;
+import software.amazon.smithy.model.shapes.ToShapeId;
+import software.amazon.smithy.model.traits.SparseTrait;
+import software.amazon.smithy.model.traits.StreamingTrait;
+import software.amazon.smithy.model.traits.UniqueItemsTrait;
+
+/**
+ * Generates, next to a structure, an accessor interface and a writer that encodes any implementation of it exactly
+ * as the structure with the same members would be encoded, without building one.
+ *
+ * <p>Accessors are named after the members, so an application record with matching components implements the
+ * interface as it is; absent optional members are null. The writer sizes in one pass and encodes in a second. The
+ * sizing pass records the size of every nested structure and map in a {@code NestedSizes}, in the order the encoding
+ * pass writes their length prefixes, so no subtree is sized twice and a reused {@code NestedSizes} makes neither pass
+ * allocate. Structures that reach a union, a set, a sparse collection or a nested collection get no writer.
+ */
+public final class StructureWriterGenerator {
+    private final Shape shape;
+    private final Model model;
+    private final SymbolProvider symbolProvider;
+    private final SparrowhawkSettings settings;
+    private final SparrowhawkIndex index;
+    private final Symbol sourceSymbol;
+    private final Symbol writerSymbol;
+    private final List<FieldSet> fieldSets = new ArrayList<>();
+
+    StructureWriterGenerator(Shape shape, Model model, SymbolProvider symbolProvider, SparrowhawkSettings settings) {
+        this.shape = shape;
+        this.model = model;
+        this.symbolProvider = symbolProvider;
+        this.settings = settings;
+        this.index = SparrowhawkIndex.of(model);
+        Symbol symbol = symbolProvider.toSymbol(shape);
+        this.sourceSymbol = sourceSymbol(symbol);
+        this.writerSymbol = writerSymbol(symbol);
+        // the order the generated classes write their field sets in
+        addFieldSets(FieldType.VARINT, index::getVarintFieldSetCount, index::getVarintMembers);
+        addFieldSets(FieldType.FOUR_BYTE, index::getFourByteFieldSetCount, index::getFourByteMembers);
+        addFieldSets(FieldType.EIGHT_BYTE, index::getEightByteFieldSetCount, index::getEightByteMembers);
+        addFieldSets(FieldType.LIST, index::getListFieldSetCount, index::getListMembers);
+    }
+
+    static boolean supports(Shape shape, Model model) {
+        return supports(shape, model, new HashSet<>());
+    }
+
+    private static boolean supports(Shape shape, Model model, Set<ShapeId> visiting) {
+        if (!shape.isStructureShape()) {
+            return false;
+        }
+        if (!visiting.add(shape.getId())) {
+            // a recursive reference, decided by the members of the structure already being checked
+            return true;
+        }
+        for (MemberShape member : shape.members()) {
+            var target = model.expectShape(member.getTarget());
+            if (target.hasTrait(StreamingTrait.class)) {
+                continue;
+            }
+            if (!member.hasTrait(SparrowhawkFieldTrait.class) || !supportsValue(target, model, visiting, true)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean supportsValue(Shape target, Model model, Set<ShapeId> visiting, boolean member) {
+        return switch (target.getType()) {
+            case BOOLEAN, BYTE, SHORT, INTEGER, INT_ENUM, LONG, FLOAT, DOUBLE, STRING, ENUM -> true;
+            case TIMESTAMP, BLOB -> member;
+            case STRUCTURE -> supports(target, model, visiting);
+            case LIST -> member && !target.hasTrait(UniqueItemsTrait.class) && !target.hasTrait(SparseTrait.class)
+                && supportsValue(model.expectShape(((ListShape) target).getMember().getTarget()), model, visiting,
+                    false);
+            case MAP -> member && !target.hasTrait(SparseTrait.class)
+                && supportsValue(model.expectShape(((MapShape) target).getValue().getTarget()), model, visiting,
+                    false);
+            default -> false;
+        };
+    }
+
+    static Symbol sourceSymbol(Symbol structure) {
+        return companion(structure, "Source");
+    }
+
+    static Symbol writerSymbol(Symbol structure) {
+        return companion(structure, "Writer");
+    }
+
+    static Symbol companion(Symbol structure, String suffix) {
+        String name = structure.getName() + suffix;
+        return Symbol.builder()
+            .name(name)
+            .namespace(structure.getNamespace(), ".")
+            .definitionFile(
+                structure.getNamespace().replaceAll("\\.", File.separator) + File.separator + name + ".java"
+            )
+            .build();
+    }
+
+    private void addFieldSets(
+        FieldType type,
+        Function<ToShapeId, Integer> fieldSetCount,
+        BiFunction<ToShapeId, Integer, List<MemberShape>> members
+    ) {
+        for (int i = 0; i < fieldSetCount.apply(shape); i++) {
+            var fields = members.apply(shape, i);
+            if (fields.isEmpty()) {
+                continue;
+            }
+            long required = 0;
+            for (int bit = 0; bit < fields.size(); bit++) {
+                if (fields.get(bit).expectTrait(SparrowhawkFieldTrait.class).isRequired()) {
+                    required |= 1L << bit;
+                }
+            }
+            long empty = type.wireType | (i > 0 ? 0b100 : 0);
+            fieldSets.add(new FieldSet(type, i, (required << 3) | empty, empty, fields));
+        }
+    }
+
+    void generateSource(JavaWriter writer) {
+        writer.write("""
+            /**
+             * The members of {@link $1T} as {@link $2L} reads them. Accessors are named after the members, so a
+             * record with matching components implements this as it is. Absent optional members are null.
+             */""", symbolProvider.toSymbol(shape), writerSymbol.getName());
+        writer.openBlock("public interface $L {", "}", sourceSymbol.getName(), () -> {
+            for (var fieldSet : fieldSets) {
+                for (var field : fieldSet.members()) {
+                    writer.write("$L $L();\n", accessorType(writer, field), accessor(field));
+                }
+            }
+        });
+    }
+
+    void generateWriter(JavaWriter writer) {
+        writer.write("""
+            /**
+             * Sizes and encodes a {@link $1L} exactly as {@link $2T} encodes the same members, without building one.
+             */""", sourceSymbol.getName(), symbolProvider.toSymbol(shape));
+        writer.openBlock("public final class $L {", "}", writerSymbol.getName(), () -> {
+            for (var fieldSet : fieldSets) {
+                writer.write("private static final long $L = $L;", requiredName(fieldSet), hex(fieldSet.required()));
+            }
+            writer.write("");
+            writer.write("private $L() {}\n", writerSymbol.getName());
+            List<MemberShape> listSizers = new ArrayList<>();
+            generateSize(writer, listSizers);
+            generateEncode(writer);
+            for (var fieldSet : fieldSets) {
+                if (hasOptional(fieldSet)) {
+                    generatePresence(writer, fieldSet);
+                }
+            }
+            for (var field : listSizers) {
+                generateVarintListSize(writer, field);
+            }
+        });
+    }
+
+    private void generateSize(JavaWriter writer, List<MemberShape> listSizers) {
+        writer.write("""
+            /**
+             * Returns the encoded size of {@code source}, excluding its length prefix.
+             */
+            public static int size($1L source) {
+                return size(source, $2T.NONE);
+            }
+
+            /**
+             * Returns the encoded size of {@code source}, excluding its length prefix, and records the sizes of the
+             * structures and maps nested in it in {@code sizes} for {@link #encode($1L, int, $2T, $3T)}.
+             */""", sourceSymbol.getName(), CommonSymbols.NestedSizes, CommonSymbols.SparrowhawkSerializer);
+        writer.openBlock(
+            "public static int size($L source, $T sizes) {",
+            "}\n",
+            sourceSymbol.getName(),
+            CommonSymbols.NestedSizes,
+            () -> {
+                writer.write("int size = 0;");
+                if (!fieldSets.isEmpty()) {
+                    writer.write("long fieldSet;");
+                }
+                for (var fieldSet : fieldSets) {
+                    writer.write("fieldSet = $L;", header(fieldSet));
+                    boolean skippable = (fieldSet.required() & ~7L) == 0;
+                    if (skippable) {
+                        writer.openBlock("if (fieldSet != $L) {", hex(fieldSet.empty()));
+                    }
+                    if (fieldSet.fieldSetIdx() > 0) {
+                        writer.write(
+                            "size += $T(fieldSet) + $L;",
+                            ulongSize,
+                            SparrowhawkSerializer.uintSize(fieldSet.fieldSetIdx() - 1)
+                        );
+                    } else {
+                        writer.write("size += $T(fieldSet);", ulongSize);
+                    }
+                    for (var field : fieldSet.members()) {
+                        String value = value(field);
+                        String size = sizeExpression(writer, field, value, listSizers);
+                        if (isRequired(field)) {
+                            if (!isPrimitive(field)) {
+                                writer.openBlock("if ($L == null) {", "}", value, () -> {
+                                    writer.write(
+                                        "$T(\"Required field '$L' is missing\");",
+                                        missingField,
+                                        field.getMemberName()
+                                    );
+                                });
+                            }
+                            writer.write("size += $L;", size);
+                        } else {
+                            writer.openBlock("if ($L != null) {", "}", value, () -> writer.write("size += $L;", size));
+                        }
+                    }
+                    if (skippable) {
+                        writer.closeBlock("}");
+                    }
+                }
+                writer.write("return size;");
+            }
+        );
+    }
+
+    private void generateEncode(JavaWriter writer) {
+        writer.write("""
+            /**
+             * Writes {@code source}, starting with its length prefix, sizing it first into {@code sizes}, which is
+             * cleared first so that one instance can be reused for every value encoded on a thread.
+             */
+            public static void encode($1L source, $3T sizes, $2T s) {
+                sizes.clear();
+                encode(source, size(source, sizes), sizes, s);
+            }
+
+            /**
+             * Writes {@code source}, starting with its length prefix, from the size {@code size(source, sizes)}
+             * returned and the nested sizes it recorded.
+             */""", sourceSymbol.getName(), CommonSymbols.SparrowhawkSerializer, CommonSymbols.NestedSizes);
+        writer.openBlock(
+            "public static void encode($L source, int size, $T sizes, $T s) {",
+            "}\n",
+            sourceSymbol.getName(),
+            CommonSymbols.NestedSizes,
+            CommonSymbols.SparrowhawkSerializer,
+            () -> {
+                writer.write("s.writeVarUL($T(size));", encodeByteListLength);
+                if (!fieldSets.isEmpty()) {
+                    writer.write("long fieldSet;");
+                }
+                for (var fieldSet : fieldSets) {
+                    writer.write("fieldSet = $L;", header(fieldSet));
+                    boolean skippable = (fieldSet.required() & ~7L) == 0;
+                    if (skippable) {
+                        writer.openBlock("if (fieldSet != $L) {", hex(fieldSet.empty()));
+                    }
+                    writer.write("s.writeVarUL(fieldSet);");
+                    if (fieldSet.fieldSetIdx() > 0) {
+                        writer.write("s.writeVarUI($L);", fieldSet.fieldSetIdx() - 1);
+                    }
+                    for (var field : fieldSet.members()) {
+                        String value = value(field);
+                        if (isRequired(field)) {
+                            writeValue(writer, field, value);
+                        } else {
+                            writer.openBlock(
+                                "if ($L != null) {",
+                                "}",
+                                value,
+                                () -> writeValue(writer, field, value)
+                            );
+                        }
+                    }
+                    if (skippable) {
+                        writer.closeBlock("}");
+                    }
+                }
+            }
+        );
+    }
+
+    private void generatePresence(JavaWriter writer, FieldSet fieldSet) {
+        writer.openBlock(
+            "private static long $L($L source) {",
+            "}\n",
+            presenceName(fieldSet),
+            sourceSymbol.getName(),
+            () -> {
+                writer.write("long fieldSet = $L;", requiredName(fieldSet));
+                var members = fieldSet.members();
+                for (int bit = 0; bit < members.size(); bit++) {
+                    if (!isRequired(members.get(bit))) {
+                        var value = value(members.get(bit));
+                        writer.write("if ($L != null) fieldSet |= $L;", value, hex(1L << (bit + 3)));
+                    }
+                }
+                writer.write("return fieldSet;");
+            }
+        );
+    }
+
+    private void generateVarintListSize(JavaWriter writer, MemberShape field) {
+        var element = listElement(field);
+        var sizer = element.getType() == ShapeType.LONG ? longSize : intSize;
+        writer.openBlock(
+            "private static int $L($T<$T> list) {",
+            "}\n",
+            listSizerName(field),
+            CommonSymbols.imp(List.class),
+            elementSymbol(field),
+            () -> {
+                writer.write("int size = 0;");
+                writer.write("int len = list.size();");
+                writer.write("for (int i = 0; i < len; i++) {");
+                writer.indent().write("size += $T(list.get(i));", sizer);
+                writer.dedent().write("}");
+                writer.write("return size + $T($T(len));", uintSize, encodeVarintListLength);
+            }
+        );
+    }
+
+    private String sizeExpression(JavaWriter writer, MemberShape field, String value, List<MemberShape> listSizers) {
+        var target = model.expectShape(field.getTarget());
+        return switch (target.getType()) {
+            case BOOLEAN -> "1";
+            case LONG -> writer.format("$T($L)", longSize, value);
+            case BYTE, SHORT, INTEGER, INT_ENUM -> writer.format("$T($L)", intSize, value);
+            case FLOAT -> "4";
+            case DOUBLE, TIMESTAMP -> "8";
+            case STRING, ENUM -> writer.format("$T($L)", stringEncodedSize, value);
+            case BLOB -> writer.format("$T($L)", byteListLengthEncodedSize, value);
+            case STRUCTURE -> writer.format(
+                "$T(sizes.record($L, $T::size))",
+                byteListLengthEncodedSize,
+                value,
+                targetWriter(target)
+            );
+            case LIST -> {
+                var element = listElement(field);
+                yield switch (element.getType()) {
+                    case STRING, ENUM -> writer.format(
+                        "$1T($2T.sizeOf($3L), $3L.size())",
+                        lenPrefixedListLengthEncodedSize,
+                        StringList,
+                        value
+                    );
+                    case FLOAT -> writer.format(
+                        "$1L.size() * 4 + $2T($3T($1L.size()))",
+                        value,
+                        ulongSize,
+                        encodeFourBListLength
+                    );
+                    case DOUBLE -> writer.format(
+                        "$1L.size() * 8 + $2T($3T($1L.size()))",
+                        value,
+                        ulongSize,
+                        encodeEightBListLength
+                    );
+                    case STRUCTURE -> writer.format(
+                        "$1T($2T.sizeOf($3L, sizes, $4T::size), $3L.size())",
+                        lenPrefixedListLengthEncodedSize,
+                        StructureList,
+                        value,
+                        targetWriter(element)
+                    );
+                    default -> {
+                        listSizers.add(field);
+                        yield writer.format("$L($L)", listSizerName(field), value);
+                    }
+                };
+            }
+            case MAP -> {
+                var element = mapValue(field);
+                if (element.isStructureShape()) {
+                    yield writer.format(
+                        "$T($T.sizeOf($L, sizes, $T::size))",
+                        byteListLengthEncodedSize,
+                        StructureMap,
+                        value,
+                        targetWriter(element)
+                    );
+                }
+                yield writer.format(
+                    "$T(sizes.add($T.sizeOf($L)))",
+                    byteListLengthEncodedSize,
+                    mapCollection(field),
+                    value
+                );
+            }
+            default -> throw new IllegalStateException("no writer for " + field);
+        };
+    }
+
+    private void writeValue(JavaWriter writer, MemberShape field, String value) {
+        var target = model.expectShape(field.getTarget());
+        switch (target.getType()) {
+            case BOOLEAN, BYTE, SHORT, INTEGER, INT_ENUM, LONG -> writer.write(
+                "s.write$L($L);",
+                capitalize(varintSerializeMethod(target)),
+                value
+            );
+            case FLOAT -> writer.write("s.writeFloat($L);", value);
+            case DOUBLE -> writer.write("s.writeDouble($L);", value);
+            case TIMESTAMP -> writer.write("s.write$L($L);", settings.useInstant() ? "Instant" : "Date", value);
+            case STRING, ENUM -> writer.write("s.writeString($L);", value);
+            case BLOB -> writer.write("s.writeBytes($L);", value);
+            case STRUCTURE -> writer.write("$T.encode($L, sizes.next(), sizes, s);", targetWriter(target), value);
+            case LIST -> {
+                var element = listElement(field);
+                switch (element.getType()) {
+                    case STRING, ENUM -> writer.write("$T.encode($L, s);", StringList, value);
+                    case STRUCTURE -> writer.write(
+                        "$T.encode($L, s, sizes, $T::encode);",
+                        StructureList,
+                        value,
+                        targetWriter(element)
+                    );
+                    default -> writer.write("s.write$TList($L);", elementSymbol(field), value);
+                }
+            }
+            case MAP -> {
+                var element = mapValue(field);
+                if (element.isStructureShape()) {
+                    writer.write(
+                        "$1T.encode($2L, s, sizes, $3T::size, $3T::encode);",
+                        StructureMap,
+                        value,
+                        targetWriter(element)
+                    );
+                } else {
+                    // the map's size was recorded by the sizing pass rather than measured again
+                    writer.write("$T.encode($L, sizes.next(), s);", mapCollection(field), value);
+                }
+            }
+            default -> throw new IllegalStateException("no writer for " + field);
+        }
+    }
+
+    private String accessorType(JavaWriter writer, MemberShape field) {
+        return memberType(writer, field, "Source", "? extends ");
+    }
+
+    /**
+     * Returns the type a member is held as outside the generated structure: what its getter returns, with nested
+     * structures replaced by their companion type with {@code suffix}, bounded by {@code bound} in collections.
+     */
+    String memberType(JavaWriter writer, MemberShape field, String suffix, String bound) {
+        var target = model.expectShape(field.getTarget());
+        var symbol = symbolProvider.toSymbol(field);
+        if (target.isStructureShape()) {
+            return writer.format("$T", companion(target, suffix));
+        } else if (target.isListShape()) {
+            var element = listElement(field);
+            if (element.isStructureShape()) {
+                return writer.format("$T<$L$T>", CommonSymbols.imp(List.class), bound, companion(element, suffix));
+            }
+            return writer.format("$T<$T>", CommonSymbols.imp(List.class), elementSymbol(field));
+        } else if (target.isMapShape()) {
+            var element = mapValue(field);
+            var map = CommonSymbols.imp(Map.class);
+            if (element.isStructureShape()) {
+                return writer.format("$T<String, $L$T>", map, bound, companion(element, suffix));
+            }
+            return writer.format("$T<String, $T>", map, symbol.expectProperty("value", Symbol.class));
+        } else if (isPrimitive(field) && !isRequired(field)) {
+            return writer.format("$T", symbol.expectProperty("boxed", Symbol.class));
+        }
+        return writer.format("$T", symbol);
+    }
+
+    private Symbol companion(Shape target, String suffix) {
+        return companion(symbolProvider.toSymbol(target), suffix);
+    }
+
+    private Symbol targetWriter(Shape target) {
+        return writerSymbol(symbolProvider.toSymbol(target));
+    }
+
+    private Shape listElement(MemberShape field) {
+        var list = (ListShape) model.expectShape(field.getTarget());
+        return model.expectShape(list.getMember().getTarget());
+    }
+
+    private Symbol elementSymbol(MemberShape field) {
+        return symbolProvider.toSymbol(model.expectShape(field.getTarget())).expectProperty("value", Symbol.class);
+    }
+
+    private Shape mapValue(MemberShape field) {
+        var map = (MapShape) model.expectShape(field.getTarget());
+        return model.expectShape(map.getValue().getTarget());
+    }
+
+    private SymbolReference mapCollection(MemberShape field) {
+        return symbolProvider.toSymbol(field).expectProperty("sparrowhawkCollection", SymbolReference.class);
+    }
+
+    private boolean isPrimitive(MemberShape field) {
+        return symbolProvider.toSymbol(field).getProperty("boxed").isPresent();
+    }
+
+    private static boolean isRequired(MemberShape field) {
+        return field.expectTrait(SparrowhawkFieldTrait.class).isRequired();
+    }
+
+    private boolean hasOptional(FieldSet fieldSet) {
+        for (var field : fieldSet.members()) {
+            if (!isRequired(field)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private String header(FieldSet fieldSet) {
+        return hasOptional(fieldSet) ? presenceName(fieldSet) + "(source)" : requiredName(fieldSet);
+    }
+
+    private String accessor(MemberShape field) {
+        return symbolProvider.toMemberName(field);
+    }
+
+    private String value(MemberShape field) {
+        return "source." + accessor(field) + "()";
+    }
+
+    private static String requiredName(FieldSet fieldSet) {
+        return "REQUIRED_" + fieldSet.type().uppercaseId + "_" + fieldSet.fieldSetIdx();
+    }
+
+    private static String presenceName(FieldSet fieldSet) {
+        return fieldSet.type().lowercaseId + fieldSet.fieldSetIdx();
+    }
+
+    private String listSizerName(MemberShape field) {
+        return "$" + accessor(field) + "Size";
+    }
+
+    private static String varintSerializeMethod(Shape target) {
+        return switch (target.getType()) {
+            case LONG -> "varL";
+            case INTEGER, INT_ENUM -> "varI";
+            case BOOLEAN -> "bool";
+            case BYTE -> "varB";
+            case SHORT -> "varS";
+            default -> throw new RuntimeException("not a varint: " + target.getType());
+        };
+    }
+
+    private static String hex(long l) {
+        return "0x" + Long.toHexString(l) + "L";
+    }
+
+    private record FieldSet(FieldType type, int fieldSetIdx, long required, long empty, List<MemberShape> members) {}
+}
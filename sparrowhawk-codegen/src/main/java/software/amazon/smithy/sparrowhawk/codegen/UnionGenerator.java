@@ -0,0 +1,623 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package software.amazon.smithy.sparrowhawk.codegen;
+
+import static software.amazon.smithy.sparrowhawk.codegen.CommonSymbols.Objects;
+import static software.amazon.smithy.sparrowhawk.codegen.CommonSymbols.byteListLengthEncodedSize;
+import static software.amazon.smithy.sparrowhawk.codegen.CommonSymbols.decodeElementCount;
+import static software.amazon.smithy.sparrowhawk.codegen.CommonSymbols.encodeByteListLength;
+import static software.amazon.smithy.sparrowhawk.codegen.CommonSymbols.intSize;
+import static software.amazon.smithy.sparrowhawk.codegen.CommonSymbols.longSize;
+import static software.amazon.smithy.sparrowhawk.codegen.Util.isStructure;
+import static software.amazon.smithy.utils.StringUtils.capitalize;
+import static software.amazon.smithy.utils.StringUtils.upperCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import software.amazon.smithy.codegen.core.Symbol;
+import software.amazon.smithy.codegen.core.SymbolProvider;
+import software.amazon.smithy.java.sparrowhawk.SparrowhawkSerializer;
+import software.amazon.smithy.model.Model;
+import software.amazon.smithy.model.shapes.MemberShape;
+import software.amazon.smithy.model.shapes.Shape;
+import software.amazon.smithy.model.shapes.ShapeType;
+import software.amazon.smithy.model.shapes.ToShapeId;
+import software.amazon.smithy.model.shapes.UnionShape;
+import software.amazon.smithy.model.traits.StreamingTrait;
+import software.amazon.smithy.sparrowhawk.codegen.CodeSections.EndUnionSection;
+import software.amazon.smithy.sparrowhawk.codegen.CodeSections.StartUnionSection;
+
+/**
+ * Generates a union that stores its one set member in a single Object slot next to an int tag.
+ *
+ * <p>The wire format is the same as a structure with one member set. Decoding reads that one field set and
+ * dispatches on its type, field set index and member bit with a single switch; {@code variant()} exposes the tag
+ * as an enum for callers to switch on. Unions with list or map members are generated as structures.
+ *
+ * <p>A member added to the union after this code was generated decodes as the {@code UNKNOWN} variant, which keeps
+ * its encoding so that re-encoding the union writes it back unchanged.
+ */
+public final class UnionGenerator implements Runnable {
+    private final UnionShape shape;
+    private final SymbolProvider symbolProvider;
+    private final SparrowhawkSettings settings;
+    private final Symbol symbol;
+    private final Model model;
+    private final JavaWriter writer;
+    private final List<Variant> variants = new ArrayList<>();
+
+    UnionGenerator(
+        UnionShape shape,
+        Model model,
+        SymbolProvider symbolProvider,
+        JavaWriter writer,
+        SparrowhawkSettings settings
+    ) {
+        this.shape = shape;
+        this.model = model;
+        this.symbolProvider = symbolProvider;
+        this.settings = settings;
+        this.symbol = symbolProvider.toSymbol(shape);
+        this.writer = writer;
+
+        var index = SparrowhawkIndex.of(model);
+        addVariants(index::getVarintFieldSetCount, index::getVarintMembers);
+        addVariants(index::getListFieldSetCount, index::getListMembers);
+        addVariants(index::getFourByteFieldSetCount, index::getFourByteMembers);
+        addVariants(index::getEightByteFieldSetCount, index::getEightByteMembers);
+    }
+
+    /**
+     * Returns true if every member of the union can be held in the single value slot.
+     */
+    static boolean supports(UnionShape shape, Model model) {
+        boolean any = false;
+        for (MemberShape member : shape.members()) {
+            var target = model.expectShape(member.getTarget());
+            if (target.hasTrait(StreamingTrait.class)) {
+                continue;
+            }
+            if (!member.hasTrait(SparrowhawkFieldTrait.class) || kind(target) == null) {
+                return false;
+            }
+            any = true;
+        }
+        return any;
+    }
+
+    public UnionShape getShape() {
+        return shape;
+    }
+
+    public Symbol getSymbol() {
+        return symbol;
+    }
+
+    public Model getModel() {
+        return model;
+    }
+
+    public JavaWriter getWriter() {
+        return writer;
+    }
+
+    private void addVariants(
+        Function<ToShapeId, Integer> fieldSetCount,
+        BiFunction<ToShapeId, Integer, List<MemberShape>> members
+    ) {
+        for (int i = 0; i < fieldSetCount.apply(shape); i++) {
+            for (MemberShape member : members.apply(shape, i)) {
+                var target = model.expectShape(member.getTarget());
+                variants.add(new Variant(member, target, kind(target), variants.size() + 1));
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        writer.pushState(new StartUnionSection(this));
+        writer.write("public final class $L implements $T {", symbol.getName(), CommonSymbols.SparrowhawkObject);
+        writer.popState();
+        writer.indent();
+        generateVariantEnum();
+        writer.write("""
+            private Object $$value;
+            private int $$tag;
+            private int $$size = -1;
+
+            public Variant variant() {
+                return VARIANTS[$$tag];
+            }
+
+            /**
+             * Returns the value of the set member, or null if no member or an unknown one is set.
+             */
+            public Object value() {
+                return $$tag == 0 || $$tag == $L ? null : $$value;
+            }
+
+            /**
+             * Unsets the member. A structure member is kept and reused if the next decode sets the same member.
+             */
+            public void clear() {
+                this.$$tag = 0;
+                this.$$size = -1;
+            }
+
+            private void set(int tag, Object value) {
+                if (value != null) {
+                    this.$$tag = tag;
+                    this.$$value = value;
+                } else if (this.$$tag == tag) {
+                    this.$$tag = 0;
+                    this.$$value = null;
+                }
+                this.$$size = -1;
+            }
+            """, unknownTagName());
+        for (Variant v : variants) {
+            generateAccessors(v);
+        }
+        generateSize();
+        generateEncoder();
+        generateDecoder();
+        generateEquals();
+        generateHashCode();
+        writer.injectSection(new EndUnionSection(this));
+        writer.dedent().write("}");
+    }
+
+    /**
+     * Returns the name of a variant constant, prefixed with {@code $} if a member already takes it.
+     */
+    private String reservedConstant(String name) {
+        return variants.stream().anyMatch(v -> v.constant().equals(name)) ? "$" + name : name;
+    }
+
+    private String unknownTagName() {
+        return "TAG_" + reservedConstant("UNKNOWN");
+    }
+
+    private void generateVariantEnum() {
+        writer.openBlock("public enum Variant {", "}\n", () -> {
+            writer.write("$L,", reservedConstant("NONE"));
+            for (Variant v : variants) {
+                writer.write("$L,", v.constant());
+            }
+            writer.write("$L", reservedConstant("UNKNOWN"));
+        });
+        writer.write("private static final Variant[] VARIANTS = Variant.values();");
+        writer.write("// a member added after this was generated, kept as the encoding it was read from");
+        writer.write("private static final int $L = $L;\n", unknownTagName(), variants.size() + 1);
+    }
+
+    private void generateAccessors(Variant v) {
+        var fieldSymbol = symbolProvider.toSymbol(v.member());
+        var methodName = fieldSymbol.expectProperty("methodName", String.class);
+        var paramName = symbolProvider.toMemberName(v.member());
+        var trait = v.trait();
+        writer.write(
+            "// $L fieldSet $L index $L",
+            trait.getType().lowercaseId,
+            trait.getFieldSetIdx(),
+            trait.getTypeIdx()
+        );
+        writer.write("private static final int $L = $L;\n", v.tagName(), v.tag());
+
+        writer.openBlock("public $T get$L() {", "}\n", fieldSymbol, methodName, () -> {
+            var boxed = fieldSymbol.getProperty("boxed", Symbol.class).orElse(null);
+            if (boxed != null) {
+                writer.write(
+                    "return $$tag == $L ? ($T) $$value : $L;",
+                    v.tagName(),
+                    boxed,
+                    v.target().isBooleanShape() ? "false" : "0"
+                );
+            } else if (v.kind() == Kind.STRING) {
+                writer.write("""
+                    if ($$tag != $L) return null;
+                    Object value = $$value;
+                    if (value instanceof String) return (String) value;""", v.tagName());
+                var enumSymbol = enumSymbol(v);
+                if (enumSymbol != null) {
+                    writer.openBlock("if (value.getClass() == $T.class) {", "}", enumSymbol, () -> {
+                        writer.write("return (($T) value).value();", enumSymbol);
+                    });
+                }
+                writer.write("""
+                    String s = new String((byte[]) value, $T);
+                    this.$$value = s;
+                    return s;""", CommonSymbols.UTF_8);
+            } else if (v.kind() == Kind.STRUCTURE) {
+                writer.write("""
+                    if ($$tag != $L) return null;
+                    // the caller may modify the structure, which the cached size would not see
+                    this.$$size = -1;
+                    return ($T) $$value;""", v.tagName(), fieldSymbol);
+            } else {
+                writer.write("return $$tag == $L ? ($T) $$value : null;", v.tagName(), fieldSymbol);
+            }
+        });
+
+        writer.openBlock("public void set$L($T $L) {", "}\n", methodName, fieldSymbol, paramName, () -> {
+            writer.write("set($L, $L);", v.tagName(), paramName);
+        });
+
+        writer.openBlock("public boolean has$L() {", "}\n", methodName, () -> {
+            writer.write("return $$tag == $L;", v.tagName());
+        });
+
+        var enumSymbol = enumSymbol(v);
+        if (enumSymbol == null) {
+            return;
+        }
+        if (v.kind() == Kind.VARINT) {
+            writer.write("""
+                public $1T get$2LEnum() {
+                    return has$2L() ? $1T.fromValue(get$2L()) : null;
+                }
+
+                public void set$2LEnum($1T value) {
+                    set$2L(value.value());
+                }
+                """, enumSymbol, methodName);
+        } else {
+            writer.openBlock("public $T get$LEnum() {", "}\n", enumSymbol, methodName, () -> {
+                writer.write("""
+                    if ($$tag != $1L) return null;
+                    Object value = $$value;
+                    if (value.getClass() == $2T.class) return ($2T) value;
+                    if (value instanceof String) return $2T.fromValue((String) value);
+                    byte[] b = (byte[]) value;
+                    return $2T.fromBytes(b, 0, b.length);""", v.tagName(), enumSymbol);
+            });
+            writer.write("""
+                public void set$LEnum($T value) {
+                    set($L, value);
+                }
+                """, methodName, enumSymbol, v.tagName());
+        }
+    }
+
+    private boolean hasStructureVariant() {
+        return variants.stream().anyMatch(v -> v.kind() == Kind.STRUCTURE);
+    }
+
+    private void generateSize() {
+        boolean canonical = hasStructureVariant();
+        writer.write("""
+            public int size() {
+                if ($$size >= 0) {
+                    return $$size;
+                }
+
+                int size = sizeValue($L);
+                this.$$size = size;
+                return size;
+            }
+            """, canonical ? "false" : "");
+        if (canonical) {
+            writer.write("""
+                /**
+                 * Returns the size of the canonical encoding, in which a structure member reports its canonical size.
+                 */
+                public int canonicalSize() {
+                    return sizeValue(true);
+                }
+                """);
+        }
+        writer.openBlock("private int sizeValue($L) {", "}\n", canonical ? "boolean canonical" : "", () -> {
+            writer.openBlock("return switch ($$tag) {", "};", () -> {
+                writer.write("case 0 -> 0;");
+                for (Variant v : variants) {
+                    writer.writeInline("case $L -> $L + ", v.tagName(), v.headerSize());
+                    switch (v.kind()) {
+                        case VARINT -> writer.write(
+                            "$T(($T) $$value);",
+                            v.target().isLongShape() ? longSize : intSize,
+                            boxedSymbol(v)
+                        );
+                        case FOUR_BYTE -> writer.write("4;");
+                        case EIGHT_BYTE -> writer.write("8;");
+                        case BLOB -> writer.write(
+                            "$T((($T) $$value).remaining());",
+                            byteListLengthEncodedSize,
+                            CommonSymbols.BYTE_BUFFER
+                        );
+                        case STRUCTURE -> writer.write(
+                            "$1T(canonical ? (($2T) $$value).canonicalSize() : (($2T) $$value).size());",
+                            byteListLengthEncodedSize,
+                            symbolProvider.toSymbol(v.member())
+                        );
+                        case STRING -> writer.write("stringSize();");
+                    }
+                }
+                writer.write("case $L -> (($T) $$value).size();", unknownTagName(), CommonSymbols.UnknownFields);
+                writer.write("default -> throw new IllegalStateException(\"unknown tag \" + $$tag);");
+            });
+        });
+
+        if (variants.stream().anyMatch(v -> v.kind() == Kind.STRING)) {
+            writer.openBlock("private int stringSize() {", "}\n", () -> {
+                writer.write("Object value = $$value;");
+                for (Variant v : variants) {
+                    var enumSymbol = v.kind() == Kind.STRING ? enumSymbol(v) : null;
+                    if (enumSymbol != null) {
+                        writer.openBlock("if (value.getClass() == $T.class) {", "}", enumSymbol, () -> {
+                            writer.write("return (($T) value).encodedSize();", enumSymbol);
+                        });
+                    }
+                }
+                writer.openBlock("if (value.getClass() != byte[].class) {", "}", () -> {
+                    writer.write("""
+                        value = ((String) value).getBytes($T);
+                        this.$$value = value;""", CommonSymbols.UTF_8);
+                });
+                writer.write("return $T(((byte[]) value).length);", byteListLengthEncodedSize);
+            });
+        }
+    }
+
+    private void generateEncoder() {
+        writer.openBlock("public void encodeTo($T s) {", "}\n", CommonSymbols.SparrowhawkSerializer, () -> {
+            if (hasStructureVariant()) {
+                writer.write("s.writeVarUL($T(s.isCanonical() ? canonicalSize() : size()));", encodeByteListLength);
+            } else {
+                writer.write("s.writeVarUL($T(size()));", encodeByteListLength);
+            }
+            writer.openBlock("switch ($$tag) {", "}", () -> {
+                for (Variant v : variants) {
+                    writer.openBlock("case $L -> {", "}", v.tagName(), () -> {
+                        writer.write("s.writeVarUL($L);", bitsToString(v.fieldSet()));
+                        if (v.trait().getFieldSetIdx() > 0) {
+                            writer.write("s.writeVarUI($L);", v.trait().getFieldSetIdx() - 1);
+                        }
+                        generateValueEncoder(v);
+                    });
+                }
+                writer.write(
+                    "case $L -> (($T) $$value).writeFieldSets(s);",
+                    unknownTagName(),
+                    CommonSymbols.UnknownFields
+                );
+                writer.write("default -> {}");
+            });
+        });
+    }
+
+    private void generateValueEncoder(Variant v) {
+        switch (v.kind()) {
+            case VARINT -> writer.write(
+                "s.write$L(($T) $$value);",
+                capitalize(varintMethod(v.target().getType())),
+                boxedSymbol(v)
+            );
+            case FOUR_BYTE -> writer.write("s.writeFloat((Float) $$value);");
+            case EIGHT_BYTE -> {
+                if (v.target().isTimestampShape()) {
+                    writer.write(
+                        "s.write$1L(($2T) $$value);",
+                        settings.useInstant() ? "Instant" : "Date",
+                        symbolProvider.toSymbol(v.member())
+                    );
+                } else {
+                    writer.write("s.writeDouble((Double) $$value);");
+                }
+            }
+            case BLOB -> writer.write("s.writeBytes(($T) $$value);", CommonSymbols.BYTE_BUFFER);
+            case STRUCTURE -> writer.write("(($T) $$value).encodeTo(s);", symbolProvider.toSymbol(v.member()));
+            case STRING -> {
+                var enumSymbol = enumSymbol(v);
+                if (enumSymbol != null) {
+                    writer.write("""
+                        if ($$value.getClass() == $1T.class) {
+                            (($1T) $$value).encodeTo(s);
+                        } else {
+                            s.writeBytes($$value);
+                        }""", enumSymbol);
+                } else {
+                    writer.write("s.writeBytes($$value);");
+                }
+            }
+        }
+    }
+
+    private void generateDecoder() {
+        writer.openBlock("public void decodeFrom($T d) {", "}\n", CommonSymbols.SparrowhawkDeserializer, () -> {
+            if (hasStructureVariant()) {
+                // a structure member from an earlier decode is decoded into again
+                writer.write("Object previous = this.$$value;");
+            }
+            writer.write("""
+                int size = (int) $T(d.varUI());
+                // re-encoding may shorten varints read from bytes not known to be canonical
+                this.$$size = d.isCanonical() ? size : -1;
+                this.$$tag = 0;
+                this.$$value = null;
+                if (size == 0) {
+                    return;
+                }
+
+                int end = d.pos() + size;
+                long fieldSet = d.varUL();
+                int fieldSetIdx = ((fieldSet & 0b100) != 0) ? d.varUI() + 1 : 0;
+                long members = fieldSet >>> 3;
+                if (members == 0 || (members & (members - 1)) != 0) {
+                    throw new RuntimeException(
+                        "expected one union member, found field set " + Long.toHexString(fieldSet)
+                    );
+                }
+                // field set index, member bit and wire type of the one member
+                int key = (fieldSetIdx << 8) | (Long.numberOfTrailingZeros(members) << 2) | (int) (fieldSet & 3);""",
+                decodeElementCount);
+            writer.openBlock("switch (key) {", "}", () -> {
+                for (Variant v : variants) {
+                    writer.openBlock("case 0x$L -> {", "}", Integer.toHexString(v.decodeKey()), () -> {
+                        generateValueDecoder(v);
+                        writer.write("this.$$tag = $L;", v.tagName());
+                    });
+                }
+                writer.write("""
+                    default -> {
+                        this.$$value = $T.addFieldSet(null, d, fieldSetIdx, fieldSet);
+                        this.$$tag = $L;
+                    }""", CommonSymbols.UnknownFields, unknownTagName());
+            });
+            writer.openBlock("if (d.pos() != end) {", "}", () -> {
+                writer.write("throw new RuntimeException(\"union has more than one member set\");");
+            });
+        });
+    }
+
+    private void generateValueDecoder(Variant v) {
+        switch (v.kind()) {
+            case VARINT -> writer.write("this.$$value = d.$L();", varintMethod(v.target().getType()));
+            case FOUR_BYTE -> writer.write("this.$$value = d.f4();");
+            case EIGHT_BYTE -> {
+                String m = "d8";
+                if (v.target().isTimestampShape()) {
+                    m = settings.useInstant() ? "instant" : "date";
+                }
+                writer.write("this.$$value = d.$L();", m);
+            }
+            case BLOB -> writer.write("this.$$value = d.bytes();");
+            case STRUCTURE -> writer.write("""
+                $1T obj = previous instanceof $1T ? ($1T) previous : new $1T();
+                obj.decodeFrom(d);
+                this.$$value = obj;""", symbolProvider.toSymbol(v.member()));
+            case STRING -> {
+                var enumSymbol = enumSymbol(v);
+                if (enumSymbol != null) {
+                    writer.write("this.$$value = $T.decode(d);", enumSymbol);
+                } else {
+                    writer.write("this.$$value = d.string();");
+                }
+            }
+        }
+    }
+
+    private void generateEquals() {
+        writer.openBlock("@Override\npublic boolean equals(Object other) {", "}", () -> {
+            writer.write("""
+                if (this == other) return true;
+                if (!(other instanceof $1L)) return false;
+                $1L o = ($1L) other;
+                if ($$tag != o.$$tag) return false;""", symbol.getName());
+            writer.openBlock("return switch ($$tag) {", "};", () -> {
+                for (Variant v : variants) {
+                    String method = symbolProvider.toSymbol(v.member()).expectProperty("methodName", String.class);
+                    if (v.kind() == Kind.STRUCTURE) {
+                        // read directly, as the getter would drop the cached size
+                        writer.write("case $L -> $$value.equals(o.$$value);", v.tagName());
+                    } else {
+                        writer.write("case $1L -> $2T.equals(get$3L(), o.get$3L());", v.tagName(), Objects, method);
+                    }
+                }
+                writer.write("case $L -> $$value.equals(o.$$value);", unknownTagName());
+                writer.write("default -> true;");
+            });
+        });
+    }
+
+    private void generateHashCode() {
+        writer.openBlock("\n@Override\npublic int hashCode() {", "}", () -> {
+            writer.openBlock("return 31 * $$tag + switch ($$tag) {", "};", () -> {
+                for (Variant v : variants) {
+                    String method = symbolProvider.toSymbol(v.member()).expectProperty("methodName", String.class);
+                    if (v.kind() == Kind.STRUCTURE) {
+                        writer.write("case $L -> $$value.hashCode();", v.tagName());
+                    } else {
+                        writer.write("case $1L -> $2T.hashCode(get$3L());", v.tagName(), Objects, method);
+                    }
+                }
+                writer.write("case $L -> $$value.hashCode();", unknownTagName());
+                writer.write("default -> 0;");
+            });
+        });
+    }
+
+    private Symbol enumSymbol(Variant v) {
+        return symbolProvider.toSymbol(v.member()).getProperty("enumSymbol", Symbol.class).orElse(null);
+    }
+
+    private Symbol boxedSymbol(Variant v) {
+        return symbolProvider.toSymbol(v.member()).expectProperty("boxed", Symbol.class);
+    }
+
+    private static String varintMethod(ShapeType type) {
+        return switch (type) {
+            case LONG -> "varL";
+            case INTEGER, INT_ENUM -> "varI";
+            case BOOLEAN -> "bool";
+            case BYTE -> "varB";
+            case SHORT -> "varS";
+            default -> throw new RuntimeException("not a varint: " + type);
+        };
+    }
+
+    private static String bitsToString(long l) {
+        return "0x" + Long.toHexString(l) + "L";
+    }
+
+    private static Kind kind(Shape target) {
+        return switch (target.getType()) {
+            case BOOLEAN, BYTE, SHORT, INTEGER, INT_ENUM, LONG -> Kind.VARINT;
+            case FLOAT -> Kind.FOUR_BYTE;
+            case DOUBLE, TIMESTAMP -> Kind.EIGHT_BYTE;
+            case STRING, ENUM -> Kind.STRING;
+            case BLOB -> Kind.BLOB;
+            case STRUCTURE, UNION -> isStructure(target) ? Kind.STRUCTURE : null;
+            default -> null;
+        };
+    }
+
+    private enum Kind {
+        VARINT,
+        FOUR_BYTE,
+        EIGHT_BYTE,
+        STRING,
+        BLOB,
+        STRUCTURE
+    }
+
+    private record Variant(MemberShape member, Shape target, Kind kind, int tag) {
+        SparrowhawkFieldTrait trait() {
+            return member.expectTrait(SparrowhawkFieldTrait.class);
+        }
+
+        String constant() {
+            return upperCase(member.getMemberName());
+        }
+
+        String tagName() {
+            return "TAG_" + constant();
+        }
+
+        long fieldSet() {
+            var trait = trait();
+            long fieldSet = (1L << (trait.getTypeIdx() - 1 + 3)) | trait.getType().wireType;
+            if (trait.getFieldSetIdx() > 0) {
+                fieldSet |= 0b100;
+            }
+            return fieldSet;
+        }
+
+        int headerSize() {
+            int size = SparrowhawkSerializer.ulongSize(fieldSet());
+            if (trait().getFieldSetIdx() > 0) {
+                size += SparrowhawkSerializer.uintSize(trait().getFieldSetIdx() - 1);
+            }
+            return size;
+        }
+
+        int decodeKey() {
+            var trait = trait();
+            return (trait.getFieldSetIdx() << 8) | ((trait.getTypeIdx() - 1) << 2) | trait.getType().wireType;
+        }
+    }
+}
@@ -1,5 +1,6 @@
 plugins {
     id("smithy-sparrowhawk-java.module-conventions")
+    alias(libs.plugins.jmh)
 }
 
 description = "This module provides sparrowhawk functionality"
@@ -9,3 +10,9 @@ extra["moduleName"] = "software.amazon.smithy.java.sparrowhawk"
 
 dependencies {
 }
+
+jmh {
+    warmupIterations = 2
+    iterations = 5
+    fork = 1
+}
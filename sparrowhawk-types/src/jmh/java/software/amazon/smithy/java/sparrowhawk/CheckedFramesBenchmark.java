@@ -0,0 +1,71 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package software.amazon.smithy.java.sparrowhawk;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Compares plain and CRC32C-checked framing. Run with {@code ./gradlew :sparrowhawk-types:jmh}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CheckedFramesBenchmark {
+    @Param({"1", "16", "512"})
+    public int entries;
+
+    private StringMap map;
+    private byte[] plain;
+    private byte[] checked;
+
+    @Setup
+    public void setup() {
+        Map<String, String> m = new HashMap<>();
+        for (int i = 0; i < entries; i++) {
+            m.put("key-" + i, "a reasonably sized value " + i);
+        }
+        map = new StringMap();
+        map.fromMap(m);
+        plain = encodePlain();
+        checked = encodeChecked();
+    }
+
+    @Benchmark
+    public byte[] encodePlain() {
+        SparrowhawkSerializer s = new SparrowhawkSerializer(map.size());
+        map.encodeTo(s);
+        return s.payload();
+    }
+
+    @Benchmark
+    public byte[] encodeChecked() {
+        return CheckedFrames.encode(map);
+    }
+
+    @Benchmark
+    public StringMap decodePlain() {
+        StringMap m = new StringMap();
+        m.decodeFrom(new SparrowhawkDeserializer(plain));
+        return m;
+    }
+
+    @Benchmark
+    public StringMap decodeChecked() {
+        StringMap m = new StringMap();
+        CheckedFrames.decode(checked, m);
+        return m;
+    }
+}
@@ -0,0 +1,378 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package software.amazon.smithy.java.sparrowhawk;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Compares the two shapes of generated field set decoder on a full 61-member varint field set: testing every
+ * member's bit in order, and walking only the set bits with {@code Long.numberOfTrailingZeros} (the
+ * {@code bitsetDecoders} codegen setting). The decoders below are written out the way codegen emits them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class FieldSetDecodeBenchmark {
+    @Param({"2", "16", "61"})
+    public int present;
+
+    private byte[] payload;
+
+    private int f0;
+    private int f1;
+    private int f2;
+    private int f3;
+    private int f4;
+    private int f5;
+    private int f6;
+    private int f7;
+    private int f8;
+    private int f9;
+    private int f10;
+    private int f11;
+    private int f12;
+    private int f13;
+    private int f14;
+    private int f15;
+    private int f16;
+    private int f17;
+    private int f18;
+    private int f19;
+    private int f20;
+    private int f21;
+    private int f22;
+    private int f23;
+    private int f24;
+    private int f25;
+    private int f26;
+    private int f27;
+    private int f28;
+    private int f29;
+    private int f30;
+    private int f31;
+    private int f32;
+    private int f33;
+    private int f34;
+    private int f35;
+    private int f36;
+    private int f37;
+    private int f38;
+    private int f39;
+    private int f40;
+    private int f41;
+    private int f42;
+    private int f43;
+    private int f44;
+    private int f45;
+    private int f46;
+    private int f47;
+    private int f48;
+    private int f49;
+    private int f50;
+    private int f51;
+    private int f52;
+    private int f53;
+    private int f54;
+    private int f55;
+    private int f56;
+    private int f57;
+    private int f58;
+    private int f59;
+    private int f60;
+
+    @Setup
+    public void setup() {
+        // spread the present members across the field set
+        long fieldSet = KConstants.T_VARINT;
+        for (int i = 0; i < present; i++) {
+            fieldSet |= 1L << (i * 61 / present + 3);
+        }
+        int size = SparrowhawkSerializer.ulongSize(fieldSet);
+        for (int i = 0; i < present; i++) {
+            size += SparrowhawkSerializer.intSize(i * 1000);
+        }
+        SparrowhawkSerializer s = new SparrowhawkSerializer(new byte[size]);
+        s.writeVarUL(fieldSet);
+        for (int i = 0; i < present; i++) {
+            s.writeVarI(i * 1000);
+        }
+        payload = s.payload();
+    }
+
+    @Benchmark
+    public int testEachMember() {
+        SparrowhawkDeserializer d = new SparrowhawkDeserializer(payload);
+        long fieldSet = d.varUL();
+        if ((fieldSet & (1L << 3)) != 0) {
+            this.f0 = d.varI();
+        }
+        if ((fieldSet & (1L << 4)) != 0) {
+            this.f1 = d.varI();
+        }
+        if ((fieldSet & (1L << 5)) != 0) {
+            this.f2 = d.varI();
+        }
+        if ((fieldSet & (1L << 6)) != 0) {
+            this.f3 = d.varI();
+        }
+        if ((fieldSet & (1L << 7)) != 0) {
+            this.f4 = d.varI();
+        }
+        if ((fieldSet & (1L << 8)) != 0) {
+            this.f5 = d.varI();
+        }
+        if ((fieldSet & (1L << 9)) != 0) {
+            this.f6 = d.varI();
+        }
+        if ((fieldSet & (1L << 10)) != 0) {
+            this.f7 = d.varI();
+        }
+        if ((fieldSet & (1L << 11)) != 0) {
+            this.f8 = d.varI();
+        }
+        if ((fieldSet & (1L << 12)) != 0) {
+            this.f9 = d.varI();
+        }
+        if ((fieldSet & (1L << 13)) != 0) {
+            this.f10 = d.varI();
+        }
+        if ((fieldSet & (1L << 14)) != 0) {
+            this.f11 = d.varI();
+        }
+        if ((fieldSet & (1L << 15)) != 0) {
+            this.f12 = d.varI();
+        }
+        if ((fieldSet & (1L << 16)) != 0) {
+            this.f13 = d.varI();
+        }
+        if ((fieldSet & (1L << 17)) != 0) {
+            this.f14 = d.varI();
+        }
+        if ((fieldSet & (1L << 18)) != 0) {
+            this.f15 = d.varI();
+        }
+        if ((fieldSet & (1L << 19)) != 0) {
+            this.f16 = d.varI();
+        }
+        if ((fieldSet & (1L << 20)) != 0) {
+            this.f17 = d.varI();
+        }
+        if ((fieldSet & (1L << 21)) != 0) {
+            this.f18 = d.varI();
+        }
+        if ((fieldSet & (1L << 22)) != 0) {
+            this.f19 = d.varI();
+        }
+        if ((fieldSet & (1L << 23)) != 0) {
+            this.f20 = d.varI();
+        }
+        if ((fieldSet & (1L << 24)) != 0) {
+            this.f21 = d.varI();
+        }
+        if ((fieldSet & (1L << 25)) != 0) {
+            this.f22 = d.varI();
+        }
+        if ((fieldSet & (1L << 26)) != 0) {
+            this.f23 = d.varI();
+        }
+        if ((fieldSet & (1L << 27)) != 0) {
+            this.f24 = d.varI();
+        }
+        if ((fieldSet & (1L << 28)) != 0) {
+            this.f25 = d.varI();
+        }
+        if ((fieldSet & (1L << 29)) != 0) {
+            this.f26 = d.varI();
+        }
+        if ((fieldSet & (1L << 30)) != 0) {
+            this.f27 = d.varI();
+        }
+        if ((fieldSet & (1L << 31)) != 0) {
+            this.f28 = d.varI();
+        }
+        if ((fieldSet & (1L << 32)) != 0) {
+            this.f29 = d.varI();
+        }
+        if ((fieldSet & (1L << 33)) != 0) {
+            this.f30 = d.varI();
+        }
+        if ((fieldSet & (1L << 34)) != 0) {
+            this.f31 = d.varI();
+        }
+        if ((fieldSet & (1L << 35)) != 0) {
+            this.f32 = d.varI();
+        }
+        if ((fieldSet & (1L << 36)) != 0) {
+            this.f33 = d.varI();
+        }
+        if ((fieldSet & (1L << 37)) != 0) {
+            this.f34 = d.varI();
+        }
+        if ((fieldSet & (1L << 38)) != 0) {
+            this.f35 = d.varI();
+        }
+        if ((fieldSet & (1L << 39)) != 0) {
+            this.f36 = d.varI();
+        }
+        if ((fieldSet & (1L << 40)) != 0) {
+            this.f37 = d.varI();
+        }
+        if ((fieldSet & (1L << 41)) != 0) {
+            this.f38 = d.varI();
+        }
+        if ((fieldSet & (1L << 42)) != 0) {
+            this.f39 = d.varI();
+        }
+        if ((fieldSet & (1L << 43)) != 0) {
+            this.f40 = d.varI();
+        }
+        if ((fieldSet & (1L << 44)) != 0) {
+            this.f41 = d.varI();
+        }
+        if ((fieldSet & (1L << 45)) != 0) {
+            this.f42 = d.varI();
+        }
+        if ((fieldSet & (1L << 46)) != 0) {
+            this.f43 = d.varI();
+        }
+        if ((fieldSet & (1L << 47)) != 0) {
+            this.f44 = d.varI();
+        }
+        if ((fieldSet & (1L << 48)) != 0) {
+            this.f45 = d.varI();
+        }
+        if ((fieldSet & (1L << 49)) != 0) {
+            this.f46 = d.varI();
+        }
+        if ((fieldSet & (1L << 50)) != 0) {
+            this.f47 = d.varI();
+        }
+        if ((fieldSet & (1L << 51)) != 0) {
+            this.f48 = d.varI();
+        }
+        if ((fieldSet & (1L << 52)) != 0) {
+            this.f49 = d.varI();
+        }
+        if ((fieldSet & (1L << 53)) != 0) {
+            this.f50 = d.varI();
+        }
+        if ((fieldSet & (1L << 54)) != 0) {
+            this.f51 = d.varI();
+        }
+        if ((fieldSet & (1L << 55)) != 0) {
+            this.f52 = d.varI();
+        }
+        if ((fieldSet & (1L << 56)) != 0) {
+            this.f53 = d.varI();
+        }
+        if ((fieldSet & (1L << 57)) != 0) {
+            this.f54 = d.varI();
+        }
+        if ((fieldSet & (1L << 58)) != 0) {
+            this.f55 = d.varI();
+        }
+        if ((fieldSet & (1L << 59)) != 0) {
+            this.f56 = d.varI();
+        }
+        if ((fieldSet & (1L << 60)) != 0) {
+            this.f57 = d.varI();
+        }
+        if ((fieldSet & (1L << 61)) != 0) {
+            this.f58 = d.varI();
+        }
+        if ((fieldSet & (1L << 62)) != 0) {
+            this.f59 = d.varI();
+        }
+        if ((fieldSet & (1L << 63)) != 0) {
+            this.f60 = d.varI();
+        }
+        return d.pos();
+    }
+
+    @Benchmark
+    public int walkSetBits() {
+        SparrowhawkDeserializer d = new SparrowhawkDeserializer(payload);
+        long fieldSet = d.varUL();
+        long bits = fieldSet >>> 3;
+        while (bits != 0) {
+            int i = Long.numberOfTrailingZeros(bits);
+            bits &= bits - 1;
+            switch (i) {
+                case 0 -> this.f0 = d.varI();
+                case 1 -> this.f1 = d.varI();
+                case 2 -> this.f2 = d.varI();
+                case 3 -> this.f3 = d.varI();
+                case 4 -> this.f4 = d.varI();
+                case 5 -> this.f5 = d.varI();
+                case 6 -> this.f6 = d.varI();
+                case 7 -> this.f7 = d.varI();
+                case 8 -> this.f8 = d.varI();
+                case 9 -> this.f9 = d.varI();
+                case 10 -> this.f10 = d.varI();
+                case 11 -> this.f11 = d.varI();
+                case 12 -> this.f12 = d.varI();
+                case 13 -> this.f13 = d.varI();
+                case 14 -> this.f14 = d.varI();
+                case 15 -> this.f15 = d.varI();
+                case 16 -> this.f16 = d.varI();
+                case 17 -> this.f17 = d.varI();
+                case 18 -> this.f18 = d.varI();
+                case 19 -> this.f19 = d.varI();
+                case 20 -> this.f20 = d.varI();
+                case 21 -> this.f21 = d.varI();
+                case 22 -> this.f22 = d.varI();
+                case 23 -> this.f23 = d.varI();
+                case 24 -> this.f24 = d.varI();
+                case 25 -> this.f25 = d.varI();
+                case 26 -> this.f26 = d.varI();
+                case 27 -> this.f27 = d.varI();
+                case 28 -> this.f28 = d.varI();
+                case 29 -> this.f29 = d.varI();
+                case 30 -> this.f30 = d.varI();
+                case 31 -> this.f31 = d.varI();
+                case 32 -> this.f32 = d.varI();
+                case 33 -> this.f33 = d.varI();
+                case 34 -> this.f34 = d.varI();
+                case 35 -> this.f35 = d.varI();
+                case 36 -> this.f36 = d.varI();
+                case 37 -> this.f37 = d.varI();
+                case 38 -> this.f38 = d.varI();
+                case 39 -> this.f39 = d.varI();
+                case 40 -> this.f40 = d.varI();
+                case 41 -> this.f41 = d.varI();
+                case 42 -> this.f42 = d.varI();
+                case 43 -> this.f43 = d.varI();
+                case 44 -> this.f44 = d.varI();
+                case 45 -> this.f45 = d.varI();
+                case 46 -> this.f46 = d.varI();
+                case 47 -> this.f47 = d.varI();
+                case 48 -> this.f48 = d.varI();
+                case 49 -> this.f49 = d.varI();
+                case 50 -> this.f50 = d.varI();
+                case 51 -> this.f51 = d.varI();
+                case 52 -> this.f52 = d.varI();
+                case 53 -> this.f53 = d.varI();
+                case 54 -> this.f54 = d.varI();
+                case 55 -> this.f55 = d.varI();
+                case 56 -> this.f56 = d.varI();
+                case 57 -> this.f57 = d.varI();
+                case 58 -> this.f58 = d.varI();
+                case 59 -> this.f59 = d.varI();
+                case 60 -> this.f60 = d.varI();
+                default -> throw new RuntimeException("unknown varint field " + i);
+            }
+        }
+        return d.pos();
+    }
+}
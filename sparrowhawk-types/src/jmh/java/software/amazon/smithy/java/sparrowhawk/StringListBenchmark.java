@@ -0,0 +1,78 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package software.amazon.smithy.java.sparrowhawk;
+
+import static software.amazon.smithy.java.sparrowhawk.SparrowhawkSerializer.lenPrefixedListLengthEncodedSize;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures decoding of string lists. Run with {@code ./gradlew :sparrowhawk-types:jmh -Pjmh.profilers=gc}; the
+ * allocated bytes per operation of the decode benchmarks are what a decoded list retains, since a decoded list
+ * allocates only its offsets (and null bitmap) regardless of element count.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class StringListBenchmark {
+    @Param({"16", "4096"})
+    public int elements;
+
+    private byte[] dense;
+    private byte[] sparse;
+
+    @Setup
+    public void setup() {
+        List<String> strings = new ArrayList<>(elements);
+        for (int i = 0; i < elements; i++) {
+            strings.add(i % 8 == 0 ? null : "dim-" + i);
+        }
+        sparse = encode(SparseStringList.fromList(strings).size(), SparseStringList.fromList(strings));
+        strings.replaceAll(s -> s == null ? "" : s);
+        dense = encode(StringList.fromList(strings).size(), StringList.fromList(strings));
+    }
+
+    private static byte[] encode(int size, SparrowhawkObject list) {
+        int count = list instanceof StringList l ? l.elementCount() : ((SparseStringList) list).elementCount();
+        SparrowhawkSerializer s = new SparrowhawkSerializer(new byte[lenPrefixedListLengthEncodedSize(size, count)]);
+        list.encodeTo(s);
+        return s.payload();
+    }
+
+    @Benchmark
+    public StringList decodeDense() {
+        StringList l = new StringList();
+        l.decodeFrom(new SparrowhawkDeserializer(dense));
+        return l;
+    }
+
+    @Benchmark
+    public SparseStringList decodeSparse() {
+        SparseStringList l = new SparseStringList();
+        l.decodeFrom(new SparrowhawkDeserializer(sparse));
+        return l;
+    }
+
+    @Benchmark
+    public String decodeDenseAndGetOne() {
+        return decodeDense().asList().get(elements / 2);
+    }
+
+    @Benchmark
+    public List<String> decodeDenseToList() {
+        return decodeDense().toList();
+    }
+}
@@ -6,12 +6,65 @@
 package software.amazon.smithy.java.sparrowhawk;
 
 import static software.amazon.smithy.java.sparrowhawk.KConstants.encodeVarintListLength;
+import static software.amazon.smithy.java.sparrowhawk.SparrowhawkSerializer.mapHeaderSize;
+import static software.amazon.smithy.java.sparrowhawk.SparrowhawkSerializer.stringEncodedSize;
 import static software.amazon.smithy.java.sparrowhawk.SparrowhawkSerializer.ulongSize;
 
+import java.util.Map;
+
 public final class BooleanMap extends NumberMap<Boolean> {
-    @Override
-    protected Boolean[] newArray(int len) {
-        return new Boolean[len];
+    private static final boolean[] EMPTY = new boolean[0];
+
+    private boolean[] values = EMPTY;
+
+    public boolean getBoolean(String key) {
+        return values[indexOfExisting(key)];
+    }
+
+    public boolean getBoolean(String key, boolean defaultValue) {
+        int i = indexOf(key);
+        return i < 0 ? defaultValue : values[i];
+    }
+
+    public boolean booleanAt(int i) {
+        return values[i];
+    }
+
+    /**
+     * Replaces the contents of this map. {@code values} is used directly rather than copied.
+     */
+    public void fromArrays(String[] keys, boolean[] values) {
+        this.values = values;
+        setKeys(keys, values.length);
+    }
+
+    /**
+     * Returns the encoded size of {@code m} as a BooleanMap, without building one.
+     */
+    public static int sizeOf(Map<String, Boolean> m) {
+        int n = m.size();
+        if (n == 0) {
+            return 0;
+        }
+        int size = mapHeaderSize(n) + ulongSize(encodeVarintListLength(n)) + n;
+        for (Map.Entry<String, Boolean> e : m.entrySet()) {
+            size += stringEncodedSize(e.getKey());
+        }
+        return size;
+    }
+
+    /**
+     * Encodes {@code m} exactly as a BooleanMap built from it, writing keys and values straight into {@code s}.
+     * {@code size} is what {@code sizeOf(m)} returned, so the map is not measured twice.
+     */
+    public static void encode(Map<String, Boolean> m, int size, SparrowhawkSerializer s) {
+        Iterable<Map.Entry<String, Boolean>> entries = s.entries(m);
+        if (s.writeMapKeys(entries, m.size(), size)) {
+            s.writeVarUL(encodeVarintListLength(m.size()));
+            for (Map.Entry<String, Boolean> e : entries) {
+                s.writeBool(e.getValue());
+            }
+        }
     }
 
     @Override
@@ -20,19 +73,49 @@ public final class BooleanMap extends NumberMap<Boolean> {
     }
 
     @Override
-    protected Boolean decode(SparrowhawkDeserializer d) {
-        return d.bool();
+    protected void allocateValues(int n) {
+        values = n == 0 ? EMPTY : new boolean[n];
     }
 
     @Override
-    protected void writeValues(SparrowhawkSerializer s, Boolean[] values) {
-        s.writeBooleanList(values);
+    protected int valueCount() {
+        return values.length;
     }
 
     @Override
-    protected int sizeofValues(Boolean[] elements) {
-        int n = elements.length;
-        int size = ulongSize(encodeVarintListLength(n));
-        return size + elements.length;
+    protected Boolean valueAt(int i) {
+        return values[i];
+    }
+
+    @Override
+    protected void setValueAt(int i, Boolean value) {
+        values[i] = value;
+    }
+
+    @Override
+    protected void readValues(SparrowhawkDeserializer d, int n) {
+        allocateValues(n);
+        d.bools(values, n);
+    }
+
+    @Override
+    protected void writeValues(SparrowhawkSerializer s, int[] order) {
+        boolean[] values = order == null ? this.values : select(order);
+        s.writeBooleanList(values, values.length);
+    }
+
+    @Override
+    protected int sizeofValues(int[] order) {
+        boolean[] values = order == null ? this.values : select(order);
+        int n = values.length;
+        return ulongSize(encodeVarintListLength(n)) + n;
+    }
+
+    private boolean[] select(int[] order) {
+        boolean[] selected = new boolean[order.length];
+        for (int i = 0; i < order.length; i++) {
+            selected[i] = values[order[i]];
+        }
+        return selected;
     }
 }
@@ -59,6 +59,13 @@ public final class Bufferer {
         }
     }
 
+    /**
+     * Returns true if bytes of an incomplete message have been fed and are waiting for the rest.
+     */
+    public boolean hasPartialMessage() {
+        return payload != null || lengthPos != 0;
+    }
+
     private boolean determineLength(ByteBuffer byteBuffer) {
         if (lengthPos == 0) {
             byte firstLengthByte = byteBuffer.get();
@@ -0,0 +1,41 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package software.amazon.smithy.java.sparrowhawk;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/**
+ * The little-endian views of byte arrays used to read and write fixed-width values, and the hash of a byte range
+ * shared by the key indexes, enum tables and generated {@code hashCode} methods.
+ */
+final class ByteArrays {
+    static final VarHandle INTS = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+    static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private ByteArrays() {}
+
+    /**
+     * Hashes {@code len} bytes, eight at a time, under {@code seed}. Never returns 0, so callers can use 0 to mean
+     * not yet computed.
+     */
+    static int hash(byte[] b, int off, int len, int seed) {
+        long h = (len ^ ((long) seed << 32)) * 0x9E3779B97F4A7C15L;
+        int i = off;
+        for (int end = off + len - 7; i < end; i += 8) {
+            h = Long.rotateLeft(h ^ ((long) LONGS.get(b, i) * 0xC2B2AE3D27D4EB4FL), 31) * 0x9E3779B97F4A7C15L;
+        }
+        for (int end = off + len; i < end; i++) {
+            h = (h ^ (b[i] & 0xFF)) * 0x100000001B3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        int hash = (int) h ^ (int) (h >>> 32);
+        return hash == 0 ? 1 : hash;
+    }
+}
@@ -6,12 +6,66 @@
 package software.amazon.smithy.java.sparrowhawk;
 
 import static software.amazon.smithy.java.sparrowhawk.KConstants.encodeVarintListLength;
+import static software.amazon.smithy.java.sparrowhawk.SparrowhawkSerializer.intSize;
+import static software.amazon.smithy.java.sparrowhawk.SparrowhawkSerializer.mapHeaderSize;
+import static software.amazon.smithy.java.sparrowhawk.SparrowhawkSerializer.stringEncodedSize;
 import static software.amazon.smithy.java.sparrowhawk.SparrowhawkSerializer.ulongSize;
 
+import java.util.Map;
+
 public final class ByteMap extends NumberMap<Byte> {
-    @Override
-    protected Byte[] newArray(int len) {
-        return new Byte[len];
+    private static final byte[] EMPTY = new byte[0];
+
+    private byte[] values = EMPTY;
+
+    public byte getByte(String key) {
+        return values[indexOfExisting(key)];
+    }
+
+    public byte getByte(String key, byte defaultValue) {
+        int i = indexOf(key);
+        return i < 0 ? defaultValue : values[i];
+    }
+
+    public byte byteAt(int i) {
+        return values[i];
+    }
+
+    /**
+     * Replaces the contents of this map. {@code values} is used directly rather than copied.
+     */
+    public void fromArrays(String[] keys, byte[] values) {
+        this.values = values;
+        setKeys(keys, values.length);
+    }
+
+    /**
+     * Returns the encoded size of {@code m} as a ByteMap, without building one.
+     */
+    public static int sizeOf(Map<String, Byte> m) {
+        int n = m.size();
+        if (n == 0) {
+            return 0;
+        }
+        int size = mapHeaderSize(n) + ulongSize(encodeVarintListLength(n));
+        for (Map.Entry<String, Byte> e : m.entrySet()) {
+            size += stringEncodedSize(e.getKey()) + intSize(e.getValue());
+        }
+        return size;
+    }
+
+    /**
+     * Encodes {@code m} exactly as a ByteMap built from it, writing keys and values straight into {@code s}.
+     * {@code size} is what {@code sizeOf(m)} returned, so the map is not measured twice.
+     */
+    public static void encode(Map<String, Byte> m, int size, SparrowhawkSerializer s) {
+        Iterable<Map.Entry<String, Byte>> entries = s.entries(m);
+        if (s.writeMapKeys(entries, m.size(), size)) {
+            s.writeVarUL(encodeVarintListLength(m.size()));
+            for (Map.Entry<String, Byte> e : entries) {
+                s.writeVarI(e.getValue());
+            }
+        }
     }
 
     @Override
@@ -20,22 +74,53 @@ public final class ByteMap extends NumberMap<Byte> {
     }
 
     @Override
-    protected Byte decode(SparrowhawkDeserializer d) {
-        return (byte) d.varI();
+    protected void allocateValues(int n) {
+        values = n == 0 ? EMPTY : new byte[n];
+    }
+
+    @Override
+    protected int valueCount() {
+        return values.length;
+    }
+
+    @Override
+    protected Byte valueAt(int i) {
+        return values[i];
+    }
+
+    @Override
+    protected void setValueAt(int i, Byte value) {
+        values[i] = value;
+    }
+
+    @Override
+    protected void readValues(SparrowhawkDeserializer d, int n) {
+        allocateValues(n);
+        d.varBs(values, n);
     }
 
     @Override
-    protected void writeValues(SparrowhawkSerializer s, Byte[] values) {
-        s.writeByteList(values);
+    protected void writeValues(SparrowhawkSerializer s, int[] order) {
+        byte[] values = order == null ? this.values : select(order);
+        s.writeByteList(values, values.length);
     }
 
     @Override
-    protected int sizeofValues(Byte[] elements) {
-        int n = elements.length;
+    protected int sizeofValues(int[] order) {
+        byte[] values = order == null ? this.values : select(order);
+        int n = values.length;
         int size = ulongSize(encodeVarintListLength(n));
         for (int i = 0; i < n; i++) {
-            size += SparrowhawkSerializer.intSize(elements[i]);
+            size += SparrowhawkSerializer.intSize(values[i]);
         }
         return size;
     }
+
+    private byte[] select(int[] order) {
+        byte[] selected = new byte[order.length];
+        for (int i = 0; i < order.length; i++) {
+            selected[i] = values[order[i]];
+        }
+        return selected;
+    }
 }
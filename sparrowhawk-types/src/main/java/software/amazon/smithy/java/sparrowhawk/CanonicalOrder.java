@@ -0,0 +1,123 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package software.amazon.smithy.java.sparrowhawk;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The map entry order used by canonical encoding: keys sorted by their encoded UTF-8 bytes, compared unsigned.
+ *
+ * <p>A decoded map can hold a key more than once, in which case lookups find its last entry. Canonical encoding keeps
+ * only that entry, so maps that look up the same encode the same.
+ */
+final class CanonicalOrder {
+    private static final Comparator<Map.Entry<String, ?>> ENTRY_ORDER = (a, b) -> compare(a.getKey(), b.getKey());
+
+    private CanonicalOrder() {}
+
+    /**
+     * Returns the indexes of the entries to encode, in the order to encode them, or null if {@code keys} are already
+     * sorted and distinct, so every entry is encoded in place. The map itself is left as it is.
+     */
+    static int[] sortedOrder(ByteBuffer[] keys) {
+        int n = keys.length;
+        int i = 1;
+        while (i < n && compare(keys[i - 1], keys[i]) < 0) {
+            i++;
+        }
+        if (i >= n) {
+            return null;
+        }
+
+        Integer[] boxed = new Integer[n];
+        for (int j = 0; j < n; j++) {
+            boxed[j] = j;
+        }
+        // the sort is stable, so the last of a run of equal keys is the entry that was decoded last
+        Arrays.sort(boxed, (a, b) -> compare(keys[a], keys[b]));
+        int[] order = new int[n];
+        int distinct = 0;
+        for (int j = 0; j < n; j++) {
+            if (j + 1 < n && compare(keys[boxed[j]], keys[boxed[j + 1]]) == 0) {
+                continue;
+            }
+            order[distinct++] = boxed[j];
+        }
+        return distinct == n ? order : Arrays.copyOf(order, distinct);
+    }
+
+    /**
+     * Returns the number of entries {@code order} encodes out of {@code n}.
+     */
+    static int count(int[] order, int n) {
+        return order == null ? n : order.length;
+    }
+
+    /**
+     * Returns the index of the {@code j}th entry to encode.
+     */
+    static int at(int[] order, int j) {
+        return order == null ? j : order[j];
+    }
+
+    static int compare(ByteBuffer a, ByteBuffer b) {
+        int aOff = a.arrayOffset() + a.position();
+        int bOff = b.arrayOffset() + b.position();
+        return Arrays.compareUnsigned(
+            a.array(),
+            aOff,
+            aOff + a.remaining(),
+            b.array(),
+            bOff,
+            bOff + b.remaining()
+        );
+    }
+
+    /**
+     * Returns the entries of {@code m} in canonical order.
+     */
+    @SuppressWarnings("unchecked")
+    static <V> List<Map.Entry<String, V>> sortedEntries(Map<String, V> m) {
+        List<Map.Entry<String, V>> entries = new ArrayList<>(m.entrySet());
+        entries.sort((Comparator<Map.Entry<String, V>>) (Comparator<?>) ENTRY_ORDER);
+        return entries;
+    }
+
+    /**
+     * Compares strings in the order of their UTF-8 encodings, which is code point order, without encoding them.
+     */
+    static int compare(String a, String b) {
+        int aLen = a.length(), bLen = b.length();
+        int i = 0, j = 0;
+        while (i < aLen && j < bLen) {
+            int ca = codePointAt(a, i);
+            int cb = codePointAt(b, j);
+            if (ca != cb) {
+                return Integer.compare(ca, cb);
+            }
+            i += Character.charCount(ca);
+            j += Character.charCount(cb);
+        }
+        return Boolean.compare(i < aLen, j < bLen);
+    }
+
+    // unpaired surrogates encode as '?', so they sort as one
+    private static int codePointAt(String s, int i) {
+        char c = s.charAt(i);
+        if (!Character.isSurrogate(c)) {
+            return c;
+        }
+        if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+            return Character.toCodePoint(c, s.charAt(i + 1));
+        }
+        return '?';
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package software.amazon.smithy.java.sparrowhawk;
+
+import static software.amazon.smithy.java.sparrowhawk.KConstants.encodeByteListLength;
+import static software.amazon.smithy.java.sparrowhawk.SparrowhawkSerializer.byteListLengthEncodedSize;
+
+import java.nio.ByteBuffer;
+import java.util.function.Consumer;
+import java.util.zip.CRC32C;
+
+/**
+ * Frames encoded objects with a CRC32C checksum.
+ *
+ * <p>A checked frame is a byte list holding the encoded object followed by the four-byte little-endian CRC32C of
+ * the encoded object. Because the frame is itself a length-prefixed byte list, checked frames can be split out of a
+ * stream by a {@link Bufferer} exactly like unchecked ones.
+ */
+public final class CheckedFrames {
+    private static final int CHECKSUM_LENGTH = 4;
+
+    private CheckedFrames() {}
+
+    /**
+     * Returns the size of the checked frame's contents, excluding the frame's own length prefix.
+     */
+    public static int size(SparrowhawkObject o) {
+        return byteListLengthEncodedSize(o.size()) + CHECKSUM_LENGTH;
+    }
+
+    /**
+     * Returns the total number of bytes {@link #encodeTo} writes for {@code o}.
+     */
+    public static int encodedSize(SparrowhawkObject o) {
+        return byteListLengthEncodedSize(size(o));
+    }
+
+    public static byte[] encode(SparrowhawkObject o) {
+        SparrowhawkSerializer s = new SparrowhawkSerializer(size(o));
+        encodeTo(o, s);
+        return s.payload();
+    }
+
+    public static void encodeTo(SparrowhawkObject o, SparrowhawkSerializer s) {
+        s.writeVarUL(encodeByteListLength(size(o)));
+        int start = s.position();
+        o.encodeTo(s);
+        // checksum the bytes we just wrote while they're still in cache
+        s.write4(checksum(s.buffer(), start, s.position() - start));
+    }
+
+    /**
+     * Verifies a checked frame, including its length prefix, and returns the encoded object it carries.
+     *
+     * @throws RuntimeException if the frame is malformed or its checksum does not match
+     */
+    public static ByteBuffer verify(byte[] frame) {
+        return verify(frame, 0, frame.length);
+    }
+
+    public static ByteBuffer verify(ByteBuffer frame) {
+        if (frame.hasArray()) {
+            return verify(frame.array(), frame.arrayOffset() + frame.position(), frame.remaining());
+        }
+        byte[] copy = new byte[frame.remaining()];
+        frame.duplicate().get(copy);
+        return verify(copy);
+    }
+
+    public static ByteBuffer verify(byte[] frame, int off, int len) {
+        SparrowhawkDeserializer d = new SparrowhawkDeserializer(frame, off, off + len);
+        int contents = KConstants.decodeByteListLengthChecked(d.varUL());
+        int start = d.pos();
+        int objectLen = contents - CHECKSUM_LENGTH;
+        if (objectLen <= 0 || start + contents != off + len) {
+            throw new RuntimeException("malformed checked frame");
+        }
+        int expected = SparrowhawkDeserializer.read4(frame, start + objectLen);
+        int actual = checksum(frame, start, objectLen);
+        if (expected != actual) {
+            throw new RuntimeException(
+                "checksum mismatch: expected " + Integer.toHexString(expected) + ", got " + Integer.toHexString(actual)
+            );
+        }
+        return ByteBuffer.wrap(frame, start, objectLen).slice();
+    }
+
+    public static void decode(byte[] frame, SparrowhawkObject into) {
+        SparrowhawkDeserializer d = new SparrowhawkDeserializer(verify(frame));
+        into.decodeFrom(d);
+        d.done();
+    }
+
+    /**
+     * Adapts a consumer of verified objects into a message consumer for a {@link Bufferer}, so frames are checked
+     * as soon as they are split out of the stream and before anything is decoded from them.
+     */
+    public static Consumer<byte[]> verifying(Consumer<ByteBuffer> consumer) {
+        return frame -> consumer.accept(verify(frame));
+    }
+
+    private static int checksum(byte[] b, int off, int len) {
+        CRC32C crc = new CRC32C();
+        crc.update(b, off, len);
+        return (int) crc.getValue();
+    }
+}
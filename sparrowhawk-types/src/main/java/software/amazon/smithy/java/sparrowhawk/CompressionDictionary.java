@@ -0,0 +1,155 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package software.amazon.smithy.java.sparrowhawk;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.Adler32;
+
+/**
+ * A preset deflate dictionary for frames of a single shape.
+ *
+ * <p>Small frames compress poorly on their own because deflate has nothing to back-reference. Priming the
+ * compressor with content that frames of the same shape tend to repeat (field set headers, common keys and enum
+ * values) recovers most of that loss.
+ */
+public final class CompressionDictionary {
+    // deflate can't reference anything further back than its 32KiB window
+    public static final int MAX_SIZE = 32 * 1024;
+
+    private static final int GRAM = 8;
+    private static final int SEGMENT = 32;
+
+    private final byte[] bytes;
+    private final int id;
+
+    private CompressionDictionary(byte[] bytes) {
+        if (bytes.length == 0 || bytes.length > MAX_SIZE) {
+            throw new IllegalArgumentException("dictionary must be between 1 and " + MAX_SIZE + " bytes");
+        }
+        this.bytes = bytes;
+        Adler32 adler = new Adler32();
+        adler.update(bytes);
+        // zero is reserved for "no dictionary" in compressed blocks
+        this.id = (int) adler.getValue() | 1;
+    }
+
+    public static CompressionDictionary of(byte[] bytes) {
+        return new CompressionDictionary(bytes.clone());
+    }
+
+    public static CompressionDictionary train(List<byte[]> samples) {
+        return train(samples, MAX_SIZE);
+    }
+
+    /**
+     * Builds a dictionary from sample frames of one shape.
+     *
+     * <p>Samples are cut into fixed-size segments and each segment is scored by how many samples contain each of
+     * its 8-byte substrings. The best segments are kept, and the highest-scoring ones are placed at the end of the
+     * dictionary where deflate can reference them with the shortest distances.
+     */
+    public static CompressionDictionary train(List<byte[]> samples, int maxSize) {
+        if (maxSize <= 0 || maxSize > MAX_SIZE) {
+            throw new IllegalArgumentException("maxSize must be between 1 and " + MAX_SIZE + ": " + maxSize);
+        }
+
+        Map<Long, Integer> documentFrequency = new HashMap<>();
+        for (byte[] sample : samples) {
+            Set<Long> seen = new HashSet<>();
+            for (int i = 0; i + GRAM <= sample.length; i++) {
+                seen.add(SparrowhawkDeserializer.read8(sample, i));
+            }
+            for (Long gram : seen) {
+                documentFrequency.merge(gram, 1, Integer::sum);
+            }
+        }
+
+        List<Segment> segments = new ArrayList<>();
+        Set<Long> chosenGrams = new HashSet<>();
+        for (byte[] sample : samples) {
+            for (int start = 0; start < sample.length; start += SEGMENT) {
+                int end = Math.min(sample.length, start + SEGMENT);
+                long score = 0;
+                for (int i = start; i + GRAM <= end; i++) {
+                    int df = documentFrequency.getOrDefault(SparrowhawkDeserializer.read8(sample, i), 0);
+                    // content unique to one sample is noise
+                    if (df > 1) {
+                        score += df;
+                    }
+                }
+                if (score > 0) {
+                    segments.add(new Segment(sample, start, end, score));
+                }
+            }
+        }
+        segments.sort((a, b) -> Long.compare(b.score, a.score));
+
+        List<Segment> chosen = new ArrayList<>();
+        int size = 0;
+        for (Segment segment : segments) {
+            int len = segment.end - segment.start;
+            if (size + len > maxSize) {
+                continue;
+            }
+            // skip segments that are already covered by a better one
+            boolean novel = false;
+            for (int i = segment.start; i + GRAM <= segment.end; i++) {
+                if (chosenGrams.add(SparrowhawkDeserializer.read8(segment.sample, i))) {
+                    novel = true;
+                }
+            }
+            if (novel) {
+                chosen.add(segment);
+                size += len;
+            }
+        }
+
+        if (size == 0) {
+            throw new IllegalArgumentException("samples have no repeated content to build a dictionary from");
+        }
+
+        byte[] dict = new byte[size];
+        int pos = size;
+        for (Segment segment : chosen) {
+            int len = segment.end - segment.start;
+            pos -= len;
+            System.arraycopy(segment.sample, segment.start, dict, pos, len);
+        }
+        return new CompressionDictionary(dict);
+    }
+
+    public int id() {
+        return id;
+    }
+
+    public int size() {
+        return bytes.length;
+    }
+
+    byte[] bytes() {
+        return bytes;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) return true;
+        if (!(other instanceof CompressionDictionary o)) return false;
+        return id == o.id && Arrays.equals(bytes, o.bytes);
+    }
+
+    @Override
+    public int hashCode() {
+        return id;
+    }
+
+    private record Segment(byte[] sample, int start, int end, long score) {}
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package software.amazon.smithy.java.sparrowhawk;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Reuses raw (headerless) {@link Deflater} and {@link Inflater} instances, which each hold tens of kilobytes of
+ * native memory and are expensive to create per frame.
+ */
+public final class DeflaterPool {
+    private static final DeflaterPool DEFAULT = new DeflaterPool(
+        Deflater.DEFAULT_COMPRESSION,
+        2 * Runtime.getRuntime().availableProcessors()
+    );
+
+    private final int level;
+    private final int maxIdle;
+    private final ConcurrentLinkedQueue<Deflater> deflaters = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<Inflater> inflaters = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger idleDeflaters = new AtomicInteger();
+    private final AtomicInteger idleInflaters = new AtomicInteger();
+
+    public DeflaterPool(int level, int maxIdle) {
+        if (level != Deflater.DEFAULT_COMPRESSION && (level < 0 || level > 9)) {
+            throw new IllegalArgumentException("invalid compression level: " + level);
+        }
+        this.level = level;
+        this.maxIdle = maxIdle;
+    }
+
+    public static DeflaterPool defaultPool() {
+        return DEFAULT;
+    }
+
+    public Deflater acquireDeflater() {
+        Deflater d = deflaters.poll();
+        if (d == null) {
+            return new Deflater(level, true);
+        }
+        idleDeflaters.decrementAndGet();
+        return d;
+    }
+
+    public void release(Deflater d) {
+        d.reset();
+        if (idleDeflaters.incrementAndGet() <= maxIdle) {
+            deflaters.add(d);
+        } else {
+            idleDeflaters.decrementAndGet();
+            d.end();
+        }
+    }
+
+    public Inflater acquireInflater() {
+        Inflater i = inflaters.poll();
+        if (i == null) {
+            return new Inflater(true);
+        }
+        idleInflaters.decrementAndGet();
+        return i;
+    }
+
+    public void release(Inflater i) {
+        i.reset();
+        if (idleInflaters.incrementAndGet() <= maxIdle) {
+            inflaters.add(i);
+        } else {
+            idleInflaters.decrementAndGet();
+            i.end();
+        }
+    }
+}
@@ -5,13 +5,66 @@
 
 package software.amazon.smithy.java.sparrowhawk;
 
-import static software.amazon.smithy.java.sparrowhawk.KConstants.encodeFourBListLength;
+import static software.amazon.smithy.java.sparrowhawk.KConstants.encodeEightBListLength;
+import static software.amazon.smithy.java.sparrowhawk.SparrowhawkSerializer.mapHeaderSize;
+import static software.amazon.smithy.java.sparrowhawk.SparrowhawkSerializer.stringEncodedSize;
 import static software.amazon.smithy.java.sparrowhawk.SparrowhawkSerializer.ulongSize;
 
+import java.util.Map;
+
 public final class DoubleMap extends NumberMap<Double> {
-    @Override
-    protected Double[] newArray(int len) {
-        return new Double[len];
+    private static final double[] EMPTY = new double[0];
+
+    private double[] values = EMPTY;
+
+    public double getDouble(String key) {
+        return values[indexOfExisting(key)];
+    }
+
+    public double getDouble(String key, double defaultValue) {
+        int i = indexOf(key);
+        return i < 0 ? defaultValue : values[i];
+    }
+
+    public double doubleAt(int i) {
+        return values[i];
+    }
+
+    /**
+     * Replaces the contents of this map. {@code values} is used directly rather than copied.
+     */
+    public void fromArrays(String[] keys, double[] values) {
+        this.values = values;
+        setKeys(keys, values.length);
+    }
+
+    /**
+     * Returns the encoded size of {@code m} as a DoubleMap, without building one.
+     */
+    public static int sizeOf(Map<String, Double> m) {
+        int n = m.size();
+        if (n == 0) {
+            return 0;
+        }
+        int size = mapHeaderSize(n) + ulongSize(encodeEightBListLength(n)) + 8 * n;
+        for (Map.Entry<String, Double> e : m.entrySet()) {
+            size += stringEncodedSize(e.getKey());
+        }
+        return size;
+    }
+
+    /**
+     * Encodes {@code m} exactly as a DoubleMap built from it, writing keys and values straight into {@code s}.
+     * {@code size} is what {@code sizeOf(m)} returned, so the map is not measured twice.
+     */
+    public static void encode(Map<String, Double> m, int size, SparrowhawkSerializer s) {
+        Iterable<Map.Entry<String, Double>> entries = s.entries(m);
+        if (s.writeMapKeys(entries, m.size(), size)) {
+            s.writeVarUL(encodeEightBListLength(m.size()));
+            for (Map.Entry<String, Double> e : entries) {
+                s.writeDouble(e.getValue());
+            }
+        }
     }
 
     @Override
@@ -20,19 +73,49 @@ public final class DoubleMap extends NumberMap<Double> {
     }
 
     @Override
-    protected Double decode(SparrowhawkDeserializer d) {
-        return d.d8();
+    protected void allocateValues(int n) {
+        values = n == 0 ? EMPTY : new double[n];
     }
 
     @Override
-    protected void writeValues(SparrowhawkSerializer s, Double[] values) {
-        s.writeDoubleList(values);
+    protected int valueCount() {
+        return values.length;
     }
 
     @Override
-    protected int sizeofValues(Double[] elements) {
-        int n = elements.length;
-        int size = ulongSize(encodeFourBListLength(n));
-        return size + (8 * n);
+    protected Double valueAt(int i) {
+        return values[i];
+    }
+
+    @Override
+    protected void setValueAt(int i, Double value) {
+        values[i] = value;
+    }
+
+    @Override
+    protected void readValues(SparrowhawkDeserializer d, int n) {
+        allocateValues(n);
+        d.d8s(values, n);
+    }
+
+    @Override
+    protected void writeValues(SparrowhawkSerializer s, int[] order) {
+        double[] values = order == null ? this.values : select(order);
+        s.writeDoubleList(values, values.length);
+    }
+
+    @Override
+    protected int sizeofValues(int[] order) {
+        double[] values = order == null ? this.values : select(order);
+        int n = values.length;
+        return ulongSize(encodeEightBListLength(n)) + 8 * n;
+    }
+
+    private double[] select(int[] order) {
+        double[] selected = new double[order.length];
+        for (int i = 0; i < order.length; i++) {
+            selected[i] = values[order[i]];
+        }
+        return selected;
     }
 }
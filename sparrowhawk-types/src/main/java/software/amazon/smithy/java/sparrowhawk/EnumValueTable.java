@@ -0,0 +1,168 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package software.amazon.smithy.java.sparrowhawk;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * A perfect hash from the encoded values of a string enum to its constants.
+ *
+ * <p>The hash has two levels: each value is hashed to a bucket of about four values, and then to its slot under
+ * the bucket's displacement, a second seed chosen so that the bucket's values land in slots no other value took.
+ * Codegen finds the displacements with {@link #displacements}, which grow with the number of values rather than
+ * with its square as a single seed would, and the table places the constants from them when it is created. A
+ * lookup is two hashes, two array loads and one byte comparison.
+ */
+public final class EnumValueTable<E extends Enum<E>> {
+    private static final int MAX_SEED = 1 << 16;
+    private static final int BUCKET_SEED = 0;
+
+    private final E[] slots;
+    private final byte[][] keys;
+    private final int[] displacements;
+    private final int mask;
+
+    /**
+     * Places {@code constants} in the slots their values hash to under {@code displacements}, which must be what
+     * {@link #displacements} returned for the same values.
+     */
+    public EnumValueTable(E[] constants, int[] displacements, Function<E, String> value) {
+        if (Integer.bitCount(displacements.length) != 1) {
+            throw new IllegalArgumentException("bucket count must be a power of two: " + displacements.length);
+        }
+        int slotCount = slotCount(constants.length);
+        this.slots = Arrays.copyOf(constants, slotCount);
+        Arrays.fill(slots, null);
+        this.keys = new byte[slotCount][];
+        this.displacements = displacements;
+        this.mask = slotCount - 1;
+        for (E e : constants) {
+            byte[] key = value.apply(e).getBytes(StandardCharsets.UTF_8);
+            int slot = slot(key, 0, key.length);
+            if (slot < 0 || keys[slot] != null) {
+                throw new IllegalArgumentException(e + " does not have a slot of its own");
+            }
+            slots[slot] = e;
+            keys[slot] = key;
+        }
+    }
+
+    /**
+     * Returns the constant whose value is the given UTF-8 bytes, or null if the value is unknown.
+     */
+    public E lookup(byte[] b, int off, int len) {
+        int slot = slot(b, off, len);
+        if (slot < 0) {
+            return null;
+        }
+        byte[] key = keys[slot];
+        if (key != null && Arrays.equals(key, 0, key.length, b, off, off + len)) {
+            return slots[slot];
+        }
+        return null;
+    }
+
+    /**
+     * Returns the constant whose value is {@code value}, or null if the value is unknown.
+     */
+    public E lookup(String value) {
+        byte[] b = value.getBytes(StandardCharsets.UTF_8);
+        return lookup(b, 0, b.length);
+    }
+
+    private int slot(byte[] b, int off, int len) {
+        int d = displacements[hash(b, off, len, BUCKET_SEED) & (displacements.length - 1)];
+        // no known value is in a bucket without a displacement
+        return d == 0 ? -1 : hash(b, off, len, d) & mask;
+    }
+
+    /**
+     * Reads a string field, returning the matching constant, or the decoded string if the value is unknown.
+     */
+    public Object decode(SparrowhawkDeserializer d) {
+        int start = d.pos();
+        d.skipBytes();
+        int end = d.pos();
+        byte[] b = d.buffer();
+        int off = start + SparrowhawkDeserializer.varintLength(b[start]);
+        E e = lookup(b, off, end - off);
+        if (e != null) {
+            return e;
+        }
+        return new String(b, off, end - off, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Hashes an encoded value under {@code seed}, which is a bucket's displacement when placing it in a slot.
+     */
+    public static int hash(byte[] b, int off, int len, int seed) {
+        return ByteArrays.hash(b, off, len, seed);
+    }
+
+    /**
+     * Returns the displacement of each bucket under which every key gets a slot of its own, with 0 for buckets no
+     * key hashes to. Buckets are placed largest first, while most slots are still free.
+     *
+     * @throws IllegalArgumentException if a bucket cannot be placed, which only repeated keys make likely
+     */
+    public static int[] displacements(byte[][] keys) {
+        int bucketCount = Integer.highestOneBit(Math.max(1, keys.length / 4) * 2 - 1);
+        int slotCount = slotCount(keys.length);
+        List<List<byte[]>> buckets = new ArrayList<>(bucketCount);
+        for (int i = 0; i < bucketCount; i++) {
+            buckets.add(new ArrayList<>());
+        }
+        for (byte[] key : keys) {
+            buckets.get(hash(key, 0, key.length, BUCKET_SEED) & (bucketCount - 1)).add(key);
+        }
+        Integer[] order = new Integer[bucketCount];
+        for (int i = 0; i < bucketCount; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> buckets.get(b).size() - buckets.get(a).size());
+
+        int[] displacements = new int[bucketCount];
+        boolean[] used = new boolean[slotCount];
+        int[] taken = new int[keys.length];
+        for (int b : order) {
+            List<byte[]> bucket = buckets.get(b);
+            if (bucket.isEmpty()) {
+                break;
+            }
+            for (int d = 1; displacements[b] == 0; d++) {
+                if (d == MAX_SEED) {
+                    throw new IllegalArgumentException("no displacement places bucket " + b + " of " + keys.length);
+                }
+                int n = 0;
+                for (byte[] key : bucket) {
+                    int slot = hash(key, 0, key.length, d) & (slotCount - 1);
+                    if (used[slot]) {
+                        break;
+                    }
+                    used[slot] = true;
+                    taken[n++] = slot;
+                }
+                if (n == bucket.size()) {
+                    displacements[b] = d;
+                } else {
+                    for (int i = 0; i < n; i++) {
+                        used[taken[i]] = false;
+                    }
+                }
+            }
+        }
+        return displacements;
+    }
+
+    // at least twice as many slots as values, so buckets placed last still find free ones quickly
+    private static int slotCount(int values) {
+        return Integer.highestOneBit(Math.max(1, values) * 2 - 1) << 1;
+    }
+}
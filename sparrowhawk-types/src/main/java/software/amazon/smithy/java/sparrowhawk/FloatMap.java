@@ -6,12 +6,65 @@
 package software.amazon.smithy.java.sparrowhawk;
 
 import static software.amazon.smithy.java.sparrowhawk.KConstants.encodeFourBListLength;
+import static software.amazon.smithy.java.sparrowhawk.SparrowhawkSerializer.mapHeaderSize;
+import static software.amazon.smithy.java.sparrowhawk.SparrowhawkSerializer.stringEncodedSize;
 import static software.amazon.smithy.java.sparrowhawk.SparrowhawkSerializer.ulongSize;
 
+import java.util.Map;
+
 public final class FloatMap extends NumberMap<Float> {
-    @Override
-    protected Float[] newArray(int len) {
-        return new Float[len];
+    private static final float[] EMPTY = new float[0];
+
+    private float[] values = EMPTY;
+
+    public float getFloat(String key) {
+        return values[indexOfExisting(key)];
+    }
+
+    public float getFloat(String key, float defaultValue) {
+        int i = indexOf(key);
+        return i < 0 ? defaultValue : values[i];
+    }
+
+    public float floatAt(int i) {
+        return values[i];
+    }
+
+    /**
+     * Replaces the contents of this map. {@code values} is used directly rather than copied.
+     */
+    public void fromArrays(String[] keys, float[] values) {
+        this.values = values;
+        setKeys(keys, values.length);
+    }
+
+    /**
+     * Returns the encoded size of {@code m} as a FloatMap, without building one.
+     */
+    public static int sizeOf(Map<String, Float> m) {
+        int n = m.size();
+        if (n == 0) {
+            return 0;
+        }
+        int size = mapHeaderSize(n) + ulongSize(encodeFourBListLength(n)) + 4 * n;
+        for (Map.Entry<String, Float> e : m.entrySet()) {
+            size += stringEncodedSize(e.getKey());
+        }
+        return size;
+    }
+
+    /**
+     * Encodes {@code m} exactly as a FloatMap built from it, writing keys and values straight into {@code s}.
+     * {@code size} is what {@code sizeOf(m)} returned, so the map is not measured twice.
+     */
+    public static void encode(Map<String, Float> m, int size, SparrowhawkSerializer s) {
+        Iterable<Map.Entry<String, Float>> entries = s.entries(m);
+        if (s.writeMapKeys(entries, m.size(), size)) {
+            s.writeVarUL(encodeFourBListLength(m.size()));
+            for (Map.Entry<String, Float> e : entries) {
+                s.writeFloat(e.getValue());
+            }
+        }
     }
 
     @Override
@@ -20,19 +73,49 @@ public final class FloatMap extends NumberMap<Float> {
     }
 
     @Override
-    protected Float decode(SparrowhawkDeserializer d) {
-        return d.f4();
+    protected void allocateValues(int n) {
+        values = n == 0 ? EMPTY : new float[n];
     }
 
     @Override
-    protected void writeValues(SparrowhawkSerializer s, Float[] values) {
-        s.writeFloatList(values);
+    protected int valueCount() {
+        return values.length;
     }
 
     @Override
-    protected int sizeofValues(Float[] elements) {
-        int n = elements.length;
-        int size = ulongSize(encodeFourBListLength(n));
-        return size + (4 * n);
+    protected Float valueAt(int i) {
+        return values[i];
+    }
+
+    @Override
+    protected void setValueAt(int i, Float value) {
+        values[i] = value;
+    }
+
+    @Override
+    protected void readValues(SparrowhawkDeserializer d, int n) {
+        allocateValues(n);
+        d.f4s(values, n);
+    }
+
+    @Override
+    protected void writeValues(SparrowhawkSerializer s, int[] order) {
+        float[] values = order == null ? this.values : select(order);
+        s.writeFloatList(values, values.length);
+    }
+
+    @Override
+    protected int sizeofValues(int[] order) {
+        float[] values = order == null ? this.values : select(order);
+        int n = values.length;
+        return ulongSize(encodeFourBListLength(n)) + 4 * n;
+    }
+
+    private float[] select(int[] order) {
+        float[] selected = new float[order.length];
+        for (int i = 0; i < order.length; i++) {
+            selected[i] = values[order[i]];
+        }
+        return selected;
     }
 }
@@ -0,0 +1,243 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package software.amazon.smithy.java.sparrowhawk;
+
+import static software.amazon.smithy.java.sparrowhawk.KConstants.encodeByteListLength;
+import static software.amazon.smithy.java.sparrowhawk.SparrowhawkSerializer.ulongSize;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compresses runs of length-prefixed frames of one shape into a single block.
+ *
+ * <p>A compressed block is a byte list containing a varint dictionary id (zero when no dictionary is used), a
+ * varint holding the uncompressed length, and a raw deflate stream of the concatenated frames. Blocks are
+ * themselves byte lists, so they can be written to any stream a {@link Bufferer} or {@link RecordLogReader} reads.
+ */
+public final class FrameCompressor {
+    /**
+     * The default limit on the uncompressed length of a block, which bounds the buffer a corrupt or hostile block can
+     * make {@link #decompress} allocate.
+     */
+    public static final int DEFAULT_MAX_UNCOMPRESSED_LENGTH = 64 * 1024 * 1024;
+
+    // deflate emits at least one bit per match of at most 258 bytes, so no stream expands by more than this
+    private static final int MAX_DEFLATE_RATIO = 1032;
+
+    private final String shape;
+    private final CompressionDictionary dictionary;
+    private final DeflaterPool pool;
+    private final int maxUncompressedLength;
+
+    private final LongAdder blocks = new LongAdder();
+    private final LongAdder uncompressedBytes = new LongAdder();
+    private final LongAdder compressedBytes = new LongAdder();
+    private final LongAdder compressNanos = new LongAdder();
+    private final LongAdder decompressNanos = new LongAdder();
+
+    public FrameCompressor(String shape) {
+        this(shape, null, DeflaterPool.defaultPool());
+    }
+
+    public FrameCompressor(String shape, CompressionDictionary dictionary) {
+        this(shape, dictionary, DeflaterPool.defaultPool());
+    }
+
+    public FrameCompressor(String shape, CompressionDictionary dictionary, DeflaterPool pool) {
+        this(shape, dictionary, pool, DEFAULT_MAX_UNCOMPRESSED_LENGTH);
+    }
+
+    public FrameCompressor(
+        String shape,
+        CompressionDictionary dictionary,
+        DeflaterPool pool,
+        int maxUncompressedLength
+    ) {
+        if (maxUncompressedLength < 0) {
+            throw new IllegalArgumentException("maxUncompressedLength must not be negative: " + maxUncompressedLength);
+        }
+        this.shape = shape;
+        this.dictionary = dictionary;
+        this.pool = pool;
+        this.maxUncompressedLength = maxUncompressedLength;
+    }
+
+    public String shape() {
+        return shape;
+    }
+
+    public byte[] compress(List<byte[]> frames) {
+        int len = 0;
+        for (byte[] frame : frames) {
+            len += frame.length;
+        }
+        byte[] run = new byte[len];
+        int pos = 0;
+        for (byte[] frame : frames) {
+            System.arraycopy(frame, 0, run, pos, frame.length);
+            pos += frame.length;
+        }
+        return compress(run, 0, len);
+    }
+
+    /**
+     * Compresses {@code len} bytes of already-concatenated frames, such as the contents of a batch.
+     */
+    public byte[] compress(byte[] frames, int off, int len) {
+        long start = System.nanoTime();
+        Deflater deflater = pool.acquireDeflater();
+        try {
+            if (dictionary != null) {
+                deflater.setDictionary(dictionary.bytes());
+            }
+            deflater.setInput(frames, off, len);
+            deflater.finish();
+
+            // leave room for the largest possible header and fill in the real one once the size is known
+            int fields = ulongSize(Integer.toUnsignedLong(dictId())) + ulongSize(len);
+            int headerMax = 9 + fields;
+            byte[] out = new byte[headerMax + len + (len >> 6) + 16];
+            int outPos = headerMax;
+            while (!deflater.finished()) {
+                if (outPos == out.length) {
+                    out = Arrays.copyOf(out, out.length * 2);
+                }
+                outPos += deflater.deflate(out, outPos, out.length - outPos);
+            }
+
+            long contents = fields + outPos - headerMax;
+            int headerStart = headerMax - fields - ulongSize(encodeByteListLength(contents));
+            SparrowhawkSerializer s = new SparrowhawkSerializer(out);
+            s.setPosition(headerStart);
+            s.writeVarUL(encodeByteListLength(contents));
+            s.writeVarUL(Integer.toUnsignedLong(dictId()));
+            s.writeVarUL(len);
+            byte[] block = Arrays.copyOfRange(out, headerStart, outPos);
+
+            blocks.increment();
+            uncompressedBytes.add(len);
+            compressedBytes.add(block.length);
+            return block;
+        } finally {
+            pool.release(deflater);
+            compressNanos.add(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Decompresses a block, including its length prefix, into the concatenated frames it holds.
+     */
+    public ByteBuffer decompress(byte[] block) {
+        return decompress(block, 0, block.length);
+    }
+
+    public ByteBuffer decompress(byte[] block, int off, int len) {
+        long start = System.nanoTime();
+        SparrowhawkDeserializer d = new SparrowhawkDeserializer(block, off, off + len);
+        int contents = KConstants.decodeByteListLengthChecked(d.varUL());
+        if (d.pos() + contents != off + len) {
+            throw new RuntimeException("malformed compressed block");
+        }
+        int id = (int) d.varUL();
+        if (id != dictId()) {
+            throw new RuntimeException(
+                "compressed block for " + shape + " uses dictionary " + Integer.toHexString(id) + ", expected "
+                    + Integer.toHexString(dictId())
+            );
+        }
+        long declared = d.varUL();
+        int dataStart = d.pos();
+        long compressed = off + len - dataStart;
+        // checked before allocating, since the length comes from the block
+        if (declared < 0 || declared > maxUncompressedLength || declared > compressed * MAX_DEFLATE_RATIO) {
+            throw new RuntimeException(
+                "compressed block for " + shape + " declares " + Long.toUnsignedString(declared)
+                    + " uncompressed bytes from " + compressed + ", limit " + maxUncompressedLength
+            );
+        }
+        int uncompressed = (int) declared;
+
+        byte[] out = new byte[uncompressed];
+        Inflater inflater = pool.acquireInflater();
+        try {
+            if (dictionary != null) {
+                inflater.setDictionary(dictionary.bytes());
+            }
+            inflater.setInput(block, dataStart, off + len - dataStart);
+            int outPos = 0;
+            while (outPos < uncompressed) {
+                int n = inflater.inflate(out, outPos, uncompressed - outPos);
+                if (n == 0 && (inflater.finished() || inflater.needsInput())) {
+                    break;
+                }
+                outPos += n;
+            }
+            if (outPos != uncompressed || !inflater.finished()) {
+                throw new RuntimeException("compressed block for " + shape + " is truncated or corrupt");
+            }
+        } catch (DataFormatException e) {
+            throw new RuntimeException("compressed block for " + shape + " is corrupt", e);
+        } finally {
+            pool.release(inflater);
+            decompressNanos.add(System.nanoTime() - start);
+        }
+        return ByteBuffer.wrap(out);
+    }
+
+    /**
+     * Decompresses a block and hands each frame it holds to {@code consumer}.
+     */
+    public void decompress(byte[] block, Consumer<byte[]> consumer) {
+        Bufferer bufferer = new Bufferer(consumer);
+        bufferer.feed(decompress(block));
+        if (bufferer.hasPartialMessage()) {
+            throw new RuntimeException("compressed block for " + shape + " ends with a partial frame");
+        }
+    }
+
+    public Stats stats() {
+        return new Stats(
+            shape,
+            blocks.sum(),
+            uncompressedBytes.sum(),
+            compressedBytes.sum(),
+            compressNanos.sum(),
+            decompressNanos.sum()
+        );
+    }
+
+    private int dictId() {
+        return dictionary == null ? 0 : dictionary.id();
+    }
+
+    public record Stats(
+        String shape,
+        long blocks,
+        long uncompressedBytes,
+        long compressedBytes,
+        long compressNanos,
+        long decompressNanos) {
+
+        public double compressionRatio() {
+            return compressedBytes == 0 ? 0 : (double) uncompressedBytes / compressedBytes;
+        }
+
+        public double compressNanosPerByte() {
+            return uncompressedBytes == 0 ? 0 : (double) compressNanos / uncompressedBytes;
+        }
+
+        public double decompressNanosPerByte() {
+            return uncompressedBytes == 0 ? 0 : (double) decompressNanos / uncompressedBytes;
+        }
+    }
+}
@@ -6,36 +6,121 @@
 package software.amazon.smithy.java.sparrowhawk;
 
 import static software.amazon.smithy.java.sparrowhawk.KConstants.encodeVarintListLength;
+import static software.amazon.smithy.java.sparrowhawk.SparrowhawkSerializer.intSize;
+import static software.amazon.smithy.java.sparrowhawk.SparrowhawkSerializer.mapHeaderSize;
+import static software.amazon.smithy.java.sparrowhawk.SparrowhawkSerializer.stringEncodedSize;
 import static software.amazon.smithy.java.sparrowhawk.SparrowhawkSerializer.ulongSize;
 
+import java.util.Map;
+
 public final class IntegerMap extends NumberMap<Integer> {
+    private static final int[] EMPTY = new int[0];
+
+    private int[] values = EMPTY;
+
+    public int getInt(String key) {
+        return values[indexOfExisting(key)];
+    }
+
+    public int getInt(String key, int defaultValue) {
+        int i = indexOf(key);
+        return i < 0 ? defaultValue : values[i];
+    }
+
+    public int intAt(int i) {
+        return values[i];
+    }
+
+    /**
+     * Replaces the contents of this map. {@code values} is used directly rather than copied.
+     */
+    public void fromArrays(String[] keys, int[] values) {
+        this.values = values;
+        setKeys(keys, values.length);
+    }
+
+    /**
+     * Returns the encoded size of {@code m} as an IntegerMap, without building one.
+     */
+    public static int sizeOf(Map<String, Integer> m) {
+        int n = m.size();
+        if (n == 0) {
+            return 0;
+        }
+        int size = mapHeaderSize(n) + ulongSize(encodeVarintListLength(n));
+        for (Map.Entry<String, Integer> e : m.entrySet()) {
+            size += stringEncodedSize(e.getKey()) + intSize(e.getValue());
+        }
+        return size;
+    }
+
+    /**
+     * Encodes {@code m} exactly as an IntegerMap built from it, writing keys and values straight into {@code s}.
+     * {@code size} is what {@code sizeOf(m)} returned, so the map is not measured twice.
+     */
+    public static void encode(Map<String, Integer> m, int size, SparrowhawkSerializer s) {
+        Iterable<Map.Entry<String, Integer>> entries = s.entries(m);
+        if (s.writeMapKeys(entries, m.size(), size)) {
+            s.writeVarUL(encodeVarintListLength(m.size()));
+            for (Map.Entry<String, Integer> e : entries) {
+                s.writeVarI(e.getValue());
+            }
+        }
+    }
+
     @Override
     protected int decodeValueCount(int encodedCount) {
         return KConstants.decodeVarintListLengthChecked(encodedCount);
     }
 
     @Override
-    protected Integer decode(SparrowhawkDeserializer d) {
-        return d.varI();
+    protected void allocateValues(int n) {
+        values = n == 0 ? EMPTY : new int[n];
     }
 
     @Override
-    protected int sizeofValues(Integer[] elements) {
-        int n = elements.length;
-        int size = ulongSize(encodeVarintListLength(n));
-        for (int i = 0; i < n; i++) {
-            size += SparrowhawkSerializer.intSize(elements[i]);
-        }
-        return size;
+    protected int valueCount() {
+        return values.length;
+    }
+
+    @Override
+    protected Integer valueAt(int i) {
+        return values[i];
     }
 
     @Override
-    protected Integer[] newArray(int len) {
-        return new Integer[len];
+    protected void setValueAt(int i, Integer value) {
+        values[i] = value;
     }
 
     @Override
-    protected void writeValues(SparrowhawkSerializer s, Integer[] values) {
-        s.writeIntegerList(values);
+    protected void readValues(SparrowhawkDeserializer d, int n) {
+        allocateValues(n);
+        d.varIs(values, n);
+    }
+
+    @Override
+    protected void writeValues(SparrowhawkSerializer s, int[] order) {
+        int[] values = order == null ? this.values : select(order);
+        s.writeIntegerList(values, values.length);
+    }
+
+    @Override
+    protected int sizeofValues(int[] order) {
+        int[] values = order == null ? this.values : select(order);
+        int n = values.length;
+        int size = ulongSize(encodeVarintListLength(n));
+        for (int i = 0; i < n; i++) {
+            size += SparrowhawkSerializer.intSize(values[i]);
+        }
+        return size;
+    }
+
+    private int[] select(int[] order) {
+        int[] selected = new int[order.length];
+        for (int i = 0; i < order.length; i++) {
+            selected[i] = values[order[i]];
+        }
+        return selected;
     }
 }
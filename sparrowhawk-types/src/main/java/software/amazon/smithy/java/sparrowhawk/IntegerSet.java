@@ -0,0 +1,166 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package software.amazon.smithy.java.sparrowhawk;
+
+import static software.amazon.smithy.java.sparrowhawk.KConstants.decodeVarintListLengthChecked;
+import static software.amazon.smithy.java.sparrowhawk.KConstants.encodeVarintListLength;
+import static software.amazon.smithy.java.sparrowhawk.SparrowhawkSerializer.intSize;
+import static software.amazon.smithy.java.sparrowhawk.SparrowhawkSerializer.uintSize;
+
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A list of unique ints held in a primitive array, with an open-addressing index of element positions for
+ * membership checks. Duplicate elements are rejected when the set is decoded.
+ */
+public final class IntegerSet implements SparrowhawkObject {
+    private static final int[] EMPTY = new int[0];
+    private static final int[] EMPTY_TABLE = new int[1];
+
+    private int[] values = EMPTY;
+    private int[] table = EMPTY_TABLE;
+    private int mask;
+
+    public static IntegerSet fromSet(Set<Integer> ints) {
+        IntegerSet set = new IntegerSet();
+        int[] values = new int[ints.size()];
+        int i = 0;
+        for (int v : ints) {
+            values[i++] = v;
+        }
+        set.values = values;
+        set.buildIndex();
+        return set;
+    }
+
+    public boolean contains(int v) {
+        int[] values = this.values;
+        int[] table = this.table;
+        int slot = hash(v) & mask;
+        while (true) {
+            int entry = table[slot];
+            if (entry == 0) {
+                return false;
+            }
+            if (values[entry - 1] == v) {
+                return true;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    public int intAt(int i) {
+        return values[i];
+    }
+
+    public int elementCount() {
+        return values.length;
+    }
+
+    public Set<Integer> toSet() {
+        Set<Integer> s = new LinkedHashSet<>(values.length / 3 * 4 + 1);
+        for (int v : values) {
+            s.add(v);
+        }
+        return s;
+    }
+
+    /**
+     * Returns a read-only view of this set that boxes elements only as they are iterated.
+     */
+    public Set<Integer> asSet() {
+        return new View();
+    }
+
+    private static int hash(int v) {
+        long h = v * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private void buildIndex() {
+        int[] values = this.values;
+        // load factor of at most one half keeps probe sequences short
+        int capacity = Integer.highestOneBit(Math.max(2, values.length) * 2 - 1) << 1;
+        int mask = capacity - 1;
+        int[] table = new int[capacity];
+        for (int i = 0; i < values.length; i++) {
+            int v = values[i];
+            int slot = hash(v) & mask;
+            while (table[slot] != 0) {
+                if (values[table[slot] - 1] == v) {
+                    throw new RuntimeException("duplicate set element at index " + i + ": " + v);
+                }
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = i + 1;
+        }
+        this.table = table;
+        this.mask = mask;
+    }
+
+    @Override
+    public void decodeFrom(SparrowhawkDeserializer d) {
+        int n = decodeVarintListLengthChecked(d.varUL());
+        int[] values = n == 0 ? EMPTY : new int[n];
+        d.varIs(values, n);
+        this.values = values;
+        buildIndex();
+    }
+
+    @Override
+    public void encodeTo(SparrowhawkSerializer s) {
+        s.writeIntegerList(values, values.length);
+    }
+
+    /**
+     * Returns the encoded size of the set, including its element count.
+     */
+    @Override
+    public int size() {
+        int[] values = this.values;
+        int size = uintSize(encodeVarintListLength(values.length));
+        for (int v : values) {
+            size += intSize(v);
+        }
+        return size;
+    }
+
+    private final class View extends AbstractSet<Integer> {
+        @Override
+        public boolean contains(Object o) {
+            return o instanceof Integer v && IntegerSet.this.contains(v);
+        }
+
+        @Override
+        public Iterator<Integer> iterator() {
+            return new Iterator<>() {
+                private int i;
+
+                @Override
+                public boolean hasNext() {
+                    return i < values.length;
+                }
+
+                @Override
+                public Integer next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    return values[i++];
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return values.length;
+        }
+    }
+}
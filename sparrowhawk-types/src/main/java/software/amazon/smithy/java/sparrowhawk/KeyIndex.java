@@ -0,0 +1,86 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package software.amazon.smithy.java.sparrowhawk;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * An open-addressing hash index over the encoded UTF-8 keys of a map, so single keys can be looked up without
+ * decoding every key to a String.
+ *
+ * <p>The table stores (hash, entry index + 1) pairs side by side in one int array, so a probe usually touches a
+ * single cache line and only compares key bytes when the full hashes match. When a key appears more than once the
+ * last entry wins, matching what {@code toMap()} produces, and the first such entry is kept as {@link #duplicate}.
+ */
+final class KeyIndex {
+    private final ByteBuffer[] keys;
+    private final int[] table;
+    private final int mask;
+    // the index of the first entry whose key repeats an earlier entry's, or -1
+    final int duplicate;
+
+    KeyIndex(ByteBuffer[] keys) {
+        this.keys = keys;
+        // load factor of at most one half keeps probe sequences short
+        int capacity = Integer.highestOneBit(Math.max(2, keys.length) * 2 - 1) << 1;
+        this.mask = capacity - 1;
+        int[] table = new int[capacity * 2];
+        int duplicate = -1;
+        for (int i = 0; i < keys.length; i++) {
+            ByteBuffer k = keys[i];
+            int h = ByteArrays.hash(k.array(), k.arrayOffset() + k.position(), k.remaining(), 0);
+            int slot = h & mask;
+            while (true) {
+                int entry = table[slot * 2 + 1];
+                if (entry == 0) {
+                    table[slot * 2] = h;
+                    table[slot * 2 + 1] = i + 1;
+                    break;
+                }
+                if (table[slot * 2] == h && k.equals(keys[entry - 1])) {
+                    table[slot * 2 + 1] = i + 1;
+                    if (duplicate < 0) {
+                        duplicate = i;
+                    }
+                    break;
+                }
+                slot = (slot + 1) & mask;
+            }
+        }
+        this.table = table;
+        this.duplicate = duplicate;
+    }
+
+    int find(String key) {
+        byte[] k = key.getBytes(StandardCharsets.UTF_8);
+        return find(k, 0, k.length);
+    }
+
+    /**
+     * Returns the index of the entry whose key is the given UTF-8 bytes, or -1 if there is none.
+     */
+    int find(byte[] key, int off, int len) {
+        int h = ByteArrays.hash(key, off, len, 0);
+        int slot = h & mask;
+        int[] table = this.table;
+        while (true) {
+            int entry = table[slot * 2 + 1];
+            if (entry == 0) {
+                return -1;
+            }
+            if (table[slot * 2] == h) {
+                ByteBuffer k = keys[entry - 1];
+                int kOff = k.arrayOffset() + k.position();
+                if (k.remaining() == len && Arrays.equals(k.array(), kOff, kOff + len, key, off, off + len)) {
+                    return entry - 1;
+                }
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+}
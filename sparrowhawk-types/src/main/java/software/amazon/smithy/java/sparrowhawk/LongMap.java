@@ -6,12 +6,66 @@
 package software.amazon.smithy.java.sparrowhawk;
 
 import static software.amazon.smithy.java.sparrowhawk.KConstants.encodeVarintListLength;
+import static software.amazon.smithy.java.sparrowhawk.SparrowhawkSerializer.longSize;
+import static software.amazon.smithy.java.sparrowhawk.SparrowhawkSerializer.mapHeaderSize;
+import static software.amazon.smithy.java.sparrowhawk.SparrowhawkSerializer.stringEncodedSize;
 import static software.amazon.smithy.java.sparrowhawk.SparrowhawkSerializer.ulongSize;
 
+import java.util.Map;
+
 public final class LongMap extends NumberMap<Long> {
-    @Override
-    protected Long[] newArray(int len) {
-        return new Long[len];
+    private static final long[] EMPTY = new long[0];
+
+    private long[] values = EMPTY;
+
+    public long getLong(String key) {
+        return values[indexOfExisting(key)];
+    }
+
+    public long getLong(String key, long defaultValue) {
+        int i = indexOf(key);
+        return i < 0 ? defaultValue : values[i];
+    }
+
+    public long longAt(int i) {
+        return values[i];
+    }
+
+    /**
+     * Replaces the contents of this map. {@code values} is used directly rather than copied.
+     */
+    public void fromArrays(String[] keys, long[] values) {
+        this.values = values;
+        setKeys(keys, values.length);
+    }
+
+    /**
+     * Returns the encoded size of {@code m} as a LongMap, without building one.
+     */
+    public static int sizeOf(Map<String, Long> m) {
+        int n = m.size();
+        if (n == 0) {
+            return 0;
+        }
+        int size = mapHeaderSize(n) + ulongSize(encodeVarintListLength(n));
+        for (Map.Entry<String, Long> e : m.entrySet()) {
+            size += stringEncodedSize(e.getKey()) + longSize(e.getValue());
+        }
+        return size;
+    }
+
+    /**
+     * Encodes {@code m} exactly as a LongMap built from it, writing keys and values straight into {@code s}.
+     * {@code size} is what {@code sizeOf(m)} returned, so the map is not measured twice.
+     */
+    public static void encode(Map<String, Long> m, int size, SparrowhawkSerializer s) {
+        Iterable<Map.Entry<String, Long>> entries = s.entries(m);
+        if (s.writeMapKeys(entries, m.size(), size)) {
+            s.writeVarUL(encodeVarintListLength(m.size()));
+            for (Map.Entry<String, Long> e : entries) {
+                s.writeVarL(e.getValue());
+            }
+        }
     }
 
     @Override
@@ -20,22 +74,53 @@ public final class LongMap extends NumberMap<Long> {
     }
 
     @Override
-    protected Long decode(SparrowhawkDeserializer d) {
-        return d.varL();
+    protected void allocateValues(int n) {
+        values = n == 0 ? EMPTY : new long[n];
+    }
+
+    @Override
+    protected int valueCount() {
+        return values.length;
+    }
+
+    @Override
+    protected Long valueAt(int i) {
+        return values[i];
+    }
+
+    @Override
+    protected void setValueAt(int i, Long value) {
+        values[i] = value;
+    }
+
+    @Override
+    protected void readValues(SparrowhawkDeserializer d, int n) {
+        allocateValues(n);
+        d.varLs(values, n);
     }
 
     @Override
-    protected void writeValues(SparrowhawkSerializer s, Long[] values) {
-        s.writeLongList(values);
+    protected void writeValues(SparrowhawkSerializer s, int[] order) {
+        long[] values = order == null ? this.values : select(order);
+        s.writeLongList(values, values.length);
     }
 
     @Override
-    protected int sizeofValues(Long[] elements) {
-        int n = elements.length;
+    protected int sizeofValues(int[] order) {
+        long[] values = order == null ? this.values : select(order);
+        int n = values.length;
         int size = ulongSize(encodeVarintListLength(n));
         for (int i = 0; i < n; i++) {
-            size += SparrowhawkSerializer.longSize(elements[i]);
+            size += SparrowhawkSerializer.longSize(values[i]);
         }
         return size;
     }
+
+    private long[] select(int[] order) {
+        long[] selected = new long[order.length];
+        for (int i = 0; i < order.length; i++) {
+            selected[i] = values[order[i]];
+        }
+        return selected;
+    }
 }
@@ -0,0 +1,166 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package software.amazon.smithy.java.sparrowhawk;
+
+import static software.amazon.smithy.java.sparrowhawk.KConstants.decodeVarintListLengthChecked;
+import static software.amazon.smithy.java.sparrowhawk.KConstants.encodeVarintListLength;
+import static software.amazon.smithy.java.sparrowhawk.SparrowhawkSerializer.longSize;
+import static software.amazon.smithy.java.sparrowhawk.SparrowhawkSerializer.ulongSize;
+
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A list of unique longs held in a primitive array, with an open-addressing index of element positions for
+ * membership checks. Duplicate elements are rejected when the set is decoded.
+ */
+public final class LongSet implements SparrowhawkObject {
+    private static final long[] EMPTY = new long[0];
+    private static final int[] EMPTY_TABLE = new int[1];
+
+    private long[] values = EMPTY;
+    private int[] table = EMPTY_TABLE;
+    private int mask;
+
+    public static LongSet fromSet(Set<Long> longs) {
+        LongSet set = new LongSet();
+        long[] values = new long[longs.size()];
+        int i = 0;
+        for (long l : longs) {
+            values[i++] = l;
+        }
+        set.values = values;
+        set.buildIndex();
+        return set;
+    }
+
+    public boolean contains(long l) {
+        long[] values = this.values;
+        int[] table = this.table;
+        int slot = hash(l) & mask;
+        while (true) {
+            int entry = table[slot];
+            if (entry == 0) {
+                return false;
+            }
+            if (values[entry - 1] == l) {
+                return true;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    public long longAt(int i) {
+        return values[i];
+    }
+
+    public int elementCount() {
+        return values.length;
+    }
+
+    public Set<Long> toSet() {
+        Set<Long> s = new LinkedHashSet<>(values.length / 3 * 4 + 1);
+        for (long l : values) {
+            s.add(l);
+        }
+        return s;
+    }
+
+    /**
+     * Returns a read-only view of this set that boxes elements only as they are iterated.
+     */
+    public Set<Long> asSet() {
+        return new View();
+    }
+
+    private static int hash(long l) {
+        long h = l * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private void buildIndex() {
+        long[] values = this.values;
+        // load factor of at most one half keeps probe sequences short
+        int capacity = Integer.highestOneBit(Math.max(2, values.length) * 2 - 1) << 1;
+        int mask = capacity - 1;
+        int[] table = new int[capacity];
+        for (int i = 0; i < values.length; i++) {
+            long l = values[i];
+            int slot = hash(l) & mask;
+            while (table[slot] != 0) {
+                if (values[table[slot] - 1] == l) {
+                    throw new RuntimeException("duplicate set element at index " + i + ": " + l);
+                }
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = i + 1;
+        }
+        this.table = table;
+        this.mask = mask;
+    }
+
+    @Override
+    public void decodeFrom(SparrowhawkDeserializer d) {
+        int n = decodeVarintListLengthChecked(d.varUL());
+        long[] values = n == 0 ? EMPTY : new long[n];
+        d.varLs(values, n);
+        this.values = values;
+        buildIndex();
+    }
+
+    @Override
+    public void encodeTo(SparrowhawkSerializer s) {
+        s.writeLongList(values, values.length);
+    }
+
+    /**
+     * Returns the encoded size of the set, including its element count.
+     */
+    @Override
+    public int size() {
+        long[] values = this.values;
+        int size = ulongSize(encodeVarintListLength(values.length));
+        for (long l : values) {
+            size += longSize(l);
+        }
+        return size;
+    }
+
+    private final class View extends AbstractSet<Long> {
+        @Override
+        public boolean contains(Object o) {
+            return o instanceof Long l && LongSet.this.contains(l);
+        }
+
+        @Override
+        public Iterator<Long> iterator() {
+            return new Iterator<>() {
+                private int i;
+
+                @Override
+                public boolean hasNext() {
+                    return i < values.length;
+                }
+
+                @Override
+                public Long next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    return values[i++];
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return values.length;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package software.amazon.smithy.java.sparrowhawk;
+
+import java.util.Arrays;
+
+/**
+ * The sizes of the structures and maps nested in a value, recorded by a generated writer's sizing pass in the order
+ * its encoding pass reaches them, so that encoding reads each size back instead of sizing the subtree again.
+ *
+ * <p>A structure's slot is reserved before the structures nested in it record theirs, so slots are in the order the
+ * length prefixes are written. One instance can be cleared and reused for every value encoded on a thread.
+ */
+public final class NestedSizes {
+    /**
+     * Records nothing, for sizing a value that is not then encoded from the recorded sizes.
+     */
+    public static final NestedSizes NONE = new NestedSizes(0);
+
+    /**
+     * Sizes a value, excluding its length prefix, recording the sizes nested in it.
+     */
+    @FunctionalInterface
+    public interface Sizer<V> {
+        int size(V value, NestedSizes sizes);
+    }
+
+    /**
+     * Encodes a value with its length prefix from its size and the sizes recorded for what is nested in it.
+     */
+    @FunctionalInterface
+    public interface Encoder<V> {
+        void encode(V value, int size, NestedSizes sizes, SparrowhawkSerializer s);
+    }
+
+    private int[] sizes;
+    private int count;
+    private int next;
+
+    public NestedSizes() {
+        this(16);
+    }
+
+    private NestedSizes(int capacity) {
+        this.sizes = new int[capacity];
+    }
+
+    /**
+     * Forgets the recorded sizes, to record those of another value.
+     */
+    public void clear() {
+        this.count = 0;
+        this.next = 0;
+    }
+
+    /**
+     * Records the size {@code sizer} returns for {@code value}, in a slot reserved before it records the sizes nested
+     * in the value, and returns it.
+     */
+    public <V> int record(V value, Sizer<? super V> sizer) {
+        int slot = reserve();
+        int size = sizer.size(value, this);
+        set(slot, size);
+        return size;
+    }
+
+    /**
+     * Records a size that has nothing recorded nested in it, and returns it.
+     */
+    public int add(int size) {
+        set(reserve(), size);
+        return size;
+    }
+
+    /**
+     * Returns the next recorded size, in the order they were recorded.
+     */
+    public int next() {
+        if (next >= count) {
+            throw new IllegalStateException("no size was recorded for the value being encoded");
+        }
+        return sizes[next++];
+    }
+
+    /**
+     * Reserves the next slot, whose size is set once what is nested in it has been recorded.
+     */
+    int reserve() {
+        if (this == NONE) {
+            return -1;
+        }
+        if (count == sizes.length) {
+            this.sizes = Arrays.copyOf(sizes, count << 1);
+        }
+        return count++;
+    }
+
+    void set(int slot, int size) {
+        if (slot >= 0) {
+            sizes[slot] = size;
+        }
+    }
+
+    /**
+     * Returns the number of slots recorded, which is the slot the next size is recorded in.
+     */
+    int recorded() {
+        return count;
+    }
+
+    /**
+     * Moves past the sizes of a subtree that was encoded without reading them, to the slot {@code next}.
+     */
+    void skipTo(int next) {
+        this.next = next;
+    }
+}
@@ -10,60 +10,129 @@ import static software.amazon.smithy.java.sparrowhawk.SparrowhawkSerializer.*;
 
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
 
-@SuppressWarnings("unchecked")
 public abstract class NumberMap<T> implements SparrowhawkObject {
     private static final long REQUIRED_LIST_FIELDSET_0 = KConstants.listField(0b11);
     private static final ByteBuffer[] EMPTY_KEYS = new ByteBuffer[0];
-    private static final Object[] EMPTY_VALUES = new Object[0];
 
-    private ByteBuffer[] keys;
-    private T[] values;
+    private ByteBuffer[] keys = EMPTY_KEYS;
+    private transient KeyIndex keyIndex;
 
     public final Map<String, T> toMap() {
         int sz = keys.length;
         Map<String, T> m = new HashMap<>(sz / 3 * 4);
         for (int i = 0; i < sz; i++) {
-            m.put(string(keys[i]), values[i]);
+            m.put(string(keys[i]), valueAt(i));
         }
         return m;
     }
 
+    /**
+     * Returns a read-only view of this map that boxes values only as they are accessed.
+     */
+    public final Map<String, T> asMap() {
+        return new MapView();
+    }
+
+    public final int entryCount() {
+        return keys.length;
+    }
+
+    public final String keyAt(int i) {
+        return string(keys[i]);
+    }
+
+    public final boolean containsKey(String key) {
+        return indexOf(key) >= 0;
+    }
+
+    public final T get(String key) {
+        int i = indexOf(key);
+        return i < 0 ? null : valueAt(i);
+    }
+
+    /**
+     * Looks up a value by the UTF-8 bytes of its key.
+     */
+    public final T get(byte[] key) {
+        int i = indexOf(key);
+        return i < 0 ? null : valueAt(i);
+    }
+
+    /**
+     * Returns the index of the entry for {@code key}, or -1 if there is none.
+     */
+    protected final int indexOf(String key) {
+        return keyIndex().find(key);
+    }
+
+    protected final int indexOf(byte[] key) {
+        return keyIndex().find(key, 0, key.length);
+    }
+
+    private KeyIndex keyIndex() {
+        KeyIndex index = this.keyIndex;
+        if (index == null) {
+            this.keyIndex = index = new KeyIndex(keys);
+        }
+        return index;
+    }
+
+    protected final int indexOfExisting(String key) {
+        int i = indexOf(key);
+        if (i < 0) {
+            throw new NoSuchElementException(key);
+        }
+        return i;
+    }
+
     private static String string(ByteBuffer b) {
         return new String(b.array(), b.arrayOffset() + b.position(), b.remaining(), StandardCharsets.UTF_8);
     }
 
     public final void fromMap(Map<String, T> map) {
         int len = map.size();
-        if (len == 0) {
-            keys = EMPTY_KEYS;
-            values = (T[]) EMPTY_VALUES;
-            $size = 0;
-            return;
-        }
-
-        ByteBuffer[] keys = new ByteBuffer[len];
+        ByteBuffer[] keys = len == 0 ? EMPTY_KEYS : new ByteBuffer[len];
         this.keys = keys;
-        T[] values = newArray(len);
-        this.values = values;
+        this.keyIndex = null;
+        allocateValues(len);
         int i = 0;
         for (Map.Entry<String, T> entry : map.entrySet()) {
             byte[] key = entry.getKey().getBytes(StandardCharsets.UTF_8);
             keys[i] = ByteBuffer.wrap(key);
-            T value = entry.getValue();
-            values[i++] = value;
+            setValueAt(i++, entry.getValue());
         }
-        this.$size = -1;
+        this.$size = len == 0 ? 0 : -1;
     }
 
-    protected abstract T[] newArray(int len);
+    /**
+     * Sets the keys for values that a subclass has already stored in its primitive array.
+     */
+    protected final void setKeys(String[] keys, int valueCount) {
+        if (keys.length != valueCount) {
+            throw new IllegalArgumentException("mismatch in key and value lengths");
+        }
+        ByteBuffer[] bs = keys.length == 0 ? EMPTY_KEYS : new ByteBuffer[keys.length];
+        for (int i = 0; i < bs.length; i++) {
+            bs[i] = ByteBuffer.wrap(keys[i].getBytes(StandardCharsets.UTF_8));
+        }
+        this.keys = bs;
+        this.keyIndex = null;
+        this.$size = bs.length == 0 ? 0 : -1;
+    }
 
     @Override
     public final void decodeFrom(SparrowhawkDeserializer d) {
         int size = (int) decodeElementCount(d.varUI());
-        $size = size;
+        $size = d.isCanonical() ? size : -1;
+        keyIndex = null;
         if (size > 0) {
             long fieldset = d.varUL();
             if ((fieldset & 3) != KConstants.T_LIST) {
@@ -78,10 +147,10 @@ public abstract class NumberMap<T> implements SparrowhawkObject {
             if (nkeys != nvalues) {
                 throw new RuntimeException("mismatch in key and value lengths");
             }
-            values = readValues(d, nvalues);
+            readValues(d, nvalues);
         } else {
             keys = EMPTY_KEYS;
-            values = (T[]) EMPTY_VALUES;
+            allocateValues(0);
         }
     }
 
@@ -93,41 +162,74 @@ public abstract class NumberMap<T> implements SparrowhawkObject {
         return bs;
     }
 
-    private T[] readValues(SparrowhawkDeserializer d, int n) {
-        T[] values = newArray(n);
-        for (int i = 0; i < values.length; i++) {
-            values[i] = decode(d);
-        }
-        return values;
-    }
-
     protected abstract int decodeValueCount(int encodedCount);
 
-    protected abstract T decode(SparrowhawkDeserializer d);
+    protected abstract void allocateValues(int n);
+
+    protected abstract int valueCount();
+
+    protected abstract T valueAt(int i);
+
+    protected abstract void setValueAt(int i, T value);
+
+    /**
+     * Decodes {@code n} values straight into primitive storage.
+     */
+    protected abstract void readValues(SparrowhawkDeserializer d, int n);
 
     @Override
     public final void encodeTo(SparrowhawkSerializer s) {
-        int size = size();
+        int[] order = s.isCanonical() ? CanonicalOrder.sortedOrder(keys) : null;
+        int size = s.isCanonical() ? canonicalSize(order) : size();
         if (size > 0) {
             s.writeVarUL(encodeByteListLength(size));
             s.writeVarUL(REQUIRED_LIST_FIELDSET_0);
-            long dl = encodeLenPrefixedListLength(keys.length);
-            s.writeVarUL(dl);
-            for (int i = 0; i < keys.length; i++) {
-                s.writeBytes(keys[i]);
+            int n = CanonicalOrder.count(order, keys.length);
+            s.writeVarUL(encodeLenPrefixedListLength(n));
+            for (int j = 0; j < n; j++) {
+                s.writeBytes(keys[CanonicalOrder.at(order, j)]);
             }
-            writeValues(s, values);
+            writeValues(s, order);
         } else {
             s.writeRawByte(EMPTY_LIST_SIZE_VARINT);
         }
     }
 
-    protected abstract void writeValues(SparrowhawkSerializer s, T[] values);
+    /**
+     * Writes the value list: the values at the indexes in {@code order}, or all of them in order if it is null.
+     */
+    protected abstract void writeValues(SparrowhawkSerializer s, int[] order);
 
+    /**
+     * Returns the size of the canonical encoding, measured from the keys and values rather than taken from the
+     * input, and counting each key once.
+     */
+    @Override
+    public final int canonicalSize() {
+        return canonicalSize(CanonicalOrder.sortedOrder(keys));
+    }
+
+    private int canonicalSize(int[] order) {
+        if (keys.length != valueCount()) {
+            return invalidMap();
+        }
+        int n = CanonicalOrder.count(order, keys.length);
+        if (n == 0) {
+            return 0;
+        }
+        int size = 1 + ulongSize(encodeLenPrefixedListLength(n));
+        for (int j = 0; j < n; j++) {
+            size += byteListLengthEncodedSize(keys[CanonicalOrder.at(order, j)].remaining());
+        }
+        return size + sizeofValues(order);
+    }
 
     private transient int $size;
 
-    protected abstract int sizeofValues(T[] elements);
+    /**
+     * Returns the size of the value list written by {@link #writeValues} for the same {@code order}.
+     */
+    protected abstract int sizeofValues(int[] order);
 
     @Override
     public final int size() {
@@ -136,7 +238,7 @@ public abstract class NumberMap<T> implements SparrowhawkObject {
             return size;
         }
 
-        if (keys.length != values.length) {
+        if (keys.length != valueCount()) {
             return invalidMap();
         }
 
@@ -146,7 +248,7 @@ public abstract class NumberMap<T> implements SparrowhawkObject {
             for (int i = 0; i < keys.length; i++) {
                 size += byteListLengthEncodedSize(keys[i].remaining());
             }
-            size += sizeofValues(values);
+            size += sizeofValues(null);
         } else {
             size = 0;
         }
@@ -158,4 +260,56 @@ public abstract class NumberMap<T> implements SparrowhawkObject {
     private static int invalidMap() {
         throw new RuntimeException("invalid map");
     }
+
+    private final class MapView extends AbstractMap<String, T> {
+        @Override
+        public int size() {
+            return keys.length;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return key instanceof String k && indexOf(k) >= 0;
+        }
+
+        @Override
+        public T get(Object key) {
+            if (!(key instanceof String k)) {
+                return null;
+            }
+            int i = indexOf(k);
+            return i < 0 ? null : valueAt(i);
+        }
+
+        @Override
+        public Set<Entry<String, T>> entrySet() {
+            return new AbstractSet<>() {
+                @Override
+                public int size() {
+                    return keys.length;
+                }
+
+                @Override
+                public Iterator<Entry<String, T>> iterator() {
+                    return new Iterator<>() {
+                        private int i;
+
+                        @Override
+                        public boolean hasNext() {
+                            return i < keys.length;
+                        }
+
+                        @Override
+                        public Entry<String, T> next() {
+                            if (i >= keys.length) {
+                                throw new NoSuchElementException();
+                            }
+                            int idx = i++;
+                            return new SimpleImmutableEntry<>(keyAt(idx), valueAt(idx));
+                        }
+                    };
+                }
+            };
+        }
+    }
 }
@@ -75,7 +75,7 @@ public final class OptionalBlob implements SparrowhawkObject {
 
     public void decodeFrom(SparrowhawkDeserializer d) {
         int size = (int) decodeElementCount(d.varUI());
-        this.$size = size;
+        this.$size = d.isCanonical() ? size : -1;
         int start = d.pos();
 
         while ((d.pos() - start) < size) {
@@ -108,6 +108,6 @@ public final class OptionalBlob implements SparrowhawkObject {
 
     @Override
     public int hashCode() {
-        return Objects.hash($list_0, item, $size);
+        return Objects.hashCode(item);
     }
 }
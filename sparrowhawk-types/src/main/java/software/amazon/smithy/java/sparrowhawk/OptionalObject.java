@@ -35,6 +35,14 @@ final class OptionalObject<T extends SparrowhawkObject> implements SparrowhawkOb
         return (T) object;
     }
 
+    @Override
+    public void decodeAll() {
+        T item = getItem();
+        if (item != null) {
+            item.decodeAll();
+        }
+    }
+
     public void setItem(T object) {
         if (object == null) {
             $list_0 &= ~FIELD_ITEM;
@@ -74,8 +82,21 @@ final class OptionalObject<T extends SparrowhawkObject> implements SparrowhawkOb
         return size;
     }
 
+    /**
+     * Returns the size of the canonical encoding, which decodes an item still held encoded, since it is re-encoded
+     * rather than copied.
+     */
+    @Override
+    public int canonicalSize() {
+        int size = ($list_0 == 0x0L ? 0 : (ulongSize($list_0)));
+        if (hasItem()) {
+            size += byteListLengthEncodedSize(getItem().canonicalSize());
+        }
+        return size;
+    }
+
     public void encodeTo(SparrowhawkSerializer s) {
-        s.writeVarUL(encodeByteListLength(size()));
+        s.writeVarUL(encodeByteListLength(s.isCanonical() ? canonicalSize() : size()));
         writeListFields(s);
     }
 
@@ -83,7 +104,9 @@ final class OptionalObject<T extends SparrowhawkObject> implements SparrowhawkOb
         if ($list_0 != 0x0L) {
             s.writeVarUL($list_0);
             if (hasItem()) {
-                if (object instanceof SparrowhawkObject k) {
+                if (s.isCanonical()) {
+                    getItem().encodeTo(s);
+                } else if (object instanceof SparrowhawkObject k) {
                     k.encodeTo(s);
                 } else {
                     s.writeEncodedObject((ByteBuffer) object);
@@ -94,7 +117,7 @@ final class OptionalObject<T extends SparrowhawkObject> implements SparrowhawkOb
 
     public void decodeFrom(SparrowhawkDeserializer d) {
         int size = (int) decodeElementCount(d.varUI());
-        this.$size = size;
+        this.$size = d.isCanonical() ? size : -1;
         int start = d.pos();
 
         while ((d.pos() - start) < size) {
@@ -0,0 +1,167 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package software.amazon.smithy.java.sparrowhawk;
+
+import static software.amazon.smithy.java.sparrowhawk.RecordLogWriter.SYNC_MARKER_HEADER;
+import static software.amazon.smithy.java.sparrowhawk.RecordLogWriter.SYNC_TOKEN_LENGTH;
+import static software.amazon.smithy.java.sparrowhawk.SparrowhawkDeserializer.varintLength;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Reads records written by a {@link RecordLogWriter}, skipping sync markers and padding. A truncated record at the end
+ * of the file is treated as the end of the log.
+ */
+public final class RecordLogReader implements Closeable {
+    private final FileChannel channel;
+    private final byte[] syncToken = new byte[SYNC_TOKEN_LENGTH];
+    private byte[] buf = new byte[64 * 1024];
+    private int bufPos;
+    private int bufLimit;
+    // file offset of buf[0]
+    private long bufStart;
+
+    public RecordLogReader(FileChannel channel) throws IOException {
+        this.channel = channel;
+        seekTo(0);
+        if (!fill(1) || !fill(varintLength(buf[bufPos])) || readLength() != SYNC_MARKER_HEADER
+            || !fill(SYNC_TOKEN_LENGTH)) {
+            throw new IOException("not a Sparrowhawk record log: missing leading sync marker");
+        }
+        System.arraycopy(buf, bufPos, syncToken, 0, SYNC_TOKEN_LENGTH);
+        bufPos += SYNC_TOKEN_LENGTH;
+    }
+
+    public long position() {
+        return bufStart + bufPos;
+    }
+
+    /**
+     * Positions the reader at the first record following the first sync marker at or after {@code position}.
+     *
+     * @return false if there is no sync marker after {@code position}
+     */
+    public boolean seek(long position) throws IOException {
+        seekTo(position);
+        while (true) {
+            int found = indexOfToken();
+            if (found >= 0) {
+                bufPos = found + SYNC_TOKEN_LENGTH;
+                return true;
+            }
+            // keep a token's worth of bytes in case it straddles the buffer boundary
+            bufPos = Math.max(bufPos, bufLimit - SYNC_TOKEN_LENGTH + 1);
+            if (!fill(bufLimit - bufPos + 1)) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Returns the next encoded record, including its length prefix, or null at the end of the log. The returned
+     * buffer is only valid until the next call to this reader.
+     */
+    public ByteBuffer next() throws IOException {
+        while (true) {
+            if (!fill(1)) {
+                return null;
+            }
+            if (!fill(varintLength(buf[bufPos]))) {
+                return null;
+            }
+            int start = bufPos;
+            long len = readLength();
+            if (len == SYNC_MARKER_HEADER) {
+                if (!fill(SYNC_TOKEN_LENGTH)) {
+                    return null;
+                }
+                bufPos += SYNC_TOKEN_LENGTH;
+                continue;
+            }
+            if (!KConstants.isByteListLength(len)) {
+                throw new IOException(
+                    "corrupt record log at " + (bufStart + start) + ": expected a byte list, got "
+                        + KConstants.listType((int) len)
+                );
+            }
+            int prefix = bufPos - start;
+            bufPos = start;
+            int total = prefix + KConstants.decodeByteListLength(len);
+            if (!fill(total)) {
+                return null;
+            }
+            ByteBuffer record = ByteBuffer.wrap(buf, bufPos, total).slice();
+            bufPos += total;
+            return record;
+        }
+    }
+
+    public boolean next(SparrowhawkObject into) throws IOException {
+        ByteBuffer record = next();
+        if (record == null) {
+            return false;
+        }
+        SparrowhawkDeserializer d = new SparrowhawkDeserializer(record);
+        into.decodeFrom(d);
+        d.done();
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private void seekTo(long position) {
+        bufStart = position;
+        bufPos = 0;
+        bufLimit = 0;
+    }
+
+    private long readLength() {
+        SparrowhawkDeserializer d = new SparrowhawkDeserializer(buf, bufPos, bufLimit);
+        long len = d.varUL();
+        bufPos = d.pos();
+        return len;
+    }
+
+    private int indexOfToken() {
+        byte first = syncToken[0];
+        for (int i = bufPos; i <= bufLimit - SYNC_TOKEN_LENGTH; i++) {
+            if (buf[i] == first && Arrays.equals(buf, i, i + SYNC_TOKEN_LENGTH, syncToken, 0, SYNC_TOKEN_LENGTH)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // ensures at least n unread bytes are buffered, returning false if the file ends first
+    private boolean fill(int n) throws IOException {
+        if (bufLimit - bufPos >= n) {
+            return true;
+        }
+        int unread = bufLimit - bufPos;
+        if (n > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(n, buf.length * 2));
+        }
+        System.arraycopy(buf, bufPos, buf, 0, unread);
+        bufStart += bufPos;
+        bufPos = 0;
+        bufLimit = unread;
+        while (bufLimit < n) {
+            int read = channel.read(ByteBuffer.wrap(buf, bufLimit, buf.length - bufLimit), bufStart + bufLimit);
+            if (read < 0) {
+                return false;
+            }
+            bufLimit += read;
+        }
+        return true;
+    }
+}
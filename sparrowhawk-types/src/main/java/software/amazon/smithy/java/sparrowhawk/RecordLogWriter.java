@@ -0,0 +1,355 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package software.amazon.smithy.java.sparrowhawk;
+
+import static software.amazon.smithy.java.sparrowhawk.SparrowhawkSerializer.byteListLengthEncodedSize;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Appends length-prefixed Sparrowhawk records to a file.
+ *
+ * <p>Producers encode each record into a buffer of their own, then reserve space in a shared in-memory segment with
+ * a single atomic add and copy it in, so concurrent appends never take a lock and no encoder can write anywhere but
+ * its own buffer, whatever it does. Full segments are handed to a background flusher that writes them with
+ * one channel write each and forces the channel once per group-commit interval or byte threshold.
+ *
+ * <p>The file starts with a sync marker and another one is written every {@code syncMarkerInterval} bytes. A
+ * sync marker is an eight-byte list holding the file's random 16-byte sync token, which a {@link RecordLogReader}
+ * can scan for to resume reading from an arbitrary offset.
+ *
+ * <p>A record that fails to encode, or does not encode to the size it reported, is rejected before any space is
+ * reserved for it, and leaves nothing in the file.
+ */
+public final class RecordLogWriter implements Closeable {
+    static final int SYNC_TOKEN_LENGTH = 16;
+    static final long SYNC_MARKER_HEADER = KConstants.encodeEightBListLength(SYNC_TOKEN_LENGTH / 8);
+
+    private final FileChannel channel;
+    private final int segmentSize;
+    private final long syncIntervalNanos;
+    private final long syncBytes;
+    private final long syncMarkerInterval;
+    private final byte[] syncMarker;
+    // each producer's buffer, grown to the largest record it has encoded
+    private final ThreadLocal<byte[]> scratch = ThreadLocal.withInitial(() -> new byte[256]);
+
+    private final ConcurrentLinkedQueue<Segment> sealed = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<Segment> free = new ConcurrentLinkedQueue<>();
+    private volatile Segment current;
+    private volatile boolean closed;
+    private volatile IOException failure;
+    private final Thread flusher;
+
+    // only touched by the flusher thread, or by callers holding the flush lock
+    private final Object flushLock = new Object();
+    private long unforcedBytes;
+    private long bytesSinceMarker;
+    private long lastForce;
+
+    private RecordLogWriter(Builder builder) {
+        this.channel = Objects.requireNonNull(builder.channel, "channel");
+        this.segmentSize = builder.segmentSize;
+        this.syncIntervalNanos = builder.syncInterval.toNanos();
+        this.syncBytes = builder.syncBytes;
+        this.syncMarkerInterval = builder.syncMarkerInterval;
+        this.syncMarker = newSyncMarker();
+        this.current = new Segment(segmentSize);
+        this.lastForce = System.nanoTime();
+        try {
+            writeFully(ByteBuffer.wrap(syncMarker));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        this.flusher = new Thread(this::runFlusher, "sparrowhawk-record-log-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    public static Builder builder(FileChannel channel) {
+        return new Builder(channel);
+    }
+
+    private static byte[] newSyncMarker() {
+        SparrowhawkSerializer s = new SparrowhawkSerializer(
+            new byte[SparrowhawkSerializer.ulongSize(SYNC_MARKER_HEADER) + SYNC_TOKEN_LENGTH]
+        );
+        s.writeVarUL(SYNC_MARKER_HEADER);
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < SYNC_TOKEN_LENGTH / 8; i++) {
+            // a zero word would make the token easy to collide with ordinary padding
+            s.write8(random.nextLong() | 1L);
+        }
+        return s.payload();
+    }
+
+    byte[] syncMarker() {
+        return syncMarker.clone();
+    }
+
+    public void append(SparrowhawkObject record) {
+        checkOpen();
+        int len = byteListLengthEncodedSize(record.size());
+        if (len > segmentSize) {
+            appendOversized(record, len);
+            return;
+        }
+
+        byte[] buf = scratch.get();
+        if (buf.length < len) {
+            buf = new byte[Math.min(segmentSize, Math.max(len, buf.length * 2))];
+            scratch.set(buf);
+        }
+        SparrowhawkSerializer s = new SparrowhawkSerializer(buf);
+        record.encodeTo(s);
+        if (s.position() != len) {
+            throw new IllegalStateException("wrote " + s.position() + " bytes, expected " + len);
+        }
+
+        while (true) {
+            Segment seg = current;
+            int off = seg.reserved.getAndAdd(len);
+            if (off + len <= segmentSize) {
+                System.arraycopy(buf, 0, seg.buf, off, len);
+                seg.committed.addAndGet(len);
+                return;
+            }
+            if (off <= segmentSize) {
+                seal(seg, off);
+            } else {
+                awaitReplacement(seg);
+            }
+        }
+    }
+
+    private void appendOversized(SparrowhawkObject record, int len) {
+        // keep this record ordered after everything the caller has already appended
+        sealCurrent();
+        SparrowhawkSerializer s = new SparrowhawkSerializer(new byte[len]);
+        record.encodeTo(s);
+        Segment seg = new Segment(s.payload());
+        seg.end = len;
+        seg.committed.set(len);
+        sealed.add(seg);
+        LockSupport.unpark(flusher);
+    }
+
+    private void sealCurrent() {
+        Segment seg = current;
+        int off = seg.reserved.getAndAdd(segmentSize + 1);
+        if (off <= segmentSize) {
+            seal(seg, off);
+        } else {
+            awaitReplacement(seg);
+        }
+    }
+
+    // Exactly one reservation per segment starts at or before the end of the buffer and runs past it. The thread
+    // that made it owns sealing the segment and installing its replacement.
+    private void seal(Segment seg, int end) {
+        seg.end = end;
+        sealed.add(seg);
+        Segment next = free.poll();
+        if (next == null) {
+            next = new Segment(segmentSize);
+        } else {
+            next.reserved.set(0);
+        }
+        current = next;
+        LockSupport.unpark(flusher);
+    }
+
+    private void awaitReplacement(Segment seg) {
+        while (current == seg) {
+            Thread.onSpinWait();
+        }
+    }
+
+    public void flush() throws IOException {
+        checkFailure();
+        sealCurrent();
+        synchronized (flushLock) {
+            drain();
+            force();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        LockSupport.unpark(flusher);
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            sealCurrent();
+            synchronized (flushLock) {
+                drain();
+                force();
+            }
+        } finally {
+            channel.close();
+        }
+        checkFailure();
+    }
+
+    private void runFlusher() {
+        long parkNanos = syncIntervalNanos > 0 ? syncIntervalNanos : TimeUnit.MILLISECONDS.toNanos(10);
+        while (!closed && failure == null) {
+            LockSupport.parkNanos(this, parkNanos);
+            try {
+                synchronized (flushLock) {
+                    if (sealed.isEmpty() && System.nanoTime() - lastForce >= syncIntervalNanos
+                        && current.reserved.get() > 0) {
+                        sealCurrent();
+                    }
+                    drain();
+                    if (unforcedBytes >= syncBytes || System.nanoTime() - lastForce >= syncIntervalNanos) {
+                        force();
+                    }
+                }
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+    }
+
+    private void drain() throws IOException {
+        Segment seg;
+        while ((seg = sealed.poll()) != null) {
+            int end = seg.end;
+            while (seg.committed.get() != end) {
+                Thread.onSpinWait();
+            }
+            // after a record overran its space the segments may hold corrupt records, which are not written
+            checkFailure();
+            if (end > 0) {
+                writeFully(ByteBuffer.wrap(seg.buf, 0, end));
+                unforcedBytes += end;
+                bytesSinceMarker += end;
+                if (syncMarkerInterval > 0 && bytesSinceMarker >= syncMarkerInterval) {
+                    writeFully(ByteBuffer.wrap(syncMarker));
+                    bytesSinceMarker = 0;
+                }
+            }
+            if (seg.buf.length == segmentSize) {
+                seg.reset();
+                free.add(seg);
+            }
+        }
+    }
+
+    private void force() throws IOException {
+        if (unforcedBytes > 0) {
+            channel.force(false);
+            unforcedBytes = 0;
+        }
+        lastForce = System.nanoTime();
+    }
+
+    private void writeFully(ByteBuffer b) throws IOException {
+        while (b.hasRemaining()) {
+            channel.write(b);
+        }
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("record log is closed");
+        }
+        if (failure != null) {
+            throw new UncheckedIOException("record log flush failed", failure);
+        }
+    }
+
+    private void checkFailure() throws IOException {
+        IOException e = failure;
+        if (e != null) {
+            throw e;
+        }
+    }
+
+    private static final class Segment {
+        private final byte[] buf;
+        private final AtomicInteger reserved = new AtomicInteger();
+        private final AtomicInteger committed = new AtomicInteger();
+        private volatile int end = -1;
+
+        private Segment(int size) {
+            this(new byte[size]);
+        }
+
+        private Segment(byte[] buf) {
+            this.buf = buf;
+        }
+
+        // A pooled segment stays poisoned until it is installed again, so a producer still holding a stale
+        // reference to it can't reserve space in it.
+        private void reset() {
+            reserved.set(buf.length + 1);
+            end = -1;
+            committed.set(0);
+        }
+    }
+
+    public static final class Builder {
+        private final FileChannel channel;
+        private int segmentSize = 64 * 1024;
+        private Duration syncInterval = Duration.ofMillis(5);
+        private long syncBytes = 1024 * 1024;
+        private long syncMarkerInterval = 64 * 1024;
+
+        private Builder(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        public Builder segmentSize(int segmentSize) {
+            if (segmentSize <= 0) {
+                throw new IllegalArgumentException("segmentSize must be positive: " + segmentSize);
+            }
+            this.segmentSize = segmentSize;
+            return this;
+        }
+
+        public Builder syncInterval(Duration syncInterval) {
+            if (syncInterval.isNegative()) {
+                throw new IllegalArgumentException("syncInterval must not be negative: " + syncInterval);
+            }
+            this.syncInterval = syncInterval;
+            return this;
+        }
+
+        public Builder syncBytes(long syncBytes) {
+            this.syncBytes = syncBytes;
+            return this;
+        }
+
+        public Builder syncMarkerInterval(long syncMarkerInterval) {
+            this.syncMarkerInterval = syncMarkerInterval;
+            return this;
+        }
+
+        public RecordLogWriter build() {
+            return new RecordLogWriter(this);
+        }
+    }
+}
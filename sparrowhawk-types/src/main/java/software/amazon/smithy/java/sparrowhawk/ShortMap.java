@@ -6,12 +6,66 @@
 package software.amazon.smithy.java.sparrowhawk;
 
 import static software.amazon.smithy.java.sparrowhawk.KConstants.encodeVarintListLength;
+import static software.amazon.smithy.java.sparrowhawk.SparrowhawkSerializer.intSize;
+import static software.amazon.smithy.java.sparrowhawk.SparrowhawkSerializer.mapHeaderSize;
+import static software.amazon.smithy.java.sparrowhawk.SparrowhawkSerializer.stringEncodedSize;
 import static software.amazon.smithy.java.sparrowhawk.SparrowhawkSerializer.ulongSize;
 
+import java.util.Map;
+
 public final class ShortMap extends NumberMap<Short> {
-    @Override
-    protected Short[] newArray(int len) {
-        return new Short[len];
+    private static final short[] EMPTY = new short[0];
+
+    private short[] values = EMPTY;
+
+    public short getShort(String key) {
+        return values[indexOfExisting(key)];
+    }
+
+    public short getShort(String key, short defaultValue) {
+        int i = indexOf(key);
+        return i < 0 ? defaultValue : values[i];
+    }
+
+    public short shortAt(int i) {
+        return values[i];
+    }
+
+    /**
+     * Replaces the contents of this map. {@code values} is used directly rather than copied.
+     */
+    public void fromArrays(String[] keys, short[] values) {
+        this.values = values;
+        setKeys(keys, values.length);
+    }
+
+    /**
+     * Returns the encoded size of {@code m} as a ShortMap, without building one.
+     */
+    public static int sizeOf(Map<String, Short> m) {
+        int n = m.size();
+        if (n == 0) {
+            return 0;
+        }
+        int size = mapHeaderSize(n) + ulongSize(encodeVarintListLength(n));
+        for (Map.Entry<String, Short> e : m.entrySet()) {
+            size += stringEncodedSize(e.getKey()) + intSize(e.getValue());
+        }
+        return size;
+    }
+
+    /**
+     * Encodes {@code m} exactly as a ShortMap built from it, writing keys and values straight into {@code s}.
+     * {@code size} is what {@code sizeOf(m)} returned, so the map is not measured twice.
+     */
+    public static void encode(Map<String, Short> m, int size, SparrowhawkSerializer s) {
+        Iterable<Map.Entry<String, Short>> entries = s.entries(m);
+        if (s.writeMapKeys(entries, m.size(), size)) {
+            s.writeVarUL(encodeVarintListLength(m.size()));
+            for (Map.Entry<String, Short> e : entries) {
+                s.writeVarI(e.getValue());
+            }
+        }
     }
 
     @Override
@@ -20,22 +74,53 @@ public final class ShortMap extends NumberMap<Short> {
     }
 
     @Override
-    protected Short decode(SparrowhawkDeserializer d) {
-        return (short) d.varI();
+    protected void allocateValues(int n) {
+        values = n == 0 ? EMPTY : new short[n];
+    }
+
+    @Override
+    protected int valueCount() {
+        return values.length;
+    }
+
+    @Override
+    protected Short valueAt(int i) {
+        return values[i];
+    }
+
+    @Override
+    protected void setValueAt(int i, Short value) {
+        values[i] = value;
+    }
+
+    @Override
+    protected void readValues(SparrowhawkDeserializer d, int n) {
+        allocateValues(n);
+        d.varSs(values, n);
     }
 
     @Override
-    protected void writeValues(SparrowhawkSerializer s, Short[] values) {
-        s.writeShortList(values);
+    protected void writeValues(SparrowhawkSerializer s, int[] order) {
+        short[] values = order == null ? this.values : select(order);
+        s.writeShortList(values, values.length);
     }
 
     @Override
-    protected int sizeofValues(Short[] elements) {
-        int n = elements.length;
+    protected int sizeofValues(int[] order) {
+        short[] values = order == null ? this.values : select(order);
+        int n = values.length;
         int size = ulongSize(encodeVarintListLength(n));
         for (int i = 0; i < n; i++) {
-            size += SparrowhawkSerializer.intSize(elements[i]);
+            size += SparrowhawkSerializer.intSize(values[i]);
         }
         return size;
     }
+
+    private short[] select(int[] order) {
+        short[] selected = new short[order.length];
+        for (int i = 0; i < order.length; i++) {
+            selected[i] = values[order[i]];
+        }
+        return selected;
+    }
 }
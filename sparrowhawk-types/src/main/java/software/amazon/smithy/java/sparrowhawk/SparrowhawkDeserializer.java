@@ -5,6 +5,8 @@
 
 package software.amazon.smithy.java.sparrowhawk;
 
+import static software.amazon.smithy.java.sparrowhawk.ByteArrays.INTS;
+import static software.amazon.smithy.java.sparrowhawk.ByteArrays.LONGS;
 import static software.amazon.smithy.java.sparrowhawk.KConstants.*;
 
 import java.nio.ByteBuffer;
@@ -16,16 +18,23 @@ import java.util.List;
 
 public final class SparrowhawkDeserializer {
     private final byte[] b;
+    private final int start;
     private final int len;
     private int pos;
+    private boolean canonical;
+    private boolean aliasing = true;
+    // what decoded objects keep in place of b, copied from it on first use if not aliasing
+    private byte[] retained;
 
     public SparrowhawkDeserializer(byte[] b) {
         this.b = b;
+        this.start = 0;
         this.len = b.length;
     }
 
     public SparrowhawkDeserializer(byte[] b, int off, int len) {
         this.b = b;
+        this.start = off;
         this.pos = off;
         this.len = len;
     }
@@ -34,12 +43,15 @@ public final class SparrowhawkDeserializer {
         if (b.hasArray()) {
             this.b = b.array();
             this.pos = b.position() + b.arrayOffset();
-            this.len = b.remaining();
+            this.len = pos + b.remaining();
         } else {
             byte[] bytes = bytes(b);
             this.b = bytes;
             this.len = bytes.length;
+            // already a private copy
+            this.retained = bytes;
         }
+        this.start = pos;
     }
 
     private static byte[] bytes(ByteBuffer b) {
@@ -52,6 +64,32 @@ public final class SparrowhawkDeserializer {
         return pos;
     }
 
+    /**
+     * Declares that the input is a canonical encoding, such as one written by a canonical
+     * {@link SparrowhawkSerializer}. Objects decoded from it compare and hash their encoded bytes instead of their
+     * fields until they are modified.
+     */
+    public void setCanonical(boolean canonical) {
+        this.canonical = canonical;
+    }
+
+    public boolean isCanonical() {
+        return canonical;
+    }
+
+    /**
+     * Sets whether decoded objects may keep referring to the input array, which they do by default, so the caller
+     * must not write to the array while any object decoded from it is in use. Turning aliasing off has them keep a
+     * copy of the input instead, made at most once per decode.
+     */
+    public void setAliasing(boolean aliasing) {
+        this.aliasing = aliasing;
+    }
+
+    public boolean isAliasing() {
+        return aliasing;
+    }
+
     public void done() {
         if (pos != len) {
             throw new RuntimeException("still has " + (len - pos) + "bytes");
@@ -75,11 +113,117 @@ public final class SparrowhawkDeserializer {
             throw new RuntimeException("not bytes: " + listType(len));
         }
         int decodedLen = decodeByteListLength(len);
-        ByteBuffer bb = ByteBuffer.wrap(b, pos, decodedLen).slice();
+        ByteBuffer bb = ByteBuffer.wrap(retained(), retainedPos(pos), decodedLen).slice();
         pos += decodedLen;
         return bb;
     }
 
+    /**
+     * Returns the array being decoded, which {@link #pos()} indexes into. It may be the caller's array, so objects
+     * that keep bytes past the decode use {@link #retained()} instead.
+     */
+    public byte[] buffer() {
+        return b;
+    }
+
+    /**
+     * Returns the array decoded objects keep to decode lazily from or to copy when re-encoded, indexed through
+     * {@link #retainedPos}. It is the input array itself unless aliasing is turned off, in which case it is a copy
+     * of the input made on first call and shared by every object of the decode, so they never see later writes to
+     * the caller's array.
+     */
+    public byte[] retained() {
+        byte[] r = retained;
+        if (r == null) {
+            r = aliasing ? b : Arrays.copyOfRange(b, start, len);
+            this.retained = r;
+        }
+        return r;
+    }
+
+    /**
+     * Translates a position in {@link #buffer()} to the position of the same byte in {@link #retained()}.
+     */
+    public int retainedPos(int pos) {
+        return retained() == b ? pos : pos - start;
+    }
+
+    /**
+     * Advances past a byte list without materializing it.
+     */
+    void skipBytes() {
+        int len = (int) varUL();
+        if (!KConstants.isByteListLength(len)) {
+            throw new RuntimeException("not bytes: " + listType(len));
+        }
+        pos += decodeByteListLength(len);
+        if (pos > this.len) {
+            throw new RuntimeException("byte list overruns the buffer");
+        }
+    }
+
+    /**
+     * Advances to {@code pos}, which must be neither behind the current position nor past the end of the input.
+     */
+    void skipTo(int pos) {
+        if (pos < this.pos || pos > len) {
+            throw new RuntimeException("cannot skip from " + this.pos + " to " + pos);
+        }
+        this.pos = pos;
+    }
+
+    /**
+     * Advances past one field of the given wire type without decoding it.
+     */
+    void skipValue(int wireType) {
+        switch (wireType) {
+            case T_LIST -> skipList();
+            case T_VARINT -> pos += varintLength(b[pos]);
+            case T_FOUR -> pos += 4;
+            default -> pos += 8;
+        }
+        if (pos > len) {
+            throw new RuntimeException("field overruns the buffer");
+        }
+    }
+
+    private void skipList() {
+        long len = varUL();
+        if (isByteListLength(len)) {
+            skipFixed(len >>> 1, 1);
+            return;
+        }
+        long n = len >>> 3;
+        switch ((int) (len & 7)) {
+            case LIST_LEN_DELIMITED_ITEMS -> {
+                for (long i = 0; i < n && pos < this.len; i++) {
+                    skipList();
+                }
+            }
+            case LIST_VARINTS -> {
+                for (long i = 0; i < n && pos < this.len; i++) {
+                    pos += varintLength(b[pos]);
+                }
+            }
+            case LIST_FOUR -> skipFixed(n, 4);
+            default -> skipFixed(n, 8);
+        }
+    }
+
+    private void skipFixed(long n, int width) {
+        if (n > (len - pos) / width) {
+            throw new RuntimeException("list of " + n + " items overruns the buffer");
+        }
+        pos += (int) n * width;
+    }
+
+    /**
+     * Returns the number of bytes in the varint that starts with {@code first}.
+     */
+    static int varintLength(byte first) {
+        return 1 + Integer.numberOfTrailingZeros(first | (1 << 8));
+    }
+
     public ByteBuffer object() {
         int start = pos;
         int len = (int) varUL();
@@ -88,7 +232,7 @@ public final class SparrowhawkDeserializer {
             throw new RuntimeException("not bytes: " + listType(len));
         }
         int decodedLen = decodeByteListLength(len);
-        ByteBuffer bb = ByteBuffer.wrap(b, start, decodedLen + prefix).slice();
+        ByteBuffer bb = ByteBuffer.wrap(retained(), retainedPos(start), decodedLen + prefix).slice();
         pos += decodedLen;
         return bb;
     }
@@ -229,7 +373,61 @@ public final class SparrowhawkDeserializer {
         return Arrays.asList(booleans);
     }
 
-    private static int read4(byte[] b, int off) {
+    public void varBs(byte[] into, int n) {
+        for (int i = 0; i < n; i++) {
+            into[i] = varB();
+        }
+    }
+
+    public void varSs(short[] into, int n) {
+        for (int i = 0; i < n; i++) {
+            into[i] = varS();
+        }
+    }
+
+    public void varIs(int[] into, int n) {
+        for (int i = 0; i < n; i++) {
+            into[i] = varI();
+        }
+    }
+
+    public void varLs(long[] into, int n) {
+        for (int i = 0; i < n; i++) {
+            into[i] = varL();
+        }
+    }
+
+    public void bools(boolean[] into, int n) {
+        for (int i = 0; i < n; i++) {
+            into[i] = bool();
+        }
+    }
+
+    public void f4s(float[] into, int n) {
+        byte[] b = this.b;
+        int pos = this.pos;
+        if (n > (len - pos) / 4) {
+            throw new RuntimeException("list of " + n + " floats overruns the buffer");
+        }
+        for (int i = 0; i < n; i++, pos += 4) {
+            into[i] = Float.intBitsToFloat((int) INTS.get(b, pos));
+        }
+        this.pos = pos;
+    }
+
+    public void d8s(double[] into, int n) {
+        byte[] b = this.b;
+        int pos = this.pos;
+        if (n > (len - pos) / 8) {
+            throw new RuntimeException("list of " + n + " doubles overruns the buffer");
+        }
+        for (int i = 0; i < n; i++, pos += 8) {
+            into[i] = Double.longBitsToDouble((long) LONGS.get(b, pos));
+        }
+        this.pos = pos;
+    }
+
+    static int read4(byte[] b, int off) {
         return (b[off] & 0xFF)
             | (b[off + 1] & 0xFF) << 8
             | (b[off + 2] & 0xFF) << 16
@@ -0,0 +1,117 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package software.amazon.smithy.java.sparrowhawk;
+
+import static software.amazon.smithy.java.sparrowhawk.SparrowhawkSerializer.byteListLengthEncodedSize;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * The base of the exceptions generated for error shapes, carrying the error structure.
+ *
+ * <p>These exceptions have no stack trace and record no suppressed exceptions, so creating one costs an allocation
+ * rather than a walk of the stack, which matters when errors such as throttling are thrown at a high rate. An error
+ * read off the wire is kept encoded, in the bytes its deserializer retained, until {@link #error()} is first called.
+ * Exceptions cannot be generic, so generated ones narrow the type {@code error()} returns.
+ *
+ * <p>Error structures are not {@link java.io.Serializable}, so a serialized exception carries the encoded error,
+ * which is decoded again on first access once the exception is read back.
+ */
+public abstract class SparrowhawkException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    private transient ByteBuffer encoded;
+    private transient volatile SparrowhawkObject error;
+
+    protected SparrowhawkException(String message, SparrowhawkObject error) {
+        super(message, null, false, false);
+        this.error = error;
+    }
+
+    /**
+     * Reads the encoded error structure at the deserializer's position, leaving it to be decoded on first access.
+     */
+    protected SparrowhawkException(String message, SparrowhawkDeserializer d) {
+        super(message, null, false, false);
+        this.encoded = d.object();
+    }
+
+    /**
+     * Creates an empty error structure to decode the encoded one into.
+     */
+    protected abstract SparrowhawkObject newError();
+
+    /**
+     * Returns the error structure, decoding it the first time if this exception was read off the wire.
+     */
+    public SparrowhawkObject error() {
+        SparrowhawkObject e = error;
+        if (e == null) {
+            e = newError();
+            SparrowhawkDeserializer d = new SparrowhawkDeserializer(encoded);
+            e.decodeFrom(d);
+            this.error = e;
+        }
+        return e;
+    }
+
+    /**
+     * Returns the encoded size of the error structure, including its length prefix.
+     */
+    public int size() {
+        SparrowhawkObject e = error;
+        if (e == null) {
+            return encoded.remaining();
+        }
+        return byteListLengthEncodedSize(e.size());
+    }
+
+    /**
+     * Returns the size {@link #encodeTo} writes to a canonical serializer, including the length prefix.
+     */
+    public int canonicalSize() {
+        return byteListLengthEncodedSize(error().canonicalSize());
+    }
+
+    /**
+     * Writes the error structure, copying the bytes it was read from if it has not been decoded. Canonical encoding
+     * decodes it to re-encode it.
+     */
+    public void encodeTo(SparrowhawkSerializer s) {
+        SparrowhawkObject e = error;
+        if (e == null && !s.isCanonical()) {
+            s.writeEncodedObject(encoded);
+        } else {
+            error().encodeTo(s);
+        }
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        byte[] bytes;
+        ByteBuffer b = encoded;
+        if (error == null) {
+            bytes = new byte[b.remaining()];
+            b.duplicate().get(bytes);
+        } else {
+            SparrowhawkSerializer s = new SparrowhawkSerializer(new byte[size()]);
+            error.encodeTo(s);
+            bytes = s.payload();
+        }
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        this.encoded = ByteBuffer.wrap(bytes);
+    }
+}
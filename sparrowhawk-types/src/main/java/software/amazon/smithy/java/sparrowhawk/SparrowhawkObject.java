@@ -11,4 +11,19 @@ public interface SparrowhawkObject {
     void encodeTo(SparrowhawkSerializer s);
 
     int size();
+
+    /**
+     * Returns the size {@link #encodeTo} writes to a canonical serializer, which re-encodes what {@link #size()}
+     * counts as it was read. The two differ only for an object decoded from input that was not declared canonical,
+     * whose varints may be longer than needed, or whose maps repeat a key.
+     */
+    default int canonicalSize() {
+        return size();
+    }
+
+    /**
+     * Decodes whatever this object still holds encoded to decode on first access, so that reading it afterwards no
+     * longer writes to it. Immutable structures call this as they are decoded, before they are shared.
+     */
+    default void decodeAll() {}
 }
@@ -5,20 +5,27 @@
 
 package software.amazon.smithy.java.sparrowhawk;
 
+import static software.amazon.smithy.java.sparrowhawk.ByteArrays.INTS;
+import static software.amazon.smithy.java.sparrowhawk.ByteArrays.LONGS;
 import static software.amazon.smithy.java.sparrowhawk.KConstants.*;
 
 import java.nio.ByteBuffer;
-import java.nio.charset.StandardCharsets;
 import java.time.Instant;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 
 public final class SparrowhawkSerializer {
     public static final byte EMPTY_LIST_SIZE_VARINT = 1;
     private static final byte BOOL_FALSE = 1, BOOL_TRUE = 3;
+    // required list fields 0 (keys) and 1 (values)
+    private static final long MAP_FIELDSET = listField(0b11);
 
     private int position;
     private final byte[] payload;
+    private boolean canonical;
 
     public SparrowhawkSerializer(int len) {
         this.payload = new byte[byteListLengthEncodedSize(len)];
@@ -36,10 +43,100 @@ public final class SparrowhawkSerializer {
         this.position = position;
     }
 
+    /**
+     * Enables canonical encoding, in which equal values always encode to equal bytes: map entries are written
+     * sorted by their encoded keys with a repeated key written once, and values still held in their originally
+     * decoded form are re-encoded rather than copied through, with the shortest varints. Objects write their
+     * {@link SparrowhawkObject#canonicalSize()}, so size a canonical serializer with that rather than
+     * {@code size()}.
+     */
+    public void setCanonical(boolean canonical) {
+        this.canonical = canonical;
+    }
+
+    public boolean isCanonical() {
+        return canonical;
+    }
+
+    /**
+     * Returns the canonical encoding of {@code o}.
+     */
+    public static byte[] canonicalBytes(SparrowhawkObject o) {
+        SparrowhawkSerializer s = new SparrowhawkSerializer(o.canonicalSize());
+        s.setCanonical(true);
+        o.encodeTo(s);
+        return s.payload();
+    }
+
+    /**
+     * Returns true if {@code a} and {@code b} have the same canonical encoding. Objects of different sizes are
+     * rejected without encoding either of them.
+     */
+    public static boolean canonicalBytesEqual(SparrowhawkObject a, SparrowhawkObject b) {
+        if (a == b) {
+            return true;
+        }
+        if (a.canonicalSize() != b.canonicalSize()) {
+            return false;
+        }
+        return Arrays.equals(canonicalBytes(a), canonicalBytes(b));
+    }
+
+    /**
+     * Returns the hash of the canonical encoding of {@code o}, which is the same for objects with the same canonical
+     * encoding.
+     */
+    public static int canonicalHash(SparrowhawkObject o) {
+        byte[] b = canonicalBytes(o);
+        return hash(b, 0, b.length);
+    }
+
+    /**
+     * Hashes {@code len} bytes, eight at a time. Never returns 0, so callers can use 0 to mean not yet computed.
+     */
+    public static int hash(byte[] b, int off, int len) {
+        return ByteArrays.hash(b, off, len, 0);
+    }
+
     public void writeRawByte(byte b) {
         payload[position++] = b;
     }
 
+    /**
+     * Writes bytes that are already encoded, such as a precomputed field set header.
+     */
+    public void writeRawBytes(byte[] b) {
+        System.arraycopy(b, 0, payload, position, b.length);
+        position += b.length;
+    }
+
+    /**
+     * Checks once that {@code len} more bytes fit and moves past them, returning the offset of the first one. The
+     * caller fills them in with the put methods, which write at an offset without moving the position.
+     */
+    public int reserve(int len) {
+        int p = position;
+        Objects.checkFromIndexSize(p, len, payload.length);
+        position = p + len;
+        return p;
+    }
+
+    public void putBytes(int off, byte[] b) {
+        System.arraycopy(b, 0, payload, off, b.length);
+    }
+
+    public void putBool(int off, boolean b) {
+        payload[off] = b ? BOOL_TRUE : BOOL_FALSE;
+    }
+
+    public void putFloat(int off, float f) {
+        INTS.set(payload, off, Float.floatToIntBits(f));
+    }
+
+    public void putDouble(int off, double d) {
+        LONGS.set(payload, off, Double.doubleToLongBits(d));
+    }
+
     public void checkFull() {
         if (position != payload.length) {
             notFull();
@@ -51,6 +148,10 @@ public final class SparrowhawkSerializer {
         return payload;
     }
 
+    byte[] buffer() {
+        return payload;
+    }
+
     private void notFull() {
         throw new IllegalStateException("wrote " + position + " bytes, expected " + payload.length);
     }
@@ -161,8 +262,80 @@ public final class SparrowhawkSerializer {
         }
     }
 
+    /**
+     * Writes a string as a byte list, encoding its UTF-8 form straight into the payload.
+     *
+     * <p>A string encodes to at least one byte a char and at most three, so when both lengths take a prefix of the
+     * same size the string is encoded straight after it and walked once. Otherwise it is measured first. Nothing is
+     * written past the end of the encoded string, which may be where another writer's bytes begin.
+     */
     public void writeString(String s) {
-        writeBytes(s.getBytes(StandardCharsets.UTF_8));
+        int len = s.length();
+        int prefix = ulongSize(encodeByteListLength(len));
+        if (prefix != ulongSize(encodeByteListLength(len * 3L))) {
+            doWriteVar8(encodeByteListLength(utf8Length(s)));
+            position = writeUtf8(s, position);
+            return;
+        }
+        int start = position + prefix;
+        int n = writeUtf8(s, start) - start;
+        doWriteVar8(encodeByteListLength(n));
+        position += n;
+    }
+
+    private int writeUtf8(String s, int p) {
+        byte[] b = payload;
+        int len = s.length();
+        for (int i = 0; i < len; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                b[p++] = (byte) c;
+            } else if (c < 0x800) {
+                b[p++] = (byte) (0xC0 | (c >> 6));
+                b[p++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    int cp = Character.toCodePoint(c, s.charAt(++i));
+                    b[p++] = (byte) (0xF0 | (cp >> 18));
+                    b[p++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                    b[p++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                    b[p++] = (byte) (0x80 | (cp & 0x3F));
+                } else {
+                    // unpaired surrogates are replaced the same way String.getBytes replaces them
+                    b[p++] = '?';
+                }
+            } else {
+                b[p++] = (byte) (0xE0 | (c >> 12));
+                b[p++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                b[p++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        return p;
+    }
+
+    /**
+     * Returns the entries of a map being encoded directly, in the order they are to be written.
+     */
+    <V> Iterable<Map.Entry<String, V>> entries(Map<String, V> m) {
+        return canonical ? CanonicalOrder.sortedEntries(m) : m.entrySet();
+    }
+
+    /**
+     * Writes the header and key list of a map encoded directly from its {@code entries}, returning false if the
+     * map is empty and nothing else needs to be written. The caller writes the value list from the same entries.
+     */
+    boolean writeMapKeys(Iterable<? extends Map.Entry<String, ?>> entries, int n, int size) {
+        if (size == 0) {
+            writeRawByte(EMPTY_LIST_SIZE_VARINT);
+            return false;
+        }
+        doWriteVar8(encodeByteListLength(size));
+        doWriteVar8(MAP_FIELDSET);
+        doWriteVar8(encodeLenPrefixedListLength(n));
+        for (Map.Entry<String, ?> e : entries) {
+            writeString(e.getKey());
+        }
+        return true;
     }
 
     public void writeBytes(byte[] b) {
@@ -171,7 +344,12 @@ public final class SparrowhawkSerializer {
 
     // todo: writeString with null-check message
     public void writeBytes(Object o) {
-        writeBytes((byte[]) o);
+        // a decoded string field that was read through its getter holds a String, and its size is already cached
+        if (o instanceof String str) {
+            writeString(str);
+        } else {
+            writeBytes((byte[]) o);
+        }
     }
 
     public void writeBytes(byte[] b, int off, int len) {
@@ -317,6 +495,61 @@ public final class SparrowhawkSerializer {
         }
     }
 
+    public void writeByteList(byte[] list, int sz) {
+        writeVarUL(encodeVarintListLength(sz));
+        for (int i = 0; i < sz; i++) {
+            writeVarI(list[i]);
+        }
+    }
+
+    public void writeShortList(short[] list, int sz) {
+        writeVarUL(encodeVarintListLength(sz));
+        for (int i = 0; i < sz; i++) {
+            writeVarI(list[i]);
+        }
+    }
+
+    public void writeIntegerList(int[] list, int sz) {
+        writeVarUL(encodeVarintListLength(sz));
+        for (int i = 0; i < sz; i++) {
+            writeVarI(list[i]);
+        }
+    }
+
+    public void writeLongList(long[] list, int sz) {
+        writeVarUL(encodeVarintListLength(sz));
+        for (int i = 0; i < sz; i++) {
+            writeVarL(list[i]);
+        }
+    }
+
+    public void writeBooleanList(boolean[] list, int sz) {
+        writeVarUL(encodeVarintListLength(sz));
+        for (int i = 0; i < sz; i++) {
+            writeBool(list[i]);
+        }
+    }
+
+    public void writeFloatList(float[] list, int sz) {
+        writeVarUL(encodeFourBListLength(sz));
+        byte[] payload = this.payload;
+        int pos = position;
+        for (int i = 0; i < sz; i++, pos += 4) {
+            INTS.set(payload, pos, Float.floatToIntBits(list[i]));
+        }
+        position = pos;
+    }
+
+    public void writeDoubleList(double[] list, int sz) {
+        writeVarUL(encodeEightBListLength(sz));
+        byte[] payload = this.payload;
+        int pos = position;
+        for (int i = 0; i < sz; i++, pos += 8) {
+            LONGS.set(payload, pos, Double.doubleToLongBits(list[i]));
+        }
+        position = pos;
+    }
+
     private static final int I_1B = (~0 << 7);
     private static final int I_2B = (~0 << 14);
     private static final int I_3B = (~0 << 21);
@@ -386,6 +619,44 @@ public final class SparrowhawkSerializer {
         return size + ulongSize(encodeLenPrefixedListLength(elements));
     }
 
+    /**
+     * Returns the number of bytes in the UTF-8 encoding of {@code s} without encoding it.
+     */
+    public static int utf8Length(String s) {
+        int len = s.length();
+        int n = len;
+        for (int i = 0; i < len; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                continue;
+            }
+            if (c < 0x800) {
+                n += 1;
+            } else if (Character.isSurrogate(c)) {
+                // a valid pair takes four bytes; an unpaired surrogate is replaced by a single '?'
+                if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    n += 2;
+                    i++;
+                }
+            } else {
+                n += 2;
+            }
+        }
+        return n;
+    }
+
+    public static int stringEncodedSize(String s) {
+        return byteListLengthEncodedSize(utf8Length(s));
+    }
+
+    /**
+     * Returns the size of a map's field set and key list count, to which the encoded keys and the value list
+     * are added.
+     */
+    static int mapHeaderSize(int entries) {
+        return ulongSize(MAP_FIELDSET) + ulongSize(encodeLenPrefixedListLength(entries));
+    }
+
     public static int byteListLengthEncodedSize(ByteBuffer buf) {
         return byteListLengthEncodedSize(buf.remaining());
     }
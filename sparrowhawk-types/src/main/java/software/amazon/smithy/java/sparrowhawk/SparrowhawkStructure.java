@@ -5,7 +5,12 @@
 
 package software.amazon.smithy.java.sparrowhawk;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Flow;
+import java.util.function.Function;
 
 public interface SparrowhawkStructure<T> extends SparrowhawkObject {
     Class<? extends T> getConvertedType();
@@ -17,4 +22,33 @@ public interface SparrowhawkStructure<T> extends SparrowhawkObject {
     default T convertTo(Flow.Publisher<?> publisher) {
         throw new UnsupportedOperationException();
     }
+
+    /**
+     * Converts each element of a list for a generated conversion, returning null for a null list.
+     */
+    static <S, R> List<R> convertList(List<? extends S> list, Function<? super S, ? extends R> convert) {
+        if (list == null) {
+            return null;
+        }
+        int len = list.size();
+        List<R> converted = new ArrayList<>(len);
+        for (int i = 0; i < len; i++) {
+            converted.add(convert.apply(list.get(i)));
+        }
+        return converted;
+    }
+
+    /**
+     * Converts each value of a map for a generated conversion, returning null for a null map.
+     */
+    static <S, R> Map<String, R> convertMap(Map<String, ? extends S> map, Function<? super S, ? extends R> convert) {
+        if (map == null) {
+            return null;
+        }
+        Map<String, R> converted = new HashMap<>(map.size() / 3 * 4);
+        for (Map.Entry<String, ? extends S> e : map.entrySet()) {
+            converted.put(e.getKey(), convert.apply(e.getValue()));
+        }
+        return converted;
+    }
 }
@@ -6,27 +6,36 @@
 package software.amazon.smithy.java.sparrowhawk;
 
 import static software.amazon.smithy.java.sparrowhawk.KConstants.decodeLenPrefixedListLengthChecked;
+import static software.amazon.smithy.java.sparrowhawk.KConstants.encodeByteListLength;
 import static software.amazon.smithy.java.sparrowhawk.KConstants.encodeLenPrefixedListLength;
+import static software.amazon.smithy.java.sparrowhawk.SparrowhawkDeserializer.varintLength;
 import static software.amazon.smithy.java.sparrowhawk.SparrowhawkSerializer.byteListLengthEncodedSize;
+import static software.amazon.smithy.java.sparrowhawk.SparrowhawkSerializer.ulongSize;
+import static software.amazon.smithy.java.sparrowhawk.SparrowhawkSerializer.utf8Length;
 
-import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.RandomAccess;
 
+/**
+ * A list of nullable strings stored as their encoded form in a single array.
+ *
+ * <p>Each element is encoded as an {@link OptionalBlob}. Element {@code i} lies in {@code data} between
+ * {@code offsets[i]} and {@code offsets[i + 1]}, and a set bit in {@code nulls} marks an empty element.
+ */
 public final class SparseStringList implements SparrowhawkObject {
-    private static final OptionalBlob EMPTY_BLOB = new OptionalBlob();
-    private static final OptionalBlob[] EMPTY = new OptionalBlob[0];
-    private static final SparseStringList EMPTY_LIST;
-
-    static {
-        EMPTY_LIST = new SparseStringList();
-        EMPTY_LIST.size = 0;
-        EMPTY_LIST.values = EMPTY;
-    }
+    // list fieldSet 0 index 1 of OptionalBlob
+    private static final long FIELD_ITEM = 0x8L;
+    private static final byte[] EMPTY_DATA = new byte[0];
+    private static final int[] EMPTY_OFFSETS = {0};
+    private static final long[] EMPTY_NULLS = new long[0];
+    private static final SparseStringList EMPTY_LIST = new SparseStringList();
 
-    private int size;
-    private OptionalBlob[] values;
+    private byte[] data = EMPTY_DATA;
+    private int[] offsets = EMPTY_OFFSETS;
+    private long[] nulls = EMPTY_NULLS;
 
     public static SparseStringList fromList(List<String> strings) {
         int len = strings.size();
@@ -35,87 +44,194 @@ public final class SparseStringList implements SparrowhawkObject {
         }
 
         SparseStringList list = new SparseStringList();
-        OptionalBlob[] values = new OptionalBlob[len];
-        list.values = values;
-        list.size = encodeValues(strings, values);
+        int size = sizeOf(strings);
+        byte[] data = new byte[size];
+        int[] offsets = new int[len + 1];
+        long[] nulls = new long[(len + 63) >>> 6];
+        SparrowhawkSerializer s = new SparrowhawkSerializer(data);
+        for (int i = 0; i < len; i++) {
+            offsets[i] = s.position();
+            String str = strings.get(i);
+            if (str == null) {
+                nulls[i >>> 6] |= 1L << i;
+            }
+            writeElement(str, s);
+        }
+        offsets[len] = size;
+        list.data = data;
+        list.offsets = offsets;
+        list.nulls = nulls;
         return list;
     }
 
-    private static int encodeValues(List<String> strings, OptionalBlob[] values) {
-        if (values.length == 0) return 0;
+    /**
+     * Returns the encoded size of {@code strings} as a SparseStringList, excluding the element count.
+     */
+    public static int sizeOf(List<String> strings) {
         int size = 0;
-        for (int i = 0; i < strings.size(); i++) {
+        for (int i = 0, len = strings.size(); i < len; i++) {
             String s = strings.get(i);
-            if (s != null) {
-                OptionalBlob blob = new OptionalBlob();
-                byte[] bytes = strings.get(i).getBytes(StandardCharsets.UTF_8);
-                blob.setItem(ByteBuffer.wrap(bytes));
-                values[i] = blob;
-                size += byteListLengthEncodedSize(blob.size());
-            } else {
-                values[i] = EMPTY_BLOB;
-                size += 1;
-            }
+            size += s == null ? 1 : byteListLengthEncodedSize(blobSize(utf8Length(s)));
         }
         return size;
     }
 
+    /**
+     * Encodes {@code strings} exactly as a SparseStringList built from them, writing each string straight into
+     * {@code s}.
+     */
+    public static void encode(List<String> strings, SparrowhawkSerializer s) {
+        int len = strings.size();
+        s.writeVarUL(encodeLenPrefixedListLength(len));
+        for (int i = 0; i < len; i++) {
+            writeElement(strings.get(i), s);
+        }
+    }
+
+    private static void writeElement(String str, SparrowhawkSerializer s) {
+        if (str == null) {
+            s.writeVarUL(encodeByteListLength(0));
+        } else {
+            s.writeVarUL(encodeByteListLength(blobSize(utf8Length(str))));
+            s.writeVarUL(FIELD_ITEM);
+            s.writeString(str);
+        }
+    }
+
+    private static int blobSize(int len) {
+        return ulongSize(FIELD_ITEM) + byteListLengthEncodedSize(len);
+    }
+
     public List<String> toList() {
-        List<String> l = new ArrayList<>(values.length);
-        for (OptionalBlob value : values) {
-            if (value.hasItem()) {
-                l.add(string(value.getItem()));
-            } else {
-                l.add(null);
-            }
+        int count = elementCount();
+        List<String> l = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            l.add(get(i));
         }
         return l;
     }
 
-    private static String string(ByteBuffer b) {
-        return new String(b.array(), b.arrayOffset() + b.position(), b.remaining(), StandardCharsets.UTF_8);
+    /**
+     * Returns a read-only view of this list that decodes each string as it is accessed.
+     */
+    public List<String> asList() {
+        return new View();
+    }
+
+    public String get(int i) {
+        if (isNull(i)) {
+            return null;
+        }
+        int pos = itemStart(i);
+        return new String(data, pos, offsets[i + 1] - pos, StandardCharsets.UTF_8);
+    }
+
+    private boolean isNull(int i) {
+        return (nulls[i >>> 6] & (1L << i)) != 0;
+    }
+
+    // skips the blob's length prefix, its field set, and the item's length prefix
+    private int itemStart(int i) {
+        int pos = offsets[i];
+        pos += varintLength(data[pos]);
+        pos += varintLength(data[pos]);
+        return pos + varintLength(data[pos]);
     }
 
     public int elementCount() {
-        return values.length;
+        return offsets.length - 1;
     }
 
     @Override
     public void decodeFrom(SparrowhawkDeserializer d) {
         int count = decodeLenPrefixedListLengthChecked(d.varUL());
         if (count <= 0) {
-            values = EMPTY;
-            size = 0;
+            data = EMPTY_DATA;
+            offsets = EMPTY_OFFSETS;
+            nulls = EMPTY_NULLS;
             return;
         }
 
-        values = new OptionalBlob[count];
+        // elements stay in the bytes the deserializer retains; only their boundaries are recorded
+        int[] offsets = new int[count + 1];
+        long[] nulls = new long[(count + 63) >>> 6];
         for (int i = 0; i < count; i++) {
-            OptionalBlob blob = new OptionalBlob();
-            blob.decodeFrom(d);
-            values[i] = blob;
+            offsets[i] = d.pos();
+            int blobSize = KConstants.decodeByteListLengthChecked(d.varUL());
+            if (blobSize == 0) {
+                nulls[i >>> 6] |= 1L << i;
+                continue;
+            }
+            int blobEnd = d.pos() + blobSize;
+            long fieldSet = d.varUL();
+            if (fieldSet != FIELD_ITEM) {
+                throw new RuntimeException("unexpected optional string field set: " + fieldSet);
+            }
+            d.skipBytes();
+            if (d.pos() != blobEnd) {
+                throw new RuntimeException("malformed optional string at element " + i);
+            }
         }
+        offsets[count] = d.pos();
+        this.data = d.retained();
+        for (int i = 0; i <= count; i++) {
+            offsets[i] = d.retainedPos(offsets[i]);
+        }
+        this.offsets = offsets;
+        this.nulls = nulls;
     }
 
     @Override
     public void encodeTo(SparrowhawkSerializer s) {
-        int count = values.length;
+        int count = elementCount();
         s.writeVarUL(encodeLenPrefixedListLength(count));
+        if (!s.isCanonical()) {
+            s.writeEncodedObject(data, offsets[0], size());
+            return;
+        }
+        // decoded length prefixes and field sets may be longer than needed, so canonical encoding rewrites them
         for (int i = 0; i < count; i++) {
-            values[i].encodeTo(s);
+            if (isNull(i)) {
+                s.writeVarUL(encodeByteListLength(0));
+            } else {
+                int start = itemStart(i);
+                int len = offsets[i + 1] - start;
+                s.writeVarUL(encodeByteListLength(blobSize(len)));
+                s.writeVarUL(FIELD_ITEM);
+                s.writeBytes(data, start, len);
+            }
         }
     }
 
     @Override
     public int size() {
-        int size = this.size;
-        if (size >= 0) {
-            return size;
-        }
-        for (OptionalBlob blob : values) {
-            size += byteListLengthEncodedSize(blob.size());
+        return offsets[offsets.length - 1] - offsets[0];
+    }
+
+    /**
+     * Returns the size of the canonical encoding, in which every element has the shortest varints.
+     */
+    @Override
+    public int canonicalSize() {
+        int size = 0;
+        for (int i = 0, count = elementCount(); i < count; i++) {
+            size += isNull(i) ? 1 : byteListLengthEncodedSize(blobSize(offsets[i + 1] - itemStart(i)));
         }
-        this.size = size;
         return size;
     }
+
+    private final class View extends AbstractList<String> implements RandomAccess {
+        @Override
+        public String get(int index) {
+            if (index < 0 || index >= size()) {
+                throw new IndexOutOfBoundsException(index);
+            }
+            return SparseStringList.this.get(index);
+        }
+
+        @Override
+        public int size() {
+            return elementCount();
+        }
+    }
 }
@@ -5,6 +5,8 @@ import static software.amazon.smithy.java.sparrowhawk.KConstants.encodeByteListL
 import static software.amazon.smithy.java.sparrowhawk.KConstants.encodeLenPrefixedListLength;
 import static software.amazon.smithy.java.sparrowhawk.SparrowhawkSerializer.EMPTY_LIST_SIZE_VARINT;
 import static software.amazon.smithy.java.sparrowhawk.SparrowhawkSerializer.byteListLengthEncodedSize;
+import static software.amazon.smithy.java.sparrowhawk.SparrowhawkSerializer.mapHeaderSize;
+import static software.amazon.smithy.java.sparrowhawk.SparrowhawkSerializer.stringEncodedSize;
 import static software.amazon.smithy.java.sparrowhawk.SparrowhawkSerializer.uintSize;
 import static software.amazon.smithy.java.sparrowhawk.SparrowhawkSerializer.ulongSize;
 
@@ -17,27 +19,118 @@ import java.util.function.Supplier;
 @SuppressWarnings("rawtypes,unchecked")
 public final class SparseStructureMap<T extends SparrowhawkObject> implements SparrowhawkObject {
     private static final long REQUIRED_LIST_FIELDSET_0 = KConstants.listField(0b11);
+    // list fieldSet 0 index 1 of OptionalObject
+    private static final long FIELD_ITEM = 0x8L;
     private static final ByteBuffer[] EMPTY_KEYS = new ByteBuffer[0];
     private static final OptionalObject[] EMPTY_VALUES = new OptionalObject[0];
 
-    private ByteBuffer[] keys;
-    private OptionalObject<T>[] values;
+    private ByteBuffer[] keys = EMPTY_KEYS;
+    private OptionalObject<T>[] values = EMPTY_VALUES;
+    private transient KeyIndex keyIndex;
     private final Supplier<T> factory;
 
     public SparseStructureMap(Supplier<T> factory) {
         this.factory = factory;
     }
 
+    /**
+     * Returns the encoded size of {@code m} as a SparseStructureMap, without building one.
+     */
+    public static <T extends SparrowhawkObject> int sizeOf(Map<String, T> m) {
+        int n = m.size();
+        if (n == 0) {
+            return 0;
+        }
+        int size = mapHeaderSize(n) + ulongSize(encodeLenPrefixedListLength(n));
+        for (Map.Entry<String, T> e : m.entrySet()) {
+            T value = e.getValue();
+            size += stringEncodedSize(e.getKey());
+            size += value == null ? 1 : byteListLengthEncodedSize(itemSize(value.size()));
+        }
+        return size;
+    }
+
+    /**
+     * Encodes {@code m} exactly as a SparseStructureMap built from it, without wrapping each value.
+     * {@code size} is what {@code sizeOf(m)} returned, so the map is not measured twice, or to a canonical
+     * serializer what {@link #canonicalSizeOf} returned.
+     */
+    public static <T extends SparrowhawkObject> void encode(Map<String, T> m, int size, SparrowhawkSerializer s) {
+        Iterable<Map.Entry<String, T>> entries = s.entries(m);
+        if (s.writeMapKeys(entries, m.size(), size)) {
+            s.writeVarUL(encodeLenPrefixedListLength(m.size()));
+            for (Map.Entry<String, T> e : entries) {
+                T value = e.getValue();
+                if (value == null) {
+                    s.writeRawByte((byte) 1); // list length of zero, indicating an empty OptionalObject
+                } else {
+                    int valueSize = s.isCanonical() ? value.canonicalSize() : value.size();
+                    s.writeVarUL(encodeByteListLength(itemSize(valueSize)));
+                    s.writeVarUL(FIELD_ITEM);
+                    value.encodeTo(s);
+                }
+            }
+        }
+    }
+
+    // the encoded size of an OptionalObject holding a value of the given size
+    private static int itemSize(int valueSize) {
+        return ulongSize(FIELD_ITEM) + byteListLengthEncodedSize(valueSize);
+    }
+
     public Map<String, T> toMap() {
         int sz = keys.length;
         OptionalObject<T>[] values = this.values;
         Map<String, T> m = new HashMap<>(sz / 3 * 4);
         for (int i = 0; i < sz; i++) {
-            m.put(string(keys[i]), values[i].getItem());
+            m.put(string(keys[i]), valueAt(i));
         }
         return m;
     }
 
+    public T get(String key) {
+        int i = index().find(key);
+        return i < 0 ? null : valueAt(i);
+    }
+
+    /**
+     * Looks up a value by the UTF-8 bytes of its key. Only the matched value is decoded.
+     */
+    public T get(byte[] key) {
+        int i = index().find(key, 0, key.length);
+        return i < 0 ? null : valueAt(i);
+    }
+
+    public boolean containsKey(String key) {
+        return index().find(key) >= 0;
+    }
+
+    /**
+     * Decodes every value, and builds the key index, so lookups no longer write to this map.
+     */
+    @Override
+    public void decodeAll() {
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != null) {
+                values[i].decodeAll();
+            }
+        }
+        index();
+    }
+
+    private KeyIndex index() {
+        KeyIndex index = this.keyIndex;
+        if (index == null) {
+            this.keyIndex = index = new KeyIndex(keys);
+        }
+        return index;
+    }
+
+    private T valueAt(int i) {
+        OptionalObject<T> value = values[i];
+        return value == null ? null : value.getItem();
+    }
+
 
     private static String string(ByteBuffer b) {
         return new String(b.array(), b.arrayOffset() + b.position(), b.remaining(), StandardCharsets.UTF_8);
@@ -45,6 +138,7 @@ public final class SparseStructureMap<T extends SparrowhawkObject> implements Sp
 
     public void fromMap(Map<String, T> map) {
         int len = map.size();
+        keyIndex = null;
         if (len == 0) {
             keys = EMPTY_KEYS;
             values = EMPTY_VALUES;
@@ -79,7 +173,8 @@ public final class SparseStructureMap<T extends SparrowhawkObject> implements Sp
     @Override
     public void decodeFrom(SparrowhawkDeserializer d) {
         int size = (int) decodeElementCount(d.varUI());
-        $size = size;
+        $size = d.isCanonical() ? size : -1;
+        keyIndex = null;
         if (size > 0) {
             long fieldset = d.varUL();
             if ((fieldset & 3) != KConstants.T_LIST) {
@@ -122,22 +217,25 @@ public final class SparseStructureMap<T extends SparrowhawkObject> implements Sp
 
     @Override
     public void encodeTo(SparrowhawkSerializer s) {
-        int size = size();
+        int[] order = s.isCanonical() ? CanonicalOrder.sortedOrder(keys) : null;
+        int size = s.isCanonical() ? canonicalSize(order) : size();
         if (size > 0) {
             s.writeVarUL(encodeByteListLength(size));
             s.writeVarUL(REQUIRED_LIST_FIELDSET_0);
-            long dl = encodeLenPrefixedListLength(keys.length);
+            int n = CanonicalOrder.count(order, keys.length);
+            long dl = encodeLenPrefixedListLength(n);
             s.writeVarUL(dl);
-            for (int i = 0; i < keys.length; i++) {
-                s.writeBytes(keys[i]);
+            for (int j = 0; j < n; j++) {
+                s.writeBytes(keys[CanonicalOrder.at(order, j)]);
             }
             s.writeVarUL(dl);
             OptionalObject[] values = this.values;
-            for (int i = 0; i < values.length; i++) {
-                if (values[i] == null) {
+            for (int j = 0; j < n; j++) {
+                OptionalObject value = values[CanonicalOrder.at(order, j)];
+                if (value == null) {
                     s.writeRawByte((byte) 1); // list length of zero, indicating an empty OptionalObject
                 } else {
-                    values[i].encodeTo(s);
+                    value.encodeTo(s);
                 }
             }
         } else {
@@ -145,6 +243,51 @@ public final class SparseStructureMap<T extends SparrowhawkObject> implements Sp
         }
     }
 
+    /**
+     * Returns the size of the canonical encoding, in which values still held encoded are re-encoded rather than
+     * copied and each key is counted once.
+     */
+    @Override
+    public int canonicalSize() {
+        return canonicalSize(CanonicalOrder.sortedOrder(keys));
+    }
+
+    private int canonicalSize(int[] order) {
+        if (keys.length != values.length) {
+            return invalidMap();
+        }
+        int n = CanonicalOrder.count(order, keys.length);
+        if (n == 0) {
+            return 0;
+        }
+        int size = 1 + (2 * ulongSize(encodeLenPrefixedListLength(n)));
+        for (int j = 0; j < n; j++) {
+            int i = CanonicalOrder.at(order, j);
+            OptionalObject value = values[i];
+            size += byteListLengthEncodedSize(keys[i].remaining());
+            size += value == null ? 1 : byteListLengthEncodedSize(value.canonicalSize());
+        }
+        return size;
+    }
+
+    /**
+     * Returns the size of the canonical encoding of {@code m} as a SparseStructureMap, for encoding it directly to a
+     * canonical serializer.
+     */
+    public static <T extends SparrowhawkObject> int canonicalSizeOf(Map<String, T> m) {
+        int n = m.size();
+        if (n == 0) {
+            return 0;
+        }
+        int size = mapHeaderSize(n) + ulongSize(encodeLenPrefixedListLength(n));
+        for (Map.Entry<String, T> e : m.entrySet()) {
+            T value = e.getValue();
+            size += stringEncodedSize(e.getKey());
+            size += value == null ? 1 : byteListLengthEncodedSize(itemSize(value.canonicalSize()));
+        }
+        return size;
+    }
+
     private transient int $size;
 
     @Override
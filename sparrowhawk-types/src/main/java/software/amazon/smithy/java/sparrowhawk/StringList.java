@@ -7,24 +7,29 @@ package software.amazon.smithy.java.sparrowhawk;
 
 import static software.amazon.smithy.java.sparrowhawk.KConstants.decodeLenPrefixedListLengthChecked;
 import static software.amazon.smithy.java.sparrowhawk.KConstants.encodeLenPrefixedListLength;
+import static software.amazon.smithy.java.sparrowhawk.SparrowhawkDeserializer.varintLength;
 import static software.amazon.smithy.java.sparrowhawk.SparrowhawkSerializer.byteListLengthEncodedSize;
+import static software.amazon.smithy.java.sparrowhawk.SparrowhawkSerializer.stringEncodedSize;
 
-import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.RandomAccess;
 
+/**
+ * A list of strings stored as their encoded form in a single array.
+ *
+ * <p>Element {@code i} is the length-prefixed byte list in {@code data} between {@code offsets[i]} and
+ * {@code offsets[i + 1]}, so the whole list encodes with one array copy and holds no per-element objects.
+ */
 public final class StringList implements SparrowhawkObject {
-    private static final ByteBuffer[] EMPTY = new ByteBuffer[0];
-    private static final StringList EMPTY_LIST;
-    static {
-        EMPTY_LIST = new StringList();
-        EMPTY_LIST.size = 0;
-        EMPTY_LIST.values = EMPTY;
-    }
+    private static final byte[] EMPTY_DATA = new byte[0];
+    private static final int[] EMPTY_OFFSETS = {0};
+    private static final StringList EMPTY_LIST = new StringList();
 
-    private int size;
-    private ByteBuffer[] values;
+    private byte[] data = EMPTY_DATA;
+    private int[] offsets = EMPTY_OFFSETS;
 
     public static StringList fromList(List<String> strings) {
         int len = strings.size();
@@ -33,79 +38,140 @@ public final class StringList implements SparrowhawkObject {
         }
 
         StringList list = new StringList();
-        ByteBuffer[] values = new ByteBuffer[len];
-        list.values = values;
-        list.size = encodeValues(strings, values);
+        int size = sizeOf(strings);
+        byte[] data = new byte[size];
+        int[] offsets = new int[len + 1];
+        SparrowhawkSerializer s = new SparrowhawkSerializer(data);
+        for (int i = 0; i < len; i++) {
+            offsets[i] = s.position();
+            s.writeString(strings.get(i));
+        }
+        offsets[len] = size;
+        list.data = data;
+        list.offsets = offsets;
         return list;
     }
 
-    private static int encodeValues(List<String> strings, ByteBuffer[] values) {
-        if (values.length == 0) return 0;
+    /**
+     * Returns the encoded size of {@code strings} as a StringList, excluding the element count.
+     */
+    public static int sizeOf(List<String> strings) {
         int size = 0;
-        for (int i = 0; i < strings.size(); i++) {
-            byte[] bytes = strings.get(i).getBytes(StandardCharsets.UTF_8);
-            values[i] = ByteBuffer.wrap(bytes);
-            size += byteListLengthEncodedSize(bytes.length);
+        for (int i = 0, len = strings.size(); i < len; i++) {
+            size += stringEncodedSize(strings.get(i));
         }
         return size;
     }
 
+    /**
+     * Encodes {@code strings} exactly as a StringList built from them, writing each string straight into
+     * {@code s}.
+     */
+    public static void encode(List<String> strings, SparrowhawkSerializer s) {
+        int len = strings.size();
+        s.writeVarUL(encodeLenPrefixedListLength(len));
+        for (int i = 0; i < len; i++) {
+            s.writeString(strings.get(i));
+        }
+    }
+
     public List<String> toList() {
-        List<String> l = new ArrayList<>(values.length);
-        for (ByteBuffer value : values) {
-            l.add(string(value));
+        int count = elementCount();
+        List<String> l = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            l.add(get(i));
         }
         return l;
     }
 
-    private static String string(ByteBuffer b) {
-        return new String(b.array(), b.arrayOffset() + b.position(), b.remaining(), StandardCharsets.UTF_8);
+    /**
+     * Returns a read-only view of this list that decodes each string as it is accessed.
+     */
+    public List<String> asList() {
+        return new View();
+    }
+
+    public String get(int i) {
+        int start = contentStart(i);
+        return new String(data, start, offsets[i + 1] - start, StandardCharsets.UTF_8);
+    }
+
+    private int contentStart(int i) {
+        int start = offsets[i];
+        return start + varintLength(data[start]);
     }
 
     public int elementCount() {
-        return values.length;
+        return offsets.length - 1;
     }
 
     @Override
     public void decodeFrom(SparrowhawkDeserializer d) {
         int count = decodeLenPrefixedListLengthChecked(d.varUL());
         if (count <= 0) {
-            values = EMPTY;
-            size = 0;
+            data = EMPTY_DATA;
+            offsets = EMPTY_OFFSETS;
             return;
         }
 
-        values = new ByteBuffer[count];
+        // elements stay in the bytes the deserializer retains; only their boundaries are recorded
+        int[] offsets = new int[count + 1];
         for (int i = 0; i < count; i++) {
-            values[i] = d.bytes();
+            offsets[i] = d.pos();
+            d.skipBytes();
         }
+        offsets[count] = d.pos();
+        this.data = d.retained();
+        for (int i = 0; i <= count; i++) {
+            offsets[i] = d.retainedPos(offsets[i]);
+        }
+        this.offsets = offsets;
     }
 
     @Override
     public void encodeTo(SparrowhawkSerializer s) {
-        int count = values.length;
+        int count = elementCount();
         s.writeVarUL(encodeLenPrefixedListLength(count));
+        if (!s.isCanonical()) {
+            s.writeEncodedObject(data, offsets[0], size());
+            return;
+        }
+        // decoded length prefixes may be longer than needed, so canonical encoding rewrites them
         for (int i = 0; i < count; i++) {
-            s.writeBytes(values[i]);
+            int start = contentStart(i);
+            s.writeBytes(data, start, offsets[i + 1] - start);
         }
     }
 
     @Override
     public int size() {
-        int size = this.size;
-        if (size >= 0) {
-            return size;
+        return offsets[offsets.length - 1] - offsets[0];
+    }
+
+    /**
+     * Returns the size of the canonical encoding, in which each string has the shortest length prefix.
+     */
+    @Override
+    public int canonicalSize() {
+        int size = 0;
+        for (int i = 0, count = elementCount(); i < count; i++) {
+            size += byteListLengthEncodedSize(offsets[i + 1] - contentStart(i));
         }
-        if (values.length > 0) {
-            for (ByteBuffer value : values) {
-                int len = value.remaining();
-                size += byteListLengthEncodedSize(len) + len;
+        return size;
+    }
+
+    private final class View extends AbstractList<String> implements RandomAccess {
+        @Override
+        public String get(int index) {
+            if (index < 0 || index >= size()) {
+                throw new IndexOutOfBoundsException(index);
             }
-        } else {
-            size = 0;
+            return StringList.this.get(index);
         }
 
-        this.size = size;
-        return size;
+        @Override
+        public int size() {
+            return elementCount();
+        }
     }
 }
@@ -19,11 +19,13 @@ public final class StringMap implements SparrowhawkObject {
     private static final ByteBuffer[] EMPTY = new ByteBuffer[0];
 
     private transient int $size = -1;
-    private ByteBuffer[] keys;
-    private ByteBuffer[] values;
+    private ByteBuffer[] keys = EMPTY;
+    private ByteBuffer[] values = EMPTY;
+    private transient KeyIndex keyIndex;
 
     public void fromMap(Map<String, String> m) {
         int len = m.size();
+        keyIndex = null;
         if (len == 0) {
             keys = values = EMPTY;
             $size = 0;
@@ -72,6 +74,35 @@ public final class StringMap implements SparrowhawkObject {
         return byteListLengthEncodedSize(key.length) + byteListLengthEncodedSize(value.length);
     }
 
+    /**
+     * Returns the encoded size of {@code m} as a StringMap, counting UTF-8 lengths without encoding anything.
+     */
+    public static int sizeOf(Map<String, String> m) {
+        int n = m.size();
+        if (n == 0) {
+            return 0;
+        }
+        int size = mapHeaderSize(n) + ulongSize(encodeLenPrefixedListLength(n));
+        for (Map.Entry<String, String> e : m.entrySet()) {
+            size += stringEncodedSize(e.getKey()) + stringEncodedSize(e.getValue());
+        }
+        return size;
+    }
+
+    /**
+     * Encodes {@code m} exactly as a StringMap built from it, writing each string straight into {@code s}.
+     * {@code size} is what {@code sizeOf(m)} returned, so the map is not measured twice.
+     */
+    public static void encode(Map<String, String> m, int size, SparrowhawkSerializer s) {
+        Iterable<Map.Entry<String, String>> entries = s.entries(m);
+        if (s.writeMapKeys(entries, m.size(), size)) {
+            s.writeVarUL(encodeLenPrefixedListLength(m.size()));
+            for (Map.Entry<String, String> e : entries) {
+                s.writeString(e.getValue());
+            }
+        }
+    }
+
     public Map<String, String> toMap() {
         int sz = keys.length;
         Map<String, String> m = new HashMap<>(sz / 3 * 4);
@@ -81,14 +112,42 @@ public final class StringMap implements SparrowhawkObject {
         return m;
     }
 
+    public String get(String key) {
+        int i = index().find(key);
+        return i < 0 ? null : string(values[i]);
+    }
+
+    /**
+     * Looks up a value by the UTF-8 bytes of its key.
+     */
+    public String get(byte[] key) {
+        int i = index().find(key, 0, key.length);
+        return i < 0 ? null : string(values[i]);
+    }
+
+    public boolean containsKey(String key) {
+        return index().find(key) >= 0;
+    }
+
+    private KeyIndex index() {
+        KeyIndex index = this.keyIndex;
+        if (index == null) {
+            this.keyIndex = index = new KeyIndex(keys);
+        }
+        return index;
+    }
+
     private static String string(ByteBuffer b) {
         return new String(b.array(), b.arrayOffset() + b.position(), b.remaining(), StandardCharsets.UTF_8);
     }
 
     @Override
     public void decodeFrom(SparrowhawkDeserializer d) {
-        $size = (int) decodeElementCount(d.varUI());
-        if ($size > 0) {
+        int size = (int) decodeElementCount(d.varUI());
+        // only a canonical encoding is sure to use the shortest varints, which re-encoding the entries writes
+        $size = d.isCanonical() ? size : -1;
+        keyIndex = null;
+        if (size > 0) {
             long fieldset = d.varUL();
             if ((fieldset & 3) != KConstants.T_LIST) {
                 throw new RuntimeException("bad field type: " + KConstants.fieldType(fieldset));
@@ -118,22 +177,49 @@ public final class StringMap implements SparrowhawkObject {
 
     @Override
     public void encodeTo(SparrowhawkSerializer s) {
-        int size = size();
+        int[] order = s.isCanonical() ? CanonicalOrder.sortedOrder(keys) : null;
+        int size = s.isCanonical() ? canonicalSize(order) : size();
         s.writeVarUL(encodeByteListLength(size));
         if (size > 0) {
             s.writeVarUL(REQUIRED_LIST_FIELDSET_0);
-            long dl = encodeLenPrefixedListLength(keys.length);
+            int n = CanonicalOrder.count(order, keys.length);
+            long dl = encodeLenPrefixedListLength(n);
             s.writeVarUL(dl);
-            for (int i = 0; i < keys.length; i++) {
-                s.writeBytes(keys[i]);
+            for (int j = 0; j < n; j++) {
+                s.writeBytes(keys[CanonicalOrder.at(order, j)]);
             }
             s.writeVarUL(dl);
-            for (int i = 0; i < values.length; i++) {
-                s.writeBytes(values[i]);
+            for (int j = 0; j < n; j++) {
+                s.writeBytes(values[CanonicalOrder.at(order, j)]);
             }
         }
     }
 
+    /**
+     * Returns the size of the canonical encoding, measured from the keys and values rather than taken from the
+     * input, and counting each key once.
+     */
+    @Override
+    public int canonicalSize() {
+        return canonicalSize(CanonicalOrder.sortedOrder(keys));
+    }
+
+    private int canonicalSize(int[] order) {
+        if (keys.length != values.length) {
+            return invalidMap();
+        }
+        int n = CanonicalOrder.count(order, keys.length);
+        if (n == 0) {
+            return 0;
+        }
+        int size = 1 + (2 * ulongSize(encodeLenPrefixedListLength(n)));
+        for (int j = 0; j < n; j++) {
+            int i = CanonicalOrder.at(order, j);
+            size += byteListLengthEncodedSize(keys[i].remaining()) + byteListLengthEncodedSize(values[i].remaining());
+        }
+        return size;
+    }
+
     @Override
     public int size() {
         int size = this.$size;
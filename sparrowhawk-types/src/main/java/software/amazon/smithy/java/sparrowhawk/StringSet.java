@@ -0,0 +1,215 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package software.amazon.smithy.java.sparrowhawk;
+
+import static software.amazon.smithy.java.sparrowhawk.KConstants.decodeLenPrefixedListLengthChecked;
+import static software.amazon.smithy.java.sparrowhawk.KConstants.encodeLenPrefixedListLength;
+import static software.amazon.smithy.java.sparrowhawk.SparrowhawkDeserializer.varintLength;
+import static software.amazon.smithy.java.sparrowhawk.SparrowhawkSerializer.byteListLengthEncodedSize;
+import static software.amazon.smithy.java.sparrowhawk.SparrowhawkSerializer.lenPrefixedListLengthEncodedSize;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A list of unique strings stored as their encoded form in a single array, with a hash index for membership checks.
+ *
+ * <p>The layout matches {@link StringList}. The index is the {@link KeyIndex} maps use for their keys, over the
+ * encoded UTF-8 bytes, so {@link #contains(String)} never decodes an element. It is built when the set is decoded,
+ * which is also where duplicate elements are rejected.
+ */
+public final class StringSet implements SparrowhawkObject {
+    private static final byte[] EMPTY_DATA = new byte[0];
+    private static final int[] EMPTY_OFFSETS = {0};
+    private static final KeyIndex EMPTY_INDEX = new KeyIndex(new ByteBuffer[0]);
+
+    private byte[] data = EMPTY_DATA;
+    private int[] offsets = EMPTY_OFFSETS;
+    private KeyIndex index = EMPTY_INDEX;
+
+    public static StringSet fromSet(Set<String> strings) {
+        StringSet set = new StringSet();
+        int len = strings.size();
+        if (len == 0) {
+            return set;
+        }
+
+        int size = 0;
+        for (String s : strings) {
+            size += SparrowhawkSerializer.stringEncodedSize(s);
+        }
+        byte[] data = new byte[size];
+        int[] offsets = new int[len + 1];
+        SparrowhawkSerializer s = new SparrowhawkSerializer(data);
+        int i = 0;
+        for (String str : strings) {
+            offsets[i++] = s.position();
+            s.writeString(str);
+        }
+        offsets[len] = size;
+        set.data = data;
+        set.offsets = offsets;
+        set.buildIndex();
+        return set;
+    }
+
+    public boolean contains(String s) {
+        return index.find(s) >= 0;
+    }
+
+    /**
+     * Checks membership by the UTF-8 bytes of a string.
+     */
+    public boolean contains(byte[] utf8) {
+        return index.find(utf8, 0, utf8.length) >= 0;
+    }
+
+    public String get(int i) {
+        int start = contentStart(i);
+        return new String(data, start, offsets[i + 1] - start, StandardCharsets.UTF_8);
+    }
+
+    public int elementCount() {
+        return offsets.length - 1;
+    }
+
+    public Set<String> toSet() {
+        int count = elementCount();
+        Set<String> s = new LinkedHashSet<>(count / 3 * 4 + 1);
+        for (int i = 0; i < count; i++) {
+            s.add(get(i));
+        }
+        return s;
+    }
+
+    /**
+     * Returns a read-only view of this set that decodes each string as it is iterated and answers
+     * {@code contains} from the index.
+     */
+    public Set<String> asSet() {
+        return new View();
+    }
+
+    private int contentStart(int i) {
+        int start = offsets[i];
+        return start + varintLength(data[start]);
+    }
+
+    private void buildIndex() {
+        int count = elementCount();
+        ByteBuffer[] keys = new ByteBuffer[count];
+        for (int i = 0; i < count; i++) {
+            int start = contentStart(i);
+            keys[i] = ByteBuffer.wrap(data, start, offsets[i + 1] - start);
+        }
+        KeyIndex index = new KeyIndex(keys);
+        if (index.duplicate >= 0) {
+            int i = index.duplicate;
+            throw new RuntimeException("duplicate set element at index " + i + ": " + get(i));
+        }
+        this.index = index;
+    }
+
+    @Override
+    public void decodeFrom(SparrowhawkDeserializer d) {
+        int count = decodeLenPrefixedListLengthChecked(d.varUL());
+        if (count <= 0) {
+            data = EMPTY_DATA;
+            offsets = EMPTY_OFFSETS;
+            index = EMPTY_INDEX;
+            return;
+        }
+
+        // elements stay in the bytes the deserializer retains; only their boundaries are recorded
+        int[] offsets = new int[count + 1];
+        for (int i = 0; i < count; i++) {
+            offsets[i] = d.pos();
+            d.skipBytes();
+        }
+        offsets[count] = d.pos();
+        this.data = d.retained();
+        for (int i = 0; i <= count; i++) {
+            offsets[i] = d.retainedPos(offsets[i]);
+        }
+        this.offsets = offsets;
+        buildIndex();
+    }
+
+    @Override
+    public void encodeTo(SparrowhawkSerializer s) {
+        int count = elementCount();
+        s.writeVarUL(encodeLenPrefixedListLength(count));
+        if (!s.isCanonical()) {
+            s.writeEncodedObject(data, offsets[0], offsets[count] - offsets[0]);
+            return;
+        }
+        // decoded length prefixes may be longer than needed, so canonical encoding rewrites them
+        for (int i = 0; i < count; i++) {
+            int start = contentStart(i);
+            s.writeBytes(data, start, offsets[i + 1] - start);
+        }
+    }
+
+    /**
+     * Returns the encoded size of the set, including its element count, like the other sets.
+     */
+    @Override
+    public int size() {
+        int count = elementCount();
+        return lenPrefixedListLengthEncodedSize(offsets[count] - offsets[0], count);
+    }
+
+    /**
+     * Returns the size of the canonical encoding, including its element count, in which each string has the
+     * shortest length prefix.
+     */
+    @Override
+    public int canonicalSize() {
+        int count = elementCount();
+        int size = 0;
+        for (int i = 0; i < count; i++) {
+            size += byteListLengthEncodedSize(offsets[i + 1] - contentStart(i));
+        }
+        return lenPrefixedListLengthEncodedSize(size, count);
+    }
+
+    private final class View extends AbstractSet<String> {
+        @Override
+        public boolean contains(Object o) {
+            return o instanceof String s && StringSet.this.contains(s);
+        }
+
+        @Override
+        public Iterator<String> iterator() {
+            return new Iterator<>() {
+                private int i;
+
+                @Override
+                public boolean hasNext() {
+                    return i < elementCount();
+                }
+
+                @Override
+                public String next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    return get(i++);
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return elementCount();
+        }
+    }
+}
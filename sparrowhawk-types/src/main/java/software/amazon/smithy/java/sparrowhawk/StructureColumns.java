@@ -0,0 +1,223 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package software.amazon.smithy.java.sparrowhawk;
+
+import static software.amazon.smithy.java.sparrowhawk.KConstants.*;
+
+import java.util.Arrays;
+
+/**
+ * Decodes a list of structures into one primitive array per selected member, skipping every other member.
+ *
+ * <p>A field set with no selected member is skipped as a whole, and once every field set holding a selected member
+ * has been read the rest of the structure is jumped over. Only the selected columns are allocated; they are reused
+ * by the next decode when they are big enough, so entries past {@link #rows()} are left over from earlier lists.
+ * Optional members also get a bitmap of the rows they are present in.
+ */
+public final class StructureColumns {
+    public static final int INT = 0;
+    public static final int LONG = 1;
+    public static final int BOOLEAN = 2;
+    public static final int FLOAT = 3;
+    public static final int DOUBLE = 4;
+
+    private static final int[] NO_COLUMNS = new int[0];
+
+    // per column
+    private int[] kinds = NO_COLUMNS;
+    private boolean[] optional = new boolean[0];
+    private int[][] ints = new int[0][];
+    private long[][] longs = new long[0][];
+    private boolean[][] booleans = new boolean[0][];
+    private float[][] floats = new float[0][];
+    private double[][] doubles = new double[0][];
+    private long[][] presence = new long[0][];
+
+    // per field set with a selected member: its key, (fieldSetIdx << 2) | wire type, and the column of each bit
+    private int[] setKeys = NO_COLUMNS;
+    private int[][] setColumns = new int[0][];
+
+    private int capacity;
+    private int rows;
+
+    /**
+     * Selects member {@code bit} of the field set with the given wire type and index, returning its column. Members
+     * are selected before decoding.
+     */
+    public int select(int wireType, int fieldSetIdx, int bit, int kind, boolean optional) {
+        if (kind < INT || kind > DOUBLE) {
+            throw new IllegalArgumentException("unknown column kind " + kind);
+        }
+        int column = kinds.length;
+        kinds = Arrays.copyOf(kinds, column + 1);
+        kinds[column] = kind;
+        this.optional = Arrays.copyOf(this.optional, column + 1);
+        this.optional[column] = optional;
+        ints = Arrays.copyOf(ints, column + 1);
+        longs = Arrays.copyOf(longs, column + 1);
+        booleans = Arrays.copyOf(booleans, column + 1);
+        floats = Arrays.copyOf(floats, column + 1);
+        doubles = Arrays.copyOf(doubles, column + 1);
+        presence = Arrays.copyOf(presence, column + 1);
+        allocate(column, capacity);
+
+        int key = (fieldSetIdx << 2) | wireType;
+        int set = set(key);
+        if (set < 0) {
+            set = setKeys.length;
+            setKeys = Arrays.copyOf(setKeys, set + 1);
+            setKeys[set] = key;
+            setColumns = Arrays.copyOf(setColumns, set + 1);
+            setColumns[set] = new int[61];
+            Arrays.fill(setColumns[set], -1);
+        }
+        setColumns[set][bit] = column;
+        return column;
+    }
+
+    private int set(int key) {
+        for (int i = 0; i < setKeys.length; i++) {
+            if (setKeys[i] == key) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void allocate(int column, int n) {
+        switch (kinds[column]) {
+            case INT -> ints[column] = new int[n];
+            case LONG -> longs[column] = new long[n];
+            case BOOLEAN -> booleans[column] = new boolean[n];
+            case FLOAT -> floats[column] = new float[n];
+            default -> doubles[column] = new double[n];
+        }
+        if (optional[column]) {
+            presence[column] = new long[(n + 63) >>> 6];
+        }
+    }
+
+    /**
+     * Decodes a list of structures, replacing the rows of the previous decode.
+     */
+    public void decodeFrom(SparrowhawkDeserializer d) {
+        int count = decodeLenPrefixedListLengthChecked(d.varUL());
+        if (count > capacity) {
+            for (int c = 0; c < kinds.length; c++) {
+                allocate(c, count);
+            }
+            capacity = count;
+        } else {
+            for (long[] p : presence) {
+                if (p != null) {
+                    Arrays.fill(p, 0, (count + 63) >>> 6, 0);
+                }
+            }
+        }
+        this.rows = 0;
+        for (int row = 0; row < count; row++) {
+            decodeRow(d, row);
+        }
+        this.rows = count;
+    }
+
+    private void decodeRow(SparrowhawkDeserializer d, int row) {
+        int len = decodeByteListLengthChecked(d.varUL());
+        int end = d.pos() + len;
+        int unread = setKeys.length;
+        while (d.pos() < end) {
+            if (unread == 0) {
+                d.skipTo(end);
+                return;
+            }
+            long fieldSet = d.varUL();
+            int fieldSetIdx = ((fieldSet & 0b100) != 0) ? d.varUI() + 1 : 0;
+            int type = (int) (fieldSet & 3);
+            long members = fieldSet >>> 3;
+            int set = set((fieldSetIdx << 2) | type);
+            if (set < 0) {
+                skipMembers(d, type, members);
+                continue;
+            }
+            unread--;
+            int[] columns = setColumns[set];
+            while (members != 0) {
+                int bit = Long.numberOfTrailingZeros(members);
+                members &= members - 1;
+                int column = columns[bit];
+                if (column < 0) {
+                    d.skipValue(type);
+                } else {
+                    read(d, column, row);
+                }
+            }
+        }
+        if (d.pos() != end) {
+            throw new RuntimeException("structure overruns its length by " + (d.pos() - end) + " bytes");
+        }
+    }
+
+    private static void skipMembers(SparrowhawkDeserializer d, int type, long members) {
+        switch (type) {
+            case T_FOUR -> d.skipTo(d.pos() + Long.bitCount(members) * 4);
+            case T_EIGHT -> d.skipTo(d.pos() + Long.bitCount(members) * 8);
+            default -> {
+                for (int i = Long.bitCount(members); i > 0; i--) {
+                    d.skipValue(type);
+                }
+            }
+        }
+    }
+
+    private void read(SparrowhawkDeserializer d, int column, int row) {
+        switch (kinds[column]) {
+            case INT -> ints[column][row] = d.varI();
+            case LONG -> longs[column][row] = d.varL();
+            case BOOLEAN -> booleans[column][row] = d.bool();
+            case FLOAT -> floats[column][row] = d.f4();
+            default -> doubles[column][row] = d.d8();
+        }
+        long[] p = presence[column];
+        if (p != null) {
+            p[row >>> 6] |= 1L << row;
+        }
+    }
+
+    /**
+     * Returns the number of structures in the last list decoded.
+     */
+    public int rows() {
+        return rows;
+    }
+
+    public int[] ints(int column) {
+        return ints[column];
+    }
+
+    public long[] longs(int column) {
+        return longs[column];
+    }
+
+    public boolean[] booleans(int column) {
+        return booleans[column];
+    }
+
+    public float[] floats(int column) {
+        return floats[column];
+    }
+
+    public double[] doubles(int column) {
+        return doubles[column];
+    }
+
+    /**
+     * Returns whether the member in {@code column} is present in {@code row}. Required members always are.
+     */
+    public boolean isPresent(int column, int row) {
+        long[] p = presence[column];
+        return p == null || (p[row >>> 6] & (1L << row)) != 0;
+    }
+}
@@ -0,0 +1,286 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package software.amazon.smithy.java.sparrowhawk;
+
+import static software.amazon.smithy.java.sparrowhawk.KConstants.decodeLenPrefixedListLengthChecked;
+import static software.amazon.smithy.java.sparrowhawk.KConstants.encodeLenPrefixedListLength;
+import static software.amazon.smithy.java.sparrowhawk.SparrowhawkSerializer.byteListLengthEncodedSize;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * A list of structures that are decoded one at a time as they are accessed.
+ *
+ * <p>Decoding only records where each element lies in the deserializer's buffer. While {@code values[i]} is null,
+ * element {@code i} is the encoded structure in {@code data} between {@code offsets[i]} and {@code offsets[i + 1]},
+ * and encoding copies those bytes through unchanged.
+ */
+@SuppressWarnings("unchecked")
+public final class StructureList<T extends SparrowhawkObject> implements SparrowhawkObject {
+    private static final byte[] EMPTY_DATA = new byte[0];
+    private static final int[] EMPTY_OFFSETS = {0};
+    private static final Object[] EMPTY_VALUES = new Object[0];
+
+    private final Supplier<T> factory;
+    private byte[] data = EMPTY_DATA;
+    private int[] offsets = EMPTY_OFFSETS;
+    // decoded or assigned elements; null entries are still encoded in data
+    private Object[] values = EMPTY_VALUES;
+    private int decoded;
+
+    public StructureList(Supplier<T> factory) {
+        this.factory = factory;
+    }
+
+    public static <T extends SparrowhawkObject> StructureList<T> fromList(List<T> list, Supplier<T> factory) {
+        StructureList<T> l = new StructureList<>(factory);
+        int len = list.size();
+        if (len == 0) {
+            return l;
+        }
+
+        Object[] values = list.toArray();
+        for (int i = 0; i < len; i++) {
+            if (values[i] == null) {
+                throw new NullPointerException("null element at index " + i);
+            }
+        }
+        l.values = values;
+        l.offsets = new int[len + 1];
+        l.decoded = len;
+        return l;
+    }
+
+    /**
+     * Returns the encoded size of a list of values that are sized by {@code size} and written by an encoder rather
+     * than being SparrowhawkObjects, excluding the element count. The size of each value is recorded in
+     * {@code sizes} for {@link #encode(List, SparrowhawkSerializer, NestedSizes, NestedSizes.Encoder)}.
+     */
+    public static <V> int sizeOf(List<V> list, NestedSizes sizes, NestedSizes.Sizer<? super V> size) {
+        int total = 0;
+        for (int i = 0, len = list.size(); i < len; i++) {
+            total += byteListLengthEncodedSize(sizes.record(list.get(i), size));
+        }
+        return total;
+    }
+
+    /**
+     * Encodes a list of values with {@code encoder}, which writes each one with its length prefix, exactly as a
+     * StructureList of the same structures. Each value is written with the size {@code sizeOf} recorded for it.
+     */
+    public static <V> void encode(
+        List<V> list,
+        SparrowhawkSerializer s,
+        NestedSizes sizes,
+        NestedSizes.Encoder<? super V> encoder
+    ) {
+        int len = list.size();
+        s.writeVarUL(encodeLenPrefixedListLength(len));
+        for (int i = 0; i < len; i++) {
+            encoder.encode(list.get(i), sizes.next(), sizes, s);
+        }
+    }
+
+    /**
+     * Converts each structure of a list field, which holds either a StructureList or a list of structures. The
+     * structures of a StructureList are decoded one at a time as they are converted.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T extends SparrowhawkObject, R> List<R> convert(Object field, Function<? super T, ? extends R> f) {
+        if (field instanceof StructureList<?> list) {
+            return SparrowhawkStructure.convertList(((StructureList<T>) list).asList(), f);
+        }
+        return SparrowhawkStructure.convertList((List<T>) field, f);
+    }
+
+    public T get(int i) {
+        Object v = values[i];
+        if (v != null) {
+            return (T) v;
+        }
+        SparrowhawkDeserializer d = new SparrowhawkDeserializer(data, offsets[i], offsets[i + 1]);
+        T obj = factory.get();
+        obj.decodeFrom(d);
+        d.done();
+        values[i] = obj;
+        decoded++;
+        return obj;
+    }
+
+    /**
+     * Replaces element {@code i}, returning the previous element if it was decoded, or null if it was still encoded,
+     * in which case it is dropped without being decoded.
+     */
+    public T set(int i, T value) {
+        if (value == null) {
+            throw new NullPointerException("null element at index " + i);
+        }
+        T previous = (T) values[i];
+        if (previous == null) {
+            decoded++;
+        }
+        values[i] = value;
+        return previous;
+    }
+
+    public int elementCount() {
+        return values.length;
+    }
+
+    @Override
+    public void decodeAll() {
+        for (int i = 0; i < values.length; i++) {
+            get(i).decodeAll();
+        }
+    }
+
+    public List<T> toList() {
+        int count = elementCount();
+        List<T> l = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            l.add(get(i));
+        }
+        return l;
+    }
+
+    /**
+     * Returns a view of this list that decodes each structure as it is accessed. Replacing an element through
+     * the view replaces it in this list and, as {@link List#set} requires, returns the previous element, decoding it
+     * if it was still encoded. {@link #set} replaces an encoded element without decoding it.
+     */
+    public List<T> asList() {
+        return new View();
+    }
+
+    @Override
+    public void decodeFrom(SparrowhawkDeserializer d) {
+        int count = decodeLenPrefixedListLengthChecked(d.varUL());
+        decoded = 0;
+        if (count <= 0) {
+            data = EMPTY_DATA;
+            offsets = EMPTY_OFFSETS;
+            values = EMPTY_VALUES;
+            return;
+        }
+
+        // elements stay in the bytes the deserializer retains; only their boundaries are recorded
+        int[] offsets = new int[count + 1];
+        for (int i = 0; i < count; i++) {
+            offsets[i] = d.pos();
+            d.skipBytes();
+        }
+        offsets[count] = d.pos();
+        this.data = d.retained();
+        for (int i = 0; i <= count; i++) {
+            offsets[i] = d.retainedPos(offsets[i]);
+        }
+        this.offsets = offsets;
+        this.values = new Object[count];
+    }
+
+    @Override
+    public void encodeTo(SparrowhawkSerializer s) {
+        int count = elementCount();
+        s.writeVarUL(encodeLenPrefixedListLength(count));
+        if (s.isCanonical()) {
+            for (int i = 0; i < count; i++) {
+                get(i).encodeTo(s);
+            }
+            return;
+        }
+        if (decoded == 0) {
+            s.writeEncodedObject(data, offsets[0], offsets[count] - offsets[0]);
+            return;
+        }
+
+        Object[] values = this.values;
+        int[] offsets = this.offsets;
+        // runs of untouched elements are copied with a single array copy
+        int runStart = -1;
+        for (int i = 0; i < count; i++) {
+            if (values[i] == null) {
+                if (runStart < 0) {
+                    runStart = i;
+                }
+                continue;
+            }
+            if (runStart >= 0) {
+                s.writeEncodedObject(data, offsets[runStart], offsets[i] - offsets[runStart]);
+                runStart = -1;
+            }
+            ((T) values[i]).encodeTo(s);
+        }
+        if (runStart >= 0) {
+            s.writeEncodedObject(data, offsets[runStart], offsets[count] - offsets[runStart]);
+        }
+    }
+
+    /**
+     * Returns the encoded size of the elements, excluding the list's element count.
+     */
+    @Override
+    public int size() {
+        int count = elementCount();
+        if (decoded == 0) {
+            return offsets[count] - offsets[0];
+        }
+
+        Object[] values = this.values;
+        int size = 0;
+        for (int i = 0; i < count; i++) {
+            Object v = values[i];
+            if (v == null) {
+                size += offsets[i + 1] - offsets[i];
+            } else {
+                size += byteListLengthEncodedSize(((T) v).size());
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Returns the size of the canonical encoding, which decodes the elements still held encoded, since they are
+     * re-encoded rather than copied.
+     */
+    @Override
+    public int canonicalSize() {
+        int size = 0;
+        for (int i = 0, count = elementCount(); i < count; i++) {
+            size += byteListLengthEncodedSize(get(i).canonicalSize());
+        }
+        return size;
+    }
+
+    private final class View extends AbstractList<T> implements RandomAccess {
+        @Override
+        public T get(int index) {
+            if (index < 0 || index >= size()) {
+                throw new IndexOutOfBoundsException(index);
+            }
+            return StructureList.this.get(index);
+        }
+
+        @Override
+        public T set(int index, T element) {
+            if (index < 0 || index >= size()) {
+                throw new IndexOutOfBoundsException(index);
+            }
+            T previous = StructureList.this.get(index);
+            StructureList.this.set(index, element);
+            return previous;
+        }
+
+        @Override
+        public int size() {
+            return elementCount();
+        }
+    }
+}
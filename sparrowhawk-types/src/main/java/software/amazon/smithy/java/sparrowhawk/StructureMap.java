@@ -12,7 +12,9 @@ import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.function.Function;
 import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
 
 @SuppressWarnings("unchecked")
 public final class StructureMap<T extends SparrowhawkObject> implements SparrowhawkObject {
@@ -20,30 +22,211 @@ public final class StructureMap<T extends SparrowhawkObject> implements Sparrowh
     private static final ByteBuffer[] EMPTY_KEYS = new ByteBuffer[0];
     private static final Object[] EMPTY_VALUES = new Object[0];
 
-    private ByteBuffer[] keys;
-    private Object[] values;
+    private ByteBuffer[] keys = EMPTY_KEYS;
+    // decoded values, or the encoded slices of values that haven't been looked at yet
+    private Object[] values = EMPTY_VALUES;
+    private transient KeyIndex keyIndex;
     private final Supplier<T> factory;
 
     public StructureMap(Supplier<T> factory) {
         this.factory = factory;
     }
 
+    /**
+     * Returns the encoded size of {@code m} as a StructureMap, without building one.
+     */
+    public static <T extends SparrowhawkObject> int sizeOf(Map<String, T> m) {
+        int n = m.size();
+        if (n == 0) {
+            return 0;
+        }
+        int size = mapHeaderSize(n) + ulongSize(encodeLenPrefixedListLength(n));
+        for (Map.Entry<String, T> e : m.entrySet()) {
+            size += stringEncodedSize(e.getKey()) + byteListLengthEncodedSize(e.getValue().size());
+        }
+        return size;
+    }
+
+    /**
+     * Returns the size of the canonical encoding of {@code m} as a StructureMap, for encoding it directly to a
+     * canonical serializer.
+     */
+    public static <T extends SparrowhawkObject> int canonicalSizeOf(Map<String, T> m) {
+        return sizeOf(m, SparrowhawkObject::canonicalSize);
+    }
+
+    /**
+     * Encodes {@code m} exactly as a StructureMap built from it, writing keys straight into {@code s}.
+     * {@code size} is what {@code sizeOf(m)} returned, so the map is not measured twice, or to a canonical
+     * serializer what {@link #canonicalSizeOf} returned.
+     */
+    public static <T extends SparrowhawkObject> void encode(Map<String, T> m, int size, SparrowhawkSerializer s) {
+        Iterable<Map.Entry<String, T>> entries = s.entries(m);
+        if (s.writeMapKeys(entries, m.size(), size)) {
+            s.writeVarUL(encodeLenPrefixedListLength(m.size()));
+            for (Map.Entry<String, T> e : entries) {
+                e.getValue().encodeTo(s);
+            }
+        }
+    }
+
+    /**
+     * Returns the encoded size of a map whose values are encoded by {@code size} and an encoder rather than being
+     * SparrowhawkObjects.
+     */
+    public static <V> int sizeOf(Map<String, V> m, ToIntFunction<? super V> size) {
+        int n = m.size();
+        if (n == 0) {
+            return 0;
+        }
+        int total = mapHeaderSize(n) + ulongSize(encodeLenPrefixedListLength(n));
+        for (Map.Entry<String, V> e : m.entrySet()) {
+            total += stringEncodedSize(e.getKey()) + byteListLengthEncodedSize(size.applyAsInt(e.getValue()));
+        }
+        return total;
+    }
+
+    /**
+     * Returns the encoded size of a map whose values are sized by {@code size} and written by an encoder rather than
+     * being SparrowhawkObjects. The size of the map and of each value are recorded in {@code sizes} for
+     * {@link #encode(Map, SparrowhawkSerializer, NestedSizes, NestedSizes.Sizer, NestedSizes.Encoder)}.
+     */
+    public static <V> int sizeOf(Map<String, V> m, NestedSizes sizes, NestedSizes.Sizer<? super V> size) {
+        int slot = sizes.reserve();
+        // where the values' sizes end, for a canonical encoding that writes them in another order
+        int end = sizes.reserve();
+        int n = m.size();
+        int total = 0;
+        if (n != 0) {
+            total = mapHeaderSize(n) + ulongSize(encodeLenPrefixedListLength(n));
+            for (Map.Entry<String, V> e : m.entrySet()) {
+                total += stringEncodedSize(e.getKey()) + byteListLengthEncodedSize(sizes.record(e.getValue(), size));
+            }
+        }
+        sizes.set(slot, total);
+        sizes.set(end, sizes.recorded());
+        return total;
+    }
+
+    /**
+     * Encodes a map whose values are written with their length prefix by {@code encoder}, exactly as a
+     * StructureMap of the same structures, from the sizes {@code sizeOf} recorded. A canonical serializer writes
+     * the values in key order rather than the order they were sized in, so it sizes each one again as it goes.
+     */
+    public static <V> void encode(
+        Map<String, V> m,
+        SparrowhawkSerializer s,
+        NestedSizes sizes,
+        NestedSizes.Sizer<? super V> size,
+        NestedSizes.Encoder<? super V> encoder
+    ) {
+        int total = sizes.next();
+        int end = sizes.next();
+        Iterable<Map.Entry<String, V>> entries = s.entries(m);
+        if (s.writeMapKeys(entries, m.size(), total)) {
+            s.writeVarUL(encodeLenPrefixedListLength(m.size()));
+            if (!s.isCanonical()) {
+                for (Map.Entry<String, V> e : entries) {
+                    encoder.encode(e.getValue(), sizes.next(), sizes, s);
+                }
+                return;
+            }
+            NestedSizes own = new NestedSizes();
+            for (Map.Entry<String, V> e : entries) {
+                own.clear();
+                V value = e.getValue();
+                own.record(value, size);
+                encoder.encode(value, own.next(), own, s);
+            }
+        }
+        sizes.skipTo(end);
+    }
+
     public Map<String, T> toMap() {
         int sz = keys.length;
-        T[] values = (T[]) this.values;
         Map<String, T> m = new HashMap<>(sz / 3 * 4);
         for (int i = 0; i < sz; i++) {
-            m.put(string(keys[i]), values[i]);
+            m.put(string(keys[i]), valueAt(i));
         }
         return m;
     }
 
+    /**
+     * Converts each structure of a map field, which holds either a StructureMap or a map of structures, without
+     * building the intermediate map of structures.
+     */
+    public static <T extends SparrowhawkObject, R> Map<String, R> convert(
+        Object field,
+        Function<? super T, ? extends R> f
+    ) {
+        if (field instanceof StructureMap<?> structures) {
+            StructureMap<T> m = (StructureMap<T>) structures;
+            int sz = m.keys.length;
+            Map<String, R> converted = new HashMap<>(sz / 3 * 4);
+            for (int i = 0; i < sz; i++) {
+                converted.put(string(m.keys[i]), f.apply(m.valueAt(i)));
+            }
+            return converted;
+        }
+        return SparrowhawkStructure.convertMap((Map<String, T>) field, f);
+    }
+
+    public T get(String key) {
+        int i = index().find(key);
+        return i < 0 ? null : valueAt(i);
+    }
+
+    /**
+     * Looks up a value by the UTF-8 bytes of its key. Only the matched value is decoded.
+     */
+    public T get(byte[] key) {
+        int i = index().find(key, 0, key.length);
+        return i < 0 ? null : valueAt(i);
+    }
+
+    public boolean containsKey(String key) {
+        return index().find(key) >= 0;
+    }
+
+    /**
+     * Decodes every value, and builds the key index, so lookups no longer write to this map.
+     */
+    @Override
+    public void decodeAll() {
+        for (int i = 0; i < values.length; i++) {
+            valueAt(i).decodeAll();
+        }
+        index();
+    }
+
+    private KeyIndex index() {
+        KeyIndex index = this.keyIndex;
+        if (index == null) {
+            this.keyIndex = index = new KeyIndex(keys);
+        }
+        return index;
+    }
+
+    private T valueAt(int i) {
+        Object v = values[i];
+        if (v instanceof ByteBuffer b) {
+            SparrowhawkDeserializer d = new SparrowhawkDeserializer(b);
+            T obj = factory.get();
+            obj.decodeFrom(d);
+            d.done();
+            values[i] = obj;
+            return obj;
+        }
+        return (T) v;
+    }
+
     private static String string(ByteBuffer b) {
         return new String(b.array(), b.arrayOffset() + b.position(), b.remaining(), StandardCharsets.UTF_8);
     }
 
     public void fromMap(Map<String, T> map) {
         int len = map.size();
+        keyIndex = null;
         if (len == 0) {
             keys = EMPTY_KEYS;
             values = EMPTY_VALUES;
@@ -53,7 +236,7 @@ public final class StructureMap<T extends SparrowhawkObject> implements Sparrowh
 
         ByteBuffer[] keys = new ByteBuffer[len];
         this.keys = keys;
-        T[] values = (T[]) new SparrowhawkObject[len];
+        Object[] values = new Object[len];
         this.values = values;
         int i = 0;
         int size = 1 + (2 * uintSize(encodeLenPrefixedListLength(len)));
@@ -70,7 +253,8 @@ public final class StructureMap<T extends SparrowhawkObject> implements Sparrowh
     @Override
     public void decodeFrom(SparrowhawkDeserializer d) {
         int size = (int) decodeElementCount(d.varUI());
-        $size = size;
+        $size = d.isCanonical() ? size : -1;
+        keyIndex = null;
         if (size > 0) {
             long fieldset = d.varUL();
             if ((fieldset & 3) != KConstants.T_LIST) {
@@ -88,7 +272,7 @@ public final class StructureMap<T extends SparrowhawkObject> implements Sparrowh
             values = readValues(d, nvalues);
         } else {
             keys = EMPTY_KEYS;
-            values = (T[]) EMPTY_VALUES;
+            values = EMPTY_VALUES;
         }
     }
 
@@ -100,37 +284,71 @@ public final class StructureMap<T extends SparrowhawkObject> implements Sparrowh
         return bs;
     }
 
-    private T[] readValues(SparrowhawkDeserializer d, int n) {
-        T[] values = (T[]) new SparrowhawkObject[n];
+    private static Object[] readValues(SparrowhawkDeserializer d, int n) {
+        Object[] values = new Object[n];
         for (int i = 0; i < values.length; i++) {
-            T obj = factory.get();
-            obj.decodeFrom(d);
-            values[i] = obj;
+            // decoded on first access
+            values[i] = d.object();
         }
         return values;
     }
 
     @Override
     public void encodeTo(SparrowhawkSerializer s) {
-        int size = size();
+        boolean canonical = s.isCanonical();
+        int[] order = canonical ? CanonicalOrder.sortedOrder(keys) : null;
+        int size = canonical ? canonicalSize(order) : size();
         if (size > 0) {
             s.writeVarUL(encodeByteListLength(size));
             s.writeVarUL(REQUIRED_LIST_FIELDSET_0);
-            long dl = encodeLenPrefixedListLength(keys.length);
+            int n = CanonicalOrder.count(order, keys.length);
+            long dl = encodeLenPrefixedListLength(n);
             s.writeVarUL(dl);
-            for (int i = 0; i < keys.length; i++) {
-                s.writeBytes(keys[i]);
+            for (int j = 0; j < n; j++) {
+                s.writeBytes(keys[CanonicalOrder.at(order, j)]);
             }
             s.writeVarUL(dl);
-            T[] values = (T[]) this.values;
-            for (int i = 0; i < values.length; i++) {
-                values[i].encodeTo(s);
+            Object[] values = this.values;
+            for (int j = 0; j < n; j++) {
+                int i = CanonicalOrder.at(order, j);
+                if (values[i] instanceof ByteBuffer b && !canonical) {
+                    // untouched values are copied through without decoding
+                    s.writeEncodedObject(b);
+                } else {
+                    valueAt(i).encodeTo(s);
+                }
             }
         } else {
             s.writeRawByte(EMPTY_LIST_SIZE_VARINT);
         }
     }
 
+    /**
+     * Returns the size of the canonical encoding, which decodes the values still held encoded, since they are
+     * re-encoded rather than copied, and counts each key once.
+     */
+    @Override
+    public int canonicalSize() {
+        return canonicalSize(CanonicalOrder.sortedOrder(keys));
+    }
+
+    private int canonicalSize(int[] order) {
+        if (keys.length != values.length) {
+            return invalidMap();
+        }
+        int n = CanonicalOrder.count(order, keys.length);
+        if (n == 0) {
+            return 0;
+        }
+        int size = 1 + (2 * ulongSize(encodeLenPrefixedListLength(n)));
+        for (int j = 0; j < n; j++) {
+            int i = CanonicalOrder.at(order, j);
+            size += byteListLengthEncodedSize(keys[i].remaining());
+            size += byteListLengthEncodedSize(valueAt(i).canonicalSize());
+        }
+        return size;
+    }
+
     private transient int $size;
 
     @Override
@@ -150,9 +368,13 @@ public final class StructureMap<T extends SparrowhawkObject> implements Sparrowh
             for (int i = 0; i < keys.length; i++) {
                 size += byteListLengthEncodedSize(keys[i].remaining());
             }
-            T[] values = (T[]) this.values;
+            Object[] values = this.values;
             for (int i = 0; i < values.length; i++) {
-                size += byteListLengthEncodedSize(values[i].size());
+                if (values[i] instanceof ByteBuffer b) {
+                    size += b.remaining();
+                } else {
+                    size += byteListLengthEncodedSize(((T) values[i]).size());
+                }
             }
         } else {
             size = 0;
@@ -0,0 +1,286 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package software.amazon.smithy.java.sparrowhawk;
+
+import static software.amazon.smithy.java.sparrowhawk.KConstants.*;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.function.Supplier;
+
+/**
+ * Merges two encodings of the same structure into a third without decoding either of them.
+ *
+ * <p>The field sets of both sides are walked together and every member is copied as raw bytes from the side that
+ * wins: the patch when it has the member, the base otherwise. Members registered with {@link #recurse} hold a nested
+ * structure that is itself merged when both sides have it, rather than taken whole from the patch. Members the
+ * generated class does not model are merged the same way, so unknown fields survive.
+ */
+public final class StructureMerge {
+    // one entry per recursively merged member: its field set key, (fieldSetIdx << 2) | T_LIST, and its bit
+    private int[] keys = new int[0];
+    private int[] bits = new int[0];
+    private Supplier<StructureMerge>[] nested = newNested(0);
+
+    /**
+     * Merges the nested structure in member {@code bit} of list field set {@code fieldSetIdx} with {@code nested}
+     * when both sides have it. The supplier is called lazily, so recursive structures can refer to themselves.
+     */
+    public StructureMerge recurse(int fieldSetIdx, int bit, Supplier<StructureMerge> nested) {
+        int n = keys.length;
+        keys = Arrays.copyOf(keys, n + 1);
+        bits = Arrays.copyOf(bits, n + 1);
+        this.nested = Arrays.copyOf(this.nested, n + 1);
+        keys[n] = (fieldSetIdx << 2) | T_LIST;
+        bits[n] = bit;
+        this.nested[n] = nested;
+        return this;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Supplier<StructureMerge>[] newNested(int n) {
+        return (Supplier<StructureMerge>[]) new Supplier<?>[n];
+    }
+
+    /**
+     * Returns the size of the merged structure, excluding its length prefix, which is what a serializer for
+     * {@link #merge} should be allocated with.
+     */
+    public int size(ByteBuffer base, ByteBuffer patch) {
+        return plan(new Members(new SparrowhawkDeserializer(base)), new Members(new SparrowhawkDeserializer(patch)))
+            .size;
+    }
+
+    /**
+     * Writes the merge of two encoded structures, each starting at its length prefix, to {@code out}.
+     */
+    public void merge(ByteBuffer base, ByteBuffer patch, SparrowhawkSerializer out) {
+        Plan plan = plan(
+            new Members(new SparrowhawkDeserializer(base)),
+            new Members(new SparrowhawkDeserializer(patch))
+        );
+        out.writeVarUL(encodeByteListLength(plan.size));
+        plan.writeTo(out);
+    }
+
+    private StructureMerge nested(int key, int bit) {
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] == key && bits[i] == bit) {
+                return nested[i].get();
+            }
+        }
+        return null;
+    }
+
+    private Plan plan(Members base, Members patch) {
+        Plan plan = new Plan(base.count + patch.count);
+        // field sets are written in the order the base has them, then any the patch adds
+        for (int i = 0; i < base.count; i++) {
+            if (i == 0 || base.keys[i] != base.keys[i - 1]) {
+                planFieldSet(plan, base.keys[i], base, patch);
+            }
+        }
+        for (int i = 0; i < patch.count; i++) {
+            if ((i == 0 || patch.keys[i] != patch.keys[i - 1]) && base.first(patch.keys[i]) < 0) {
+                planFieldSet(plan, patch.keys[i], base, patch);
+            }
+        }
+        return plan;
+    }
+
+    private void planFieldSet(Plan plan, int key, Members base, Members patch) {
+        int b = base.first(key);
+        int p = patch.first(key);
+        long fieldSet = 0;
+        int headerAt = plan.count;
+        // members are in ascending bit order on both sides, so they merge like two sorted runs
+        while (b >= 0 || p >= 0) {
+            int baseBit = b >= 0 ? base.bits[b] : Integer.MAX_VALUE;
+            int patchBit = p >= 0 ? patch.bits[p] : Integer.MAX_VALUE;
+            int bit = Math.min(baseBit, patchBit);
+            fieldSet |= 1L << (bit + 3);
+            if (patchBit == bit) {
+                StructureMerge nested = baseBit == bit ? nested(key, bit) : null;
+                if (nested != null) {
+                    Plan inner = nested.plan(base.nestedAt(b), patch.nestedAt(p));
+                    plan.addNested(inner);
+                } else {
+                    plan.addCopy(patch.buffer, patch.starts[p], patch.ends[p]);
+                }
+            } else {
+                plan.addCopy(base.buffer, base.starts[b], base.ends[b]);
+            }
+            if (baseBit == bit) {
+                b = base.next(b);
+            }
+            if (patchBit == bit) {
+                p = patch.next(p);
+            }
+        }
+        if (fieldSet != 0) {
+            int fieldSetIdx = key >>> 2;
+            fieldSet |= key & 3;
+            if (fieldSetIdx > 0) {
+                fieldSet |= 0b100;
+            }
+            plan.insertHeader(headerAt, fieldSet, fieldSetIdx);
+        }
+    }
+
+    /**
+     * The value spans of every member of one encoded structure, in the order they were encoded.
+     */
+    private static final class Members {
+        final byte[] buffer;
+        int[] keys = new int[8];
+        int[] bits = new int[8];
+        int[] starts = new int[8];
+        int[] ends = new int[8];
+        int count;
+
+        Members(SparrowhawkDeserializer d) {
+            this.buffer = d.buffer();
+            long len = d.varUL();
+            if (!isByteListLength(len)) {
+                throw new RuntimeException("not a structure: " + listType((int) len));
+            }
+            int end = d.pos() + decodeByteListLength(len);
+            while (d.pos() < end) {
+                long fieldSet = d.varUL();
+                int fieldSetIdx = ((fieldSet & 0b100) != 0) ? d.varUI() + 1 : 0;
+                int type = (int) (fieldSet & 3);
+                int key = (fieldSetIdx << 2) | type;
+                long memberBits = fieldSet >>> 3;
+                while (memberBits != 0) {
+                    int bit = Long.numberOfTrailingZeros(memberBits);
+                    memberBits &= memberBits - 1;
+                    int start = d.pos();
+                    d.skipValue(type);
+                    add(key, bit, start, d.pos());
+                }
+            }
+            if (d.pos() != end) {
+                throw new RuntimeException("structure overruns its length by " + (d.pos() - end) + " bytes");
+            }
+        }
+
+        private void add(int key, int bit, int start, int end) {
+            if (count == keys.length) {
+                keys = Arrays.copyOf(keys, count * 2);
+                bits = Arrays.copyOf(bits, count * 2);
+                starts = Arrays.copyOf(starts, count * 2);
+                ends = Arrays.copyOf(ends, count * 2);
+            }
+            keys[count] = key;
+            bits[count] = bit;
+            starts[count] = start;
+            ends[count] = end;
+            count++;
+        }
+
+        int first(int key) {
+            for (int i = 0; i < count; i++) {
+                if (keys[i] == key) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        int next(int i) {
+            return i + 1 < count && keys[i + 1] == keys[i] ? i + 1 : -1;
+        }
+
+        Members nestedAt(int i) {
+            return new Members(new SparrowhawkDeserializer(buffer, starts[i], ends[i]));
+        }
+    }
+
+    /**
+     * What to write for a merged structure: field set headers, spans copied from either side, and nested merges,
+     * in order.
+     */
+    private static final class Plan {
+        // per entry: a header's field set, or the source and span of a copied member, or a nested plan
+        long[] headers;
+        byte[][] sources;
+        int[] starts;
+        int[] ends;
+        Plan[] nested;
+        int count;
+        int size;
+
+        Plan(int capacity) {
+            int n = Math.max(capacity * 2, 4);
+            headers = new long[n];
+            sources = new byte[n][];
+            starts = new int[n];
+            ends = new int[n];
+            nested = new Plan[n];
+        }
+
+        private int append() {
+            if (count == headers.length) {
+                int n = count * 2;
+                headers = Arrays.copyOf(headers, n);
+                sources = Arrays.copyOf(sources, n);
+                starts = Arrays.copyOf(starts, n);
+                ends = Arrays.copyOf(ends, n);
+                nested = Arrays.copyOf(nested, n);
+            }
+            return count++;
+        }
+
+        void addCopy(byte[] source, int start, int end) {
+            int i = append();
+            sources[i] = source;
+            starts[i] = start;
+            ends[i] = end;
+            size += end - start;
+        }
+
+        void addNested(Plan inner) {
+            int i = append();
+            nested[i] = inner;
+            size += SparrowhawkSerializer.byteListLengthEncodedSize(inner.size);
+        }
+
+        void insertHeader(int at, long fieldSet, int fieldSetIdx) {
+            int i = append();
+            int n = i - at;
+            System.arraycopy(headers, at, headers, at + 1, n);
+            System.arraycopy(sources, at, sources, at + 1, n);
+            System.arraycopy(starts, at, starts, at + 1, n);
+            System.arraycopy(ends, at, ends, at + 1, n);
+            System.arraycopy(nested, at, nested, at + 1, n);
+            headers[at] = fieldSet;
+            sources[at] = null;
+            nested[at] = null;
+            // a header keeps its field set index where a copy keeps its start
+            starts[at] = fieldSetIdx;
+            size += SparrowhawkSerializer.ulongSize(fieldSet);
+            if (fieldSetIdx > 0) {
+                size += SparrowhawkSerializer.uintSize(fieldSetIdx - 1);
+            }
+        }
+
+        void writeTo(SparrowhawkSerializer out) {
+            for (int i = 0; i < count; i++) {
+                if (sources[i] != null) {
+                    out.writeEncodedObject(sources[i], starts[i], ends[i] - starts[i]);
+                } else if (nested[i] != null) {
+                    out.writeVarUL(encodeByteListLength(nested[i].size));
+                    nested[i].writeTo(out);
+                } else {
+                    out.writeVarUL(headers[i]);
+                    if (starts[i] > 0) {
+                        out.writeVarUI(starts[i] - 1);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package software.amazon.smithy.java.sparrowhawk;
+
+import java.util.Arrays;
+
+/**
+ * The fields of a decoded structure that its generated class does not model, kept as the bytes they were decoded
+ * from so that they are written back unchanged.
+ *
+ * <p>Unknown members of a field set the class does know are identified by the field set's key,
+ * {@code (fieldSetIdx << 2) | wireType}, and their bit in it, and are written back between the known members in
+ * bit order. Whole field sets the class does not know are written back after the known ones, with their header
+ * re-encoded from its decoded value.
+ */
+public final class UnknownFields {
+    private static final int FIELD_SET = -1;
+
+    private byte[] bytes = new byte[64];
+    private int length;
+    // one entry per span: its field set key, its bit (or FIELD_SET), and its end offset in bytes
+    private int[] keys = new int[4];
+    private int[] bits = new int[4];
+    private int[] ends = new int[4];
+    private int count;
+
+    /**
+     * Records the rest of a field set that is not modelled, whose header has already been read.
+     */
+    public static UnknownFields addFieldSet(
+        UnknownFields u,
+        SparrowhawkDeserializer d,
+        int fieldSetIdx,
+        long fieldSet
+    ) {
+        if (u == null) {
+            u = new UnknownFields();
+        }
+        int headerSize = SparrowhawkSerializer.ulongSize(fieldSet);
+        if (fieldSetIdx > 0) {
+            headerSize += SparrowhawkSerializer.uintSize(fieldSetIdx - 1);
+        }
+        int start = d.pos();
+        int type = (int) (fieldSet & 3);
+        for (int i = Long.bitCount(fieldSet >>> 3); i > 0; i--) {
+            d.skipValue(type);
+        }
+        int len = d.pos() - start;
+        SparrowhawkSerializer s = new SparrowhawkSerializer(u.reserve(headerSize + len));
+        s.setPosition(u.length);
+        s.writeVarUL(fieldSet);
+        if (fieldSetIdx > 0) {
+            s.writeVarUI(fieldSetIdx - 1);
+        }
+        s.writeEncodedObject(d.buffer(), start, len);
+        u.add(key(fieldSetIdx, type), FIELD_SET, s.position());
+        return u;
+    }
+
+    /**
+     * Records an unknown member of a known field set, read from {@code d}.
+     */
+    public static UnknownFields addMember(UnknownFields u, SparrowhawkDeserializer d, int key, int bit) {
+        if (u == null) {
+            u = new UnknownFields();
+        }
+        int start = d.pos();
+        d.skipValue(key & 3);
+        int len = d.pos() - start;
+        System.arraycopy(d.buffer(), start, u.reserve(len), u.length, len);
+        u.add(key, bit, u.length + len);
+        return u;
+    }
+
+    private static int key(int fieldSetIdx, int wireType) {
+        return (fieldSetIdx << 2) | wireType;
+    }
+
+    private byte[] reserve(int len) {
+        if (length + len > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + len));
+        }
+        return bytes;
+    }
+
+    private void add(int key, int bit, int end) {
+        if (count == keys.length) {
+            keys = Arrays.copyOf(keys, count * 2);
+            bits = Arrays.copyOf(bits, count * 2);
+            ends = Arrays.copyOf(ends, count * 2);
+        }
+        keys[count] = key;
+        bits[count] = bit;
+        ends[count] = end;
+        count++;
+        length = end;
+    }
+
+    private int start(int i) {
+        return i == 0 ? 0 : ends[i - 1];
+    }
+
+    /**
+     * Returns the field set bits of the unknown members of the field set {@code key}.
+     */
+    public long bits(int key) {
+        long fieldSet = 0;
+        for (int i = 0; i < count; i++) {
+            if (keys[i] == key && bits[i] != FIELD_SET) {
+                fieldSet |= 1L << (bits[i] + 3);
+            }
+        }
+        return fieldSet;
+    }
+
+    /**
+     * Returns how many bytes the unknown members of the field set {@code key} add to its header, given the bits of
+     * its known members.
+     */
+    public int headerGrowth(int key, long knownFieldSet) {
+        long unknown = bits(key);
+        if (unknown == 0) {
+            return 0;
+        }
+        int fieldSetIdx = key >>> 2;
+        int growth = SparrowhawkSerializer.ulongSize(knownFieldSet | unknown);
+        if ((knownFieldSet >>> 3) != 0) {
+            growth -= SparrowhawkSerializer.ulongSize(knownFieldSet);
+        } else if (fieldSetIdx > 0) {
+            // the field set had no members of its own and was not written at all
+            growth += SparrowhawkSerializer.uintSize(fieldSetIdx - 1);
+        }
+        return growth;
+    }
+
+    /**
+     * Writes the unknown members of the field set {@code key} whose bits are in {@code [fromBit, toBit)}.
+     */
+    public void writeMembers(SparrowhawkSerializer s, int key, int fromBit, int toBit) {
+        for (int i = 0; i < count; i++) {
+            if (keys[i] == key && bits[i] >= fromBit && bits[i] < toBit) {
+                s.writeEncodedObject(bytes, start(i), ends[i] - start(i));
+            }
+        }
+    }
+
+    /**
+     * Writes the field sets that are not modelled.
+     */
+    public void writeFieldSets(SparrowhawkSerializer s) {
+        for (int i = 0; i < count; i++) {
+            if (bits[i] == FIELD_SET) {
+                s.writeEncodedObject(bytes, start(i), ends[i] - start(i));
+            }
+        }
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) return true;
+        if (!(other instanceof UnknownFields)) return false;
+        UnknownFields o = (UnknownFields) other;
+        return count == o.count
+            && Arrays.equals(keys, 0, count, o.keys, 0, count)
+            && Arrays.equals(bits, 0, count, o.bits, 0, count)
+            && Arrays.equals(ends, 0, count, o.ends, 0, count)
+            && Arrays.equals(bytes, 0, length, o.bytes, 0, o.length);
+    }
+
+    @Override
+    public int hashCode() {
+        return SparrowhawkSerializer.hash(bytes, 0, length);
+    }
+
+    /**
+     * Returns the total size of the unknown members and field sets, excluding header growth.
+     */
+    public int size() {
+        return length;
+    }
+}
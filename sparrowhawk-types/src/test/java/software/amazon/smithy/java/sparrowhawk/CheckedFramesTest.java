@@ -0,0 +1,78 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package software.amazon.smithy.java.sparrowhawk;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+
+public class CheckedFramesTest {
+    @Test
+    public void roundtrip() {
+        SparrowhawkCodegenOptionalStruct struct = makeStruct("hello");
+        byte[] frame = CheckedFrames.encode(struct);
+        assertEquals(CheckedFrames.encodedSize(struct), frame.length);
+
+        SparrowhawkCodegenOptionalStruct roundtrip = new SparrowhawkCodegenOptionalStruct();
+        CheckedFrames.decode(frame, roundtrip);
+        assertEquals(struct, roundtrip);
+    }
+
+    @Test
+    public void detectsCorruption() {
+        byte[] frame = CheckedFrames.encode(makeStruct("hello"));
+        for (int i = 1; i < frame.length; i++) {
+            byte[] corrupt = frame.clone();
+            corrupt[i] ^= 0x10;
+            assertThrows(RuntimeException.class, () -> CheckedFrames.verify(corrupt));
+        }
+    }
+
+    @Test
+    public void verifiesStreamedFrames() {
+        List<byte[]> frames = new ArrayList<>();
+        int total = 0;
+        for (int i = 0; i < 100; i++) {
+            byte[] frame = CheckedFrames.encode(makeStruct(Integer.toString(i)));
+            frames.add(frame);
+            total += frame.length;
+        }
+        ByteBuffer stream = ByteBuffer.allocate(total);
+        frames.forEach(stream::put);
+        stream.flip();
+
+        List<String> decoded = new ArrayList<>();
+        Bufferer bufferer = new Bufferer(CheckedFrames.verifying(record -> {
+            SparrowhawkCodegenOptionalStruct struct = new SparrowhawkCodegenOptionalStruct();
+            struct.decodeFrom(new SparrowhawkDeserializer(record));
+            decoded.add(struct.getString());
+        }));
+        while (stream.hasRemaining()) {
+            int chunk = Math.min(7, stream.remaining());
+            ByteBuffer slice = stream.slice();
+            slice.limit(chunk);
+            bufferer.feed(slice);
+            stream.position(stream.position() + chunk);
+        }
+
+        assertEquals(100, decoded.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(Integer.toString(i), decoded.get(i));
+        }
+    }
+
+    private static SparrowhawkCodegenOptionalStruct makeStruct(String s) {
+        SparrowhawkCodegenOptionalStruct struct = new SparrowhawkCodegenOptionalStruct();
+        struct.setString(s);
+        struct.setTimestamp(123.456d);
+        return struct;
+    }
+}
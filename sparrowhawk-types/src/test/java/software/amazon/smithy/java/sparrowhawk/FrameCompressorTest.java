@@ -0,0 +1,115 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package software.amazon.smithy.java.sparrowhawk;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+
+public class FrameCompressorTest {
+
+    @Test
+    public void roundtripsFrames() {
+        List<byte[]> frames = frames(0, 100);
+        FrameCompressor compressor = new FrameCompressor("OptionalStruct");
+        byte[] block = compressor.compress(frames);
+
+        List<byte[]> out = new ArrayList<>();
+        compressor.decompress(block, out::add);
+        assertEquals(frames.size(), out.size());
+        for (int i = 0; i < frames.size(); i++) {
+            assertArrayEquals(frames.get(i), out.get(i));
+        }
+
+        // blocks are byte lists, so they can be split out of a stream like any other frame
+        List<byte[]> split = new ArrayList<>();
+        new Bufferer(split::add).feed(block);
+        assertEquals(1, split.size());
+        assertArrayEquals(block, split.get(0));
+    }
+
+    @Test
+    public void dictionaryImprovesSmallBlocks() {
+        CompressionDictionary dictionary = CompressionDictionary.train(frames(0, 1000));
+        assertTrue(dictionary.size() <= CompressionDictionary.MAX_SIZE);
+
+        FrameCompressor plain = new FrameCompressor("OptionalStruct");
+        FrameCompressor trained = new FrameCompressor("OptionalStruct", dictionary);
+        for (int i = 1000; i < 1100; i += 2) {
+            List<byte[]> frames = frames(i, 2);
+            byte[] block = trained.compress(frames);
+            List<byte[]> out = new ArrayList<>();
+            trained.decompress(block, out::add);
+            assertArrayEquals(frames.get(1), out.get(1));
+            plain.compress(frames);
+        }
+
+        FrameCompressor.Stats stats = trained.stats();
+        assertEquals(50, stats.blocks());
+        assertTrue(stats.compressNanos() > 0);
+        assertTrue(
+            stats.compressionRatio() > plain.stats().compressionRatio(),
+            stats + " vs " + plain.stats()
+        );
+    }
+
+    @Test
+    public void rejectsMismatchedDictionary() {
+        CompressionDictionary dictionary = CompressionDictionary.train(frames(0, 100));
+        byte[] block = new FrameCompressor("OptionalStruct", dictionary).compress(frames(0, 1));
+        assertThrows(RuntimeException.class, () -> new FrameCompressor("OptionalStruct").decompress(block));
+    }
+
+    @Test
+    public void rejectsOversizedUncompressedLengths() {
+        byte[] block = new FrameCompressor("OptionalStruct").compress(frames(0, 100));
+        int uncompressed = new FrameCompressor("OptionalStruct").decompress(block).remaining();
+        FrameCompressor limited = new FrameCompressor(
+            "OptionalStruct",
+            null,
+            DeflaterPool.defaultPool(),
+            uncompressed - 1
+        );
+        assertThrows(RuntimeException.class, () -> limited.decompress(block));
+
+        // a 2 GB length declared by a few bytes of data
+        byte[] data = {1, 2, 3, 4};
+        long contents = 1 + SparrowhawkSerializer.ulongSize(Integer.MAX_VALUE) + data.length;
+        SparrowhawkSerializer s = new SparrowhawkSerializer(
+            new byte[SparrowhawkSerializer.byteListLengthEncodedSize((int) contents)]
+        );
+        s.writeVarUL(KConstants.encodeByteListLength(contents));
+        s.writeVarUL(0);
+        s.writeVarUL(Integer.MAX_VALUE);
+        s.writeRawBytes(data);
+        FrameCompressor unlimited = new FrameCompressor(
+            "OptionalStruct",
+            null,
+            DeflaterPool.defaultPool(),
+            Integer.MAX_VALUE
+        );
+        assertThrows(RuntimeException.class, () -> unlimited.decompress(s.payload()));
+    }
+
+    private static List<byte[]> frames(int start, int count) {
+        List<byte[]> frames = new ArrayList<>();
+        for (int i = start; i < start + count; i++) {
+            SparrowhawkCodegenOptionalStruct struct = new SparrowhawkCodegenOptionalStruct();
+            struct.setString("customer-" + i + "@example.com");
+            struct.setTimestamp(1_700_000_000d + i);
+            SparrowhawkSerializer s = new SparrowhawkSerializer(struct.size());
+            struct.encodeTo(s);
+            frames.add(s.payload());
+        }
+        return frames;
+    }
+}
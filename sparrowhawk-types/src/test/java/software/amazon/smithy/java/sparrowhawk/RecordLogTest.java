@@ -0,0 +1,214 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package software.amazon.smithy.java.sparrowhawk;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+
+public class RecordLogTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    public void roundtripsConcurrentAppends() throws Exception {
+        Path file = dir.resolve("log");
+        int threads = 4, perThread = 5_000;
+        try (
+            RecordLogWriter writer = RecordLogWriter.builder(open(file))
+                .segmentSize(4096)
+                .syncInterval(Duration.ofMillis(1))
+                .syncMarkerInterval(8192)
+                .build()
+        ) {
+            List<Thread> producers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int id = t;
+                Thread thread = new Thread(() -> {
+                    for (int i = 0; i < perThread; i++) {
+                        // multi-byte strings of every length around where their prefix grows
+                        writer.append(makeStruct(id + ":" + i + "\u20ac".repeat(i % 32)));
+                    }
+                });
+                producers.add(thread);
+                thread.start();
+            }
+            for (Thread thread : producers) {
+                thread.join();
+            }
+        }
+
+        Set<String> seen = new HashSet<>();
+        try (RecordLogReader reader = new RecordLogReader(FileChannel.open(file))) {
+            SparrowhawkCodegenOptionalStruct struct = new SparrowhawkCodegenOptionalStruct();
+            while (reader.next(struct)) {
+                assertTrue(seen.add(struct.getString()));
+            }
+        }
+        assertEquals(threads * perThread, seen.size());
+    }
+
+    @Test
+    public void oversizedRecordsKeepOrder() throws Exception {
+        Path file = dir.resolve("log");
+        List<String> strings = List.of("small", "x".repeat(10_000), "after");
+        try (RecordLogWriter writer = RecordLogWriter.builder(open(file)).segmentSize(1024).build()) {
+            for (String s : strings) {
+                writer.append(makeStruct(s));
+            }
+        }
+
+        List<String> read = new ArrayList<>();
+        try (RecordLogReader reader = new RecordLogReader(FileChannel.open(file))) {
+            SparrowhawkCodegenOptionalStruct struct = new SparrowhawkCodegenOptionalStruct();
+            while (reader.next(struct)) {
+                read.add(struct.getString());
+            }
+        }
+        assertEquals(strings, read);
+    }
+
+    @Test
+    public void resumesFromSyncMarker() throws Exception {
+        Path file = dir.resolve("log");
+        int count = 10_000;
+        try (
+            RecordLogWriter writer = RecordLogWriter.builder(open(file))
+                .segmentSize(512)
+                .syncMarkerInterval(512)
+                .build()
+        ) {
+            for (int i = 0; i < count; i++) {
+                writer.append(makeStruct(Integer.toString(i)));
+            }
+        }
+
+        try (FileChannel channel = FileChannel.open(file); RecordLogReader reader = new RecordLogReader(channel)) {
+            assertTrue(reader.seek(channel.size() / 2));
+            SparrowhawkCodegenOptionalStruct struct = new SparrowhawkCodegenOptionalStruct();
+            assertTrue(reader.next(struct));
+            int first = Integer.parseInt(struct.getString());
+            int expected = first + 1;
+            while (reader.next(struct)) {
+                assertEquals(expected++, Integer.parseInt(struct.getString()));
+            }
+            assertEquals(count, expected);
+            assertFalse(reader.seek(channel.size()));
+        }
+    }
+
+    @Test
+    public void failedRecordsLeaveNothingBehind() throws Exception {
+        Path file = dir.resolve("log");
+        try (RecordLogWriter writer = RecordLogWriter.builder(open(file)).segmentSize(1024).build()) {
+            writer.append(makeStruct("before"));
+            assertThrows(IllegalStateException.class, () -> writer.append(new FailingRecord(makeStruct("thrown"), 0)));
+            assertThrows(IllegalStateException.class, () -> writer.append(new FailingRecord(makeStruct("short"), 3)));
+            assertThrows(IllegalStateException.class, () -> writer.append(new FailingRecord(makeStruct("long"), -3)));
+            writer.append(makeStruct("after"));
+        }
+
+        List<String> read = new ArrayList<>();
+        try (RecordLogReader reader = new RecordLogReader(FileChannel.open(file))) {
+            SparrowhawkCodegenOptionalStruct struct = new SparrowhawkCodegenOptionalStruct();
+            while (reader.next(struct)) {
+                read.add(struct.getString());
+            }
+        }
+        assertEquals(List.of("before", "after"), read);
+    }
+
+    @Test
+    public void recordsCannotWriteIntoEachOther() throws Exception {
+        Path file = dir.resolve("log");
+        try (RecordLogWriter writer = RecordLogWriter.builder(open(file)).segmentSize(1024).build()) {
+            writer.append(makeStruct("before"));
+            // scribbles over the bytes before its own, then encodes where it should
+            assertThrows(RuntimeException.class, () -> writer.append(new SparrowhawkObject() {
+                private final SparrowhawkCodegenOptionalStruct struct = makeStruct("scribbler");
+
+                @Override
+                public void decodeFrom(SparrowhawkDeserializer d) {
+                    throw new UnsupportedOperationException();
+                }
+
+                @Override
+                public void encodeTo(SparrowhawkSerializer s) {
+                    int start = s.position();
+                    s.setPosition(start - 2);
+                    s.writeRawByte((byte) 0xFF);
+                    s.writeRawByte((byte) 0xFF);
+                    struct.encodeTo(s);
+                }
+
+                @Override
+                public int size() {
+                    return struct.size();
+                }
+            }));
+            writer.append(makeStruct("after"));
+        }
+
+        List<String> read = new ArrayList<>();
+        try (RecordLogReader reader = new RecordLogReader(FileChannel.open(file))) {
+            SparrowhawkCodegenOptionalStruct struct = new SparrowhawkCodegenOptionalStruct();
+            while (reader.next(struct)) {
+                read.add(struct.getString());
+            }
+        }
+        assertEquals(List.of("before", "after"), read);
+    }
+
+    /**
+     * Encodes a structure while claiming a size {@code delta} bytes larger than it, or throws halfway through
+     * encoding it if {@code delta} is zero.
+     */
+    private record FailingRecord(SparrowhawkObject record, int delta) implements SparrowhawkObject {
+        @Override
+        public void decodeFrom(SparrowhawkDeserializer d) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void encodeTo(SparrowhawkSerializer s) {
+            if (delta == 0) {
+                s.writeVarUL(KConstants.encodeByteListLength(size()));
+                throw new IllegalStateException("failed");
+            }
+            record.encodeTo(s);
+        }
+
+        @Override
+        public int size() {
+            return record.size() + delta;
+        }
+    }
+
+    private static FileChannel open(Path file) throws IOException {
+        return FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    }
+
+    private static SparrowhawkCodegenOptionalStruct makeStruct(String s) {
+        SparrowhawkCodegenOptionalStruct struct = new SparrowhawkCodegenOptionalStruct();
+        struct.setString(s);
+        struct.setTimestamp(123.456d);
+        return struct;
+    }
+}
@@ -5,9 +5,26 @@
 
 package software.amazon.smithy.java.sparrowhawk;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static software.amazon.smithy.java.sparrowhawk.SparrowhawkSerializer.lenPrefixedListLengthEncodedSize;
+import static software.amazon.smithy.java.sparrowhawk.SparrowhawkSerializer.stringEncodedSize;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 import java.util.function.IntFunction;
 import java.util.function.Supplier;
 import java.util.stream.Stream;
@@ -68,6 +85,26 @@ public class RoundtripTests {
         }
     }
 
+    @Test
+    public void primitiveMaps() {
+        String[] keys = {"a", "b", "\u00e9"};
+        IntegerMap ints = new IntegerMap();
+        ints.fromArrays(keys, new int[] {1, -2, Integer.MAX_VALUE});
+        IntegerMap intRoundtrip = serde(ints, new IntegerMap());
+        assertEquals(-2, intRoundtrip.getInt("b"));
+        assertEquals(Integer.MAX_VALUE, intRoundtrip.getInt("\u00e9"));
+        assertEquals(7, intRoundtrip.getInt("missing", 7));
+        assertThrows(NoSuchElementException.class, () -> intRoundtrip.getInt("missing"));
+        assertEquals(Map.of("a", 1, "b", -2, "\u00e9", Integer.MAX_VALUE), intRoundtrip.asMap());
+
+        DoubleMap doubles = new DoubleMap();
+        doubles.fromArrays(keys, new double[] {0.5, -1e300, Double.NaN});
+        DoubleMap doubleRoundtrip = serde(doubles, new DoubleMap());
+        assertEquals(-1e300, doubleRoundtrip.getDouble("b"));
+        assertTrue(Double.isNaN(doubleRoundtrip.getDouble("\u00e9")));
+        assertEquals(3, doubleRoundtrip.entryCount());
+    }
+
     @ParameterizedTest
     @ValueSource(ints = {1, 10000})
     public void stringMap(int len) {
@@ -91,6 +128,33 @@ public class RoundtripTests {
         assertEquals(map, roundtrip.toMap());
     }
 
+    @ParameterizedTest
+    @ValueSource(ints = {1, 10000})
+    public void indexedLookups(int len) {
+        StringMap sm = new StringMap();
+        sm.fromMap(generateMap(() -> "hello", len));
+        StringMap strings = serde(sm, new StringMap());
+        assertEquals("hello", strings.get("0"));
+        assertEquals("hello", strings.get(Integer.toString(len - 1).getBytes(StandardCharsets.UTF_8)));
+        assertNull(strings.get("missing"));
+
+        StructureMap<SparrowhawkCodegenOptionalStruct> m = new StructureMap<>(SparrowhawkCodegenOptionalStruct::new);
+        m.fromMap(generateMap(RoundtripTests::makeStruct, len));
+        byte[] encoded = ser(m);
+        StructureMap<SparrowhawkCodegenOptionalStruct> structs = de(
+            new StructureMap<>(SparrowhawkCodegenOptionalStruct::new),
+            encoded
+        );
+        assertEquals(makeStruct(), structs.get(Integer.toString(len / 2)));
+        assertNull(structs.get("missing"));
+        // untouched values are re-encoded from their original bytes
+        assertArrayEquals(encoded, ser(structs));
+
+        LongMap longs = new LongMap();
+        longs.fromMap(generateMap(() -> 42L, len));
+        assertEquals(Long.valueOf(42L), serde(longs, new LongMap()).get("0"));
+    }
+
     @ParameterizedTest
     @ValueSource(ints = {1, 10000})
     public void stringList(int len) {
@@ -99,6 +163,942 @@ public class RoundtripTests {
         assertEquals(list, roundtrip.toList());
     }
 
+    @ParameterizedTest
+    @ValueSource(ints = {1, 10000})
+    public void structureList(int len) {
+        List<SparrowhawkCodegenOptionalStruct> structs = generateList(RoundtripTests::makeStruct, len);
+        byte[] encoded = serList(StructureList.fromList(structs, SparrowhawkCodegenOptionalStruct::new));
+        StructureList<SparrowhawkCodegenOptionalStruct> lazy = deList(encoded);
+        assertEquals(makeStruct(len / 2), lazy.get(len / 2));
+        // untouched elements are re-encoded from their original bytes
+        assertArrayEquals(encoded, serList(lazy));
+
+        SparrowhawkCodegenOptionalStruct replacement = makeStruct(-1);
+        replacement.setTimestamp(1.5d);
+        structs.set(len - 1, replacement);
+        SparrowhawkCodegenOptionalStruct previous = lazy.set(len - 1, replacement);
+        // an element still encoded is replaced without being decoded
+        assertEquals(len == 1 ? makeStruct(0) : null, previous);
+        assertEquals(structs, deList(serList(lazy)).asList());
+        // the view returns the previous element, as List.set requires
+        assertEquals(makeStruct(0), deList(encoded).asList().set(0, replacement));
+    }
+
+    @Test
+    public void structureListViewWorksWithCollections() {
+        List<SparrowhawkCodegenOptionalStruct> structs = generateList(RoundtripTests::makeStruct, 5);
+        byte[] encoded = serList(StructureList.fromList(structs, SparrowhawkCodegenOptionalStruct::new));
+        StructureList<SparrowhawkCodegenOptionalStruct> swapped = deList(encoded);
+        Collections.swap(swapped.asList(), 0, 2);
+        Collections.swap(structs, 0, 2);
+        assertEquals(structs, deList(serList(swapped)).asList());
+
+        StructureList<SparrowhawkCodegenOptionalStruct> reversed = deList(encoded);
+        Collections.reverse(reversed.asList());
+        List<SparrowhawkCodegenOptionalStruct> expected = generateList(RoundtripTests::makeStruct, 5);
+        Collections.reverse(expected);
+        assertEquals(expected, deList(serList(reversed)).asList());
+    }
+
+    @Test
+    public void directEncode() {
+        List<String> strings = Arrays.asList("", "ascii", "\u00e9t\u00e9", "\u20ac", "\uD83D\uDE00", "\uD800x", "x\uDC00");
+        for (String str : strings) {
+            assertEquals(str.getBytes(StandardCharsets.UTF_8).length, SparrowhawkSerializer.utf8Length(str));
+        }
+        Map<String, String> m = new HashMap<>();
+        for (String str : strings) {
+            m.put("k" + str, str);
+        }
+        StringMap sm = new StringMap();
+        sm.fromMap(m);
+        assertEquals(sm.size(), StringMap.sizeOf(m));
+        assertArrayEquals(ser(sm), direct(StringMap.sizeOf(m), s -> StringMap.encode(m, StringMap.sizeOf(m), s)));
+
+        Map<String, Long> longs = generateMap(() -> -7_000_000_000L, 100);
+        LongMap lm = new LongMap();
+        lm.fromMap(longs);
+        assertArrayEquals(ser(lm), direct(LongMap.sizeOf(longs), s -> LongMap.encode(longs, LongMap.sizeOf(longs), s)));
+
+        Map<String, SparrowhawkCodegenOptionalStruct> structs = generateMap(RoundtripTests::makeStruct, 100);
+        StructureMap<SparrowhawkCodegenOptionalStruct> stm = new StructureMap<>(SparrowhawkCodegenOptionalStruct::new);
+        stm.fromMap(structs);
+        int structsSize = StructureMap.sizeOf(structs);
+        assertArrayEquals(ser(stm), direct(structsSize, s -> StructureMap.encode(structs, structsSize, s)));
+
+        // unpaired surrogates don't survive a UTF-8 round trip
+        List<String> valid = strings.subList(0, 5);
+        byte[] list = new byte[lenPrefixedListLengthEncodedSize(StringList.sizeOf(valid), valid.size())];
+        StringList.encode(valid, new SparrowhawkSerializer(list));
+        assertEquals(valid, de(new StringList(), list).toList());
+
+        // strings are encoded in one pass when their char count fixes the size of their prefix and measured
+        // first otherwise, so write lengths either side of each prefix size, with and without room to spare
+        for (int len : new int[] {20, 21, 42, 43, 64, 100, 5000}) {
+            for (String str : List.of("a".repeat(len), "\u00e9".repeat(len), "\u20ac".repeat(len))) {
+                for (int spare : new int[] {0, 1, 3 * len}) {
+                    SparrowhawkSerializer s = new SparrowhawkSerializer(stringEncodedSize(str) + spare);
+                    s.writeString(str);
+                    assertEquals(stringEncodedSize(str), s.position());
+                    assertEquals(str, new SparrowhawkDeserializer(s.buffer(), 0, s.position()).string());
+                }
+            }
+        }
+    }
+
+    private record Point(double timestamp, String string) implements SparrowhawkCodegenOptionalStructSource {}
+
+    @Test
+    public void writersEncodeSourcesLikeTheirStructures() {
+        SparrowhawkCodegenOptionalStruct struct = makeStruct();
+        Point point = new Point(123.456d, "hello");
+        NestedSizes sizes = new NestedSizes();
+        for (int i = 0; i < 2; i++) {
+            // the second encode reuses the sizes the first recorded into
+            assertArrayEquals(
+                ser(struct),
+                direct(
+                    SparrowhawkCodegenOptionalStructWriter.size(point),
+                    s -> SparrowhawkCodegenOptionalStructWriter.encode(point, sizes, s)
+                )
+            );
+        }
+        assertThrows(
+            RuntimeException.class,
+            () -> SparrowhawkCodegenOptionalStructWriter.size(new Point(0, null))
+        );
+
+        List<Point> points = generateList(i -> new Point(i, "hello" + i), 100);
+        List<SparrowhawkCodegenOptionalStruct> structs = new ArrayList<>();
+        Map<String, Point> pointMap = new HashMap<>();
+        Map<String, SparrowhawkCodegenOptionalStruct> structMap = new HashMap<>();
+        for (Point p : points) {
+            SparrowhawkCodegenOptionalStruct s = new SparrowhawkCodegenOptionalStruct();
+            s.setTimestamp(p.timestamp());
+            s.setString(p.string());
+            structs.add(s);
+            pointMap.put(p.string(), p);
+            structMap.put(p.string(), s);
+        }
+
+        sizes.clear();
+        int listSize = StructureList.sizeOf(points, sizes, SparrowhawkCodegenOptionalStructWriter::size);
+        byte[] list = new byte[lenPrefixedListLengthEncodedSize(listSize, points.size())];
+        StructureList.encode(
+            points,
+            new SparrowhawkSerializer(list),
+            sizes,
+            SparrowhawkCodegenOptionalStructWriter::encode
+        );
+        assertArrayEquals(serList(StructureList.fromList(structs, SparrowhawkCodegenOptionalStruct::new)), list);
+        assertThrows(IllegalStateException.class, sizes::next);
+
+        sizes.clear();
+        int mapSize = StructureMap.sizeOf(pointMap, sizes, SparrowhawkCodegenOptionalStructWriter::size);
+        assertEquals(StructureMap.sizeOf(structMap), mapSize);
+        assertArrayEquals(
+            direct(mapSize, s -> StructureMap.encode(structMap, mapSize, s)),
+            direct(
+                mapSize,
+                s -> StructureMap.encode(
+                    pointMap,
+                    s,
+                    sizes,
+                    SparrowhawkCodegenOptionalStructWriter::size,
+                    SparrowhawkCodegenOptionalStructWriter::encode
+                )
+            )
+        );
+    }
+
+    @Test
+    public void writersEncodeMapsCanonicallyFromRecordedSizes() {
+        Map<String, Point> pointMap = new LinkedHashMap<>();
+        Map<String, SparrowhawkCodegenOptionalStruct> structMap = new HashMap<>();
+        for (int i = 20; i > 0; i--) {
+            Point p = new Point(i, "hello".repeat(i));
+            pointMap.put(Integer.toString(i), p);
+            SparrowhawkCodegenOptionalStruct s = new SparrowhawkCodegenOptionalStruct();
+            s.setTimestamp(p.timestamp());
+            s.setString(p.string());
+            structMap.put(Integer.toString(i), s);
+        }
+        NestedSizes sizes = new NestedSizes();
+        int mapSize = StructureMap.sizeOf(pointMap, sizes, SparrowhawkCodegenOptionalStructWriter::size);
+        // a point after the map reads the size recorded after the map's
+        Point after = new Point(1.5d, "after");
+        int afterSize = sizes.record(after, SparrowhawkCodegenOptionalStructWriter::size);
+        SparrowhawkSerializer s = new SparrowhawkSerializer(
+            new byte[SparrowhawkSerializer.byteListLengthEncodedSize(mapSize)
+                + SparrowhawkSerializer.byteListLengthEncodedSize(afterSize)]
+        );
+        s.setCanonical(true);
+        StructureMap.encode(
+            pointMap,
+            s,
+            sizes,
+            SparrowhawkCodegenOptionalStructWriter::size,
+            SparrowhawkCodegenOptionalStructWriter::encode
+        );
+        SparrowhawkCodegenOptionalStructWriter.encode(after, sizes.next(), sizes, s);
+        byte[] written = s.payload();
+
+        SparrowhawkSerializer expected = new SparrowhawkSerializer(new byte[written.length]);
+        expected.setCanonical(true);
+        StructureMap.encode(structMap, StructureMap.canonicalSizeOf(structMap), expected);
+        SparrowhawkCodegenOptionalStructWriter.encode(after, sizes, expected);
+        assertArrayEquals(expected.payload(), written);
+    }
+
+    @Test
+    public void structuresConvertToAndFromRecords() {
+        SparrowhawkCodegenOptionalStruct decoded = de(new SparrowhawkCodegenOptionalStruct(), ser(makeStruct()));
+        SparrowhawkCodegenOptionalStructRecord record = decoded.convertTo();
+        assertEquals(new SparrowhawkCodegenOptionalStructRecord("hello", 123.456d), record);
+        assertEquals(SparrowhawkCodegenOptionalStructRecord.class, decoded.getConvertedType());
+        assertArrayEquals(ser(makeStruct()), ser(SparrowhawkCodegenOptionalStruct.convertFrom(record)));
+
+        List<SparrowhawkCodegenOptionalStruct> structs = generateList(RoundtripTests::makeStruct, 100);
+        StructureList<SparrowhawkCodegenOptionalStruct> lazy = deList(
+            serList(StructureList.fromList(structs, SparrowhawkCodegenOptionalStruct::new))
+        );
+        List<SparrowhawkCodegenOptionalStructRecord> records = StructureList
+            .<SparrowhawkCodegenOptionalStruct, SparrowhawkCodegenOptionalStructRecord>convert(
+                lazy,
+                SparrowhawkCodegenOptionalStruct::convertTo
+            );
+        assertEquals(new SparrowhawkCodegenOptionalStructRecord("hello42", 0), records.get(42));
+        assertEquals(structs, SparrowhawkStructure.convertList(records, SparrowhawkCodegenOptionalStruct::convertFrom));
+
+        Map<String, SparrowhawkCodegenOptionalStruct> structMap = generateMap(RoundtripTests::makeStruct, 100);
+        StructureMap<SparrowhawkCodegenOptionalStruct> m = new StructureMap<>(SparrowhawkCodegenOptionalStruct::new);
+        m.fromMap(structMap);
+        StructureMap<SparrowhawkCodegenOptionalStruct> decodedMap = de(
+            new StructureMap<>(SparrowhawkCodegenOptionalStruct::new),
+            ser(m)
+        );
+        Map<String, SparrowhawkCodegenOptionalStructRecord> recordMap = StructureMap
+            .<SparrowhawkCodegenOptionalStruct, SparrowhawkCodegenOptionalStructRecord>convert(
+                decodedMap,
+                SparrowhawkCodegenOptionalStruct::convertTo
+            );
+        assertEquals(
+            SparrowhawkStructure.convertMap(structMap, SparrowhawkCodegenOptionalStruct::convertTo),
+            recordMap
+        );
+    }
+
+    @Test
+    public void errorExceptionsSkipStackTracesAndDecodeLazily() {
+        byte[] encoded = ser(makeStruct());
+        SparrowhawkCodegenOptionalStructException thrown = assertThrows(
+            SparrowhawkCodegenOptionalStructException.class,
+            () -> {
+                throw SparrowhawkCodegenOptionalStructException.decodeFrom(new SparrowhawkDeserializer(encoded));
+            }
+        );
+        assertEquals(0, thrown.getStackTrace().length);
+        thrown.addSuppressed(new RuntimeException());
+        assertEquals(0, thrown.getSuppressed().length);
+        assertEquals("CodegenOptionalStruct", thrown.getMessage());
+        assertArrayEquals(encoded, encodeError(thrown));
+        assertEquals(makeStruct(), thrown.error());
+        assertSame(thrown.error(), thrown.error());
+        assertArrayEquals(encoded, encodeError(thrown));
+
+        SparrowhawkCodegenOptionalStructException created = new SparrowhawkCodegenOptionalStructException(makeStruct());
+        assertEquals(0, created.getStackTrace().length);
+        assertArrayEquals(encoded, encodeError(created));
+    }
+
+    @Test
+    public void errorExceptionsSerializeTheirEncodedError() throws Exception {
+        byte[] encoded = ser(makeStruct());
+        SparrowhawkCodegenOptionalStructException lazy = SparrowhawkCodegenOptionalStructException.decodeFrom(
+            new SparrowhawkDeserializer(encoded)
+        );
+        SparrowhawkCodegenOptionalStructException read = javaRoundtrip(lazy);
+        assertArrayEquals(encoded, encodeError(read));
+        assertEquals(makeStruct(), read.error());
+
+        read = javaRoundtrip(new SparrowhawkCodegenOptionalStructException(makeStruct()));
+        assertEquals(makeStruct(), read.error());
+        assertEquals("CodegenOptionalStruct", read.getMessage());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T javaRoundtrip(T o) throws IOException, ClassNotFoundException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(o);
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            return (T) in.readObject();
+        }
+    }
+
+    private static byte[] encodeError(SparrowhawkException e) {
+        SparrowhawkSerializer s = new SparrowhawkSerializer(new byte[e.size()]);
+        e.encodeTo(s);
+        return s.payload();
+    }
+
+    @Test
+    public void columnsDecodeOnlySelectedMembers() {
+        List<SparrowhawkCodegenOptionalStruct> structs = generateList(i -> {
+            SparrowhawkCodegenOptionalStruct struct = makeStruct(i);
+            struct.setTimestamp(i * 0.5d);
+            return struct;
+        }, 1000);
+        byte[] encoded = serList(StructureList.fromList(structs, SparrowhawkCodegenOptionalStruct::new));
+        StructureColumns columns = new StructureColumns();
+        int timestamp = columns.select(KConstants.T_EIGHT, 0, 0, StructureColumns.DOUBLE, true);
+        columns.decodeFrom(new SparrowhawkDeserializer(encoded));
+        assertEquals(1000, columns.rows());
+        assertEquals(499.5d, columns.doubles(timestamp)[999]);
+        assertTrue(columns.isPresent(timestamp, 1));
+
+        // a structure without the member reads as absent from a shorter list decoded into the same arrays
+        byte[] first = ser(makeStruct());
+        byte[] list = new byte[1 + first.length + 4];
+        SparrowhawkSerializer s = new SparrowhawkSerializer(list);
+        s.writeVarUL(KConstants.encodeLenPrefixedListLength(2));
+        s.writeEncodedObject(first, 0, first.length);
+        s.writeVarUL(KConstants.encodeByteListLength(3));
+        s.writeVarUL(0x8L);
+        s.writeString("x");
+        columns.decodeFrom(new SparrowhawkDeserializer(list));
+        assertEquals(2, columns.rows());
+        assertEquals(123.456d, columns.doubles(timestamp)[0]);
+        assertTrue(columns.isPresent(timestamp, 0));
+        assertFalse(columns.isPresent(timestamp, 1));
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {0, 1, 10000})
+    public void sets(int len) {
+        Set<String> strings = new LinkedHashSet<>(generateList(i -> "perm:" + i, len));
+        StringSet stringSet = StringSet.fromSet(strings);
+        byte[] encoded = serSet(stringSet);
+        StringSet decodedStrings = de(new StringSet(), encoded);
+        assertEquals(strings, decodedStrings.asSet());
+        assertEquals(List.copyOf(strings), List.copyOf(decodedStrings.toSet()));
+        assertEquals(len > 0, decodedStrings.contains("perm:" + (len - 1)));
+        assertTrue(!decodedStrings.contains("perm:" + len));
+        // a set is encoded exactly like a list of the same strings
+        assertArrayEquals(encoded, serList(StringList.fromList(List.copyOf(strings))));
+        assertEquals(encoded.length, decodedStrings.size());
+        assertEquals(encoded.length, decodedStrings.canonicalSize());
+
+        Set<Long> longs = new LinkedHashSet<>(generateList(i -> i * 31L - len, len));
+        LongSet longSet = de(new LongSet(), serSet(LongSet.fromSet(longs)));
+        assertEquals(longs, longSet.asSet());
+        assertEquals(serSet(longSet).length, longSet.size());
+        assertEquals(len > 0, longSet.contains(-len));
+
+        Set<Integer> ints = new LinkedHashSet<>(generateList(i -> -i, len));
+        IntegerSet intSet = de(new IntegerSet(), serSet(IntegerSet.fromSet(ints)));
+        assertEquals(ints, intSet.toSet());
+        assertTrue(!intSet.contains(1));
+    }
+
+    @Test
+    public void setsRejectDuplicates() {
+        byte[] strings = serList(StringList.fromList(List.of("a", "b", "a")));
+        assertThrows(RuntimeException.class, () -> de(new StringSet(), strings));
+
+        byte[] ints = new byte[lenPrefixedListLengthEncodedSize(0, 0) + 3];
+        new SparrowhawkSerializer(ints).writeIntegerList(new int[] {7, 8, 7}, 3);
+        assertThrows(RuntimeException.class, () -> de(new IntegerSet(), ints));
+    }
+
+    @Test
+    public void decodeIntoClearedInstance() {
+        SparrowhawkCodegenOptionalStruct reused = new SparrowhawkCodegenOptionalStruct();
+        for (int i = 0; i < 3; i++) {
+            SparrowhawkCodegenOptionalStruct expected = makeStruct(i);
+            reused.clear();
+            reused.decodeFrom(new SparrowhawkDeserializer(ser(expected)));
+            assertEquals(expected, reused);
+            assertEquals(expected.size(), reused.size());
+        }
+    }
+
+    @Test
+    public void unknownFieldsRoundtrip() {
+        SparrowhawkCodegenOptionalStruct struct = de(new SparrowhawkCodegenOptionalStruct(), newerStruct("kept"));
+        assertEquals("kept", struct.getString());
+        assertEquals(1.5, struct.getTimestamp());
+        assertArrayEquals(newerStruct("kept"), ser(struct));
+
+        struct.setString("changed");
+        assertArrayEquals(newerStruct("changed"), ser(struct));
+
+        struct.clear();
+        struct.setString("kept");
+        struct.setTimestamp(1.5);
+        SparrowhawkCodegenOptionalStruct fresh = new SparrowhawkCodegenOptionalStruct();
+        fresh.setString("kept");
+        fresh.setTimestamp(1.5);
+        assertArrayEquals(ser(fresh), ser(struct));
+    }
+
+    @Test
+    public void writeStringLeavesTheBytesAfterItAlone() {
+        List<String> strings = List.of(
+            "",
+            "a",
+            "\u00e9".repeat(10),
+            "ab".repeat(20),
+            "\u20ac".repeat(11),
+            "x\u20ac".repeat(700)
+        );
+        for (String str : strings) {
+            byte[] buf = new byte[str.length() * 3 + 16];
+            Arrays.fill(buf, (byte) 0x5A);
+            SparrowhawkSerializer s = new SparrowhawkSerializer(buf);
+            s.setPosition(3);
+            s.writeString(str);
+            int end = s.position();
+            assertEquals(3 + stringEncodedSize(str), end);
+            for (int i = end; i < buf.length; i++) {
+                assertEquals((byte) 0x5A, buf[i], "wrote past the string at " + i);
+            }
+            assertEquals(str, new SparrowhawkDeserializer(Arrays.copyOfRange(buf, 3, end)).string());
+        }
+    }
+
+    /**
+     * Encodes a newer version of {@link SparrowhawkCodegenOptionalStruct} with members and field sets it does
+     * not know, in the order it writes them back.
+     */
+    private static byte[] newerStruct(String string) {
+        SparrowhawkSerializer s = new SparrowhawkSerializer(new byte[256]);
+        s.writeVarUL(KConstants.eightField(0b101));
+        s.writeDouble(1.5);
+        s.writeDouble(2.5);
+        s.writeVarUL(KConstants.listField(0b11));
+        s.writeString(string);
+        s.writeIntegerList(List.of(1, 2, 3));
+        s.writeVarUL(KConstants.varintField(0b1));
+        s.writeVarI(42);
+        s.writeVarUL(KConstants.fourField(0b1) | 0b100);
+        s.writeVarUI(1);
+        s.writeFloat(3f);
+        int len = s.position();
+
+        SparrowhawkSerializer out = new SparrowhawkSerializer(len);
+        out.writeVarUL(KConstants.encodeByteListLength(len));
+        out.writeEncodedObject(s.buffer(), 0, len);
+        return out.payload();
+    }
+
+    @Test
+    public void unmodifiedStructIsCopiedThrough() {
+        // an overlong two-byte header is only kept if the decoded bytes are copied rather than re-encoded
+        SparrowhawkSerializer s = new SparrowhawkSerializer(16);
+        s.writeVarUL(KConstants.encodeByteListLength(16));
+        s.writeRawByte((byte) ((KConstants.eightField(1) << 2) | 0b10));
+        s.writeRawByte((byte) 0);
+        s.writeDouble(1.5);
+        s.writeVarUL(KConstants.listField(1));
+        s.writeString("kept");
+        byte[] payload = s.payload();
+
+        SparrowhawkCodegenOptionalStruct struct = de(new SparrowhawkCodegenOptionalStruct(), payload);
+        assertArrayEquals(payload, ser(struct));
+
+        struct.setTimestamp(2.5);
+        SparrowhawkCodegenOptionalStruct modified = de(new SparrowhawkCodegenOptionalStruct(), ser(struct));
+        assertEquals(2.5, modified.getTimestamp());
+        assertEquals("kept", modified.getString());
+        assertEquals(payload.length - 1, ser(modified).length);
+    }
+
+    @Test
+    public void mergeTakesPatchMembersAndKeepsTheRest() {
+        SparrowhawkCodegenOptionalStruct patch = new SparrowhawkCodegenOptionalStruct();
+        patch.setString("patched");
+        patch.setTimestamp(4.5);
+        ByteBuffer base = ByteBuffer.wrap(newerStruct("base"));
+        SparrowhawkSerializer out = new SparrowhawkSerializer(
+            SparrowhawkCodegenOptionalStruct.mergedSize(base, ByteBuffer.wrap(ser(patch)))
+        );
+        SparrowhawkCodegenOptionalStruct.merge(base, ByteBuffer.wrap(ser(patch)), out);
+        assertEquals(out.payload().length, out.position());
+
+        SparrowhawkCodegenOptionalStruct merged = de(new SparrowhawkCodegenOptionalStruct(), out.payload());
+        assertEquals("patched", merged.getString());
+        assertEquals(4.5, merged.getTimestamp());
+        // the members only the base has are still there
+        merged.setString("base");
+        merged.setTimestamp(1.5);
+        assertArrayEquals(newerStruct("base"), ser(merged));
+    }
+
+    @Test
+    public void mergeRecursesOnlyIntoMergeableMembers() {
+        SparrowhawkCodegenOptionalStruct innerPatch = new SparrowhawkCodegenOptionalStruct();
+        innerPatch.setString("patched");
+        innerPatch.setTimestamp(4.5);
+        byte[] base = outerStruct(newerStruct("inner"), "base");
+        byte[] patch = outerStruct(ser(innerPatch), null);
+
+        StructureMerge replacing = new StructureMerge();
+        assertArrayEquals(outerStruct(ser(innerPatch), "base"), merge(replacing, base, patch));
+
+        StructureMerge recursing = new StructureMerge().recurse(0, 0, () -> SparrowhawkCodegenOptionalStruct.MERGE);
+        byte[] innerMerged = merge(SparrowhawkCodegenOptionalStruct.MERGE, newerStruct("inner"), ser(innerPatch));
+        assertArrayEquals(outerStruct(innerMerged, "base"), merge(recursing, base, patch));
+    }
+
+    private static byte[] merge(StructureMerge merge, byte[] base, byte[] patch) {
+        ByteBuffer b = ByteBuffer.wrap(base);
+        ByteBuffer p = ByteBuffer.wrap(patch);
+        SparrowhawkSerializer out = new SparrowhawkSerializer(merge.size(b, p));
+        merge.merge(b, p, out);
+        assertEquals(out.payload().length, out.position());
+        return out.payload();
+    }
+
+    /**
+     * Encodes a structure with a nested structure in list member 0 and, if not null, a string in list member 1.
+     */
+    private static byte[] outerStruct(byte[] nested, String string) {
+        SparrowhawkSerializer s = new SparrowhawkSerializer(new byte[256]);
+        s.writeVarUL(KConstants.listField(string == null ? 0b1 : 0b11));
+        s.writeEncodedObject(nested, 0, nested.length);
+        if (string != null) {
+            s.writeString(string);
+        }
+        int len = s.position();
+
+        SparrowhawkSerializer out = new SparrowhawkSerializer(len);
+        out.writeVarUL(KConstants.encodeByteListLength(len));
+        out.writeEncodedObject(s.buffer(), 0, len);
+        return out.payload();
+    }
+
+    @Test
+    public void decodedStructsCompareAndHashTheirEncoding() {
+        SparrowhawkCodegenOptionalStruct built = new SparrowhawkCodegenOptionalStruct();
+        built.setString("kept");
+        built.setTimestamp(1.5);
+        byte[] canonical = SparrowhawkSerializer.canonicalBytes(built);
+        SparrowhawkCodegenOptionalStruct a = decodeCanonical(canonical);
+        SparrowhawkCodegenOptionalStruct b = decodeCanonical(canonical.clone());
+        assertEquals(a, b);
+        assertEquals(a.hashCode(), b.hashCode());
+        assertEquals(built, a);
+        assertEquals(a, built);
+        assertEquals(built.hashCode(), a.hashCode());
+        assertArrayEquals(canonical, SparrowhawkSerializer.canonicalBytes(a));
+
+        // without the canonical declaration the fields are compared, and the hash is the same
+        SparrowhawkCodegenOptionalStruct c = de(new SparrowhawkCodegenOptionalStruct(), canonical);
+        assertEquals(a, c);
+        assertEquals(a.hashCode(), c.hashCode());
+
+        b.setTimestamp(2.5);
+        assertTrue(!a.equals(b));
+        b.setTimestamp(1.5);
+        assertEquals(a, b);
+        assertEquals(a.hashCode(), b.hashCode());
+
+        SparrowhawkCodegenOptionalStruct other = new SparrowhawkCodegenOptionalStruct();
+        other.setString("other");
+        other.setTimestamp(1.5);
+        assertTrue(!a.equals(decodeCanonical(SparrowhawkSerializer.canonicalBytes(other))));
+
+        // doubles compare as they are encoded
+        other.setString("kept");
+        other.setTimestamp(-0.0);
+        built.setTimestamp(0.0);
+        assertTrue(!built.equals(other));
+        other.setTimestamp(Double.NaN);
+        built.setTimestamp(Double.NaN);
+        assertEquals(built, other);
+        assertEquals(built.hashCode(), other.hashCode());
+
+        // the hash is taken from the members, so one missing a required member still has one
+        SparrowhawkCodegenOptionalStruct missing = new SparrowhawkCodegenOptionalStruct();
+        assertThrows(RuntimeException.class, () -> SparrowhawkSerializer.canonicalBytes(missing));
+        assertEquals(new SparrowhawkCodegenOptionalStruct(), missing);
+        assertEquals(new SparrowhawkCodegenOptionalStruct().hashCode(), missing.hashCode());
+    }
+
+    private static SparrowhawkCodegenOptionalStruct decodeCanonical(byte[] b) {
+        SparrowhawkDeserializer d = new SparrowhawkDeserializer(b);
+        d.setCanonical(true);
+        SparrowhawkCodegenOptionalStruct struct = new SparrowhawkCodegenOptionalStruct();
+        struct.decodeFrom(d);
+        return struct;
+    }
+
+    @Test
+    public void reservedWritesMatchStreamingWrites() {
+        byte[] header = {(byte) 0x1b};
+        SparrowhawkSerializer streaming = new SparrowhawkSerializer(new byte[15]);
+        streaming.writeRawByte((byte) 7);
+        streaming.writeRawBytes(header);
+        streaming.writeBool(true);
+        streaming.writeFloat(Float.NaN);
+        streaming.writeDouble(-1.5);
+
+        SparrowhawkSerializer reserved = new SparrowhawkSerializer(new byte[15]);
+        reserved.writeRawByte((byte) 7);
+        int p = reserved.reserve(14);
+        reserved.putBytes(p, header);
+        reserved.putBool(p + 1, true);
+        reserved.putFloat(p + 2, Float.NaN);
+        reserved.putDouble(p + 6, -1.5);
+        assertArrayEquals(streaming.payload(), reserved.payload());
+        assertThrows(IndexOutOfBoundsException.class, () -> reserved.reserve(1));
+    }
+
+    @Test
+    public void enumValueTable() {
+        Suit[] suits = Suit.values();
+        byte[][] keys = new byte[suits.length][];
+        for (int i = 0; i < suits.length; i++) {
+            keys[i] = suits[i].value.getBytes(StandardCharsets.UTF_8);
+        }
+        int[] displacements = EnumValueTable.displacements(keys);
+        EnumValueTable<Suit> table = new EnumValueTable<>(suits, displacements, s -> s.value);
+        int[] wrong = displacements.clone();
+        wrong[0] = 0;
+        assertThrows(IllegalArgumentException.class, () -> new EnumValueTable<>(suits, wrong, s -> s.value));
+
+        for (Suit suit : suits) {
+            byte[] b = ("x" + suit.value).getBytes(StandardCharsets.UTF_8);
+            assertEquals(suit, table.lookup(b, 1, b.length - 1));
+        }
+        byte[] unknown = "joker".getBytes(StandardCharsets.UTF_8);
+        assertNull(table.lookup(unknown, 0, unknown.length));
+
+        // known values decode to their constant, unknown ones to the string itself
+        byte[] payload = new byte[
+            SparrowhawkSerializer.stringEncodedSize("spades") + SparrowhawkSerializer.stringEncodedSize("joker")
+        ];
+        SparrowhawkSerializer s = new SparrowhawkSerializer(payload);
+        s.writeString("spades");
+        s.writeString("joker");
+        SparrowhawkDeserializer d = new SparrowhawkDeserializer(s.payload());
+        assertEquals(Suit.SPADES, table.decode(d));
+        assertEquals("joker", table.decode(d));
+        d.done();
+    }
+
+    @Test
+    public void enumValueTableScalesLinearly() {
+        // a single seed for thousands of values would need a table of millions of slots
+        byte[][] keys = new byte[5000][];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = ("VALUE_" + i).getBytes(StandardCharsets.UTF_8);
+        }
+        int[] displacements = EnumValueTable.displacements(keys);
+        assertTrue(displacements.length <= keys.length / 2);
+        byte[][] repeated = {keys[0], keys[0]};
+        assertThrows(IllegalArgumentException.class, () -> EnumValueTable.displacements(repeated));
+
+        byte[][] names = Arrays.stream(TimeUnit.values())
+            .map(u -> u.name().getBytes(StandardCharsets.UTF_8))
+            .toArray(byte[][]::new);
+        EnumValueTable<TimeUnit> units = new EnumValueTable<>(
+            TimeUnit.values(),
+            EnumValueTable.displacements(names),
+            TimeUnit::name
+        );
+        for (TimeUnit unit : TimeUnit.values()) {
+            byte[] b = unit.name().getBytes(StandardCharsets.UTF_8);
+            assertEquals(unit, units.lookup(b, 0, b.length));
+        }
+    }
+
+    private enum Suit {
+        CLUBS("clubs"),
+        DIAMONDS("diamonds"),
+        HEARTS("hearts"),
+        SPADES("spades");
+
+        private final String value;
+
+        Suit(String value) {
+            this.value = value;
+        }
+    }
+
+    @Test
+    public void canonicalEncoding() {
+        List<String> keys = generateList(i -> "key" + i, 200);
+        keys.add("\uD83D\uDE00");
+        keys.add("\uFF01");
+        Map<String, String> forward = new LinkedHashMap<>();
+        Map<String, String> reverse = new LinkedHashMap<>();
+        for (int i = 0; i < keys.size(); i++) {
+            forward.put(keys.get(i), "v" + i);
+        }
+        for (int i = keys.size() - 1; i >= 0; i--) {
+            reverse.put(keys.get(i), "v" + i);
+        }
+
+        StringMap a = new StringMap();
+        a.fromMap(forward);
+        StringMap b = new StringMap();
+        b.fromMap(reverse);
+        assertTrue(!Arrays.equals(ser(a), ser(b)));
+        assertTrue(SparrowhawkSerializer.canonicalBytesEqual(a, b));
+        byte[] canonical = SparrowhawkSerializer.canonicalBytes(a);
+        SparrowhawkSerializer direct = new SparrowhawkSerializer(StringMap.sizeOf(reverse));
+        direct.setCanonical(true);
+        StringMap.encode(reverse, StringMap.sizeOf(reverse), direct);
+        assertArrayEquals(canonical, direct.payload());
+        assertEquals(forward, de(new StringMap(), canonical).toMap());
+
+        b.fromMap(Map.of("key0", "changed"));
+        assertTrue(!SparrowhawkSerializer.canonicalBytesEqual(a, b));
+
+        Map<String, Integer> ints = new LinkedHashMap<>();
+        for (int i = keys.size() - 1; i >= 0; i--) {
+            ints.put(keys.get(i), i);
+        }
+        IntegerMap im = new IntegerMap();
+        im.fromMap(ints);
+        IntegerMap sorted = de(new IntegerMap(), SparrowhawkSerializer.canonicalBytes(im));
+        assertEquals(ints, sorted.toMap());
+        assertArrayEquals(ser(sorted), SparrowhawkSerializer.canonicalBytes(sorted));
+
+        // undecoded values are re-encoded, so nested maps are sorted too
+        Map<String, StructureMap<SparrowhawkCodegenOptionalStruct>> nested = new LinkedHashMap<>();
+        StructureMap<SparrowhawkCodegenOptionalStruct> inner = new StructureMap<>(SparrowhawkCodegenOptionalStruct::new);
+        Map<String, SparrowhawkCodegenOptionalStruct> innerValues = new LinkedHashMap<>();
+        innerValues.put("z", makeStruct());
+        innerValues.put("a", makeStruct(1));
+        inner.fromMap(innerValues);
+        nested.put("only", inner);
+        StructureMap<StructureMap<SparrowhawkCodegenOptionalStruct>> outer = new StructureMap<>(
+            () -> new StructureMap<>(SparrowhawkCodegenOptionalStruct::new)
+        );
+        outer.fromMap(nested);
+        StructureMap<StructureMap<SparrowhawkCodegenOptionalStruct>> decoded = de(
+            new StructureMap<>(() -> new StructureMap<>(SparrowhawkCodegenOptionalStruct::new)),
+            ser(outer)
+        );
+        inner.fromMap(new TreeMap<>(innerValues));
+        assertArrayEquals(ser(outer), SparrowhawkSerializer.canonicalBytes(decoded));
+
+        // the map is sorted for the canonical encoding only
+        byte[] unsorted = ser(b);
+        SparrowhawkSerializer.canonicalBytes(b);
+        assertArrayEquals(unsorted, ser(b));
+    }
+
+    @Test
+    public void canonicalEncodingShortensVarints() {
+        byte[] minimal = ser(makeStruct());
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        writeWide(body, 0xb, 2);
+        body.write(minimal, 2, 8);
+        writeWide(body, 0x8, 2);
+        writeWide(body, KConstants.encodeByteListLength(5), 3);
+        body.writeBytes("hello".getBytes(StandardCharsets.UTF_8));
+        ByteArrayOutputStream wide = new ByteArrayOutputStream();
+        writeWide(wide, KConstants.encodeByteListLength(body.size()), 2);
+        wide.writeBytes(body.toByteArray());
+
+        SparrowhawkCodegenOptionalStruct decoded = de(new SparrowhawkCodegenOptionalStruct(), wide.toByteArray());
+        assertEquals(makeStruct(), decoded);
+        assertArrayEquals(minimal, SparrowhawkSerializer.canonicalBytes(decoded));
+        // copied through under a length prefix of its own, which the list it is in sized for
+        byte[] copied = serList(StructureList.fromList(List.of(decoded), SparrowhawkCodegenOptionalStruct::new));
+        assertEquals(decoded, deList(copied).get(0));
+
+        ByteArrayOutputStream strings = new ByteArrayOutputStream();
+        writeWide(strings, KConstants.encodeLenPrefixedListLength(2), 1);
+        writeWide(strings, KConstants.encodeByteListLength(1), 2);
+        strings.write('a');
+        writeWide(strings, KConstants.encodeByteListLength(2), 3);
+        strings.writeBytes("bc".getBytes(StandardCharsets.UTF_8));
+        StringList list = de(new StringList(), strings.toByteArray());
+        assertEquals(List.of("a", "bc"), list.toList());
+        assertArrayEquals(
+            serList(StringList.fromList(List.of("a", "bc"))),
+            SparrowhawkSerializer.canonicalBytes(list)
+        );
+    }
+
+    @Test
+    public void canonicalEncodingKeepsTheLastOfRepeatedKeys() {
+        StringMap m = new StringMap();
+        Map<String, String> entries = new LinkedHashMap<>();
+        entries.put("b", "1");
+        entries.put("c", "2");
+        m.fromMap(entries);
+        byte[] bytes = ser(m);
+        // rename the second key to the first
+        for (int i = 0; i < bytes.length; i++) {
+            if (bytes[i] == 'c') {
+                bytes[i] = 'b';
+            }
+        }
+        StringMap repeated = de(new StringMap(), bytes);
+        StringMap last = new StringMap();
+        last.fromMap(Map.of("b", "2"));
+        assertArrayEquals(SparrowhawkSerializer.canonicalBytes(last), SparrowhawkSerializer.canonicalBytes(repeated));
+        assertTrue(SparrowhawkSerializer.canonicalBytesEqual(last, repeated));
+    }
+
+    @Test
+    public void unionRoundtrips() {
+        SparrowhawkCodegenUnion count = new SparrowhawkCodegenUnion();
+        count.setCount(-3);
+        SparrowhawkCodegenUnion name = new SparrowhawkCodegenUnion();
+        name.setName("hello");
+        SparrowhawkCodegenUnion item = new SparrowhawkCodegenUnion();
+        item.setItem(makeStruct());
+        for (SparrowhawkCodegenUnion u : List.of(count, name, item, new SparrowhawkCodegenUnion())) {
+            SparrowhawkCodegenUnion decoded = serde(u, new SparrowhawkCodegenUnion());
+            assertEquals(u.variant(), decoded.variant());
+            assertEquals(u, decoded);
+            assertEquals(u.hashCode(), decoded.hashCode());
+        }
+        assertFalse(count.equals(name));
+        assertEquals(makeStruct(), serde(item, new SparrowhawkCodegenUnion()).getItem());
+    }
+
+    @Test
+    public void unionMeasuresAStructureModifiedThroughItsGetter() {
+        SparrowhawkCodegenUnion item = new SparrowhawkCodegenUnion();
+        item.setItem(makeStruct());
+        item.size();
+        item.getItem().setString("a string longer than the one the size was cached for");
+        assertEquals(item, serde(item, new SparrowhawkCodegenUnion()));
+
+        SparrowhawkCodegenUnion decoded = serde(item, new SparrowhawkCodegenUnion());
+        decoded.getItem().setString("short");
+        assertEquals("short", serde(decoded, new SparrowhawkCodegenUnion()).getItem().getString());
+    }
+
+    @Test
+    public void unionKeepsUnknownMembers() {
+        // a varint member at index 3, which the union does not know
+        byte[] payload = direct(2, s -> {
+            s.writeVarUL(KConstants.encodeByteListLength(2));
+            s.writeVarUL((1L << 5) | KConstants.T_VARINT);
+            s.writeVarI(7);
+        });
+        SparrowhawkCodegenUnion unknown = de(new SparrowhawkCodegenUnion(), payload);
+        assertEquals(SparrowhawkCodegenUnion.Variant.UNKNOWN, unknown.variant());
+        assertNull(unknown.value());
+        assertArrayEquals(payload, ser(unknown));
+        SparrowhawkCodegenUnion again = de(new SparrowhawkCodegenUnion(), payload.clone());
+        assertEquals(unknown, again);
+        assertEquals(unknown.hashCode(), again.hashCode());
+    }
+
+    @Test
+    public void copyingDeserializerKeepsDecodedObjectsOffTheInput() {
+        SparrowhawkCodegenImmutableStruct struct = SparrowhawkCodegenImmutableStruct.builder()
+            .items(List.of(makeStruct(1), makeStruct(2)))
+            .build();
+        byte[] payload = ser(struct);
+        byte[] input = payload.clone();
+        StringList strings = StringList.fromList(List.of("a", "bc"));
+        byte[] stringInput = serList(strings);
+        StringList decodedStrings = deCopying(new StringList(), stringInput);
+        SparrowhawkCodegenImmutableStruct decoded = deCopying(new SparrowhawkCodegenImmutableStruct(), input);
+        Arrays.fill(input, (byte) 0);
+        Arrays.fill(stringInput, (byte) 0);
+        assertArrayEquals(payload, ser(decoded));
+        assertEquals(struct.getItems(), decoded.getItems());
+        assertEquals(List.of("a", "bc"), decodedStrings.toList());
+        assertArrayEquals(serList(strings), serList(decodedStrings));
+    }
+
+    @Test
+    public void deserializerSharesTheInputUnlessAliasingIsOff() {
+        byte[] payload = ser(makeStruct());
+        SparrowhawkDeserializer copying = new SparrowhawkDeserializer(payload);
+        copying.setAliasing(false);
+        copying.varUL();
+        assertFalse(copying.retained() == payload);
+        assertEquals(0, copying.retainedPos(0));
+        SparrowhawkDeserializer aliasing = new SparrowhawkDeserializer(payload, 0, payload.length);
+        SparrowhawkCodegenOptionalStruct decoded = new SparrowhawkCodegenOptionalStruct();
+        decoded.decodeFrom(aliasing);
+        assertSame(payload, aliasing.retained());
+        assertEquals(makeStruct(), decoded);
+    }
+
+    @Test
+    public void immutableStructureCopiesWhatItIsBuiltFrom() {
+        List<SparrowhawkCodegenOptionalStruct> items = new ArrayList<>(List.of(makeStruct(1), makeStruct(2)));
+        SparrowhawkCodegenImmutableStruct built = SparrowhawkCodegenImmutableStruct.builder().items(items).build();
+        byte[] before = ser(built);
+        items.add(makeStruct(3));
+        assertEquals(2, built.getItems().size());
+        assertThrows(UnsupportedOperationException.class, () -> built.getItems().add(makeStruct(4)));
+        built.hashCode();
+        assertArrayEquals(before, ser(built));
+    }
+
+    @Test
+    public void immutableStructureDecodesOnce() {
+        SparrowhawkCodegenImmutableStruct built = SparrowhawkCodegenImmutableStruct.builder()
+            .items(List.of(makeStruct(1), makeStruct(2)))
+            .build();
+        byte[] payload = ser(built);
+        SparrowhawkCodegenImmutableStruct decoded = de(new SparrowhawkCodegenImmutableStruct(), payload);
+        assertEquals(built, decoded);
+        assertEquals(built.hashCode(), decoded.hashCode());
+        assertThrows(UnsupportedOperationException.class, () -> decoded.getItems().remove(0));
+        assertThrows(IllegalStateException.class, () -> decoded.decodeFrom(new SparrowhawkDeserializer(payload)));
+        assertThrows(IllegalStateException.class, () -> built.decodeFrom(new SparrowhawkDeserializer(payload)));
+        assertArrayEquals(payload, ser(decoded));
+    }
+
+    // writes v as a varint of exactly len bytes, which is longer than needed if v is small
+    private static void writeWide(ByteArrayOutputStream out, long v, int len) {
+        long encoded = ((v << 1) | 1) << (len - 1);
+        for (int i = 0; i < len; i++) {
+            out.write((int) (encoded >>> (8 * i)));
+        }
+    }
+
+    private static byte[] direct(int size, Consumer<SparrowhawkSerializer> encoder) {
+        SparrowhawkSerializer s = new SparrowhawkSerializer(size);
+        encoder.accept(s);
+        return s.payload();
+    }
+
+    private static byte[] serList(StringList list) {
+        byte[] payload = new byte[lenPrefixedListLengthEncodedSize(list.size(), list.elementCount())];
+        list.encodeTo(new SparrowhawkSerializer(payload));
+        return payload;
+    }
+
+    private static byte[] serSet(SparrowhawkObject set) {
+        SparrowhawkSerializer s = new SparrowhawkSerializer(new byte[set.size()]);
+        set.encodeTo(s);
+        return s.payload();
+    }
+
+    private static byte[] serList(StructureList<?> list) {
+        byte[] payload = new byte[lenPrefixedListLengthEncodedSize(list.size(), list.elementCount())];
+        list.encodeTo(new SparrowhawkSerializer(payload));
+        return payload;
+    }
+
+    private static StructureList<SparrowhawkCodegenOptionalStruct> deList(byte[] payload) {
+        return de(new StructureList<>(SparrowhawkCodegenOptionalStruct::new), payload);
+    }
+
+    private static SparrowhawkCodegenOptionalStruct makeStruct(int i) {
+        SparrowhawkCodegenOptionalStruct struct = new SparrowhawkCodegenOptionalStruct();
+        struct.setString("hello" + i);
+        return struct;
+    }
+
     private static SparrowhawkCodegenOptionalStruct makeStruct() {
         SparrowhawkCodegenOptionalStruct struct = new SparrowhawkCodegenOptionalStruct();
         struct.setString("hello");
@@ -131,6 +1131,14 @@ public class RoundtripTests {
         return base;
     }
 
+    private static <T extends SparrowhawkObject> T deCopying(T base, byte[] payload) {
+        SparrowhawkDeserializer d = new SparrowhawkDeserializer(payload);
+        d.setAliasing(false);
+        base.decodeFrom(d);
+        d.done();
+        return base;
+    }
+
     private static <T> Map<String, T> generateMap(T val, int count) {
         return generateMap(() -> val, count);
     }
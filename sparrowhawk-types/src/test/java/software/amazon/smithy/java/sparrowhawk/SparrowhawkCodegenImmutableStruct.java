@@ -0,0 +1,282 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package software.amazon.smithy.java.sparrowhawk;
+
+import static software.amazon.smithy.java.sparrowhawk.KConstants.*;
+import static software.amazon.smithy.java.sparrowhawk.SparrowhawkDeserializer.varintLength;
+import static software.amazon.smithy.java.sparrowhawk.SparrowhawkSerializer.*;
+
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+
+public final class SparrowhawkCodegenImmutableStruct implements SparrowhawkObject {
+    private static final long REQUIRED_LIST_0 = 0x0L;
+    private long $list_0 = REQUIRED_LIST_0;
+    // list fieldSet 0 index 1
+    private static final long FIELD_ITEMS = 0x8L;
+    private Object items;
+
+    public List<SparrowhawkCodegenOptionalStruct> getItems() {
+        Object field = items;
+        if (field == null) return null;
+        if (field.getClass() == StructureList.class) {
+            // a copy, since the view writes through to the list
+            return Collections.unmodifiableList(((StructureList<SparrowhawkCodegenOptionalStruct>) field).toList());
+        }
+        return (List<SparrowhawkCodegenOptionalStruct>) items;
+    }
+
+    private void setItems(List<SparrowhawkCodegenOptionalStruct> items) {
+        if (items == null) {
+            $list_0 &= ~FIELD_ITEMS;
+        } else {
+            $list_0 |= FIELD_ITEMS;
+        }
+        this.items = items;
+        this.$size = -1;
+        this.$canonicalSize = -1;
+        this.$source = null;
+        this.$hash = 0;
+    }
+
+    public boolean hasItems() {
+        return ($list_0 & FIELD_ITEMS) != 0;
+    }
+
+    private int $size = -1;
+    private int $canonicalSize = -1;
+    // set once this has been built or decoded, after which it is never written to again
+    private boolean $built;
+    private UnknownFields $unknown;
+    // the encoding this object was decoded from, kept until it is modified and copied when it is re-encoded
+    private byte[] $source;
+    private int $sourceStart;
+    private int $sourceEnd;
+    private boolean $sourceCanonical;
+    private int $hash;
+
+    public int size() {
+        if ($size >= 0) {
+            return $size;
+        }
+
+        int size = sizeFields(false);
+        this.$size = size;
+        return size;
+    }
+
+    /**
+     * Returns the size of the canonical encoding, measured from the fields unless this was decoded from
+     * canonical bytes, since the size it was decoded with may count longer varints than re-encoding writes.
+     */
+    public int canonicalSize() {
+        if ($source != null && $sourceCanonical) {
+            return size();
+        }
+        if ($canonicalSize < 0) {
+            this.$canonicalSize = sizeFields(true);
+        }
+        return $canonicalSize;
+    }
+
+    private int sizeFields(boolean canonical) {
+        int size = ($list_0 == 0x0L ? 0 : (ulongSize($list_0)));
+        size += sizeListFields(canonical);
+        if ($unknown != null) {
+            size += $unknown.size();
+            size += $unknown.headerGrowth(0, $list_0);
+        }
+        return size;
+    }
+
+    private int sizeListFields(boolean canonical) {
+        int size = 0;
+        if (hasItems()) {
+            size += $itemsLen(canonical);
+        }
+        return size;
+    }
+
+    private int $itemsLen(boolean canonical) {
+        Object field = items;
+        StructureList<SparrowhawkCodegenOptionalStruct> _list;
+        if (field.getClass() == StructureList.class) {
+            _list = (StructureList<SparrowhawkCodegenOptionalStruct>) field;
+        } else {
+            _list = StructureList.fromList(
+                (List<SparrowhawkCodegenOptionalStruct>) field,
+                SparrowhawkCodegenOptionalStruct::new
+            );
+            this.items = _list;
+        }
+        int size = canonical ? _list.canonicalSize() : _list.size();
+        return lenPrefixedListLengthEncodedSize(size, _list.elementCount());
+    }
+
+    public void encodeTo(SparrowhawkSerializer s) {
+        if ($source != null && (!s.isCanonical() || $sourceCanonical)) {
+            int start = $sourceStart + varintLength($source[$sourceStart]);
+            s.writeVarUL(encodeByteListLength($sourceEnd - start));
+            s.writeEncodedObject($source, start, $sourceEnd - start);
+            return;
+        }
+        s.writeVarUL(encodeByteListLength(s.isCanonical() ? canonicalSize() : size()));
+        writeListFields(s);
+        if ($unknown != null) $unknown.writeFieldSets(s);
+    }
+
+    private void writeListFields(SparrowhawkSerializer s) {
+        UnknownFields u = $unknown;
+        long fieldSet0 = u == null ? $list_0 : $list_0 | u.bits(0);
+        if (fieldSet0 != 0x0L) {
+            s.writeVarUL(fieldSet0);
+            if (hasItems()) {
+                ((StructureList<?>) items).encodeTo(s);
+            }
+            if (u != null) u.writeMembers(s, 0, 1, 61);
+        }
+    }
+
+    public void decodeFrom(SparrowhawkDeserializer d) {
+        if ($built) {
+            throw new IllegalStateException(
+                "SparrowhawkCodegenImmutableStruct is immutable, so it can only be decoded into once"
+            );
+        }
+        this.$unknown = null;
+        this.$list_0 = REQUIRED_LIST_0;
+        int sourceStart = d.pos();
+        int size = (int) decodeElementCount(d.varUI());
+        this.$size = d.isCanonical() ? size : -1;
+        int start = d.pos();
+
+        while ((d.pos() - start) < size) {
+            long fieldSet = d.varUL();
+            int fieldSetIdx = ((fieldSet & 0b100) != 0) ? d.varUI() + 1 : 0;
+            int type = (int) (fieldSet & 3);
+            if (type == T_LIST) {
+                if (fieldSetIdx == 0) {
+                    decodeListFieldSet0(d, fieldSet);
+                } else {
+                    this.$unknown = UnknownFields.addFieldSet(this.$unknown, d, fieldSetIdx, fieldSet);
+                }
+            } else {
+                this.$unknown = UnknownFields.addFieldSet(this.$unknown, d, fieldSetIdx, fieldSet);
+            }
+        }
+        this.$source = d.retained();
+        this.$sourceStart = d.retainedPos(sourceStart);
+        this.$sourceEnd = d.retainedPos(d.pos());
+        this.$sourceCanonical = d.isCanonical();
+        this.$canonicalSize = -1;
+        this.$hash = 0;
+        if (items instanceof SparrowhawkObject _o) _o.decodeAll();
+        this.$built = true;
+        VarHandle.releaseFence();
+    }
+
+    private void decodeListFieldSet0(SparrowhawkDeserializer d, long fieldSet) {
+        SparrowhawkDeserializer.checkFields(fieldSet, REQUIRED_LIST_0, "lists");
+        this.$list_0 = fieldSet & 0xfL;
+        if ((fieldSet & ~0xfL) == 0) {
+            if ((fieldSet & FIELD_ITEMS) != 0) {
+                StructureList<SparrowhawkCodegenOptionalStruct> l =
+                    new StructureList<>(SparrowhawkCodegenOptionalStruct::new);
+                l.decodeFrom(d);
+                this.items = l;
+            }
+        } else {
+            long bits = fieldSet >>> 3;
+            while (bits != 0) {
+                int i = Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+                switch (i) {
+                    case 0 -> {
+                        StructureList<SparrowhawkCodegenOptionalStruct> l =
+                            new StructureList<>(SparrowhawkCodegenOptionalStruct::new);
+                        l.decodeFrom(d);
+                        this.items = l;
+                    }
+                    default -> this.$unknown = UnknownFields.addMember(this.$unknown, d, 0, i);
+                }
+            }
+        }
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) return true;
+        if (!(other instanceof SparrowhawkCodegenImmutableStruct)) return false;
+        SparrowhawkCodegenImmutableStruct o = (SparrowhawkCodegenImmutableStruct) other;
+        if ($source != null && o.$source != null) {
+            boolean canonical = $sourceCanonical && o.$sourceCanonical;
+            if (canonical && $hash != 0 && o.$hash != 0 && $hash != o.$hash) {
+                return false;
+            }
+            if (Arrays.equals($source, $sourceStart, $sourceEnd, o.$source, o.$sourceStart, o.$sourceEnd)) {
+                return true;
+            }
+            if (canonical) {
+                return false;
+            }
+        }
+        if (!Objects.equals(getItems(), o.getItems())) {
+            return false;
+        }
+        if (!Objects.equals($unknown, o.$unknown)) {
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int h = $hash;
+        if (h != 0) {
+            return h;
+        }
+        h = 31 * h + Objects.hashCode(getItems());
+        h = 31 * h + Objects.hashCode($unknown);
+        this.$hash = h;
+        return h;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Collects the members of a {@code SparrowhawkCodegenImmutableStruct}. The instance built is not written to
+     * again, and is published with the same guarantees as final fields.
+     */
+    public static final class Builder {
+        private SparrowhawkCodegenImmutableStruct built = new SparrowhawkCodegenImmutableStruct();
+
+        private Builder() {}
+
+        public Builder items(List<SparrowhawkCodegenOptionalStruct> items) {
+            built.setItems(items == null ? null : Collections.unmodifiableList(new ArrayList<>(items)));
+            return this;
+        }
+
+        public SparrowhawkCodegenImmutableStruct build() {
+            SparrowhawkCodegenImmutableStruct x = built;
+            if (x == null) {
+                throw new IllegalStateException("already built");
+            }
+            this.built = null;
+            x.size();
+            x.$built = true;
+            VarHandle.releaseFence();
+            return x;
+        }
+    }
+}
@@ -7,12 +7,16 @@ package software.amazon.smithy.java.sparrowhawk;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static software.amazon.smithy.java.sparrowhawk.KConstants.*;
+import static software.amazon.smithy.java.sparrowhawk.SparrowhawkDeserializer.varintLength;
 import static software.amazon.smithy.java.sparrowhawk.SparrowhawkSerializer.*;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Objects;
 
 
-public final class SparrowhawkCodegenOptionalStruct implements SparrowhawkObject {
+public final class SparrowhawkCodegenOptionalStruct
+    implements SparrowhawkStructure<SparrowhawkCodegenOptionalStructRecord> {
     private static final long REQUIRED_LIST_0 = 0x8L;
     private long $list_0 = REQUIRED_LIST_0;
     // list fieldSet 0 index 1
@@ -37,6 +41,9 @@ public final class SparrowhawkCodegenOptionalStruct implements SparrowhawkObject
         }
         this.string = string;
         this.$size = 0;
+        this.$canonicalSize = -1;
+        this.$source = null;
+        this.$hash = 0;
     }
 
     public boolean hasString() {
@@ -56,25 +63,76 @@ public final class SparrowhawkCodegenOptionalStruct implements SparrowhawkObject
     public void setTimestamp(double timestamp) {
         this.timestamp = timestamp;
         this.$size = 0;
+        this.$canonicalSize = -1;
+        this.$source = null;
+        this.$hash = 0;
     }
 
     public boolean hasTimestamp() {
         return ($eightByte_0 & FIELD_TIMESTAMP) != 0;
     }
 
+    /**
+     * Resets this object to its newly constructed state. Nested structures are cleared rather than dropped,
+     * and the next decode reads into them instead of allocating new ones.
+     */
+    public void clear() {
+        this.$list_0 = REQUIRED_LIST_0;
+        this.$eightByte_0 = REQUIRED_EIGHT_BYTE_0;
+        this.timestamp = 0;
+        this.string = null;
+        this.$unknown = null;
+        this.$size = -1;
+        this.$canonicalSize = -1;
+        this.$source = null;
+        this.$hash = 0;
+    }
+
     private int $size;
+    private int $canonicalSize = -1;
+    private UnknownFields $unknown;
+    // the encoding this object was decoded from, kept until it is modified and copied when it is re-encoded
+    private byte[] $source;
+    private int $sourceStart;
+    private int $sourceEnd;
+    private boolean $sourceCanonical;
+    private int $hash;
 
     public int size() {
         if ($size > 0) {
             return $size;
         }
 
+        int size = sizeFields(false);
+        this.$size = size;
+        return size;
+    }
+
+    /**
+     * Returns the size of the canonical encoding, measured from the fields unless this was decoded from
+     * canonical bytes, since the size it was decoded with may count longer varints than re-encoding writes.
+     */
+    public int canonicalSize() {
+        if ($source != null && $sourceCanonical) {
+            return size();
+        }
+        if ($canonicalSize < 0) {
+            this.$canonicalSize = sizeFields(true);
+        }
+        return $canonicalSize;
+    }
+
+    private int sizeFields(boolean canonical) {
         int size = ($list_0 == 0x0L ? 0 : (ulongSize($list_0))) + ($eightByte_0 == 0x3L
             ? 0
             : (ulongSize($eightByte_0)));
-        size += sizeListFields();
+        size += sizeListFields(canonical);
         size += sizeEightByteFields();
-        this.$size = size;
+        if ($unknown != null) {
+            size += $unknown.size();
+            size += $unknown.headerGrowth(0, $list_0);
+            size += $unknown.headerGrowth(3, $eightByte_0);
+        }
         return size;
     }
 
@@ -83,7 +141,7 @@ public final class SparrowhawkCodegenOptionalStruct implements SparrowhawkObject
         return size;
     }
 
-    private int sizeListFields() {
+    private int sizeListFields(boolean canonical) {
         int size = 0;
         size += $stringLen();
         return size;
@@ -108,26 +166,43 @@ public final class SparrowhawkCodegenOptionalStruct implements SparrowhawkObject
     }
 
     public void encodeTo(SparrowhawkSerializer s) {
-        s.writeVarUL(encodeByteListLength(size()));
+        if ($source != null && (!s.isCanonical() || $sourceCanonical)) {
+            int start = $sourceStart + varintLength($source[$sourceStart]);
+            s.writeVarUL(encodeByteListLength($sourceEnd - start));
+            s.writeEncodedObject($source, start, $sourceEnd - start);
+            return;
+        }
+        s.writeVarUL(encodeByteListLength(s.isCanonical() ? canonicalSize() : size()));
         writeEightByteFields(s);
         writeListFields(s);
+        if ($unknown != null) $unknown.writeFieldSets(s);
     }
 
     private void writeEightByteFields(SparrowhawkSerializer s) {
-        if ($eightByte_0 != 0x3L) {
-            s.writeVarUL($eightByte_0);
+        UnknownFields u = $unknown;
+        long fieldSet0 = u == null ? $eightByte_0 : $eightByte_0 | u.bits(3);
+        if (fieldSet0 != 0x3L) {
+            s.writeVarUL(fieldSet0);
             s.writeDouble(timestamp);
+            if (u != null) u.writeMembers(s, 3, 1, 61);
         }
     }
 
     private void writeListFields(SparrowhawkSerializer s) {
-        if ($list_0 != 0x0L) {
-            s.writeVarUL($list_0);
+        UnknownFields u = $unknown;
+        long fieldSet0 = u == null ? $list_0 : $list_0 | u.bits(0);
+        if (fieldSet0 != 0x0L) {
+            s.writeVarUL(fieldSet0);
             s.writeBytes(string);
+            if (u != null) u.writeMembers(s, 0, 1, 61);
         }
     }
 
     public void decodeFrom(SparrowhawkDeserializer d) {
+        this.$unknown = null;
+        this.$list_0 = REQUIRED_LIST_0;
+        this.$eightByte_0 = REQUIRED_EIGHT_BYTE_0;
+        int sourceStart = d.pos();
         int size = (int) decodeElementCount(d.varUI());
         this.$size = size;
         int start = d.pos();
@@ -137,42 +212,150 @@ public final class SparrowhawkCodegenOptionalStruct implements SparrowhawkObject
             int fieldSetIdx = ((fieldSet & 0b100) != 0) ? d.varUI() + 1 : 0;
             int type = (int) (fieldSet & 3);
             if (type == T_LIST) {
-                if (fieldSetIdx != 0) { throw new IllegalArgumentException("unknown fieldSetIdx " + fieldSetIdx); }
-                decodeListFieldSet0(d, fieldSet);
+                if (fieldSetIdx == 0) {
+                    decodeListFieldSet0(d, fieldSet);
+                } else {
+                    this.$unknown = UnknownFields.addFieldSet(this.$unknown, d, fieldSetIdx, fieldSet);
+                }
             } else if (type == T_EIGHT) {
-                if (fieldSetIdx != 0) { throw new IllegalArgumentException("unknown fieldSetIdx " + fieldSetIdx); }
-                decodeEightByteFieldSet0(d, fieldSet);
+                if (fieldSetIdx == 0) {
+                    decodeEightByteFieldSet0(d, fieldSet);
+                } else {
+                    this.$unknown = UnknownFields.addFieldSet(this.$unknown, d, fieldSetIdx, fieldSet);
+                }
             } else {
-                throw new RuntimeException("Unexpected field set type: " + type);
+                this.$unknown = UnknownFields.addFieldSet(this.$unknown, d, fieldSetIdx, fieldSet);
             }
         }
+        this.$source = d.retained();
+        this.$sourceStart = d.retainedPos(sourceStart);
+        this.$sourceEnd = d.retainedPos(d.pos());
+        this.$sourceCanonical = d.isCanonical();
+        this.$canonicalSize = -1;
+        this.$hash = 0;
     }
 
     private void decodeEightByteFieldSet0(SparrowhawkDeserializer d, long fieldSet) {
         SparrowhawkDeserializer.checkFields(fieldSet, REQUIRED_EIGHT_BYTE_0, "eight-byte");
-        this.$eightByte_0 = fieldSet;
-        this.timestamp = d.d8();
+        this.$eightByte_0 = fieldSet & 0xfL;
+        if ((fieldSet & ~0xfL) == 0) {
+            this.timestamp = d.d8();
+        } else {
+            long bits = fieldSet >>> 3;
+            while (bits != 0) {
+                int i = Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+                switch (i) {
+                    case 0 -> {
+                        this.timestamp = d.d8();
+                    }
+                    default -> this.$unknown = UnknownFields.addMember(this.$unknown, d, 3, i);
+                }
+            }
+        }
     }
 
     private void decodeListFieldSet0(SparrowhawkDeserializer d, long fieldSet) {
         SparrowhawkDeserializer.checkFields(fieldSet, REQUIRED_LIST_0, "lists");
-        this.$list_0 = fieldSet;
-        {
-            this.string = d.string();
+        this.$list_0 = fieldSet & 0xfL;
+        if ((fieldSet & ~0xfL) == 0) {
+            {
+                this.string = d.string();
+            }
+        } else {
+            long bits = fieldSet >>> 3;
+            while (bits != 0) {
+                int i = Long.numberOfTrailingZeros(bits);
+                bits &= bits - 1;
+                switch (i) {
+                    case 0 -> {
+                        this.string = d.string();
+                    }
+                    default -> this.$unknown = UnknownFields.addMember(this.$unknown, d, 0, i);
+                }
+            }
         }
     }
 
+    public static final StructureMerge MERGE = new StructureMerge();
+
+    /**
+     * Returns the size of the merge of two encodings of this structure, to allocate its serializer with.
+     */
+    public static int mergedSize(ByteBuffer base, ByteBuffer patch) {
+        return MERGE.size(base, patch);
+    }
+
+    /**
+     * Writes {@code base} with every member that {@code patch} has taken from {@code patch}, without decoding
+     * either.
+     */
+    public static void merge(ByteBuffer base, ByteBuffer patch, SparrowhawkSerializer out) {
+        MERGE.merge(base, patch, out);
+    }
+
     @Override
     public boolean equals(Object other) {
         if (this == other) return true;
         if (!(other instanceof SparrowhawkCodegenOptionalStruct)) return false;
         SparrowhawkCodegenOptionalStruct o = (SparrowhawkCodegenOptionalStruct) other;
-        if (timestamp != o.timestamp) {
+        if ($source != null && o.$source != null) {
+            boolean canonical = $sourceCanonical && o.$sourceCanonical;
+            if (canonical && $hash != 0 && o.$hash != 0 && $hash != o.$hash) {
+                return false;
+            }
+            if (Arrays.equals($source, $sourceStart, $sourceEnd, o.$source, o.$sourceStart, o.$sourceEnd)) {
+                return true;
+            }
+            if (canonical) {
+                return false;
+            }
+        }
+        if (Double.compare(timestamp, o.timestamp) != 0) {
             return false;
         }
         if (!Objects.equals(getString(), o.getString())) {
             return false;
         }
+        if (!Objects.equals($unknown, o.$unknown)) {
+            return false;
+        }
         return true;
     }
+
+    @Override
+    public int hashCode() {
+        int h = $hash;
+        if (h != 0) {
+            return h;
+        }
+        h = 31 * h + Double.hashCode(timestamp);
+        h = 31 * h + Objects.hashCode(getString());
+        h = 31 * h + Objects.hashCode($unknown);
+        this.$hash = h;
+        return h;
+    }
+
+    @Override
+    public Class<SparrowhawkCodegenOptionalStructRecord> getConvertedType() {
+        return SparrowhawkCodegenOptionalStructRecord.class;
+    }
+
+    @Override
+    public SparrowhawkCodegenOptionalStructRecord convertTo() {
+        return new SparrowhawkCodegenOptionalStructRecord(
+            getString(),
+            getTimestamp()
+        );
+    }
+
+    /**
+     * Builds a {@code SparrowhawkCodegenOptionalStruct} with the members of {@code value}.
+     */
+    public static SparrowhawkCodegenOptionalStruct convertFrom(SparrowhawkCodegenOptionalStructRecord value) {
+        SparrowhawkCodegenOptionalStruct x = new SparrowhawkCodegenOptionalStruct();
+        x.setString(value.string());
+        x.setTimestamp(value.timestamp());
+        return x;
+    }
 }
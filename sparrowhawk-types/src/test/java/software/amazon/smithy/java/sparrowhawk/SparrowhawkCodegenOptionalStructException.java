@@ -0,0 +1,40 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package software.amazon.smithy.java.sparrowhawk;
+
+/**
+ * Thrown for a {@link SparrowhawkCodegenOptionalStruct}, without a stack trace. One decoded with {@link #decodeFrom}
+ * keeps the error encoded until {@link #error()} is first called.
+ */
+public final class SparrowhawkCodegenOptionalStructException extends SparrowhawkException {
+    private static final long serialVersionUID = 1L;
+
+    public SparrowhawkCodegenOptionalStructException(SparrowhawkCodegenOptionalStruct error) {
+        super("CodegenOptionalStruct", error);
+    }
+
+    private SparrowhawkCodegenOptionalStructException(SparrowhawkDeserializer d) {
+        super("CodegenOptionalStruct", d);
+    }
+
+    /**
+     * Reads the error structure at the deserializer's position, which is decoded on first access and until then
+     * kept in the bytes the deserializer retains.
+     */
+    public static SparrowhawkCodegenOptionalStructException decodeFrom(SparrowhawkDeserializer d) {
+        return new SparrowhawkCodegenOptionalStructException(d);
+    }
+
+    @Override
+    protected SparrowhawkCodegenOptionalStruct newError() {
+        return new SparrowhawkCodegenOptionalStruct();
+    }
+
+    @Override
+    public SparrowhawkCodegenOptionalStruct error() {
+        return (SparrowhawkCodegenOptionalStruct) super.error();
+    }
+}
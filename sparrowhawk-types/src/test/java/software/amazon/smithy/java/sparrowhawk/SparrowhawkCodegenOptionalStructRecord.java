@@ -0,0 +1,15 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package software.amazon.smithy.java.sparrowhawk;
+
+/**
+ * The members of {@link SparrowhawkCodegenOptionalStruct} as plain values, converted to and from it by
+ * {@code convertTo()} and {@code convertFrom}. Absent optional members are null.
+ */
+public record SparrowhawkCodegenOptionalStructRecord(
+    String string,
+    double timestamp
+) implements SparrowhawkCodegenOptionalStructSource {}
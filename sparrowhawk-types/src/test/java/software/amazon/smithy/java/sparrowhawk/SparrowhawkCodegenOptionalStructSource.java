@@ -0,0 +1,17 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package software.amazon.smithy.java.sparrowhawk;
+
+/**
+ * The members of {@link SparrowhawkCodegenOptionalStruct} as {@link SparrowhawkCodegenOptionalStructWriter} reads
+ * them. Accessors are named after the members, so a record with matching components implements this as it is.
+ * Absent optional members are null.
+ */
+public interface SparrowhawkCodegenOptionalStructSource {
+    double timestamp();
+
+    String string();
+}
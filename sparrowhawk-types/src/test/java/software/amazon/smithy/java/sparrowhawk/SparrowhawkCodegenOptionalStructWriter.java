@@ -0,0 +1,82 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package software.amazon.smithy.java.sparrowhawk;
+
+import static software.amazon.smithy.java.sparrowhawk.KConstants.encodeByteListLength;
+import static software.amazon.smithy.java.sparrowhawk.SparrowhawkSerializer.missingField;
+import static software.amazon.smithy.java.sparrowhawk.SparrowhawkSerializer.stringEncodedSize;
+import static software.amazon.smithy.java.sparrowhawk.SparrowhawkSerializer.ulongSize;
+
+/**
+ * Sizes and encodes a {@link SparrowhawkCodegenOptionalStructSource} exactly as
+ * {@link SparrowhawkCodegenOptionalStruct} encodes the same members, without building one.
+ */
+public final class SparrowhawkCodegenOptionalStructWriter {
+    private static final long REQUIRED_EIGHT_BYTE_0 = 0xbL;
+    private static final long REQUIRED_LIST_0 = 0x8L;
+
+    private SparrowhawkCodegenOptionalStructWriter() {}
+
+    /**
+     * Returns the encoded size of {@code source}, excluding its length prefix.
+     */
+    public static int size(SparrowhawkCodegenOptionalStructSource source) {
+        return size(source, NestedSizes.NONE);
+    }
+
+    /**
+     * Returns the encoded size of {@code source}, excluding its length prefix, and records the sizes of the
+     * structures and maps nested in it in {@code sizes} for
+     * {@link #encode(SparrowhawkCodegenOptionalStructSource, int, NestedSizes, SparrowhawkSerializer)}.
+     */
+    public static int size(SparrowhawkCodegenOptionalStructSource source, NestedSizes sizes) {
+        int size = 0;
+        long fieldSet;
+        fieldSet = REQUIRED_EIGHT_BYTE_0;
+        size += ulongSize(fieldSet);
+        size += 8;
+        fieldSet = REQUIRED_LIST_0;
+        size += ulongSize(fieldSet);
+        if (source.string() == null) {
+            missingField("Required field 'string' is missing");
+        }
+        size += stringEncodedSize(source.string());
+        return size;
+    }
+
+    /**
+     * Writes {@code source}, starting with its length prefix, sizing it first into {@code sizes}, which is
+     * cleared first so that one instance can be reused for every value encoded on a thread.
+     */
+    public static void encode(
+        SparrowhawkCodegenOptionalStructSource source,
+        NestedSizes sizes,
+        SparrowhawkSerializer s
+    ) {
+        sizes.clear();
+        encode(source, size(source, sizes), sizes, s);
+    }
+
+    /**
+     * Writes {@code source}, starting with its length prefix, from the size {@code size(source, sizes)}
+     * returned and the nested sizes it recorded.
+     */
+    public static void encode(
+        SparrowhawkCodegenOptionalStructSource source,
+        int size,
+        NestedSizes sizes,
+        SparrowhawkSerializer s
+    ) {
+        s.writeVarUL(encodeByteListLength(size));
+        long fieldSet;
+        fieldSet = REQUIRED_EIGHT_BYTE_0;
+        s.writeVarUL(fieldSet);
+        s.writeDouble(source.timestamp());
+        fieldSet = REQUIRED_LIST_0;
+        s.writeVarUL(fieldSet);
+        s.writeString(source.string());
+    }
+}
@@ -0,0 +1,250 @@
+/*
+ * Copyright Amazon.com, Inc. or its affiliates. All Rights Reserved.
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package software.amazon.smithy.java.sparrowhawk;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static software.amazon.smithy.java.sparrowhawk.KConstants.*;
+import static software.amazon.smithy.java.sparrowhawk.SparrowhawkSerializer.*;
+
+import java.util.Objects;
+
+
+public final class SparrowhawkCodegenUnion implements SparrowhawkObject {
+    public enum Variant {
+        NONE,
+        COUNT,
+        NAME,
+        ITEM,
+        UNKNOWN
+    }
+
+    private static final Variant[] VARIANTS = Variant.values();
+    // a member added after this was generated, kept as the encoding it was read from
+    private static final int TAG_UNKNOWN = 4;
+
+    private Object $value;
+    private int $tag;
+    private int $size = -1;
+
+    public Variant variant() {
+        return VARIANTS[$tag];
+    }
+
+    /**
+     * Returns the value of the set member, or null if no member or an unknown one is set.
+     */
+    public Object value() {
+        return $tag == 0 || $tag == TAG_UNKNOWN ? null : $value;
+    }
+
+    /**
+     * Unsets the member. A structure member is kept and reused if the next decode sets the same member.
+     */
+    public void clear() {
+        this.$tag = 0;
+        this.$size = -1;
+    }
+
+    private void set(int tag, Object value) {
+        if (value != null) {
+            this.$tag = tag;
+            this.$value = value;
+        } else if (this.$tag == tag) {
+            this.$tag = 0;
+            this.$value = null;
+        }
+        this.$size = -1;
+    }
+
+    // varint fieldSet 0 index 1
+    private static final int TAG_COUNT = 1;
+
+    public int getCount() {
+        return $tag == TAG_COUNT ? (Integer) $value : 0;
+    }
+
+    public void setCount(int count) {
+        set(TAG_COUNT, count);
+    }
+
+    public boolean hasCount() {
+        return $tag == TAG_COUNT;
+    }
+
+    // list fieldSet 0 index 1
+    private static final int TAG_NAME = 2;
+
+    public String getName() {
+        if ($tag != TAG_NAME) return null;
+        Object value = $value;
+        if (value instanceof String) return (String) value;
+        String s = new String((byte[]) value, UTF_8);
+        this.$value = s;
+        return s;
+    }
+
+    public void setName(String name) {
+        set(TAG_NAME, name);
+    }
+
+    public boolean hasName() {
+        return $tag == TAG_NAME;
+    }
+
+    // list fieldSet 0 index 2
+    private static final int TAG_ITEM = 3;
+
+    public SparrowhawkCodegenOptionalStruct getItem() {
+        if ($tag != TAG_ITEM) return null;
+        // the caller may modify the structure, which the cached size would not see
+        this.$size = -1;
+        return (SparrowhawkCodegenOptionalStruct) $value;
+    }
+
+    public void setItem(SparrowhawkCodegenOptionalStruct item) {
+        set(TAG_ITEM, item);
+    }
+
+    public boolean hasItem() {
+        return $tag == TAG_ITEM;
+    }
+
+    public int size() {
+        if ($size >= 0) {
+            return $size;
+        }
+
+        int size = sizeValue(false);
+        this.$size = size;
+        return size;
+    }
+
+    /**
+     * Returns the size of the canonical encoding, in which a structure member reports its canonical size.
+     */
+    public int canonicalSize() {
+        return sizeValue(true);
+    }
+
+    private int sizeValue(boolean canonical) {
+        return switch ($tag) {
+            case 0 -> 0;
+            case TAG_COUNT -> 1 + intSize((Integer) $value);
+            case TAG_NAME -> 1 + stringSize();
+            case TAG_ITEM -> 1 + byteListLengthEncodedSize(
+                canonical
+                    ? ((SparrowhawkCodegenOptionalStruct) $value).canonicalSize()
+                    : ((SparrowhawkCodegenOptionalStruct) $value).size()
+            );
+            case TAG_UNKNOWN -> ((UnknownFields) $value).size();
+            default -> throw new IllegalStateException("unknown tag " + $tag);
+        };
+    }
+
+    private int stringSize() {
+        Object value = $value;
+        if (value.getClass() != byte[].class) {
+            value = ((String) value).getBytes(UTF_8);
+            this.$value = value;
+        }
+        return byteListLengthEncodedSize(((byte[]) value).length);
+    }
+
+    public void encodeTo(SparrowhawkSerializer s) {
+        s.writeVarUL(encodeByteListLength(s.isCanonical() ? canonicalSize() : size()));
+        switch ($tag) {
+            case TAG_COUNT -> {
+                s.writeVarUL(0x9L);
+                s.writeVarI((Integer) $value);
+            }
+            case TAG_NAME -> {
+                s.writeVarUL(0x8L);
+                s.writeBytes($value);
+            }
+            case TAG_ITEM -> {
+                s.writeVarUL(0x10L);
+                ((SparrowhawkCodegenOptionalStruct) $value).encodeTo(s);
+            }
+            case TAG_UNKNOWN -> ((UnknownFields) $value).writeFieldSets(s);
+            default -> {}
+        }
+    }
+
+    public void decodeFrom(SparrowhawkDeserializer d) {
+        Object previous = this.$value;
+        int size = (int) decodeElementCount(d.varUI());
+        // re-encoding may shorten varints read from bytes not known to be canonical
+        this.$size = d.isCanonical() ? size : -1;
+        this.$tag = 0;
+        this.$value = null;
+        if (size == 0) {
+            return;
+        }
+
+        int end = d.pos() + size;
+        long fieldSet = d.varUL();
+        int fieldSetIdx = ((fieldSet & 0b100) != 0) ? d.varUI() + 1 : 0;
+        long members = fieldSet >>> 3;
+        if (members == 0 || (members & (members - 1)) != 0) {
+            throw new RuntimeException(
+                "expected one union member, found field set " + Long.toHexString(fieldSet)
+            );
+        }
+        // field set index, member bit and wire type of the one member
+        int key = (fieldSetIdx << 8) | (Long.numberOfTrailingZeros(members) << 2) | (int) (fieldSet & 3);
+        switch (key) {
+            case 0x1 -> {
+                this.$value = d.varI();
+                this.$tag = TAG_COUNT;
+            }
+            case 0x0 -> {
+                this.$value = d.string();
+                this.$tag = TAG_NAME;
+            }
+            case 0x4 -> {
+                SparrowhawkCodegenOptionalStruct obj = previous instanceof SparrowhawkCodegenOptionalStruct
+                    ? (SparrowhawkCodegenOptionalStruct) previous
+                    : new SparrowhawkCodegenOptionalStruct();
+                obj.decodeFrom(d);
+                this.$value = obj;
+                this.$tag = TAG_ITEM;
+            }
+            default -> {
+                this.$value = UnknownFields.addFieldSet(null, d, fieldSetIdx, fieldSet);
+                this.$tag = TAG_UNKNOWN;
+            }
+        }
+        if (d.pos() != end) {
+            throw new RuntimeException("union has more than one member set");
+        }
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) return true;
+        if (!(other instanceof SparrowhawkCodegenUnion)) return false;
+        SparrowhawkCodegenUnion o = (SparrowhawkCodegenUnion) other;
+        if ($tag != o.$tag) return false;
+        return switch ($tag) {
+            case TAG_COUNT -> Objects.equals(getCount(), o.getCount());
+            case TAG_NAME -> Objects.equals(getName(), o.getName());
+            case TAG_ITEM -> $value.equals(o.$value);
+            case TAG_UNKNOWN -> $value.equals(o.$value);
+            default -> true;
+        };
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * $tag + switch ($tag) {
+            case TAG_COUNT -> Objects.hashCode(getCount());
+            case TAG_NAME -> Objects.hashCode(getName());
+            case TAG_ITEM -> $value.hashCode();
+            case TAG_UNKNOWN -> $value.hashCode();
+            default -> 0;
+        };
+    }
+}
@@ -6,6 +6,7 @@
 package software.amazon.smithy.java.sparrowhawk;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static software.amazon.smithy.java.sparrowhawk.SparrowhawkSerializer.lenPrefixedListLengthEncodedSize;
 
 import java.nio.charset.StandardCharsets;
@@ -74,6 +75,18 @@ public class SparseStringListTest {
         assertEquals(strings, roundtrip.toList());
     }
 
+    @Test
+    public void listView() {
+        List<String> strings = Arrays.asList("one", null, "three", "", null);
+        SparseStringList roundtrip = roundtrip(roundtrip(SparseStringList.fromList(strings)));
+
+        List<String> view = roundtrip.asList();
+        assertEquals(strings, view);
+        assertNull(view.get(4));
+        assertEquals("three", roundtrip.get(2));
+        assertEquals(SparseStringList.fromList(strings).size(), roundtrip.size());
+    }
+
     private static SparseStringList roundtrip(SparseStringList source) {
         byte[] payload = new byte[lenPrefixedListLengthEncodedSize(source.size(), source.elementCount())];
         SparrowhawkSerializer s = new SparrowhawkSerializer(payload);